@@ -108,6 +108,35 @@ public final class EntryView {
        * </ul>
        */
       Void remove();
+
+      /**
+       * Set this value along with optional metadata parameters, only if the
+       * entry's current version, as per its {@link MetaParam.EntryVersionParam},
+       * is the expected one, or if there's no entry when the expected version
+       * is null. Comparing and setting is atomic with respect to other writes
+       * for the same key. The entry is written with a new version assigned
+       * by the functional map, replacing any version passed in the metadata
+       * parameters.
+       *
+       * Returns true if the value was set, or false if the current version
+       * was not the expected one, in which case nothing is written.
+       *
+       * DESIGN RATIONALE:
+       * <ul>
+       *    <li>Why return a boolean rather than throw when versions don't
+       *    match? Because under contention, failing is an expected outcome
+       *    that callers react to, e.g. by reading the entry again and
+       *    retrying, and throwing would cost building an exception's
+       *    stack trace on each failure.
+       *    </li>
+       *    <li>Why does the functional map assign the new version? Because
+       *    it can then guarantee that a version is never assigned twice,
+       *    even to an entry that's removed and created again, so a matching
+       *    version always means the entry has not been written since.
+       *    </li>
+       * </ul>
+       */
+      boolean compareAndSet(EntryVersion<?> expected, V value, MetaParam.Writable... metas);
    }
 
    /**
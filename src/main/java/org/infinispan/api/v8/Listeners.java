@@ -2,6 +2,7 @@ package org.infinispan.api.v8;
 
 import org.infinispan.api.v8.EntryView.ReadEntryView;
 
+import java.util.List;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -213,6 +214,23 @@ public final class Listeners {
           * @param write written entry view
           */
          void onWrite(ReadEntryView<K, V> write);
+
+         /**
+          * Batch write event callback that receives {@link ReadEntryView}s
+          * of entries written together by a multi-key write-only
+          * operation, such as
+          * {@link FunctionalMap.WriteOnlyMap#evalMany(java.util.Map, java.util.function.BiConsumer)}.
+          * A multi-key operation may notify several batches.
+          *
+          * By default, {@link #onWrite(ReadEntryView)} is called for each
+          * written entry. Listeners that can process writes in bulk, e.g.
+          * to forward them elsewhere, should override it.
+          *
+          * @param writes written entry views, which must not be modified
+          */
+         default void onWrites(List<ReadEntryView<K, V>> writes) {
+            writes.forEach(this::onWrite);
+         }
       }
    }
 
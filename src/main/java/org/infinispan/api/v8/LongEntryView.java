@@ -0,0 +1,78 @@
+package org.infinispan.api.v8;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Entry views for {@link LongFunctionalMap}, where keys and values are
+ * primitive longs. They mirror the views in {@link EntryView}, except that
+ * values are never boxed and entries have no metadata parameters.
+ *
+ * Views are only valid while the function they're passed to runs, so they
+ * must not be kept or passed to other threads.
+ */
+public final class LongEntryView {
+
+   private LongEntryView() {
+      // Cannot be instantiated, it's just a holder class
+   }
+
+   /**
+    * Read-only view of the value associated with a key, if any.
+    *
+    * DESIGN RATIONALES:
+    * <ul>
+    *    <li>Why isPresent() and orElse() rather than find()? Because find()
+    *    would have to return an {@link java.util.OptionalLong}, which is
+    *    allocated on every call, and avoiding allocation is the reason for
+    *    this view to exist.
+    *    </li>
+    * </ul>
+    */
+   public interface ReadEntryView {
+      /**
+       * Key of the read-only entry view.
+       */
+      long key();
+
+      /**
+       * Whether the key has a value associated with it.
+       */
+      boolean isPresent();
+
+      /**
+       * Returns the value associated with the key or throws
+       * {@link NoSuchElementException} if no value is associated with it.
+       *
+       * @throws NoSuchElementException if no value is associated with the key.
+       */
+      long get() throws NoSuchElementException;
+
+      /**
+       * Returns the value associated with the key, or the given value if no
+       * value is associated with it.
+       */
+      long orElse(long other);
+   }
+
+   /**
+    * Write-only view of the value associated with a key.
+    */
+   public interface WriteEntryView {
+      /**
+       * Associates the value with the key.
+       */
+      void set(long value);
+
+      /**
+       * Removes the value associated with the key, if any.
+       */
+      void remove();
+   }
+
+   /**
+    * View of the value associated with a key, if any, which allows the value
+    * to be written too. Reads see the writes made earlier through the view.
+    */
+   public interface ReadWriteEntryView extends ReadEntryView, WriteEntryView {}
+
+}
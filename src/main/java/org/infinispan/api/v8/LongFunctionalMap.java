@@ -0,0 +1,121 @@
+package org.infinispan.api.v8;
+
+import org.infinispan.api.v8.LongEntryView.ReadEntryView;
+import org.infinispan.api.v8.LongEntryView.ReadWriteEntryView;
+import org.infinispan.api.v8.LongEntryView.WriteEntryView;
+
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.LongStream;
+
+/**
+ * Functional map specialized for primitive long keys and values, e.g.
+ * counters or scores indexed by numeric ids, which stores them without
+ * boxing. Like {@link FunctionalMap}, it's split into read-only, write-only
+ * and read-write maps, whose functions work on {@link LongEntryView}s.
+ * Int keys and values are stored widened to longs.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why do evaluations return primitives rather than
+ *    {@link java.util.concurrent.CompletableFuture}s? Because futures, and
+ *    the boxed results they'd hold, would be allocated on every call, and
+ *    the point of this map is for lookups and updates to allocate nothing.
+ *    Evaluations run in the caller's thread instead, as if
+ *    {@link Param.WaitMode#BLOCKING} was used.
+ *    </li>
+ *    <li>Why are there no parameters, listeners or metadata parameters?
+ *    Because each of them would require objects per operation or per
+ *    entry. Data that needs them should be stored in a
+ *    {@link FunctionalMap}.
+ *    </li>
+ *    <li>Why do functions get the value as a separate argument? For the
+ *    same reason as in {@link FunctionalMap}: functions that don't capture
+ *    anything are only instantiated once, whereas capturing lambdas are
+ *    instantiated on every call.
+ *    </li>
+ * </ul>
+ */
+public interface LongFunctionalMap extends AutoCloseable {
+
+   /**
+    * Functional map's name.
+    */
+   String getName();
+
+   /**
+    * Functional map's status.
+    */
+   Status getStatus();
+
+   /**
+    * Function taking a long value and an entry view, and returning a long.
+    */
+   @FunctionalInterface
+   interface ValueFunction<T> {
+      long apply(long value, T view);
+   }
+
+   /**
+    * Exposes read-only operations on the map. Functions run without holding
+    * any locks.
+    */
+   interface ReadOnlyMap extends LongFunctionalMap {
+      /**
+       * Evaluates the function on the view of the entry associated with the
+       * key, returning the function's result.
+       */
+      long eval(long key, ToLongFunction<ReadEntryView> f);
+
+      /**
+       * Weakly consistent stream of the keys in the map.
+       */
+      LongStream keys();
+   }
+
+   /**
+    * Exposes write-only operations on the map. Writes to the same key are
+    * applied one at the time, in the order they're evaluated.
+    */
+   interface WriteOnlyMap extends LongFunctionalMap {
+      /**
+       * Evaluates the consumer with the given value and the write view of
+       * the entry associated with the key.
+       */
+      void eval(long key, long value, ObjLongConsumer<WriteEntryView> f);
+
+      /**
+       * Evaluates the consumer with the write view of the entry associated
+       * with the key.
+       */
+      void eval(long key, Consumer<WriteEntryView> f);
+
+      /**
+       * Removes all entries.
+       */
+      void truncate();
+   }
+
+   /**
+    * Exposes read-write operations on the map. Each evaluation is atomic:
+    * no other write to the same key happens between the function reading
+    * the entry and its writes being applied. Writes are discarded if the
+    * function throws an exception.
+    */
+   interface ReadWriteMap extends LongFunctionalMap {
+      /**
+       * Evaluates the function on the read-write view of the entry
+       * associated with the key, returning the function's result.
+       */
+      long eval(long key, ToLongFunction<ReadWriteEntryView> f);
+
+      /**
+       * Evaluates the function with the given value and the read-write
+       * view of the entry associated with the key, returning the function's
+       * result.
+       */
+      long eval(long key, long value, ValueFunction<ReadWriteEntryView> f);
+   }
+
+}
@@ -2,6 +2,9 @@ package org.infinispan.api.v8;
 
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An easily extensible metadata parameter that's stored along with the value
@@ -123,13 +126,31 @@ public interface MetaParam<T> {
     * the metadata parameter type, and hence when using the id to lookup,
     * we can deduce the returned type from the Id's type parameter.
     *
+    * Each numeric identifier is also given a dense index, from 0 upwards, in
+    * the order in which identifiers are first created, so that metadata
+    * parameter collections can look parameters up by index rather than by
+    * comparing identifiers. Ids are best created once and kept in a
+    * constant, since creating an id looks its index up in a global
+    * registry.
+    *
     * @param <T> Type of {@link MetaParam} for which it provides identifier.
     */
    final class Id<T> {
       private final int id;
+      private final int index;
 
       public Id(int id) {
          this.id = id;
+         this.index = Registry.indexOf(id);
+      }
+
+      /**
+       * Dense index of the identifier, the same for all ids with the same
+       * numeric identifier. Indexes are not stable across JVM restarts, so
+       * they must never be persisted.
+       */
+      public int index() {
+         return index;
       }
 
       @Override
@@ -151,6 +172,25 @@ public interface MetaParam<T> {
       public int hashCode() {
          return id;
       }
+
+      /**
+       * Assigns dense indexes to numeric identifiers. Built-in metadata
+       * parameters are registered first, so they get the lowest indexes.
+       */
+      private static final class Registry {
+         static final ConcurrentMap<Integer, Integer> INDEXES = new ConcurrentHashMap<>();
+         static final AtomicInteger NEXT_INDEX = new AtomicInteger();
+
+         static {
+            for (int builtIn = 0; builtIn <= 4; builtIn++)
+               indexOf(builtIn);
+         }
+
+         static int indexOf(int id) {
+            Integer index = INDEXES.get(id);
+            return index != null ? index : INDEXES.computeIfAbsent(id, k -> NEXT_INDEX.getAndIncrement());
+         }
+      }
    }
 
    /**
@@ -254,8 +294,11 @@ public interface MetaParam<T> {
     * Writable metadata parameter representing a cached entry's version.
     */
    final class EntryVersionParam<V> implements Writable<EntryVersionParam<V>> {
+      private static final Id<EntryVersionParam<?>> ID = new Id<>(4);
+
+      @SuppressWarnings("unchecked")
       public static <V> Id<EntryVersionParam<V>> ID() {
-         return new Id<>(4);
+         return (Id) ID;
       }
 
       private final EntryVersion<V> entryVersion;
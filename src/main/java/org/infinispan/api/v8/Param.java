@@ -2,9 +2,21 @@ package org.infinispan.api.v8;
 
 import org.infinispan.api.v8.Closeables.CloseableIterator;
 import org.infinispan.api.v8.impl.Iterators;
+import org.infinispan.api.v8.impl.MeteredExecutor;
 import org.infinispan.api.v8.impl.Traversables;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
@@ -64,6 +76,13 @@ public interface Param<P> {
     * that {@link Traversable} or {@link CloseableIterator}, these will
     * already be pre-computed and the navigation will happen over the
     * already computed values.
+    *
+    * If non-blocking, {@link Traversable} and {@link CloseableIterator}
+    * results are produced in the background into a bounded buffer. Bulk
+    * write operations returning {@link CloseableIterator} are the exception:
+    * all their writes are applied in the background whether the iterator is
+    * consumed or not, and the iterator yields their results once they've
+    * all been applied.
     */
    enum WaitMode implements Param<WaitMode> {
       BLOCKING {
@@ -93,6 +112,11 @@ public interface Param<P> {
       }
 
       public static <T> CompletableFuture<T> withWaitFuture(Param<WaitMode> waitParam, Supplier<T> s) {
+         return withWaitFuture(waitParam, AsyncExecutor.defaultValue(), s);
+      }
+
+      public static <T> CompletableFuture<T> withWaitFuture(Param<WaitMode> waitParam,
+            Param<Executor> executorParam, Supplier<T> s) {
          switch (waitParam.get()) {
             case BLOCKING:
                // If blocking, complete the future directly with the result.
@@ -101,31 +125,521 @@ public interface Param<P> {
             case NON_BLOCKING:
                // If non-blocking execute the supply function asynchronously,
                // and return a future that's completed when the supply
-               // function returns.
-               return CompletableFuture.supplyAsync(s);
+               // function returns. If the executor cannot take any more
+               // work, the future is completed with the rejection.
+               try {
+                  return CompletableFuture.supplyAsync(s, executorParam.get());
+               } catch (RejectedExecutionException e) {
+                  CompletableFuture<T> rejected = new CompletableFuture<>();
+                  rejected.completeExceptionally(e);
+                  return rejected;
+               }
             default:
                throw new IllegalStateException();
          }
       }
 
       public static <T> Traversable<T> withWaitTraversable(Param<WaitMode> waitParam, Supplier<Stream<T>> s) {
+         return withWaitTraversable(waitParam, AsyncExecutor.defaultValue(), s);
+      }
+
+      public static <T> Traversable<T> withWaitTraversable(Param<WaitMode> waitParam,
+            Param<Executor> executorParam, Supplier<Stream<T>> s) {
+         return withWaitTraversable(waitParam, TraversalMode.defaultValue(), executorParam, s);
+      }
+
+      public static <T> Traversable<T> withWaitTraversable(Param<WaitMode> waitParam,
+            Param<TraversalMode> traversalParam, Param<Executor> executorParam, Supplier<Stream<T>> s) {
+         return withWaitTraversable(waitParam, traversalParam, Parallelism.defaultValue(), executorParam, s);
+      }
+
+      public static <T> Traversable<T> withWaitTraversable(Param<WaitMode> waitParam,
+            Param<TraversalMode> traversalParam, Param<Integer> parallelismParam,
+            Param<Executor> executorParam, Supplier<Stream<T>> s) {
          switch (waitParam.get()) {
             case BLOCKING:
-               return Traversables.eager(s.get());
+               ForkJoinPool pool = Parallelism.of(parallelismParam.get()).pool();
+               return traversalParam.get() == TraversalMode.LAZY
+                  ? Traversables.of(s.get(), pool)
+                  : Traversables.eager(s.get(), pool);
+            case NON_BLOCKING:
+               // If non-blocking, elements are produced in the executor
+               // once a terminal operation is called on the traversable,
+               // computed in the parallelism pool if there's one
+               return Traversables.async(executorParam.get(),
+                  Parallelism.of(parallelismParam.get()).pool(), s);
             default:
-               throw new IllegalStateException("Not yet implemented");
+               throw new IllegalStateException();
          }
       }
 
       public static <T> CloseableIterator<T> withWaitIterator(Param<WaitMode> waitParam, Supplier<Stream<T>> s) {
+         return withWaitIterator(waitParam, AsyncExecutor.defaultValue(), s);
+      }
+
+      public static <T> CloseableIterator<T> withWaitIterator(Param<WaitMode> waitParam,
+            Param<Executor> executorParam, Supplier<Stream<T>> s) {
+         return withWaitIterator(waitParam, TraversalMode.defaultValue(), executorParam, s);
+      }
+
+      public static <T> CloseableIterator<T> withWaitIterator(Param<WaitMode> waitParam,
+            Param<TraversalMode> traversalParam, Param<Executor> executorParam, Supplier<Stream<T>> s) {
          switch (waitParam.get()) {
             case BLOCKING:
-               return Iterators.eagerIterator(s.get());
+               return traversalParam.get() == TraversalMode.LAZY
+                  ? Iterators.iterator(s.get())
+                  : Iterators.eagerIterator(s.get());
+            case NON_BLOCKING:
+               // If non-blocking, elements start being produced in the
+               // executor straight away, but production is suspended
+               // when the iterator is not consumed fast enough
+               return Iterators.asyncIterator(executorParam.get(), s);
             default:
-               throw new IllegalStateException("Not yet implemented");
+               throw new IllegalStateException();
+         }
+      }
+
+   }
+
+   /**
+    * Atomicity controls whether read-write functions are evaluated
+    * atomically with respect to other read-write functions for the same key.
+    *
+    * By default, functions are not evaluated atomically, so reads and writes
+    * done via the read-write entry view are individual operations against
+    * the functional map, and concurrent functions for the same key can
+    * interleave, e.g. losing updates.
+    *
+    * If per-key, the entire function runs while the entry for the key is
+    * exclusively held, so concurrent functions for the same key execute one
+    * after the other, and each function sees the effects of the previous one.
+    * Functions evaluated this way must not access the functional map
+    * themselves, since they're running while the entry is held.
+    *
+    * DESIGN RATIONALES:
+    * <ul>
+    *    <li>Why is per-key atomicity not the default? Because holding the
+    *    entry for the duration of the function means that a long running
+    *    function blocks other functions on the same key, and functions that
+    *    access the functional map from within could deadlock. So, users
+    *    need to be aware of these restrictions before enabling it.
+    *    </li>
+    * </ul>
+    */
+   enum Atomicity implements Param<Atomicity> {
+      NONE {
+         @Override
+         public Atomicity get() {
+            return NONE;
+         }
+      }, PER_KEY {
+         @Override
+         public Atomicity get() {
+            return PER_KEY;
+         }
+      };
+
+      public static final int ID = 1;
+
+      @Override
+      public int id() {
+         return ID;
+      }
+
+      /**
+       * Provides default atomicity.
+       */
+      public static Atomicity defaultValue() {
+         return NONE;
+      }
+   }
+
+   /**
+    * Executor used to run operations when {@link WaitMode#NON_BLOCKING} is
+    * in use. Apart from the default, which uses the JVM-wide
+    * {@link ForkJoinPool#commonPool()}, operations can run in a dedicated
+    * bounded thread pool, in the caller thread, or in an executor provided
+    * by the user.
+    *
+    * Regardless of the choice, the number of tasks waiting to be executed,
+    * and the number of tasks rejected by the executor, are tracked and can be
+    * queried via {@link #queueDepth()} and {@link #rejections()}. Operations
+    * rejected by the executor return futures completed exceptionally with
+    * {@link RejectedExecutionException}.
+    *
+    * To set the executor for all operations of a functional map, pass it
+    * to the functional map's {@link FunctionalMap#withParams(Param[])},
+    * from which read-only, write-only and read-write maps take their defaults.
+    *
+    * DESIGN RATIONALES:
+    * <ul>
+    *    <li>Why is the JVM-wide common pool still the default? Because
+    *    dedicated threads need to be shut down. If users choose a
+    *    dedicated bounded pool, it's shut down when the map whose
+    *    withParams it was passed to is closed, or when the functional map
+    *    that map was ultimately derived from is closed, but not when other
+    *    maps derived from it are closed. Executors provided by users are
+    *    never shut down by the functional map.
+    *    </li>
+    * </ul>
+    */
+   final class AsyncExecutor implements Param<Executor> {
+      public static final int ID = 2;
+
+      private static final AsyncExecutor DEFAULT = new AsyncExecutor(ForkJoinPool.commonPool(), false);
+
+      private final MeteredExecutor executor;
+      private final boolean owned;
+
+      private AsyncExecutor(Executor executor, boolean owned) {
+         this.executor = new MeteredExecutor(executor);
+         this.owned = owned;
+      }
+
+      @Override
+      public int id() {
+         return ID;
+      }
+
+      @Override
+      public Executor get() {
+         return executor;
+      }
+
+      /**
+       * Number of operations submitted to the executor which have not yet
+       * started executing.
+       */
+      public int queueDepth() {
+         return executor.queueDepth();
+      }
+
+      /**
+       * Number of operations rejected by the executor.
+       */
+      public long rejections() {
+         return executor.rejections();
+      }
+
+      /**
+       * Whether the executor is a dedicated thread pool created by
+       * {@link #bounded(int, int)}, which needs to be shut down.
+       */
+      public boolean isOwned() {
+         return owned;
+      }
+
+      /**
+       * Shuts down the executor if it's a dedicated thread pool created by
+       * {@link #bounded(int, int)}, otherwise it does nothing.
+       */
+      public void shutdown() {
+         if (owned)
+            ((ExecutorService) executor.delegate()).shutdown();
+      }
+
+      /**
+       * Provides default executor, which is JVM-wide common fork join pool.
+       */
+      public static AsyncExecutor defaultValue() {
+         return DEFAULT;
+      }
+
+      /**
+       * Executor running operations in a dedicated pool of threads, where
+       * operations wait in a queue of the given capacity for a thread to be
+       * available. Once the queue is full, further operations are rejected.
+       */
+      public static AsyncExecutor bounded(int threads, int queueCapacity) {
+         AtomicInteger threadCount = new AtomicInteger();
+         ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), r -> {
+               Thread t = new Thread(r, "functional-map-async-" + threadCount.incrementAndGet());
+               t.setDaemon(true);
+               return t;
+            });
+         pool.allowCoreThreadTimeOut(true);
+         return new AsyncExecutor(pool, true);
+      }
+
+      /**
+       * Executor running operations directly in the thread that calls them,
+       * so the futures returned are completed by the time they're returned.
+       */
+      public static AsyncExecutor callerRuns() {
+         return new AsyncExecutor(Runnable::run, false);
+      }
+
+      /**
+       * Executor running operations in an executor provided by the user.
+       */
+      public static AsyncExecutor of(Executor executor) {
+         return new AsyncExecutor(executor, false);
+      }
+
+      @Override
+      public String toString() {
+         return "AsyncExecutor=" + executor.delegate();
+      }
+   }
+
+   /**
+    * Traversal mode controls how {@link Traversable} and
+    * {@link CloseableIterator} results of blocking operations are computed.
+    *
+    * By default, results are computed eagerly, so by the time the operation
+    * returns, all results have been computed and are held in memory, and
+    * navigating the results does not touch the functional map any more.
+    *
+    * If lazy, results are computed on demand as the traversable or iterator
+    * is navigated, pulling data from the functional map as it goes. So,
+    * memory consumption does not depend on the number of results, and
+    * short-circuiting operations such as {@link Traversable#findAny()} or
+    * {@link Traversable#anyMatch(java.util.function.Predicate)} stop
+    * reading data as soon as they have found a result. In exchange, results
+    * reflect the state of the functional map as it's navigated, and for
+    * bulk write operations, writes are only applied as the results are
+    * navigated.
+    *
+    * Traversal mode has no effect on non-blocking operations, whose results
+    * are always computed asynchronously in the background.
+    */
+   enum TraversalMode implements Param<TraversalMode> {
+      EAGER {
+         @Override
+         public TraversalMode get() {
+            return EAGER;
+         }
+      }, LAZY {
+         @Override
+         public TraversalMode get() {
+            return LAZY;
+         }
+      };
+
+      public static final int ID = 3;
+
+      @Override
+      public int id() {
+         return ID;
+      }
+
+      /**
+       * Provides default traversal mode.
+       */
+      public static TraversalMode defaultValue() {
+         return EAGER;
+      }
+   }
+
+   /**
+    * Parallelism controls how many workers can be used to evaluate the
+    * {@link Traversable} results of blocking operations.
+    *
+    * By default, traversals are sequential, so terminal operations such as
+    * {@link Traversable#reduce(Object, java.util.function.BinaryOperator)},
+    * {@link Traversable#collect(Supplier, java.util.function.BiConsumer, java.util.function.BiConsumer)},
+    * {@link Traversable#count()} or {@link Traversable#anyMatch(java.util.function.Predicate)}
+    * run entirely in the thread that calls them.
+    *
+    * If parallel, the traversal's source is split, and both computing eager
+    * results and executing terminal operations are done with fork/join, by
+    * at most the given number of workers. So, functions passed to the
+    * operation and to the traversable might be called concurrently from
+    * different threads, and partial results are merged with the combiners
+    * passed to reduce and collect, which must therefore be associative.
+    *
+    * Non-blocking operations honour parallelism too: once a terminal
+    * operation is called, the {@link AsyncExecutor} collects results with
+    * fork/join, by at most the given number of workers, and then produces
+    * them in the background. Terminal operations on the resulting
+    * traversable are sequential.
+    *
+    * DESIGN RATIONALES:
+    * <ul>
+    *    <li>Why don't parallel traversals run in the JVM-wide common pool?
+    *    Because the number of workers a traversal uses could not be bounded,
+    *    and traversals would compete with non-blocking operations, which
+    *    use the common pool by default. Instead, traversals run in a fork
+    *    join pool that's shared by all traversals with the same
+    *    parallelism. Pools are only created when first used, and their
+    *    threads are daemon threads, which exit when idle.
+    *    </li>
+    * </ul>
+    */
+   final class Parallelism implements Param<Integer> {
+      public static final int ID = 4;
+
+      private static final Parallelism SEQUENTIAL = new Parallelism(1);
+      private static final ConcurrentMap<Integer, Parallelism> LEVELS = new ConcurrentHashMap<>();
+
+      private final int workers;
+      private volatile ForkJoinPool pool;
+
+      private Parallelism(int workers) {
+         this.workers = workers;
+      }
+
+      @Override
+      public int id() {
+         return ID;
+      }
+
+      @Override
+      public Integer get() {
+         return workers;
+      }
+
+      /**
+       * Fork join pool in which parallel traversals run, or null if
+       * traversals are sequential.
+       */
+      public ForkJoinPool pool() {
+         if (workers == 1)
+            return null;
+
+         ForkJoinPool p = pool;
+         if (p == null) {
+            synchronized (this) {
+               p = pool;
+               if (p == null)
+                  pool = p = new ForkJoinPool(workers, fjp -> {
+                     ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(fjp);
+                     t.setName("functional-map-parallel-" + workers + "-" + t.getPoolIndex());
+                     return t;
+                  }, null, false);
+            }
+         }
+         return p;
+      }
+
+      /**
+       * Provides default parallelism, which is sequential.
+       */
+      public static Parallelism defaultValue() {
+         return SEQUENTIAL;
+      }
+
+      /**
+       * Parallelism using at most the given number of workers.
+       */
+      public static Parallelism of(int workers) {
+         if (workers < 1)
+            throw new IllegalArgumentException("Number of workers must be positive: " + workers);
+
+         return workers == 1 ? SEQUENTIAL : LEVELS.computeIfAbsent(workers, Parallelism::new);
+      }
+
+      /**
+       * Parallelism using as many workers as processors are available.
+       */
+      public static Parallelism available() {
+         return of(Runtime.getRuntime().availableProcessors());
+      }
+
+      @Override
+      public String toString() {
+         return "Parallelism=" + workers;
+      }
+   }
+
+   /**
+    * Isolation controls what traversals of the entries stored, such as
+    * {@link FunctionalMap.ReadOnlyMap#keys()} and
+    * {@link FunctionalMap.ReadOnlyMap#entries()}, see of writes applied while
+    * they're in progress.
+    *
+    * By default, traversals read the entries as they are when traversed, so
+    * an entry written while a traversal is in progress may or may not be
+    * seen, depending on whether it had been traversed already. So, a
+    * traversal running alongside a multi-key write can see some of its
+    * writes but not others.
+    *
+    * If snapshot, traversals read the entries as they were when the
+    * traversal started, and writes applied later are not seen, without
+    * blocking writers for the duration of the traversal. In exchange,
+    * entries replaced or removed while snapshots are open are kept until
+    * they're no longer needed, which happens once the traversal has been
+    * completed, or closed. Entries evicted or expired while the traversal
+    * is in progress may be missing from it.
+    *
+    * DESIGN RATIONALES:
+    * <ul>
+    *    <li>Why are snapshots not the default? Because while they're open,
+    *    writes need to keep the entries they replace, and traversals need
+    *    to gather each segment before traversing it, which costs memory and
+    *    time that most traversals don't need to spend.
+    *    </li>
+    * </ul>
+    */
+   enum Isolation implements Param<Isolation> {
+      READ_COMMITTED {
+         @Override
+         public Isolation get() {
+            return READ_COMMITTED;
          }
+      }, SNAPSHOT {
+         @Override
+         public Isolation get() {
+            return SNAPSHOT;
+         }
+      };
+
+      public static final int ID = 5;
+
+      @Override
+      public int id() {
+         return ID;
+      }
+
+      /**
+       * Provides default isolation.
+       */
+      public static Isolation defaultValue() {
+         return READ_COMMITTED;
+      }
+   }
+
+   /**
+    * Versioning controls whether writes assign a new version to the entries
+    * they write, as an {@link MetaParam.EntryVersionParam} holding an
+    * {@link EntryVersion.NumericEntryVersion}.
+    *
+    * By default, entries are only versioned by compare-and-set writes, see
+    * {@link EntryView.WriteEntryView#compareAndSet(EntryVersion, Object, MetaParam.Writable...)},
+    * and other writes keep whatever version is passed to them, if any.
+    *
+    * If automatic, every write assigns a new version to the entry it
+    * writes, replacing any version passed to it, so that the version read
+    * from an entry can always be passed to a later compare-and-set. Versions
+    * are never assigned twice within a functional map.
+    */
+   enum Versioning implements Param<Versioning> {
+      NONE {
+         @Override
+         public Versioning get() {
+            return NONE;
+         }
+      }, AUTO {
+         @Override
+         public Versioning get() {
+            return AUTO;
+         }
+      };
+
+      public static final int ID = 6;
+
+      @Override
+      public int id() {
+         return ID;
       }
 
+      /**
+       * Provides default versioning.
+       */
+      public static Versioning defaultValue() {
+         return NONE;
+      }
    }
 
 }
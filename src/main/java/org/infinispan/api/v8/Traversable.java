@@ -5,6 +5,7 @@ import org.infinispan.api.v8.Closeables.CloseableSpliterator;
 
 import java.util.Comparator;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.BinaryOperator;
@@ -84,9 +85,12 @@ public interface Traversable<T> extends AutoCloseable {
    CloseableIterator<T> iterator();
 
    /**
-    * Closeable spliterator for manually iterating over the contents of the
-    * traversable. The iterator also helps with determining when the end of
-    * the traversable has been reached, by checking {@link CloseableIterator#hasNext()}
+    * Closeable spliterator for iterating over the contents of the
+    * traversable, for example to drive a parallel stream via
+    * {@code StreamSupport.stream(t.spliterator(), true)}. The spliterator
+    * reports the size and characteristics of the traversable's source, and
+    * can be split. Closing it, or any spliterator split from it, releases
+    * the resources held by the traversal.
     */
    CloseableSpliterator<T> spliterator();
 
@@ -116,6 +120,24 @@ public interface Traversable<T> extends AutoCloseable {
     */
    void forEach(Consumer<? super T> c);
 
+   /**
+    * Applies an operation to all elements of this traversable as they become
+    * available, and returns a {@link CompletableFuture} that's completed once
+    * all elements have been traversed, or completed exceptionally if the
+    * traversal fails.
+    *
+    * DESIGN RATIONALES:
+    * <ul>
+    *    <li>Why add a callback-based method to a pull-based API? Because for
+    *    traversables computed asynchronously, pulling elements requires
+    *    the consuming thread to wait for elements to be produced. With this
+    *    method, elements are pushed to the operation as they're produced,
+    *    so no thread needs to wait for the traversal to complete.
+    *    </li>
+    * </ul>
+    */
+   CompletableFuture<Void> forEachAsync(Consumer<? super T> c);
+
    /**
     * Applies a binary folding operation to a start value and all elements of
     * this traversable.
@@ -1,14 +1,63 @@
 package org.infinispan.api.v8.impl;
 
 import org.infinispan.api.v8.FunctionalMap;
+import org.infinispan.api.v8.Param;
+import org.infinispan.api.v8.Param.AsyncExecutor;
+import org.infinispan.api.v8.Param.Versioning;
 import org.infinispan.api.v8.Status;
+import org.infinispan.api.v8.impl.OperationTracer.Operation;
+
+import java.util.concurrent.CompletableFuture;
 
 abstract class AbstractFunctionalMap<K, V> implements FunctionalMap<K, V> {
 
    protected final FunctionalMapImpl<K, V> functionalMap;
+   // Versions assigned by the writes of this map, as per its parameters
+   final EntryVersions versions;
+   // Executor passed to the withParams this map was derived with, or null
+   final AsyncExecutor executor;
 
-   protected AbstractFunctionalMap(FunctionalMapImpl<K, V> functionalMap) {
+   protected AbstractFunctionalMap(FunctionalMapImpl<K, V> functionalMap, Params params, AsyncExecutor executor) {
       this.functionalMap = functionalMap;
+      Param<Versioning> versioning = params.get(Versioning.ID);
+      this.versions = functionalMap.versions.auto(versioning.get() == Versioning.AUTO);
+      this.executor = executor;
+   }
+
+   /**
+    * Returns the time at which a traced operation starts, or 0 if tracing
+    * is disabled, in which case the time is not even looked up.
+    */
+   protected final long traceStart() {
+      return functionalMap.tracer == null ? 0 : System.nanoTime();
+   }
+
+   /**
+    * Traces an operation, started at the given time, once the future returned
+    * by the operation completes. If tracing is disabled, it does nothing.
+    */
+   protected final <T> CompletableFuture<T> traced(Operation op, Object key, Params params,
+         long start, CompletableFuture<T> cf) {
+      OperationTracer tracer = functionalMap.tracer;
+      if (tracer == null)
+         return cf;
+
+      // Return the dependant future so that the operation is traced
+      // by the time the caller sees the operation completed
+      int keyHash = key == null ? 0 : key.hashCode();
+      return cf.whenComplete((r, t) -> tracer.trace(op, keyHash, params, System.nanoTime() - start));
+   }
+
+   /**
+    * Traces an operation, started at the given time, which returns a
+    * traversable or iterator result. If tracing is disabled, it does nothing.
+    */
+   protected final <T> T traced(Operation op, Params params, long start, T result) {
+      OperationTracer tracer = functionalMap.tracer;
+      if (tracer != null)
+         tracer.trace(op, 0, params, System.nanoTime() - start);
+
+      return result;
    }
 
    @Override
@@ -21,8 +70,14 @@ abstract class AbstractFunctionalMap<K, V> implements FunctionalMap<K, V> {
       return functionalMap.getStatus();
    }
 
+   /**
+    * Closes the functional map this map operates on, after shutting down
+    * the executor this map owns, if any.
+    */
    @Override
    public void close() throws Exception {
+      if (executor != null)
+         functionalMap.release(executor);
       functionalMap.close();
    }
 
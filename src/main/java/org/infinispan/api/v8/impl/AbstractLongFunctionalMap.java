@@ -0,0 +1,29 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.LongFunctionalMap;
+import org.infinispan.api.v8.Status;
+
+abstract class AbstractLongFunctionalMap implements LongFunctionalMap {
+
+   protected final LongFunctionalMapImpl functionalMap;
+
+   protected AbstractLongFunctionalMap(LongFunctionalMapImpl functionalMap) {
+      this.functionalMap = functionalMap;
+   }
+
+   @Override
+   public String getName() {
+      return "";
+   }
+
+   @Override
+   public Status getStatus() {
+      return functionalMap.getStatus();
+   }
+
+   @Override
+   public void close() {
+      functionalMap.close();
+   }
+
+}
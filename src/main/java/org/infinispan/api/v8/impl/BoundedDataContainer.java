@@ -0,0 +1,537 @@
+package org.infinispan.api.v8.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.ToLongBiFunction;
+import java.util.stream.Stream;
+
+/**
+ * {@link DataContainer} decorator that bounds the total weight of the
+ * entries stored, evicting entries as per a W-TinyLFU policy once the bound
+ * is reached. Each entry is weighed when written, either as 1, to bound the
+ * number of entries, or as the number of bytes it's estimated to take.
+ *
+ * The policy keeps the keys stored in three LRU queues: a window, taking
+ * about 1% of the weight, where new keys go first, and a main region split
+ * into probation and protected queues. Keys leaving the window only make it
+ * into the main region if they've been accessed more often, as estimated
+ * by a {@link FrequencySketch}, than the key the main region would evict to
+ * make room for them. Keys accessed while on probation are moved to the
+ * protected queue, which takes up to 80% of the main region.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why W-TinyLFU rather than LRU? Because with skewed access patterns,
+ *    LRU lets keys accessed once, e.g. by a scan, push out popular keys,
+ *    whereas the frequency sketch lets popular keys stay. The window
+ *    still gives new keys a chance to build up their frequency, so bursts
+ *    of accesses to new keys are not rejected straight away.
+ *    </li>
+ *    <li>Why are reads recorded in buffers? Because moving a key within
+ *    the queues requires the policy's lock, and reads are way more
+ *    frequent than writes. Reads are recorded in striped ring buffers
+ *    without locking, and the buffers are drained into the policy when
+ *    they fill up, or when a write takes the lock. Reads are dropped if a
+ *    buffer is full or contended, since the policy only needs a sample of
+ *    them.
+ *    </li>
+ *    <li>Why are writes applied to the policy while the entry is held?
+ *    Because the policy then sees writes to the same key in the order they
+ *    were applied. Victims are evicted after the policy's lock has been
+ *    released, and only if their key has not been written again in the
+ *    meantime.
+ *    </li>
+ *    <li>Why is the weight kept per segment? Because it's read without
+ *    locking, e.g. by monitoring, and per segment weights let segments be
+ *    weighed on their own. Weights are only updated while holding the
+ *    policy's lock, so their sum is the weight the policy evicts by.
+ *    </li>
+ * </ul>
+ *
+ * The weight can exceed the bound for as long as it takes concurrent
+ * writers to evict their victims.
+ */
+final class BoundedDataContainer<K, V> implements DataContainer<K, V> {
+
+   private static final int NUM_READ_BUFFERS = SegmentedDataContainer.segmentsFor(
+      4 * Runtime.getRuntime().availableProcessors());
+
+   private static final int WINDOW = 0;
+   private static final int PROBATION = 1;
+   private static final int PROTECTED = 2;
+
+   private final DataContainer<K, V> data;
+   private final long maxWeight;
+   private final ToLongBiFunction<? super K, ? super InternalEntry<V>> weigher;
+   private final ReadBuffer<K>[] readBuffers;
+   private final AtomicLongArray segmentWeights;
+   private final LongAdder evictions = new LongAdder();
+
+   private final ReentrantLock policyLock = new ReentrantLock();
+   // Guarded by policyLock
+   private Map<K, Node<K>> nodes = new HashMap<>();
+   private final FrequencySketch sketch;
+   private final Node<K>[] queues;
+   private final long[] weights = new long[3];
+   private long totalWeight;
+   private final long windowMax;
+   private final long protectedMax;
+
+   @SuppressWarnings("unchecked")
+   private BoundedDataContainer(DataContainer<K, V> data, long maxWeight, long maxEntries,
+         ToLongBiFunction<? super K, ? super InternalEntry<V>> weigher) {
+      this.data = data;
+      this.maxWeight = maxWeight;
+      this.weigher = weigher;
+      this.sketch = new FrequencySketch(maxEntries);
+      this.windowMax = Math.max(1, maxWeight / 100);
+      this.protectedMax = (maxWeight - windowMax) * 4 / 5;
+      this.queues = new Node[]{Node.sentinel(), Node.sentinel(), Node.sentinel()};
+      this.segmentWeights = new AtomicLongArray(data.segmentCount());
+      this.readBuffers = new ReadBuffer[NUM_READ_BUFFERS];
+      for (int i = 0; i < readBuffers.length; i++)
+         readBuffers[i] = new ReadBuffer<>();
+   }
+
+   /**
+    * Bounds the given container to the given number of entries.
+    */
+   static <K, V> BoundedDataContainer<K, V> wrap(DataContainer<K, V> data, long maxEntries) {
+      if (maxEntries < 1)
+         throw new IllegalArgumentException("Maximum number of entries must be at least 1: " + maxEntries);
+
+      return new BoundedDataContainer<>(data, maxEntries, maxEntries, (k, e) -> 1);
+   }
+
+   /**
+    * Bounds the given container to the given weight in bytes, where entries
+    * weigh as much as their key and value as per the weigher, plus the
+    * entry's {@link InternalEntry#overhead()}.
+    */
+   static <K, V> BoundedDataContainer<K, V> wrap(DataContainer<K, V> data, long maxWeight,
+         Weigher<? super K, ? super V> weigher) {
+      if (maxWeight < 1)
+         throw new IllegalArgumentException("Maximum weight must be at least 1: " + maxWeight);
+
+      // Size the sketch for entries of about a hundred bytes, which is
+      // precise enough for bigger entries, and it can't know better
+      return new BoundedDataContainer<>(data, maxWeight, Math.max(1, maxWeight / 128),
+         (k, e) -> weigher.weigh(k, e.value()) + e.overhead());
+   }
+
+   long maxWeight() {
+      return maxWeight;
+   }
+
+   /**
+    * Number of entries evicted so far.
+    */
+   long evictions() {
+      return evictions.sum();
+   }
+
+   /**
+    * Current total weight of the entries stored. Entries evicted but not
+    * removed yet don't count.
+    */
+   @Override
+   public long weight() {
+      long weight = 0;
+      for (int i = 0; i < segmentWeights.length(); i++)
+         weight += segmentWeights.get(i);
+      return weight;
+   }
+
+   /**
+    * Current total weight of the entries stored in the given segment.
+    */
+   long segmentWeight(int segment) {
+      return segmentWeights.get(segment);
+   }
+
+   @Override
+   public InternalEntry<V> get(K key) {
+      InternalEntry<V> entry = data.get(key);
+      if (entry != null)
+         recordRead(key);
+      return entry;
+   }
+
+   @Override
+   public InternalEntry<V> put(K key, InternalEntry<V> entry) {
+      Write write = new Write((k, prev) -> entry);
+      data.compute(key, write);
+      evict(write.victims);
+      return write.prev;
+   }
+
+   @Override
+   public InternalEntry<V> remove(K key) {
+      Write write = new Write((k, prev) -> null);
+      data.compute(key, write);
+      return write.prev;
+   }
+
+   @Override
+   public InternalEntry<V> compute(K key,
+         BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f) {
+      Write write = new Write(f);
+      InternalEntry<V> next = data.compute(key, write);
+      evict(write.victims);
+      return next;
+   }
+
+   private void recordRead(K key) {
+      ReadBuffer<K> buffer = readBuffers[(int) Thread.currentThread().getId() & (readBuffers.length - 1)];
+      if (!buffer.offer(key) && policyLock.tryLock()) {
+         try {
+            drainReadBuffers();
+         } finally {
+            policyLock.unlock();
+         }
+      }
+   }
+
+   /**
+    * Applies a write to the policy, returning the keys to evict, if any.
+    */
+   private List<K> onWrite(K key, InternalEntry<V> prev, InternalEntry<V> next) {
+      if (prev == next) {
+         if (next != null)
+            recordRead(key);
+         return null;
+      }
+
+      long weight = next == null ? 0 : weigher.applyAsLong(key, next);
+      if (weight < 0)
+         throw new IllegalArgumentException("Negative weight " + weight + " for key " + key);
+
+      policyLock.lock();
+      try {
+         drainReadBuffers();
+         Node<K> node = nodes.get(key);
+         if (next == null) {
+            if (node != null)
+               discard(node);
+            return null;
+         }
+
+         if (node != null) {
+            reweigh(node, weight);
+            onAccess(node);
+         } else {
+            node = new Node<>(key, data.segmentOf(key));
+            nodes.put(key, node);
+            reweigh(node, weight);
+            link(node, WINDOW);
+            sketch.increment(key.hashCode());
+         }
+         return evictIfNeeded();
+      } finally {
+         policyLock.unlock();
+      }
+   }
+
+   private void drainReadBuffers() {
+      for (ReadBuffer<K> buffer : readBuffers)
+         buffer.drainTo(this::onRead);
+   }
+
+   private void onRead(K key) {
+      Node<K> node = nodes.get(key);
+      if (node != null)
+         onAccess(node);
+   }
+
+   private void onAccess(Node<K> node) {
+      sketch.increment(node.key.hashCode());
+      int queue = node.queue;
+      unlink(node);
+      if (queue == PROBATION) {
+         link(node, PROTECTED);
+         while (weights[PROTECTED] > protectedMax) {
+            Node<K> demoted = queues[PROTECTED].next;
+            unlink(demoted);
+            link(demoted, PROBATION);
+         }
+      } else {
+         link(node, queue);
+      }
+   }
+
+   /**
+    * Moves the entries the window can't hold to the main region, and then
+    * evicts entries until the total weight is within bounds. Each entry
+    * moved from the window is a candidate to stay, competing with the
+    * least recently used entry in the main region, and whichever has been
+    * accessed less frequently is evicted.
+    */
+   private List<K> evictIfNeeded() {
+      Node<K> candidate = null;
+      while (weights[WINDOW] > windowMax) {
+         Node<K> node = queues[WINDOW].next;
+         unlink(node);
+         link(node, PROBATION);
+         if (candidate == null)
+            candidate = node;
+      }
+
+      List<K> victims = null;
+      while (totalWeight > maxWeight) {
+         Node<K> victim = victim();
+         Node<K> evicted = victim;
+         if (candidate != null && candidate != victim) {
+            if (!admit(candidate, victim))
+               evicted = candidate;
+         }
+
+         if (evicted == candidate)
+            candidate = candidate.next == queues[PROBATION] ? null : candidate.next;
+
+         discard(evicted);
+         if (victims == null)
+            victims = new ArrayList<>(1);
+         victims.add(evicted.key);
+      }
+      return victims;
+   }
+
+   private boolean admit(Node<K> candidate, Node<K> victim) {
+      if (candidate.weight > maxWeight)
+         return false;
+
+      return sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode());
+   }
+
+   private Node<K> victim() {
+      for (int queue : new int[]{PROBATION, PROTECTED, WINDOW}) {
+         Node<K> sentinel = queues[queue];
+         if (sentinel.next != sentinel)
+            return sentinel.next;
+      }
+      throw new IllegalStateException("No entries to evict, but weight is " + totalWeight);
+   }
+
+   private void reweigh(Node<K> node, long weight) {
+      long delta = weight - node.weight;
+      node.weight = weight;
+      if (node.next != null)
+         weights[node.queue] += delta;
+      totalWeight += delta;
+      segmentWeights.addAndGet(node.segment, delta);
+   }
+
+   private void discard(Node<K> node) {
+      nodes.remove(node.key);
+      unlink(node);
+      totalWeight -= node.weight;
+      segmentWeights.addAndGet(node.segment, -node.weight);
+   }
+
+   private void link(Node<K> node, int queue) {
+      Node<K> sentinel = queues[queue];
+      node.queue = queue;
+      node.next = sentinel;
+      node.prev = sentinel.prev;
+      sentinel.prev.next = node;
+      sentinel.prev = node;
+      weights[queue] += node.weight;
+   }
+
+   private void unlink(Node<K> node) {
+      node.prev.next = node.next;
+      node.next.prev = node.prev;
+      node.prev = node.next = null;
+      weights[node.queue] -= node.weight;
+   }
+
+   /**
+    * Removes the victims' entries, unless they've been written again since
+    * they were picked as victims.
+    */
+   private void evict(List<K> victims) {
+      if (victims == null)
+         return;
+
+      for (K victim : victims) {
+         data.compute(victim, (k, entry) -> {
+            if (entry == null)
+               return null;
+
+            policyLock.lock();
+            try {
+               if (nodes.containsKey(k))
+                  return entry; // Written again, so tracked again
+            } finally {
+               policyLock.unlock();
+            }
+            evictions.increment();
+            return null;
+         });
+      }
+   }
+
+   @Override
+   public int size() {
+      return data.size();
+   }
+
+   @Override
+   public boolean isEmpty() {
+      return data.isEmpty();
+   }
+
+   @Override
+   public boolean clearsInConstantTime() {
+      return data.clearsInConstantTime();
+   }
+
+   @Override
+   public void clear() {
+      data.clear();
+      policyLock.lock();
+      try {
+         for (ReadBuffer<K> buffer : readBuffers)
+            buffer.drainTo(k -> {});
+         // Replacing the map rather than clearing it doesn't walk its table
+         nodes = new HashMap<>();
+         for (Node<K> sentinel : queues)
+            sentinel.prev = sentinel.next = sentinel;
+         weights[WINDOW] = weights[PROBATION] = weights[PROTECTED] = 0;
+         totalWeight = 0;
+         for (int i = 0; i < segmentWeights.length(); i++)
+            segmentWeights.set(i, 0);
+         sketch.clear();
+      } finally {
+         policyLock.unlock();
+      }
+   }
+
+   @Override
+   public Stream<K> keys() {
+      return data.keys();
+   }
+
+   @Override
+   public Stream<Map.Entry<K, InternalEntry<V>>> entries() {
+      return data.entries();
+   }
+
+   @Override
+   public int segmentCount() {
+      return data.segmentCount();
+   }
+
+   @Override
+   public int segmentOf(K key) {
+      return data.segmentOf(key);
+   }
+
+   @Override
+   public Segment<K, V> segment(int index) {
+      return data.segment(index);
+   }
+
+   @Override
+   public void close() {
+      data.close();
+   }
+
+   /**
+    * Remapping function applying a write to the container and the policy,
+    * while the entry is held by the container.
+    */
+   private final class Write implements BiFunction<K, InternalEntry<V>, InternalEntry<V>> {
+      final BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f;
+      InternalEntry<V> prev;
+      List<K> victims;
+
+      Write(BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f) {
+         this.f = f;
+      }
+
+      @Override
+      public InternalEntry<V> apply(K key, InternalEntry<V> prev) {
+         this.prev = prev;
+         InternalEntry<V> next = f.apply(key, prev);
+         victims = onWrite(key, prev, next);
+         return next;
+      }
+   }
+
+   private static final class Node<K> {
+      final K key;
+      final int segment;
+      long weight;
+      int queue;
+      Node<K> prev;
+      Node<K> next;
+
+      private Node(K key, int segment) {
+         this.key = key;
+         this.segment = segment;
+      }
+
+      static <K> Node<K> sentinel() {
+         Node<K> sentinel = new Node<>(null, -1);
+         sentinel.prev = sentinel.next = sentinel;
+         return sentinel;
+      }
+   }
+
+   /**
+    * Lossy ring buffer of keys read, written to by any thread and drained
+    * while holding the policy's lock.
+    */
+   private static final class ReadBuffer<K> {
+      static final int SIZE = 16;
+      static final int MASK = SIZE - 1;
+
+      final AtomicReferenceArray<K> buffer = new AtomicReferenceArray<>(SIZE);
+      final AtomicLong writeCounter = new AtomicLong();
+      volatile long readCounter;
+
+      /**
+       * Records the key, unless the buffer is full or contended, and
+       * returns whether the buffer has room left.
+       */
+      boolean offer(K key) {
+         long head = readCounter;
+         long tail = writeCounter.get();
+         long size = tail - head;
+         if (size >= SIZE)
+            return false;
+
+         if (writeCounter.compareAndSet(tail, tail + 1)) {
+            buffer.lazySet((int) (tail & MASK), key);
+            return size + 1 < SIZE;
+         }
+         return true;
+      }
+
+      void drainTo(Consumer<K> action) {
+         long head = readCounter;
+         long tail = writeCounter.get();
+         for (; head < tail; head++) {
+            int index = (int) (head & MASK);
+            K key = buffer.get(index);
+            if (key == null)
+               break; // Not published yet
+
+            buffer.lazySet(index, null);
+            action.accept(key);
+         }
+         readCounter = head;
+      }
+   }
+
+}
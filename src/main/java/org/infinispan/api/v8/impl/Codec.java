@@ -0,0 +1,29 @@
+package org.infinispan.api.v8.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts keys or values to and from their binary form, so that they can be
+ * stored outside the Java heap, e.g. by off-heap data containers.
+ *
+ * Encoding must be deterministic, so that equal keys always have equal
+ * binary forms, since stored keys are matched by comparing them.
+ *
+ * @param <T> type of objects encoded and decoded
+ * @see Codecs
+ */
+public interface Codec<T> {
+
+   /**
+    * Encodes the object into its binary form.
+    */
+   byte[] encode(T obj);
+
+   /**
+    * Decodes an object from the buffer's remaining bytes, which contain
+    * exactly the binary form produced by {@link #encode(Object)}.
+    * Implementations must not keep a reference to the buffer.
+    */
+   T decode(ByteBuffer buffer);
+
+}
@@ -0,0 +1,122 @@
+package org.infinispan.api.v8.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codecs for common types.
+ */
+public final class Codecs {
+
+   /**
+    * Encodes strings as UTF-8.
+    */
+   public static final Codec<String> STRING = new Codec<String>() {
+      @Override
+      public byte[] encode(String obj) {
+         return obj.getBytes(StandardCharsets.UTF_8);
+      }
+
+      @Override
+      public String decode(ByteBuffer buffer) {
+         if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+               buffer.remaining(), StandardCharsets.UTF_8);
+         }
+         return StandardCharsets.UTF_8.decode(buffer).toString();
+      }
+   };
+
+   /**
+    * Encodes integers as 4 big-endian bytes.
+    */
+   public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+      @Override
+      public byte[] encode(Integer obj) {
+         return ByteBuffer.allocate(Integer.BYTES).putInt(obj).array();
+      }
+
+      @Override
+      public Integer decode(ByteBuffer buffer) {
+         return buffer.getInt(buffer.position());
+      }
+   };
+
+   /**
+    * Encodes longs as 8 big-endian bytes.
+    */
+   public static final Codec<Long> LONG = new Codec<Long>() {
+      @Override
+      public byte[] encode(Long obj) {
+         return ByteBuffer.allocate(Long.BYTES).putLong(obj).array();
+      }
+
+      @Override
+      public Long decode(ByteBuffer buffer) {
+         return buffer.getLong(buffer.position());
+      }
+   };
+
+   /**
+    * Stores byte arrays as they are.
+    */
+   public static final Codec<byte[]> BYTES = new Codec<byte[]>() {
+      @Override
+      public byte[] encode(byte[] obj) {
+         return obj;
+      }
+
+      @Override
+      public byte[] decode(ByteBuffer buffer) {
+         byte[] bytes = new byte[buffer.remaining()];
+         buffer.get(bytes);
+         return bytes;
+      }
+   };
+
+   private Codecs() {
+      // Cannot be instantiated, it's just a holder class
+   }
+
+   /**
+    * Codec using Java serialization. It works for any serializable type, but
+    * binary forms are bulky and slow to produce, so it's best used for
+    * values rather than keys, where a type specific codec is not available.
+    */
+   @SuppressWarnings("unchecked")
+   public static <T extends Serializable> Codec<T> serializable() {
+      return (Codec<T>) SerializableCodec.INSTANCE;
+   }
+
+   private static final class SerializableCodec implements Codec<Serializable> {
+      static final SerializableCodec INSTANCE = new SerializableCodec();
+
+      @Override
+      public byte[] encode(Serializable obj) {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(obj);
+         } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to encode " + obj, e);
+         }
+         return bytes.toByteArray();
+      }
+
+      @Override
+      public Serializable decode(ByteBuffer buffer) {
+         byte[] bytes = BYTES.decode(buffer);
+         try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Serializable) in.readObject();
+         } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Unable to decode stored object", e);
+         }
+      }
+   }
+
+}
@@ -3,6 +3,7 @@ package org.infinispan.api.v8.impl;
 import org.infinispan.api.v8.FunctionalMap.ReadOnlyMap;
 import org.infinispan.api.v8.FunctionalMap.ReadWriteMap;
 import org.infinispan.api.v8.FunctionalMap.WriteOnlyMap;
+import org.infinispan.api.v8.Param.TraversalMode;
 import org.infinispan.api.v8.Param.WaitMode;
 
 import java.util.ArrayList;
@@ -31,7 +32,9 @@ public class ConcurrentMapDecorator<K, V> implements ConcurrentMap<K, V>  {
    // via main Infinispan class which is still to be defined
    public ConcurrentMapDecorator(FunctionalMapImpl<K, V> map) {
       FunctionalMapImpl<K, V> blockingMap = map.withParams(WaitMode.BLOCKING);
-      this.readOnly = ReadOnlyMapImpl.create(blockingMap);
+      // Reads are lazily traversed so that operations such as size() or
+      // isEmpty() don't need to copy the entire contents of the map
+      this.readOnly = ReadOnlyMapImpl.create(blockingMap).withParams(TraversalMode.LAZY);
       this.writeOnly = WriteOnlyMapImpl.create(blockingMap);
       this.readWrite = ReadWriteMapImpl.create(blockingMap);
    }
@@ -0,0 +1,170 @@
+package org.infinispan.api.v8.impl;
+
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
+/**
+ * Internal container where functional map entries are stored. Entries are
+ * spread over a fixed number of hash segments, each of which can be
+ * iterated, cleared or snapshotted on its own, so that bulk operations and
+ * background tasks can work one segment at a time, or over several segments
+ * in parallel, instead of over the whole container.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why does the container expose segments? Because operations such as
+ *    truncate, eviction or persistence can then work a segment at the time,
+ *    without having to block or traverse the whole container, and can
+ *    split work among threads along segment boundaries.
+ *    </li>
+ *    <li>Why are single key operations exposed by the container rather than
+ *    having callers look up the segment first? Because the vast majority of
+ *    operations are single key ones, so the container should be able to
+ *    route them in the cheapest possible way.
+ *    </li>
+ * </ul>
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+interface DataContainer<K, V> {
+
+   InternalEntry<V> get(K key);
+
+   InternalEntry<V> put(K key, InternalEntry<V> entry);
+
+   InternalEntry<V> remove(K key);
+
+   /**
+    * Atomically computes the entry for the key, as per
+    * {@link java.util.concurrent.ConcurrentMap#compute(Object, BiFunction)}.
+    */
+   InternalEntry<V> compute(K key, BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f);
+
+   /**
+    * Applies the writes in the batch, whose keys are all stored in the
+    * batch's segment, and records the entries they replaced. Writes are not
+    * atomic as a whole, but containers can apply them in a single pass over
+    * the segment, e.g. locking it once rather than once per key.
+    */
+   default void writeAll(WriteBatch<K, V> batch) {
+      for (int i = 0; i < batch.size(); i++) {
+         InternalEntry<V> entry = batch.entry(i);
+         batch.prev(i, entry == null ? remove(batch.key(i)) : put(batch.key(i), entry));
+      }
+   }
+
+   int size();
+
+   boolean isEmpty();
+
+   /**
+    * Current total weight of the entries stored, which is their number
+    * unless the container weighs entries otherwise, e.g. by their
+    * estimated size in bytes.
+    */
+   default long weight() {
+      return size();
+   }
+
+   /**
+    * Removes all entries, one segment at the time.
+    */
+   void clear();
+
+   /**
+    * Whether {@link #clear()} takes constant time, whatever the number of
+    * entries, so that callers can run it in their own thread rather than
+    * handing it off to an executor.
+    */
+   default boolean clearsInConstantTime() {
+      return false;
+   }
+
+   /**
+    * Weakly consistent stream of the keys in the container. The stream's
+    * spliterator splits along segment boundaries.
+    */
+   Stream<K> keys();
+
+   /**
+    * Weakly consistent stream of the entries in the container. The stream's
+    * spliterator splits along segment boundaries.
+    */
+   Stream<Map.Entry<K, InternalEntry<V>>> entries();
+
+   /**
+    * Number of segments in the container, which is fixed.
+    */
+   int segmentCount();
+
+   /**
+    * Index of the segment where the key is stored.
+    */
+   int segmentOf(K key);
+
+   Segment<K, V> segment(int index);
+
+   /**
+    * Releases any resources held by the container, such as files or
+    * background threads. Stored entries can no longer be accessed
+    * afterwards.
+    */
+   default void close() {
+      // No resources held by default
+   }
+
+   /**
+    * A segment of the container, holding the entries whose keys hash to it.
+    */
+   interface Segment<K, V> {
+
+      int size();
+
+      /**
+       * Weakly consistent stream of the entries in the segment.
+       */
+      Stream<Map.Entry<K, InternalEntry<V>>> entries();
+
+      void clear();
+
+      /**
+       * Point in time copy of the segment's entries, which is not affected by
+       * later changes to the segment.
+       */
+      Map<K, InternalEntry<V>> snapshot();
+
+      SegmentStats stats();
+
+   }
+
+   /**
+    * Statistics of a segment. Counts are approximate while the segment is
+    * being modified.
+    */
+   interface SegmentStats {
+
+      /**
+       * Number of lookups that found an entry.
+       */
+      long hits();
+
+      /**
+       * Number of lookups that did not find an entry.
+       */
+      long misses();
+
+      /**
+       * Number of entries stored, both new and replacing existing ones.
+       */
+      long stores();
+
+      /**
+       * Number of entries removed, excluding those removed by clearing.
+       */
+      long removals();
+
+   }
+
+}
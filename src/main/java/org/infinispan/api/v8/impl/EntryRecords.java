@@ -0,0 +1,161 @@
+package org.infinispan.api.v8.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary record format for entries stored outside the Java heap. A record
+ * is laid out as:
+ *
+ * <pre>
+ *    int     key length
+ *    int     value length, -1 if the value is null, or -2 if the record
+ *            is a tombstone marking the removal of the key
+ *    int     metadata parameters length
+ *    long    time when the entry was written, in milliseconds
+ *    long    time when the entry was last read or written, in milliseconds
+ *    byte[]  key
+ *    byte[]  value
+ *    byte[]  metadata parameters, as encoded by {@link MetaParamsCodec}
+ * </pre>
+ *
+ * Records are immutable once written, so they can be read without holding
+ * any locks, as long as the buffer they're written to is not reused. The
+ * only exception is the last used time, which is updated in place when the
+ * entry is read. Readers racing with the update might see the previous
+ * time, which is harmless since the time only ever moves forward.
+ */
+final class EntryRecords {
+
+   static final int HEADER_SIZE = 3 * Integer.BYTES + 2 * Long.BYTES;
+   static final int CREATED_OFFSET = 3 * Integer.BYTES;
+   static final int LAST_USED_OFFSET = CREATED_OFFSET + Long.BYTES;
+
+   private static final int NULL_VALUE = -1;
+   private static final int TOMBSTONE = -2;
+
+   private EntryRecords() {
+      // Cannot be instantiated, it's just a holder class
+   }
+
+   static int size(byte[] key, byte[] value, byte[] metas) {
+      return HEADER_SIZE + key.length + (value == null ? 0 : value.length) + metas.length;
+   }
+
+   /**
+    * Size of the record written at the given offset.
+    */
+   static int size(ByteBuffer buffer, int offset) {
+      return HEADER_SIZE + keyLength(buffer, offset)
+         + Math.max(0, valueLength(buffer, offset)) + metasLength(buffer, offset);
+   }
+
+   static void write(ByteBuffer buffer, int offset, byte[] key, byte[] value, byte[] metas,
+         long created, long lastUsed) {
+      ByteBuffer b = buffer.duplicate();
+      b.position(offset);
+      b.putInt(key.length).putInt(value == null ? NULL_VALUE : value.length).putInt(metas.length);
+      b.putLong(created).putLong(lastUsed);
+      b.put(key);
+      if (value != null)
+         b.put(value);
+      b.put(metas);
+   }
+
+   static int tombstoneSize(byte[] key) {
+      return HEADER_SIZE + key.length;
+   }
+
+   /**
+    * Writes a tombstone record, which marks the removal of the key in
+    * stores where records are never removed, only appended.
+    */
+   static void writeTombstone(ByteBuffer buffer, int offset, byte[] key) {
+      ByteBuffer b = buffer.duplicate();
+      b.position(offset);
+      b.putInt(key.length).putInt(TOMBSTONE).putInt(0);
+      b.putLong(0).putLong(0);
+      b.put(key);
+   }
+
+   static boolean isTombstone(ByteBuffer buffer, int offset) {
+      return valueLength(buffer, offset) == TOMBSTONE;
+   }
+
+   /**
+    * Copies the record written at the given offset to another buffer.
+    */
+   static void copy(ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset) {
+      ByteBuffer from = src.duplicate();
+      from.limit(srcOffset + size(src, srcOffset)).position(srcOffset);
+      ByteBuffer to = dst.duplicate();
+      to.position(dstOffset);
+      to.put(from);
+   }
+
+   /**
+    * Checks whether the key of the record written at the given offset is
+    * equal to the given binary key.
+    */
+   static boolean keyEquals(ByteBuffer buffer, int offset, byte[] key) {
+      if (keyLength(buffer, offset) != key.length)
+         return false;
+
+      int start = offset + HEADER_SIZE;
+      for (int i = 0; i < key.length; i++) {
+         if (buffer.get(start + i) != key[i])
+            return false;
+      }
+      return true;
+   }
+
+   static long created(ByteBuffer buffer, int offset) {
+      return buffer.getLong(offset + CREATED_OFFSET);
+   }
+
+   static long lastUsed(ByteBuffer buffer, int offset) {
+      return buffer.getLong(offset + LAST_USED_OFFSET);
+   }
+
+   /**
+    * Updates the last used time of the record written at the given offset.
+    */
+   static void touch(ByteBuffer buffer, int offset, long now) {
+      buffer.putLong(offset + LAST_USED_OFFSET, now);
+   }
+
+   static ByteBuffer key(ByteBuffer buffer, int offset) {
+      return slice(buffer, offset + HEADER_SIZE, keyLength(buffer, offset));
+   }
+
+   /**
+    * Returns a buffer with the record's value, or null if the value is null.
+    */
+   static ByteBuffer value(ByteBuffer buffer, int offset) {
+      int length = valueLength(buffer, offset);
+      return length < 0 ? null : slice(buffer, offset + HEADER_SIZE + keyLength(buffer, offset), length);
+   }
+
+   static ByteBuffer metas(ByteBuffer buffer, int offset) {
+      int start = offset + HEADER_SIZE + keyLength(buffer, offset) + Math.max(0, valueLength(buffer, offset));
+      return slice(buffer, start, metasLength(buffer, offset));
+   }
+
+   private static int keyLength(ByteBuffer buffer, int offset) {
+      return buffer.getInt(offset);
+   }
+
+   private static int valueLength(ByteBuffer buffer, int offset) {
+      return buffer.getInt(offset + Integer.BYTES);
+   }
+
+   private static int metasLength(ByteBuffer buffer, int offset) {
+      return buffer.getInt(offset + 2 * Integer.BYTES);
+   }
+
+   private static ByteBuffer slice(ByteBuffer buffer, int start, int length) {
+      ByteBuffer b = buffer.duplicate();
+      b.limit(start + length).position(start);
+      return b.slice();
+   }
+
+}
@@ -0,0 +1,125 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.EntryVersion;
+import org.infinispan.api.v8.EntryVersion.NumericEntryVersion;
+import org.infinispan.api.v8.MetaParam;
+import org.infinispan.api.v8.MetaParam.EntryVersionParam;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Assigns {@link NumericEntryVersion} versions to the entries written to a
+ * functional map, either to every write, if writes are versioned
+ * automatically as per {@link org.infinispan.api.v8.Param.Versioning}, or
+ * only to compare-and-set writes and to writes replacing versioned entries.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why are versions drawn from a counter shared by all keys rather
+ *    than incremented per key? Because a key's version would then start
+ *    over when the key is removed and created again, so a compare-and-set
+ *    expecting the version the key had before it was removed would
+ *    wrongly succeed. With a shared counter, a version is never assigned
+ *    twice, so a matching version means the entry has not been written
+ *    since it was read.
+ *    </li>
+ *    <li>Why do writes other than compare-and-set replace the version of
+ *    an entry, even if writes aren't versioned automatically? Because
+ *    keeping it would let a compare-and-set holding the version read
+ *    before the write succeed, silently overwriting it. Read-write writes
+ *    assign a new version, unless one is passed in, so the entry can still
+ *    be compared and set, whereas write-only writes, which don't read the
+ *    entry, drop it.
+ *    </li>
+ *    <li>Why does the counter start from the highest version stored?
+ *    Because persistent storage recovers entries written before a
+ *    restart, whose versions must not be assigned again.
+ *    </li>
+ * </ul>
+ */
+final class EntryVersions {
+
+   private final AtomicLong last;
+   private final boolean auto;
+   private final EntryVersions other;
+
+   private EntryVersions(AtomicLong last, boolean auto, EntryVersions other) {
+      this.last = last;
+      this.auto = auto;
+      this.other = other != null ? other : new EntryVersions(last, !auto, this);
+   }
+
+   /**
+    * Versions for the entries of the container, which are not assigned
+    * automatically, starting after the highest numeric version stored.
+    */
+   static EntryVersions create(DataContainer<?, ?> data) {
+      long max = data.entries()
+         .mapToLong(e -> version(e.getValue()))
+         .max().orElse(0);
+      return new EntryVersions(new AtomicLong(max), false, null);
+   }
+
+   /**
+    * Versions drawn from the same counter, assigned automatically to every
+    * write or not.
+    */
+   EntryVersions auto(boolean auto) {
+      return this.auto == auto ? this : other;
+   }
+
+   /**
+    * Returns the metadata parameters of a write, with a new version added
+    * if writes are versioned automatically.
+    */
+   MetaParam.Writable[] onWrite(MetaParam.Writable[] metas) {
+      return auto ? next(metas) : metas;
+   }
+
+   /**
+    * Returns the metadata parameters of a write replacing the given entry,
+    * with a new version added if writes are versioned automatically, or if
+    * the entry replaced has a version and none is passed in, so that a
+    * compare-and-set expecting the replaced version fails.
+    */
+   MetaParam.Writable[] onWrite(InternalEntry<?> prev, MetaParam.Writable[] metas) {
+      if (auto || prev == null || prev.metaParam(EntryVersionParam.ID()) == null)
+         return onWrite(metas);
+
+      for (MetaParam.Writable meta : metas) {
+         if (meta instanceof EntryVersionParam)
+            return metas;
+      }
+      return next(metas);
+   }
+
+   /**
+    * Returns the metadata parameters with a new version added, replacing
+    * any version passed in.
+    */
+   MetaParam.Writable[] next(MetaParam.Writable[] metas) {
+      MetaParam.Writable[] versioned = Arrays.copyOf(metas, metas.length + 1);
+      versioned[metas.length] = new EntryVersionParam<>(new NumericEntryVersion(last.incrementAndGet()));
+      return versioned;
+   }
+
+   /**
+    * Whether the entry has the expected version, where a null expected
+    * version matches no entry.
+    */
+   static boolean matches(InternalEntry<?> entry, EntryVersion<?> expected) {
+      if (entry == null || expected == null)
+         return entry == null && expected == null;
+
+      EntryVersionParam<?> version = entry.metaParam(EntryVersionParam.ID());
+      return version != null && expected.equals(version.get());
+   }
+
+   private static long version(InternalEntry<?> entry) {
+      EntryVersionParam<?> version = entry.metaParam(EntryVersionParam.ID());
+      return version != null && version.get() instanceof NumericEntryVersion
+         ? ((NumericEntryVersion) version.get()).get() : 0;
+   }
+
+}
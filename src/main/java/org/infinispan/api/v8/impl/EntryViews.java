@@ -1,13 +1,19 @@
 package org.infinispan.api.v8.impl;
 
+import org.infinispan.api.v8.EntryVersion;
 import org.infinispan.api.v8.EntryView.ReadEntryView;
 import org.infinispan.api.v8.EntryView.ReadWriteEntryView;
 import org.infinispan.api.v8.EntryView.WriteEntryView;
 import org.infinispan.api.v8.MetaParam;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 final class EntryViews {
 
@@ -20,11 +26,85 @@ final class EntryViews {
    }
 
    static <K, V> WriteEntryView<V> writeOnly(K key, AbstractFunctionalMap<K, V> functionalMap) {
-      return new WriteViewImpl<>(key, functionalMap.functionalMap.data, functionalMap.functionalMap.notifier);
+      return new WriteViewImpl<>(key, functionalMap.functionalMap.data, functionalMap.functionalMap.notifier,
+         functionalMap.versions);
    }
 
    static <K, V> ReadWriteEntryView<K, V> readWrite(K key, AbstractFunctionalMap<K, V> functionalMap) {
-      return new ReadWriteViewImpl<>(key, functionalMap.functionalMap.data, functionalMap.functionalMap.notifier);
+      return new ReadWriteViewImpl<>(key, functionalMap.functionalMap.data, functionalMap.functionalMap.notifier,
+         functionalMap.versions);
+   }
+
+   /**
+    * Returns a read-write entry view for an entry found while traversing the
+    * container, which reads the entry without looking the key up again.
+    */
+   static <K, V> ReadWriteEntryView<K, V> readWrite(K key, InternalEntry<V> entry,
+         AbstractFunctionalMap<K, V> functionalMap) {
+      return new TraversedReadWriteViewImpl<>(key, entry, functionalMap.functionalMap.data,
+         functionalMap.functionalMap.notifier, functionalMap.versions);
+   }
+
+   /**
+    * Returns a write-only entry view that adds the writes of the functions
+    * it's passed to to the batch, rather than applying them one at a time.
+    */
+   static <K, V> BatchWriteViewImpl<K, V> writeOnlyBatch(WriteBatch<K, V> batch,
+         AbstractFunctionalMap<K, V> functionalMap) {
+      return new BatchWriteViewImpl<>(batch, functionalMap.functionalMap.data, functionalMap.functionalMap.notifier,
+         functionalMap.versions);
+   }
+
+   /**
+    * Notifies write listeners, if any, of the writes in an applied batch,
+    * all at once.
+    */
+   static <K, V> void notifyOnWrites(WriteBatch<K, V> batch, ListenerNotifier<K, V> notifier) {
+      if (batch.size() == 0 || !notifier.hasWriteListeners())
+         return;
+
+      List<ReadEntryView<K, V>> writes = new ArrayList<>(batch.size());
+      for (int i = 0; i < batch.size(); i++) {
+         InternalEntry<V> entry = batch.entry(i);
+         writes.add(entry == null ? noValue(batch.key(i)) : readOnly(batch.key(i), entry));
+      }
+      notifier.notifyOnWrites(Collections.unmodifiableList(writes));
+   }
+
+   /**
+    * Evaluates the function with a read-write entry view while the entry for
+    * the key is exclusively held, so that the function's reads and writes
+    * are applied atomically with respect to other atomic evaluations for the
+    * same key. Listeners are notified once the entry has been released.
+    */
+   static <K, V, R> R readWriteAtomic(K key, AbstractFunctionalMap<K, V> functionalMap,
+         Function<ReadWriteEntryView<K, V>, R> f) {
+      return new AtomicReadWriteViewImpl<K, V, R>(key, null, f, null, functionalMap.functionalMap.notifier,
+         functionalMap.versions).eval(functionalMap.functionalMap.data);
+   }
+
+   /**
+    * Same as {@link #readWriteAtomic(Object, AbstractFunctionalMap, Function)}
+    * but for functions that additionally take a value.
+    */
+   static <K, V, R> R readWriteAtomic(K key, V value, AbstractFunctionalMap<K, V> functionalMap,
+         BiFunction<V, ReadWriteEntryView<K, V>, R> f) {
+      return new AtomicReadWriteViewImpl<>(key, value, null, f, functionalMap.functionalMap.notifier,
+         functionalMap.versions).eval(functionalMap.functionalMap.data);
+   }
+
+   /**
+    * Compare-and-set write of a write-only view, which replaces the entry
+    * along with its metadata parameters, as write-only sets do.
+    */
+   private static <K, V> boolean compareAndSetWriteOnly(K key, EntryVersion<?> expected, V value,
+         MetaParam.Writable[] metas, DataContainer<K, V> data, ListenerNotifier<K, V> notifier,
+         EntryVersions versions) {
+      VersionedWrite<K, V> write = new VersionedWrite<>(expected, value, metas, versions, false);
+      data.compute(key, write);
+      if (write.written)
+         notifier.notifyOnWrite(EntryViews.readOnly(key, write.curr));
+      return write.written;
    }
 
    private static <K, V> ReadEntryView<K, V> noValue(K key) {
@@ -47,15 +127,15 @@ final class EntryViews {
 
       @Override
       public Optional<V> find() {
-         return entry == null ? Optional.empty() : Optional.ofNullable(entry.value);
+         return entry == null ? Optional.empty() : Optional.ofNullable(entry.value());
       }
 
       @Override
       public V get() throws NoSuchElementException {
-         if (entry == null || entry.value == null)
+         if (entry == null || entry.value() == null)
             throw new NoSuchElementException("No value present");
 
-         return entry.value;
+         return entry.value();
       }
 
       @Override
@@ -70,21 +150,22 @@ final class EntryViews {
    }
 
    private static final class WriteViewImpl<K, V> implements WriteEntryView<V> {
-      final ConcurrentMap<K, InternalEntry<V>> data;
+      final DataContainer<K, V> data;
       final K key;
       final ListenerNotifier<K, V> notifier;
+      final EntryVersions versions;
 
-      private WriteViewImpl(K key, ConcurrentMap<K, InternalEntry<V>> data, ListenerNotifier<K, V> notifier) {
+      private WriteViewImpl(K key, DataContainer<K, V> data, ListenerNotifier<K, V> notifier,
+            EntryVersions versions) {
          this.data = data;
          this.key = key;
          this.notifier = notifier;
+         this.versions = versions;
       }
 
       @Override
       public Void set(V value, MetaParam.Writable... metas) {
-         MetaParams metaParams = MetaParams.empty();
-         metaParams.addMany(metas);
-         InternalEntry<V> internalEntry = new InternalEntry<>(value, metaParams);
+         InternalEntry<V> internalEntry = InternalEntry.of(value, versions.onWrite(metas));
          data.put(key, internalEntry);
          // Data written, no assumptions about previous value can be made,
          // hence we cannot distinguish between create or update.
@@ -99,17 +180,82 @@ final class EntryViews {
          notifier.notifyOnWrite(EntryViews.noValue(key));
          return null;
       }
+
+      @Override
+      public boolean compareAndSet(EntryVersion<?> expected, V value, MetaParam.Writable... metas) {
+         return compareAndSetWriteOnly(key, expected, value, metas, data, notifier, versions);
+      }
+   }
+
+   /**
+    * Write-only entry view reused for all the keys in a batch. The last
+    * write made by the function for a key is added to the batch once the
+    * function returns. Compare-and-set writes need the current entry, so
+    * they're applied straight away instead, replacing any write made
+    * before by the function for the same key.
+    */
+   static final class BatchWriteViewImpl<K, V> implements WriteEntryView<V> {
+      final WriteBatch<K, V> batch;
+      final DataContainer<K, V> data;
+      final ListenerNotifier<K, V> notifier;
+      final EntryVersions versions;
+      K key;
+      InternalEntry<V> entry;
+      boolean written;
+
+      private BatchWriteViewImpl(WriteBatch<K, V> batch, DataContainer<K, V> data,
+            ListenerNotifier<K, V> notifier, EntryVersions versions) {
+         this.batch = batch;
+         this.data = data;
+         this.notifier = notifier;
+         this.versions = versions;
+      }
+
+      void eval(K key, V value, BiConsumer<V, WriteEntryView<V>> f) {
+         this.key = key;
+         entry = null;
+         written = false;
+         f.accept(value, this);
+         if (written)
+            batch.add(key, entry);
+      }
+
+      @Override
+      public Void set(V value, MetaParam.Writable... metas) {
+         entry = InternalEntry.of(value, versions.onWrite(metas));
+         written = true;
+         return null;
+      }
+
+      @Override
+      public Void remove() {
+         entry = null;
+         written = true;
+         return null;
+      }
+
+      @Override
+      public boolean compareAndSet(EntryVersion<?> expected, V value, MetaParam.Writable... metas) {
+         if (!compareAndSetWriteOnly(key, expected, value, metas, data, notifier, versions))
+            return false;
+
+         written = false;
+         return true;
+      }
    }
 
    private static final class ReadWriteViewImpl<K, V> implements ReadWriteEntryView<K, V> {
-      final ConcurrentMap<K, InternalEntry<V>> data;
+      final DataContainer<K, V> data;
       final K key;
       final ListenerNotifier<K, V> notifier;
+      final EntryVersions versions;
 
-      private ReadWriteViewImpl(K key, ConcurrentMap<K, InternalEntry<V>> data, ListenerNotifier<K, V> notifier) {
+      private ReadWriteViewImpl(K key, DataContainer<K, V> data, ListenerNotifier<K, V> notifier,
+            EntryVersions versions) {
          this.data = data;
          this.key = key;
          this.notifier = notifier;
+         this.versions = versions;
       }
 
       @Override
@@ -120,19 +266,19 @@ final class EntryViews {
       @Override
       public Optional<V> find() {
          InternalEntry<V> curr = data.get(key);
-         return curr == null ? Optional.empty() : Optional.ofNullable(curr.value);
+         return curr == null ? Optional.empty() : Optional.ofNullable(curr.value());
       }
 
       @Override
       public Void set(V value, MetaParam.Writable... metas) {
          InternalEntry<V> prev = data.get(key);
+         MetaParam.Writable[] versioned = versions.onWrite(prev, metas);
          if (prev != null) {
-            prev.metaParams.addMany(metas);
-            InternalEntry<V> iv = new InternalEntry<>(value, prev.metaParams);
+            InternalEntry<V> iv = prev.update(value, versioned);
             data.put(key, iv);
             notifier.notifyOnModify(EntryViews.readOnly(key, prev), EntryViews.readOnly(key, iv));
          } else {
-            InternalEntry<V> iv = new InternalEntry<>(value, MetaParams.of(metas));
+            InternalEntry<V> iv = InternalEntry.of(value, versioned);
             data.put(key, iv);
             notifier.notifyOnCreate(EntryViews.readOnly(key, iv));
          }
@@ -146,6 +292,14 @@ final class EntryViews {
          return null;
       }
 
+      @Override
+      public boolean compareAndSet(EntryVersion<?> expected, V value, MetaParam.Writable... metas) {
+         VersionedWrite<K, V> write = new VersionedWrite<>(expected, value, metas, versions, true);
+         data.compute(key, write);
+         write.notify(key, notifier);
+         return write.written;
+      }
+
       @Override
       public <T> Optional<T> findMetaParam(MetaParam.Id<T> id) {
          InternalEntry<V> curr = data.get(key);
@@ -164,7 +318,264 @@ final class EntryViews {
          if (curr == null)
             throw new NoSuchElementException("No value present");
 
-         return curr.value;
+         return curr.value();
+      }
+   }
+
+   /**
+    * Read-write entry view of an entry found while traversing the container.
+    * Reads see the entry as found, or as last written through the view,
+    * rather than looking the key up. Each write is applied with a single
+    * container operation, on top of the entry currently stored, so that
+    * metadata parameters written concurrently are kept. The view itself
+    * acts as the remapping function, as with atomic read-write views.
+    */
+   private static final class TraversedReadWriteViewImpl<K, V> implements ReadWriteEntryView<K, V>,
+         BiFunction<K, InternalEntry<V>, InternalEntry<V>> {
+      final K key;
+      final DataContainer<K, V> data;
+      final ListenerNotifier<K, V> notifier;
+      final EntryVersions versions;
+      InternalEntry<V> curr;
+      // State of the write being applied
+      V value;
+      MetaParam.Writable[] metas;
+      InternalEntry<V> prev;
+
+      private TraversedReadWriteViewImpl(K key, InternalEntry<V> entry, DataContainer<K, V> data,
+            ListenerNotifier<K, V> notifier, EntryVersions versions) {
+         this.key = key;
+         this.curr = entry;
+         this.data = data;
+         this.notifier = notifier;
+         this.versions = versions;
+      }
+
+      @Override
+      public InternalEntry<V> apply(K k, InternalEntry<V> existing) {
+         prev = existing;
+         MetaParam.Writable[] versioned = versions.onWrite(existing, metas);
+         return existing == null ? InternalEntry.of(value, versioned) : existing.update(value, versioned);
+      }
+
+      @Override
+      public K key() {
+         return key;
+      }
+
+      @Override
+      public Optional<V> find() {
+         return curr == null ? Optional.empty() : Optional.ofNullable(curr.value());
+      }
+
+      @Override
+      public V get() throws NoSuchElementException {
+         if (curr == null)
+            throw new NoSuchElementException("No value present");
+
+         return curr.value();
+      }
+
+      @Override
+      public Void set(V value, MetaParam.Writable... metas) {
+         this.value = value;
+         this.metas = metas;
+         curr = data.compute(key, this);
+         this.value = null;
+         this.metas = null;
+         if (prev == null)
+            notifier.notifyOnCreate(EntryViews.readOnly(key, curr));
+         else
+            notifier.notifyOnModify(EntryViews.readOnly(key, prev), EntryViews.readOnly(key, curr));
+         return null;
+      }
+
+      @Override
+      public Void remove() {
+         InternalEntry<V> removed = data.remove(key);
+         curr = null;
+         if (removed != null)
+            notifier.notifyOnRemove(EntryViews.readOnly(key, removed));
+         return null;
+      }
+
+      @Override
+      public boolean compareAndSet(EntryVersion<?> expected, V value, MetaParam.Writable... metas) {
+         VersionedWrite<K, V> write = new VersionedWrite<>(expected, value, metas, versions, true);
+         // Whether it succeeds or not, the view sees the entry as stored now
+         curr = data.compute(key, write);
+         write.notify(key, notifier);
+         return write.written;
+      }
+
+      @Override
+      public <T> Optional<T> findMetaParam(MetaParam.Id<T> id) {
+         return curr == null ? Optional.empty() : curr.findMetaParam(id);
+      }
+
+      @Override
+      public <T> T getMetaParam(MetaParam.Id<T> id) throws NoSuchElementException {
+         if (curr == null)
+            throw new NoSuchElementException("No metadata available");
+
+         return curr.getMetaParam(id);
+      }
+   }
+
+   /**
+    * Read-write entry view whose reads and writes act on a working copy of
+    * the entry while the entry is exclusively held by the container. The
+    * view itself acts as the remapping function, to keep allocations per
+    * evaluation to a minimum.
+    */
+   private static final class AtomicReadWriteViewImpl<K, V, R> implements ReadWriteEntryView<K, V>,
+         BiFunction<K, InternalEntry<V>, InternalEntry<V>> {
+      final K key;
+      final V value;
+      final Function<ReadWriteEntryView<K, V>, R> f;
+      final BiFunction<V, ReadWriteEntryView<K, V>, R> valueF;
+      final ListenerNotifier<K, V> notifier;
+      final EntryVersions versions;
+      InternalEntry<V> prev;
+      InternalEntry<V> curr;
+      R result;
+
+      private AtomicReadWriteViewImpl(K key, V value, Function<ReadWriteEntryView<K, V>, R> f,
+            BiFunction<V, ReadWriteEntryView<K, V>, R> valueF, ListenerNotifier<K, V> notifier,
+            EntryVersions versions) {
+         this.key = key;
+         this.value = value;
+         this.f = f;
+         this.valueF = valueF;
+         this.notifier = notifier;
+         this.versions = versions;
+      }
+
+      R eval(DataContainer<K, V> data) {
+         data.compute(key, this);
+         if (curr != prev) {
+            if (curr == null)
+               notifier.notifyOnRemove(EntryViews.readOnly(key, prev));
+            else if (prev == null)
+               notifier.notifyOnCreate(EntryViews.readOnly(key, curr));
+            else
+               notifier.notifyOnModify(EntryViews.readOnly(key, prev), EntryViews.readOnly(key, curr));
+         }
+         return result;
+      }
+
+      @Override
+      public InternalEntry<V> apply(K k, InternalEntry<V> existing) {
+         prev = existing;
+         curr = existing;
+         result = f != null ? f.apply(this) : valueF.apply(value, this);
+         return curr;
+      }
+
+      @Override
+      public K key() {
+         return key;
+      }
+
+      @Override
+      public Optional<V> find() {
+         return curr == null ? Optional.empty() : Optional.ofNullable(curr.value());
+      }
+
+      @Override
+      public V get() throws NoSuchElementException {
+         if (curr == null)
+            throw new NoSuchElementException("No value present");
+
+         return curr.value();
+      }
+
+      @Override
+      public Void set(V value, MetaParam.Writable... metas) {
+         MetaParam.Writable[] versioned = versions.onWrite(curr, metas);
+         curr = curr != null ? curr.update(value, versioned) : InternalEntry.of(value, versioned);
+         return null;
+      }
+
+      @Override
+      public Void remove() {
+         curr = null;
+         return null;
+      }
+
+      @Override
+      public boolean compareAndSet(EntryVersion<?> expected, V value, MetaParam.Writable... metas) {
+         // The entry is already held, so the working copy is compared
+         if (!EntryVersions.matches(curr, expected))
+            return false;
+
+         MetaParam.Writable[] versioned = versions.next(metas);
+         curr = curr != null ? curr.update(value, versioned) : InternalEntry.of(value, versioned);
+         return true;
+      }
+
+      @Override
+      public <T> Optional<T> findMetaParam(MetaParam.Id<T> id) {
+         return curr == null ? Optional.empty() : curr.findMetaParam(id);
+      }
+
+      @Override
+      public <T> T getMetaParam(MetaParam.Id<T> id) throws NoSuchElementException {
+         if (curr == null)
+            throw new NoSuchElementException("No metadata available");
+
+         return curr.getMetaParam(id);
+      }
+   }
+
+   /**
+    * Remapping function of a compare-and-set write, which only writes the
+    * entry if the current one has the expected version, assigning it a new
+    * version. Metadata parameters of the current entry are either updated,
+    * as read-write sets do, or replaced.
+    */
+   private static final class VersionedWrite<K, V> implements BiFunction<K, InternalEntry<V>, InternalEntry<V>> {
+      final EntryVersion<?> expected;
+      final V value;
+      final MetaParam.Writable[] metas;
+      final EntryVersions versions;
+      final boolean update;
+      InternalEntry<V> prev;
+      InternalEntry<V> curr;
+      boolean written;
+
+      private VersionedWrite(EntryVersion<?> expected, V value, MetaParam.Writable[] metas,
+            EntryVersions versions, boolean update) {
+         this.expected = expected;
+         this.value = value;
+         this.metas = metas;
+         this.versions = versions;
+         this.update = update;
+      }
+
+      @Override
+      public InternalEntry<V> apply(K key, InternalEntry<V> existing) {
+         prev = existing;
+         written = EntryVersions.matches(existing, expected);
+         if (!written)
+            return existing;
+
+         MetaParam.Writable[] versioned = versions.next(metas);
+         curr = update && existing != null ? existing.update(value, versioned) : InternalEntry.of(value, versioned);
+         return curr;
+      }
+
+      /**
+       * Notifies read-write listeners of the entry written, if any.
+       */
+      void notify(K key, ListenerNotifier<K, V> notifier) {
+         if (!written)
+            return;
+
+         if (prev == null)
+            notifier.notifyOnCreate(EntryViews.readOnly(key, curr));
+         else
+            notifier.notifyOnModify(EntryViews.readOnly(key, prev), EntryViews.readOnly(key, curr));
       }
    }
 
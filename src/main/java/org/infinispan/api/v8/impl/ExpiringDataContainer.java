@@ -0,0 +1,471 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.MetaParam.Lifespan;
+import org.infinispan.api.v8.MetaParam.MaxIdle;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@link DataContainer} decorator that expires entries as per their
+ * {@link Lifespan} and {@link MaxIdle} metadata parameters. Entries are
+ * stamped with their created and last used times when written, and with
+ * their last used time when read.
+ *
+ * Expired entries are never returned: single key lookups remove them
+ * as they find them, and traversals skip them. Entries that are not looked
+ * up are removed in the background, once a second, by advancing a
+ * {@link TimerWheel} where the keys of entries that can expire are
+ * scheduled when written.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why a timer wheel rather than scanning the container? Because
+ *    scanning costs as much as the number of entries stored, even when few
+ *    or none have expired, whereas advancing the wheel only costs as much
+ *    as the number of entries due to expire.
+ *    </li>
+ *    <li>Why aren't timers rescheduled when an entry with a max idle time
+ *    is read? Because reads would then need to lock the wheel. Instead,
+ *    when the timer is due, the entry's expiration time is checked again
+ *    and, if it was pushed back by reads, the timer is rescheduled.
+ *    </li>
+ *    <li>Why is there a wheel per group of segments? Because writes of
+ *    entries that can expire need to lock the wheel, so a single wheel
+ *    would have all such writes contending for its lock.
+ *    </li>
+ *    <li>Why is the reaping task shared by all containers? Because a
+ *    thread per functional map would be wasteful, and reaping only takes
+ *    a few microseconds unless lots of entries are due. The task only holds
+ *    a weak reference to the container, so that functional maps that are
+ *    not closed can still be garbage collected.
+ *    </li>
+ * </ul>
+ *
+ * Size and emptiness checks count expired entries that have not been
+ * removed yet.
+ */
+final class ExpiringDataContainer<K, V> implements DataContainer<K, V> {
+
+   static final long REAP_INTERVAL_MILLIS = 1000;
+   private static final int MAX_WHEELS = 16;
+
+   private static volatile ScheduledExecutorService reaper;
+
+   private final DataContainer<K, V> data;
+   private final LongSupplier clock;
+   private final TimerWheel<K>[] wheels;
+   private final int wheelMask;
+   private volatile ScheduledFuture<?> reaping;
+   private volatile boolean closed;
+
+   @SuppressWarnings("unchecked")
+   ExpiringDataContainer(DataContainer<K, V> data, LongSupplier clock) {
+      this.data = data;
+      this.clock = clock;
+      long now = clock.getAsLong();
+      this.wheels = new TimerWheel[Math.min(MAX_WHEELS, data.segmentCount())];
+      for (int i = 0; i < wheels.length; i++)
+         wheels[i] = new TimerWheel<>(now);
+      this.wheelMask = wheels.length - 1;
+   }
+
+   static <K, V> ExpiringDataContainer<K, V> wrap(DataContainer<K, V> data) {
+      return new ExpiringDataContainer<>(data, System::currentTimeMillis);
+   }
+
+   @Override
+   public InternalEntry<V> get(K key) {
+      InternalEntry<V> entry = data.get(key);
+      if (entry == null)
+         return null;
+
+      long now = clock.getAsLong();
+      if (entry.isExpired(now)) {
+         expire(key, now);
+         return null;
+      }
+
+      entry.touch(now);
+      return entry;
+   }
+
+   @Override
+   public InternalEntry<V> put(K key, InternalEntry<V> entry) {
+      long now = clock.getAsLong();
+      InternalEntry<V> prev = write(key, entry.stamp(now));
+      return prev == null || prev.isExpired(now) ? null : prev;
+   }
+
+   /**
+    * Writes the entries of a batch with a single container operation, unless
+    * some can expire, in which case each is written with its own operation,
+    * so that its timer is scheduled while the entry is held, as with
+    * {@link #put(Object, InternalEntry)}. Timers of the entries replaced by
+    * a single operation are not cancelled, since they can't be cancelled in
+    * the same order as the writes, and the reaper drops them when due.
+    */
+   @Override
+   public void writeAll(WriteBatch<K, V> batch) {
+      long now = clock.getAsLong();
+      boolean expiring = false;
+      for (int i = 0; i < batch.size(); i++) {
+         InternalEntry<V> entry = batch.entry(i);
+         if (entry != null) {
+            batch.entry(i, entry.stamp(now));
+            expiring |= entry.expiresAt() != Long.MAX_VALUE;
+         }
+      }
+
+      if (expiring) {
+         for (int i = 0; i < batch.size(); i++)
+            batch.prev(i, write(batch.key(i), batch.entry(i)));
+      } else {
+         data.writeAll(batch);
+      }
+
+      for (int i = 0; i < batch.size(); i++) {
+         InternalEntry<V> prev = batch.prev(i);
+         if (prev != null && prev.isExpired(now))
+            batch.prev(i, null);
+      }
+   }
+
+   @Override
+   public InternalEntry<V> remove(K key) {
+      InternalEntry<V> prev = write(key, null);
+      return prev == null || prev.isExpired(clock.getAsLong()) ? null : prev;
+   }
+
+   /**
+    * Stores the stamped entry, or removes the key if null, and returns the
+    * entry replaced. Timers are tracked while the entry is held, so that
+    * they're scheduled and cancelled in the same order as the writes.
+    */
+   private InternalEntry<V> write(K key, InternalEntry<V> entry) {
+      Write write = new Write(entry);
+      data.compute(key, write);
+      return write.prev;
+   }
+
+   private final class Write implements BiFunction<K, InternalEntry<V>, InternalEntry<V>> {
+      final InternalEntry<V> entry;
+      InternalEntry<V> prev;
+
+      Write(InternalEntry<V> entry) {
+         this.entry = entry;
+      }
+
+      @Override
+      public InternalEntry<V> apply(K key, InternalEntry<V> existing) {
+         prev = existing;
+         if (entry != null || existing != null)
+            track(key, existing, entry);
+         return entry;
+      }
+   }
+
+   @Override
+   public InternalEntry<V> compute(K key,
+         BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f) {
+      long now = clock.getAsLong();
+      return data.compute(key, (k, prev) -> {
+         InternalEntry<V> live = prev == null || prev.isExpired(now) ? null : prev;
+         InternalEntry<V> next = f.apply(k, live);
+         if (next == live) {
+            if (live != null)
+               live.touch(now);
+            else if (prev != null)
+               track(k, prev, null); // Expired entry removed
+            return live;
+         }
+
+         // Track while the entry is held, so that timers are scheduled in
+         // the same order as the writes
+         if (next != null)
+            next.stamp(now);
+         track(k, prev, next);
+         return next;
+      });
+   }
+
+   /**
+    * Schedules or cancels the key's timer as the entry for the key goes
+    * from the previous to the next entry, where null means no entry.
+    */
+   private void track(K key, InternalEntry<V> prev, InternalEntry<V> next) {
+      long expiresAt = next == null ? Long.MAX_VALUE : next.expiresAt();
+      if (expiresAt != Long.MAX_VALUE) {
+         TimerWheel<K> wheel = wheelFor(key);
+         synchronized (wheel) {
+            wheel.schedule(key, expiresAt);
+         }
+         startReaping();
+      } else if (prev != null && prev.expiresAt() != Long.MAX_VALUE) {
+         TimerWheel<K> wheel = wheelFor(key);
+         synchronized (wheel) {
+            wheel.cancel(key);
+         }
+      }
+   }
+
+   private void expire(K key, long now) {
+      data.compute(key, (k, entry) -> {
+         if (entry == null || entry.isExpired(now)) {
+            TimerWheel<K> wheel = wheelFor(k);
+            synchronized (wheel) {
+               wheel.cancel(k);
+            }
+            return null;
+         }
+         return entry;
+      });
+   }
+
+   private TimerWheel<K> wheelFor(K key) {
+      return wheels[data.segmentOf(key) & wheelMask];
+   }
+
+   /**
+    * Removes the entries whose timers are due. Entries whose expiration
+    * time was pushed back since their timer was scheduled, e.g. because
+    * they've been read, have their timer rescheduled.
+    */
+   void reap() {
+      long now = clock.getAsLong();
+      List<K> due = new ArrayList<>();
+      for (TimerWheel<K> wheel : wheels) {
+         synchronized (wheel) {
+            wheel.advance(now, due);
+         }
+      }
+
+      for (K key : due) {
+         data.compute(key, (k, entry) -> {
+            if (entry == null || entry.isExpired(now))
+               return null;
+
+            long expiresAt = entry.expiresAt();
+            if (expiresAt != Long.MAX_VALUE) {
+               TimerWheel<K> wheel = wheelFor(k);
+               synchronized (wheel) {
+                  wheel.schedule(k, expiresAt);
+               }
+            }
+            return entry;
+         });
+      }
+   }
+
+   /**
+    * Number of keys scheduled to expire.
+    */
+   int scheduled() {
+      int scheduled = 0;
+      for (TimerWheel<K> wheel : wheels) {
+         synchronized (wheel) {
+            scheduled += wheel.size();
+         }
+      }
+      return scheduled;
+   }
+
+   private void startReaping() {
+      if (reaping != null || closed)
+         return;
+
+      synchronized (this) {
+         if (reaping == null && !closed)
+            reaping = Reaper.start(this);
+      }
+   }
+
+   @Override
+   public int size() {
+      return data.size();
+   }
+
+   @Override
+   public boolean isEmpty() {
+      return data.isEmpty();
+   }
+
+   @Override
+   public long weight() {
+      return data.weight();
+   }
+
+   @Override
+   public boolean clearsInConstantTime() {
+      return data.clearsInConstantTime();
+   }
+
+   @Override
+   public void clear() {
+      data.clear();
+      for (TimerWheel<K> wheel : wheels) {
+         synchronized (wheel) {
+            wheel.clear();
+         }
+      }
+   }
+
+   @Override
+   public Stream<K> keys() {
+      Spliterator<Map.Entry<K, InternalEntry<V>>> entries = data.entries().spliterator();
+      return StreamSupport.stream(new LiveSpliterator<>(entries, clock.getAsLong(), Map.Entry::getKey), false);
+   }
+
+   @Override
+   public Stream<Map.Entry<K, InternalEntry<V>>> entries() {
+      Spliterator<Map.Entry<K, InternalEntry<V>>> entries = data.entries().spliterator();
+      return StreamSupport.stream(new LiveSpliterator<>(entries, clock.getAsLong(), Function.identity()), false);
+   }
+
+   @Override
+   public int segmentCount() {
+      return data.segmentCount();
+   }
+
+   @Override
+   public int segmentOf(K key) {
+      return data.segmentOf(key);
+   }
+
+   @Override
+   public Segment<K, V> segment(int index) {
+      return data.segment(index);
+   }
+
+   @Override
+   public void close() {
+      synchronized (this) {
+         closed = true;
+         if (reaping != null)
+            reaping.cancel(false);
+      }
+      data.close();
+   }
+
+   private static ScheduledExecutorService reaper() {
+      ScheduledExecutorService r = reaper;
+      if (r == null) {
+         synchronized (ExpiringDataContainer.class) {
+            r = reaper;
+            if (r == null) {
+               reaper = r = Executors.newSingleThreadScheduledExecutor(task -> {
+                  Thread t = new Thread(task, "functional-map-expiration");
+                  t.setDaemon(true);
+                  return t;
+               });
+            }
+         }
+      }
+      return r;
+   }
+
+   /**
+    * Spliterator skipping expired entries. Unlike filtering a stream, it
+    * keeps the ability of the container's spliterator to split.
+    */
+   private static final class LiveSpliterator<K, V, T> implements Spliterator<T> {
+      final Spliterator<Map.Entry<K, InternalEntry<V>>> entries;
+      final long now;
+      final Function<Map.Entry<K, InternalEntry<V>>, T> f;
+
+      private LiveSpliterator(Spliterator<Map.Entry<K, InternalEntry<V>>> entries, long now,
+            Function<Map.Entry<K, InternalEntry<V>>, T> f) {
+         this.entries = entries;
+         this.now = now;
+         this.f = f;
+      }
+
+      @Override
+      public boolean tryAdvance(Consumer<? super T> action) {
+         boolean[] found = {false};
+         while (!found[0] && entries.tryAdvance(e -> {
+            if (!e.getValue().isExpired(now)) {
+               found[0] = true;
+               action.accept(f.apply(e));
+            }
+         })) {
+            // Skip expired entries
+         }
+         return found[0];
+      }
+
+      @Override
+      public void forEachRemaining(Consumer<? super T> action) {
+         entries.forEachRemaining(e -> {
+            if (!e.getValue().isExpired(now))
+               action.accept(f.apply(e));
+         });
+      }
+
+      @Override
+      public Spliterator<T> trySplit() {
+         Spliterator<Map.Entry<K, InternalEntry<V>>> split = entries.trySplit();
+         return split == null ? null : new LiveSpliterator<>(split, now, f);
+      }
+
+      @Override
+      public long estimateSize() {
+         return entries.estimateSize();
+      }
+
+      @Override
+      public int characteristics() {
+         return entries.characteristics() & ~(Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.SORTED);
+      }
+   }
+
+   /**
+    * Periodic task reaping a container, which cancels itself once the
+    * container has been garbage collected.
+    */
+   private static final class Reaper implements Runnable {
+      final WeakReference<ExpiringDataContainer<?, ?>> container;
+      volatile ScheduledFuture<?> future;
+
+      private Reaper(ExpiringDataContainer<?, ?> container) {
+         this.container = new WeakReference<>(container);
+      }
+
+      static ScheduledFuture<?> start(ExpiringDataContainer<?, ?> container) {
+         Reaper task = new Reaper(container);
+         task.future = reaper().scheduleWithFixedDelay(task,
+            REAP_INTERVAL_MILLIS, REAP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+         return task.future;
+      }
+
+      @Override
+      public void run() {
+         ExpiringDataContainer<?, ?> c = container.get();
+         if (c == null) {
+            future.cancel(false);
+            return;
+         }
+
+         try {
+            c.reap();
+         } catch (RuntimeException e) {
+            // Keep reaping, entries failing to be removed are retried when
+            // looked up, and expired entries are never returned anyway
+         }
+      }
+   }
+
+}
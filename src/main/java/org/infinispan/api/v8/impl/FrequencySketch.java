@@ -0,0 +1,105 @@
+package org.infinispan.api.v8.impl;
+
+import java.util.Arrays;
+
+/**
+ * Count-min sketch estimating how often keys have been accessed recently,
+ * used by {@link BoundedDataContainer} to decide which entries to keep.
+ * Each key maps to four 4-bit counters, picked with different hash
+ * functions, and its frequency is the smallest of them, so estimates can be
+ * too high because of collisions but never too low. Counters saturate at 15.
+ *
+ * Once the number of increments reaches ten times the maximum number of
+ * entries, all counters are halved, so that keys that were popular a long
+ * time ago don't keep their advantage forever.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why 4-bit counters? Because the sketch only needs to tell
+ *    frequently accessed keys apart from rarely accessed ones, and small
+ *    counters let sixteen of them fit in a long, so the sketch takes about
+ *    eight bytes per entry.
+ *    </li>
+ * </ul>
+ *
+ * This class is not thread safe, callers must guard access with a lock.
+ */
+final class FrequencySketch {
+
+   private static final long[] SEEDS = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+   private static final long RESET_MASK = 0x7777777777777777L;
+
+   private final long[] table;
+   private final int tableMask;
+   private final int sampleSize;
+   private int size;
+
+   FrequencySketch(long maximumSize) {
+      int capacity = (int) Math.min(maximumSize, 1 << 30);
+      this.table = new long[Math.max(8, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1)];
+      this.tableMask = table.length - 1;
+      this.sampleSize = (int) Math.min(10L * Math.max(1, maximumSize), Integer.MAX_VALUE);
+   }
+
+   /**
+    * Estimated number of times the key with the given hash code has been
+    * accessed recently, from 0 to 15.
+    */
+   int frequency(int hashCode) {
+      int hash = spread(hashCode);
+      int start = (hash & 3) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++) {
+         int index = indexOf(hash, i);
+         int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+         frequency = Math.min(frequency, count);
+      }
+      return frequency;
+   }
+
+   void increment(int hashCode) {
+      int hash = spread(hashCode);
+      int start = (hash & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++)
+         added |= incrementAt(indexOf(hash, i), start + i);
+
+      if (added && ++size == sampleSize)
+         reset();
+   }
+
+   void clear() {
+      Arrays.fill(table, 0);
+      size = 0;
+   }
+
+   private boolean incrementAt(int i, int j) {
+      int offset = j << 2;
+      long mask = 0xfL << offset;
+      if ((table[i] & mask) != mask) {
+         table[i] += 1L << offset;
+         return true;
+      }
+      return false;
+   }
+
+   private void reset() {
+      for (int i = 0; i < table.length; i++)
+         table[i] = (table[i] >>> 1) & RESET_MASK;
+      size >>>= 1;
+   }
+
+   private int indexOf(int hash, int i) {
+      long h = (hash + SEEDS[i]) * SEEDS[i];
+      h += h >>> 32;
+      return ((int) h) & tableMask;
+   }
+
+   private static int spread(int x) {
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      return (x >>> 16) ^ x;
+   }
+
+}
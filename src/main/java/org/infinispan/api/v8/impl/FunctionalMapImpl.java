@@ -2,32 +2,76 @@ package org.infinispan.api.v8.impl;
 
 import org.infinispan.api.v8.FunctionalMap;
 import org.infinispan.api.v8.Param;
+import org.infinispan.api.v8.Param.AsyncExecutor;
 import org.infinispan.api.v8.Status;
 
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
+/**
+ * Functional map whose data is stored as per the {@link Storage} it's
+ * created with. Maps derived from it via {@link #withParams(Param[])} or
+ * {@link #withTracer(OperationTracer)} share its data.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Who shuts down dedicated executors, see
+ *    {@link AsyncExecutor#bounded(int, int)}? The map whose withParams
+ *    was passed the executor, whether it's a functional map or a read-only,
+ *    write-only or read-write map, owns it, and shuts it down when it's
+ *    closed. Maps derived from the owner share the executor, but closing
+ *    them leaves it alone, so that closing a derived map doesn't stop its
+ *    siblings' operations. Closing the map created with the data closes
+ *    the data and shuts down every executor owned by the maps derived from
+ *    it, so nothing is left running once it's closed.
+ *    </li>
+ * </ul>
+ */
 public final class FunctionalMapImpl<K, V> implements FunctionalMap<K, V> {
 
    final Params params;
-   final ConcurrentMap<K, InternalEntry<V>> data;
+   final SnapshotDataContainer<K, V> data;
    final ListenerNotifier<K, V> notifier;
+   final OperationTracer tracer;
+   final EntryVersions versions;
+   // Map created with the data, which owns it
+   final FunctionalMapImpl<K, V> origin;
+   // Executors owned by the maps sharing the data which are still open
+   final Set<AsyncExecutor> executors;
+   // Executor owned by this map, or null
+   final AsyncExecutor executor;
 
    volatile Status status;
 
-   private FunctionalMapImpl(Params params, ConcurrentMap<K, InternalEntry<V>> data) {
+   private FunctionalMapImpl(Params params, SnapshotDataContainer<K, V> data,
+         ListenerNotifier<K, V> notifier, OperationTracer tracer, EntryVersions versions,
+         FunctionalMapImpl<K, V> origin, Set<AsyncExecutor> executors, AsyncExecutor executor) {
       this.params = params;
       this.data = data;
-      this.notifier = new ListenersImpl<>();
+      this.notifier = notifier;
+      this.tracer = tracer;
+      this.versions = versions;
+      this.origin = origin == null ? this : origin;
+      this.executors = executors;
+      this.executor = executor;
       this.status = Status.STARTED;
    }
 
    public static <K, V> FunctionalMapImpl<K, V> create() {
-      return new FunctionalMapImpl<>(Params.create(), new ConcurrentHashMap<>());
+      return create(Storage.heap());
    }
 
-   private static <K, V> FunctionalMapImpl<K, V> create(Params params, ConcurrentMap<K, InternalEntry<V>> data) {
-      return new FunctionalMapImpl<>(params, data);
+   /**
+    * Creates a functional map whose entries are stored as per the given
+    * storage. Entries expire as per their lifespan and max idle metadata
+    * parameters, and can be traversed as of a point in time, whatever the
+    * storage.
+    */
+   public static <K, V> FunctionalMapImpl<K, V> create(Storage<K, V> storage) {
+      DataContainer<K, V> data = ExpiringDataContainer.wrap(storage.createContainer());
+      return new FunctionalMapImpl<>(Params.create(), SnapshotDataContainer.wrap(data),
+         new ListenersImpl<>(), null, EntryVersions.create(data), null, ConcurrentHashMap.newKeySet(), null);
    }
 
    @Override
@@ -38,7 +82,46 @@ public final class FunctionalMapImpl<K, V> implements FunctionalMap<K, V> {
       if (params.containsAll(ps))
          return this; // We already have all specified params
 
-      return create(params.addAll(ps), data);
+      Params derived = params.addAll(ps);
+      return new FunctionalMapImpl<>(derived, data, new ListenersImpl<>(), tracer, versions,
+         origin, executors, own(params, derived));
+   }
+
+   /**
+    * Returns the executor of the derived parameters if it's a dedicated
+    * thread pool other than the one of the parameters they're derived from,
+    * in which case the derived map owns it, or null otherwise. Executors that
+    * don't need shutting down are not tracked, since derived maps are often
+    * never closed, e.g. when created for each call.
+    */
+   AsyncExecutor own(Params from, Params derived) {
+      Param<Executor> current = from.get(AsyncExecutor.ID);
+      Param<Executor> executor = derived.get(AsyncExecutor.ID);
+      if (executor == current || !((AsyncExecutor) executor).isOwned())
+         return null;
+
+      executors.add((AsyncExecutor) executor);
+      return (AsyncExecutor) executor;
+   }
+
+   /**
+    * Shuts down an executor owned by a map that's being closed.
+    */
+   void release(AsyncExecutor executor) {
+      if (executors.remove(executor))
+         executor.shutdown();
+   }
+
+   /**
+    * Returns a functional map sharing the same data and listeners, whose
+    * operations are traced with the given tracer. Passing null disables
+    * tracing, which is the default.
+    */
+   public FunctionalMapImpl<K, V> withTracer(OperationTracer tracer) {
+      if (this.tracer == tracer)
+         return this;
+
+      return new FunctionalMapImpl<>(params, data, notifier, tracer, versions, origin, executors, null);
    }
 
    @Override
@@ -48,13 +131,37 @@ public final class FunctionalMapImpl<K, V> implements FunctionalMap<K, V> {
 
    @Override
    public Status getStatus() {
-      return status;
+      return origin.status == Status.STOPPED ? Status.STOPPED : status;
    }
 
+   /**
+    * Current total weight of the entries stored. With storage bounded by
+    * weight, see {@link Storage#withMaxWeight(long, Weigher)}, it's the
+    * estimated number of bytes the entries take, otherwise it's the number
+    * of entries. Reading it doesn't block, so it can be polled for
+    * monitoring.
+    */
+   public long weight() {
+      return data.weight();
+   }
+
+   /**
+    * Closes this map, shutting down the executor it owns, if any. If this
+    * is the map created with the data, the data is closed too, along with
+    * the executors owned by the maps derived from it, which are all
+    * stopped.
+    */
    @Override
    public void close() throws Exception {
       System.out.println("close");
       status = Status.STOPPED;
+      if (executor != null)
+         release(executor);
+
+      if (origin == this) {
+         executors.forEach(this::release);
+         data.close();
+      }
    }
 
 }
@@ -1,6 +1,11 @@
 package org.infinispan.api.v8.impl;
 
 import org.infinispan.api.v8.MetaParam;
+import org.infinispan.api.v8.MetaParam.Created;
+import org.infinispan.api.v8.MetaParam.EntryVersionParam;
+import org.infinispan.api.v8.MetaParam.LastUsed;
+import org.infinispan.api.v8.MetaParam.Lifespan;
+import org.infinispan.api.v8.MetaParam.MaxIdle;
 
 import java.util.NoSuchElementException;
 import java.util.Optional;
@@ -9,51 +14,442 @@ import java.util.Optional;
  * Internal entry holder for value and metadata parameters. This is not exposed
  * externally to users. Value and metadata parameters are exposed via the
  * different entry view facades.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why are value and metadata parameters accessed via methods rather
+ *    than fields? Because not all data containers keep them as objects.
+ *    For example, off-heap containers return entries that only decode
+ *    value and metadata parameters from their stored form when they're
+ *    first accessed.
+ *    </li>
+ *    <li>Why are the created and last used times kept as primitive fields
+ *    rather than as metadata parameters? Because the last used time changes
+ *    on every read, and metadata parameters are immutable, so they'd need
+ *    to be copied each time. As primitives, they're updated in place
+ *    and they don't cost an object per entry. They're still exposed as
+ *    {@link Created} and {@link LastUsed} metadata parameters.
+ *    </li>
+ *    <li>Why are there different heap entry classes depending on the
+ *    metadata parameters? Because most entries are stored with no metadata
+ *    parameters, with a lifespan and/or max idle time, or with a version,
+ *    and keeping those in a {@link MetaParams} collection costs three to
+ *    four objects per entry. Entries with those common shapes keep them in
+ *    fields instead, and only entries with other metadata parameters keep
+ *    a collection. Callers don't see the difference, since metadata
+ *    parameters are looked up via {@link MetaParam.Lookup} either way, and
+ *    {@link #metaParams()} builds a collection when asked for one.
+ *    </li>
+ * </ul>
  */
-final class InternalEntry<V> implements MetaParam.Lookup {
-   final V value;
-   final MetaParams metaParams;
+abstract class InternalEntry<V> implements MetaParam.Lookup {
 
-   InternalEntry(V value, MetaParams metaParams) {
-      this.value = value;
-      this.metaParams = metaParams;
+   // Container's hash table node, heap entry object with its value and
+   // times, and metadata parameters object and array, as estimated by
+   // Weighers
+   private static final long NODE_OVERHEAD = 32;
+   private static final long HEAP_ENTRY_OVERHEAD = 32;
+   private static final long META_PARAMS_OVERHEAD = 16 + 16;
+   // Array slot and parameter object
+   private static final long META_PARAM_OVERHEAD = Weighers.REFERENCE + 24;
+
+   abstract V value();
+
+   /**
+    * Metadata parameters of the entry. Entries that don't keep their
+    * metadata parameters as a collection build a new one each time.
+    */
+   abstract MetaParams metaParams();
+
+   /**
+    * Returns the metadata parameter with the given id, or null if the entry
+    * doesn't have it.
+    */
+   <T> T metaParam(MetaParam.Id<T> id) {
+      return metaParams().findNullable(id);
+   }
+
+   /**
+    * Time in milliseconds when the entry was written, or 0 if not stamped.
+    */
+   abstract long created();
+
+   /**
+    * Time in milliseconds when the entry was last read or written, or 0 if
+    * not stamped.
+    */
+   abstract long lastUsed();
+
+   /**
+    * Stamps the created and last used times of an entry about to be
+    * stored. Entries can only be stamped before they're visible to others.
+    */
+   abstract InternalEntry<V> stamp(long now);
+
+   /**
+    * Moves the last used time forward to the given time.
+    */
+   abstract void touch(long now);
+
+   /**
+    * Time in milliseconds when the entry expires, as per its
+    * {@link Lifespan} and {@link MaxIdle} metadata parameters, or
+    * {@link Long#MAX_VALUE} if it never expires. Negative lifespan or max
+    * idle times mean no expiration.
+    */
+   long expiresAt() {
+      MetaParams metas = metaParams();
+      if (metas.isEmpty())
+         return Long.MAX_VALUE;
+
+      long lifespan = metas.findLong(Lifespan.ID, -1);
+      long maxIdle = metas.findLong(MaxIdle.ID, -1);
+      return Math.min(deadline(created(), lifespan), deadline(lastUsed(), maxIdle));
+   }
+
+   boolean isExpired(long now) {
+      return now >= expiresAt();
+   }
+
+   private static long deadline(long start, long duration) {
+      if (duration < 0)
+         return Long.MAX_VALUE;
+
+      long deadline = start + duration;
+      return deadline < start ? Long.MAX_VALUE : deadline;
+   }
+
+   /**
+    * Estimated number of bytes the entry takes other than its key and value,
+    * i.e. the entry itself, its metadata parameters, and the container's
+    * bookkeeping for it.
+    */
+   long overhead() {
+      return NODE_OVERHEAD + HEAP_ENTRY_OVERHEAD + Weighers.REFERENCE
+         + META_PARAMS_OVERHEAD + META_PARAM_OVERHEAD * metaParams().size();
+   }
+
+   /**
+    * Creates a heap entry for the value and metadata parameters, picking
+    * the most compact class for the metadata parameters given.
+    */
+   static <V> InternalEntry<V> of(V value, MetaParams metaParams) {
+      int size = metaParams.size();
+      if (size == 0)
+         return new ValueEntry<>(value);
+
+      Lifespan lifespan = metaParams.findNullable(Lifespan.ID);
+      MaxIdle maxIdle = metaParams.findNullable(MaxIdle.ID);
+      if ((lifespan != null ? 1 : 0) + (maxIdle != null ? 1 : 0) == size
+            && ExpiringEntry.fits(lifespan) && ExpiringEntry.fits(maxIdle))
+         return new ExpiringEntry<>(value, lifespan, maxIdle);
+
+      if (size == 1) {
+         EntryVersionParam<?> version = metaParams.findNullable(EntryVersionParam.ID());
+         if (version != null)
+            return new VersionedEntry<>(value, version);
+      }
+
+      return new MetaParamsEntry<>(value, MetaParams.intern(metaParams));
+   }
+
+   /**
+    * Creates a heap entry for the value and metadata parameters written by
+    * users. Unlike {@link #of(Object, MetaParams)}, entries with common
+    * metadata parameters are created without building a collection.
+    */
+   static <V> InternalEntry<V> of(V value, MetaParam.Writable... metas) {
+      if (metas.length == 0)
+         return new ValueEntry<>(value);
+
+      if (metas.length == 1 && metas[0] instanceof EntryVersionParam)
+         return new VersionedEntry<>(value, (EntryVersionParam<?>) metas[0]);
+
+      if (metas.length <= 2) {
+         Lifespan lifespan = null;
+         MaxIdle maxIdle = null;
+         for (MetaParam.Writable meta : metas) {
+            if (meta instanceof Lifespan && lifespan == null)
+               lifespan = (Lifespan) meta;
+            else if (meta instanceof MaxIdle && maxIdle == null)
+               maxIdle = (MaxIdle) meta;
+         }
+         if ((lifespan != null ? 1 : 0) + (maxIdle != null ? 1 : 0) == metas.length
+               && ExpiringEntry.fits(lifespan) && ExpiringEntry.fits(maxIdle))
+            return new ExpiringEntry<>(value, lifespan, maxIdle);
+      }
+
+      return of(value, MetaParams.of(metas));
+   }
+
+   /**
+    * Creates an entry replacing this one, with the given value and the same
+    * metadata parameters, which are shared rather than copied.
+    */
+   InternalEntry<V> withValue(V value) {
+      return of(value, metaParams());
+   }
+
+   /**
+    * Creates an entry replacing this one, with the given value, and this
+    * entry's metadata parameters updated with the given ones. This entry's
+    * version is never kept, since a new value means a new version, if any.
+    */
+   InternalEntry<V> update(V value, MetaParam.Writable... metas) {
+      boolean versioned = metaParam(EntryVersionParam.ID()) != null;
+      if (metas.length == 0 && !versioned)
+         return withValue(value);
+
+      MetaParams base = metaParams();
+      return of(value, (versioned ? base.remove(EntryVersionParam.ID()) : base).addMany(metas));
    }
 
    @Override
    public boolean equals(Object o) {
       if (this == o) return true;
-      if (o == null || getClass() != o.getClass()) return false;
+      if (!(o instanceof InternalEntry)) return false;
 
       InternalEntry<?> that = (InternalEntry<?>) o;
 
-      if (!value.equals(that.value)) return false;
-      return metaParams.equals(that.metaParams);
+      if (!value().equals(that.value())) return false;
+      return metaParams().equals(that.metaParams());
 
    }
 
    @Override
    public int hashCode() {
-      int result = value.hashCode();
-      result = 31 * result + metaParams.hashCode();
+      int result = value().hashCode();
+      result = 31 * result + metaParams().hashCode();
       return result;
    }
 
    @Override
    public String toString() {
       return "InternalEntry{" +
-         "value=" + value +
-         ", metaParams=" + metaParams +
+         "value=" + value() +
+         ", metaParams=" + metaParams() +
          '}';
    }
 
    @Override
    public <T> T getMetaParam(MetaParam.Id<T> id) throws NoSuchElementException {
-      return metaParams.get(id);
+      T param = findNullable(id);
+      if (param == null)
+         throw new NoSuchElementException("Metadata with id=" + id + " not found");
+
+      return param;
    }
 
    @Override
    public <T> Optional<T> findMetaParam(MetaParam.Id<T> id) {
-      return metaParams.find(id);
+      return Optional.ofNullable(findNullable(id));
+   }
+
+   private <T> T findNullable(MetaParam.Id<T> id) {
+      T timestamp = timestamp(id);
+      return timestamp != null ? timestamp : metaParam(id);
+   }
+
+   @SuppressWarnings("unchecked")
+   private <T> T timestamp(MetaParam.Id<T> id) {
+      if (Created.ID.equals(id))
+         return created() == 0 ? null : (T) new Created(created());
+      if (LastUsed.ID.equals(id))
+         return lastUsed() == 0 ? null : (T) new LastUsed(lastUsed());
+      return null;
+   }
+
+   /**
+    * Entry kept as objects on the heap, with its created and last used
+    * times. Subclasses keep the metadata parameters.
+    */
+   private abstract static class HeapEntry<V> extends InternalEntry<V> {
+      final V value;
+      long created;
+      volatile long lastUsed;
+
+      HeapEntry(V value) {
+         this.value = value;
+      }
+
+      @Override
+      V value() {
+         return value;
+      }
+
+      @Override
+      long created() {
+         return created;
+      }
+
+      @Override
+      long lastUsed() {
+         return lastUsed;
+      }
+
+      @Override
+      InternalEntry<V> stamp(long now) {
+         created = now;
+         lastUsed = now;
+         return this;
+      }
+
+      @Override
+      void touch(long now) {
+         // Skip the write if the time hasn't moved, to avoid contending on
+         // the entry when it's read concurrently
+         if (now > lastUsed)
+            lastUsed = now;
+      }
+   }
+
+   /**
+    * Entry without metadata parameters.
+    */
+   private static final class ValueEntry<V> extends HeapEntry<V> {
+      private ValueEntry(V value) {
+         super(value);
+      }
+
+      @Override
+      MetaParams metaParams() {
+         return MetaParams.empty();
+      }
+
+      @Override
+      <T> T metaParam(MetaParam.Id<T> id) {
+         return null;
+      }
+
+      @Override
+      InternalEntry<V> withValue(V value) {
+         return new ValueEntry<>(value);
+      }
+
+      @Override
+      long expiresAt() {
+         return Long.MAX_VALUE;
+      }
+
+      @Override
+      long overhead() {
+         return NODE_OVERHEAD + HEAP_ENTRY_OVERHEAD;
+      }
+   }
+
+   /**
+    * Entry with a lifespan, a max idle time, or both, kept as primitives.
+    */
+   private static final class ExpiringEntry<V> extends HeapEntry<V> {
+      // Stands for a missing parameter, since negative times are valid
+      private static final long NONE = Long.MIN_VALUE;
+
+      final long lifespan;
+      final long maxIdle;
+
+      private ExpiringEntry(V value, Lifespan lifespan, MaxIdle maxIdle) {
+         this(value, lifespan == null ? NONE : lifespan.get(), maxIdle == null ? NONE : maxIdle.get());
+      }
+
+      private ExpiringEntry(V value, long lifespan, long maxIdle) {
+         super(value);
+         this.lifespan = lifespan;
+         this.maxIdle = maxIdle;
+      }
+
+      static boolean fits(MetaParam.LongMetadata<?> param) {
+         return param == null || param.get() != NONE;
+      }
+
+      @Override
+      MetaParams metaParams() {
+         if (lifespan == NONE)
+            return MetaParams.of(new MaxIdle(maxIdle));
+         if (maxIdle == NONE)
+            return MetaParams.of(new Lifespan(lifespan));
+         return MetaParams.of(new Lifespan(lifespan), new MaxIdle(maxIdle));
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      <T> T metaParam(MetaParam.Id<T> id) {
+         if (lifespan != NONE && Lifespan.ID.equals(id))
+            return (T) new Lifespan(lifespan);
+         if (maxIdle != NONE && MaxIdle.ID.equals(id))
+            return (T) new MaxIdle(maxIdle);
+         return null;
+      }
+
+      @Override
+      long expiresAt() {
+         return Math.min(deadline(created, lifespan), deadline(lastUsed, maxIdle));
+      }
+
+      @Override
+      InternalEntry<V> withValue(V value) {
+         return new ExpiringEntry<>(value, lifespan, maxIdle);
+      }
+
+      @Override
+      long overhead() {
+         return NODE_OVERHEAD + HEAP_ENTRY_OVERHEAD + 2 * Long.BYTES;
+      }
+   }
+
+   /**
+    * Entry with a version only.
+    */
+   private static final class VersionedEntry<V> extends HeapEntry<V> {
+      final EntryVersionParam<?> version;
+
+      private VersionedEntry(V value, EntryVersionParam<?> version) {
+         super(value);
+         this.version = version;
+      }
+
+      @Override
+      MetaParams metaParams() {
+         return MetaParams.of(version);
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      <T> T metaParam(MetaParam.Id<T> id) {
+         return version.id().equals(id) ? (T) version : null;
+      }
+
+      @Override
+      long expiresAt() {
+         return Long.MAX_VALUE;
+      }
+
+      @Override
+      long overhead() {
+         return NODE_OVERHEAD + HEAP_ENTRY_OVERHEAD + META_PARAM_OVERHEAD;
+      }
+   }
+
+   /**
+    * Entry with any other combination of metadata parameters, kept in a
+    * collection.
+    */
+   private static final class MetaParamsEntry<V> extends HeapEntry<V> {
+      final MetaParams metaParams;
+
+      private MetaParamsEntry(V value, MetaParams metaParams) {
+         super(value);
+         this.metaParams = metaParams;
+      }
+
+      @Override
+      MetaParams metaParams() {
+         return metaParams;
+      }
+
+      @Override
+      InternalEntry<V> withValue(V value) {
+         return new MetaParamsEntry<>(value, metaParams);
+      }
    }
 
 }
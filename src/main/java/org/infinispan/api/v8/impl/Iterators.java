@@ -3,11 +3,22 @@ package org.infinispan.api.v8.impl;
 import org.infinispan.api.v8.Closeables.CloseableIterator;
 import org.infinispan.api.v8.Closeables.CloseableSpliterator;
 
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -34,19 +45,50 @@ public final class Iterators {
     * already produced streamed results.
     */
    public static <T> CloseableIterator<T> eagerIterator(Stream<T> stream) {
-      List<T> list = stream.collect(Collectors.toList());
-      return new StreamCloseableIterator<>(list.stream());
+      try (Stream<T> s = stream) {
+         List<T> list = s.collect(Collectors.toList());
+         return new StreamCloseableIterator<>(list.stream());
+      }
+   }
+
+   /**
+    * Provide an asynchronously evaluated closeable iterator for a stream.
+    * The stream is supplied and consumed in the given executor, which
+    * produces elements into a bounded buffer from which the iterator takes
+    * elements. Once the buffer is full, production is suspended, without
+    * holding on to any executor threads, until the iterator has taken
+    * enough elements out of the buffer.
+    */
+   public static <T> CloseableIterator<T> asyncIterator(Executor executor, Supplier<Stream<T>> s) {
+      return new AsyncCloseableIterator<>(executor, s, ASYNC_BUFFER_SIZE);
+   }
+
+   /**
+    * Provide a closeable iterator over the elements a future completes
+    * with. The iterator waits for the future to complete when it's first
+    * navigated, and if the future completed exceptionally, the failure is
+    * thrown from then on. Closing the iterator doesn't cancel the future.
+    */
+   public static <T> CloseableIterator<T> futureIterator(CompletableFuture<? extends Collection<T>> cf) {
+      return new FutureCloseableIterator<>(cf);
    }
 
+   /**
+    * Number of elements asynchronous iterators buffer ahead of consumption.
+    */
+   static final int ASYNC_BUFFER_SIZE = 256;
+
    private Iterators() {
       // Cannot be instantiated, it's just a holder class
    }
 
    private static final class StreamCloseableIterator<T> implements CloseableIterator<T> {
       volatile boolean isClosed = false;
+      final Stream<T> stream;
       final Iterator<T> it;
 
       private StreamCloseableIterator(Stream<T> stream) {
+         this.stream = stream;
          this.it = stream.iterator();
       }
 
@@ -66,39 +108,318 @@ public final class Iterators {
       @Override
       public void close() {
          isClosed = true;
+         stream.close();
       }
    }
 
+   private static final class FutureCloseableIterator<T> implements CloseableIterator<T> {
+      volatile boolean isClosed = false;
+      final CompletableFuture<? extends Collection<T>> cf;
+      Iterator<T> it;
+
+      private FutureCloseableIterator(CompletableFuture<? extends Collection<T>> cf) {
+         this.cf = cf;
+      }
+
+      @Override
+      public boolean hasNext() {
+         if (isClosed)
+            return false;
+
+         if (it == null) {
+            try {
+               it = cf.join().iterator();
+            } catch (CompletionException e) {
+               if (e.getCause() instanceof RuntimeException)
+                  throw (RuntimeException) e.getCause();
+
+               throw e;
+            }
+         }
+         return it.hasNext();
+      }
+
+      @Override
+      public T next() {
+         if (!hasNext())
+            throw new NoSuchElementException(isClosed ? "Iterator closed" : "No more elements");
+
+         return it.next();
+      }
+
+      @Override
+      public void close() {
+         isClosed = true;
+      }
+   }
+
+   /**
+    * Closeable iterator whose elements are produced by a task running in an
+    * executor. The task is only scheduled while there's space in the buffer,
+    * and each run produces at most a buffer's worth of elements before
+    * rescheduling itself, so that long traversals don't hog executor threads.
+    *
+    * The iterator must be consumed by a single thread at the time, but
+    * it can be closed from any thread.
+    */
+   private static final class AsyncCloseableIterator<T> implements CloseableIterator<T>, Runnable {
+      private static final Object NULL = new Object();
+      private static final Object END = new Object();
+
+      final Executor executor;
+      final Supplier<Stream<T>> supplier;
+      final int capacity;
+      final BlockingQueue<Object> buffer;
+      final AtomicBoolean scheduled = new AtomicBoolean();
+      volatile boolean isClosed = false;
+
+      // Only accessed by the producer task, and the executor
+      // guarantees visibility between consecutive runs
+      Stream<T> stream;
+      Spliterator<T> source;
+      Object terminal;
+      boolean isTerminated;
+
+      // Only accessed by the consumer
+      Object next;
+      boolean isDone;
+
+      private AsyncCloseableIterator(Executor executor, Supplier<Stream<T>> supplier, int capacity) {
+         this.executor = executor;
+         this.supplier = supplier;
+         this.capacity = capacity;
+         this.buffer = new ArrayBlockingQueue<>(capacity + 1); // extra slot for terminal element
+         schedule();
+      }
+
+      @Override
+      public boolean hasNext() {
+         if (next != null)
+            return true;
+
+         if (isDone || isClosed)
+            return false;
+
+         Object o = buffer.poll();
+         if (o == null) {
+            schedule();
+            o = take();
+         }
+
+         // Wake up producer once enough space is available to produce a batch
+         if (buffer.size() <= capacity / 2)
+            schedule();
+
+         if (o == END) {
+            isDone = true;
+            return false;
+         }
+
+         if (o instanceof Failure) {
+            isDone = true;
+            Throwable t = ((Failure) o).cause;
+            if (t instanceof RuntimeException)
+               throw (RuntimeException) t;
+
+            throw new CompletionException(t);
+         }
+
+         next = o;
+         return true;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public T next() {
+         if (!hasNext())
+            throw new NoSuchElementException(isClosed ? "Iterator closed" : "No more elements");
+
+         Object o = next;
+         next = null;
+         return o == NULL ? null : (T) o;
+      }
+
+      @Override
+      public void close() {
+         isClosed = true;
+         buffer.clear();
+         // Schedule so that the producer releases the stream if not running
+         schedule();
+      }
+
+      private Object take() {
+         try {
+            Object o = buffer.poll(100, TimeUnit.MILLISECONDS);
+            while (o == null && !isClosed)
+               o = buffer.poll(100, TimeUnit.MILLISECONDS);
+
+            return o == null ? END : o;
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+         }
+      }
+
+      private void schedule() {
+         if (scheduled.compareAndSet(false, true)) {
+            try {
+               executor.execute(this);
+            } catch (RejectedExecutionException e) {
+               scheduled.set(false);
+               buffer.offer(new Failure(e));
+            }
+         }
+      }
+
+      @Override
+      public void run() {
+         if (!isClosed && !isTerminated) {
+            try {
+               produce();
+            } catch (Throwable t) {
+               terminal = new Failure(t);
+            }
+
+            // Buffer always has a spare slot for the terminal element
+            if (terminal != null && buffer.offer(terminal))
+               isTerminated = true;
+         }
+
+         if (isClosed || isTerminated)
+            release();
+
+         scheduled.set(false);
+         // Reschedule if closed while running so that the stream is released,
+         // or if more elements can be produced, either because a batch
+         // finished with space available, or because the consumer took
+         // elements while this run was in progress
+         if (isClosed ? stream != null : !isTerminated && buffer.size() < capacity)
+            schedule();
+      }
+
+      private void produce() {
+         if (source == null) {
+            stream = supplier.get();
+            source = stream.spliterator();
+         }
+
+         for (int i = 0; i < capacity && buffer.size() < capacity && !isClosed; i++) {
+            if (!source.tryAdvance(e -> buffer.offer(e == null ? NULL : e))) {
+               terminal = END;
+               return;
+            }
+         }
+      }
+
+      private void release() {
+         Stream<T> s = stream;
+         stream = null;
+         source = null;
+         if (s != null)
+            s.close();
+      }
+   }
+
+   private static final class Failure {
+      final Throwable cause;
+
+      private Failure(Throwable cause) {
+         this.cause = cause;
+      }
+   }
+
+   /**
+    * Closeable spliterator backed by a stream's spliterator. Splits share
+    * the stream with the spliterator they were split from, so closing any
+    * of them closes the stream and stops all of them from advancing, and
+    * each of them drops its reference to the underlying spliterator, along
+    * with any data it holds, as soon as it notices it's been closed.
+    */
    private static final class StreamCloseableSpliterator<T> implements CloseableSpliterator<T> {
-      private final Spliterator<T> it;
+      final StreamResource resource;
+      Spliterator<T> it;
 
       private StreamCloseableSpliterator(Stream<T> stream) {
-         this.it = stream.spliterator();
+         this(new StreamResource(stream), stream.spliterator());
+      }
+
+      private StreamCloseableSpliterator(StreamResource resource, Spliterator<T> it) {
+         this.resource = resource;
+         this.it = it;
       }
 
       @Override
       public void close() {
-         // TODO: Customise this generated block
+         resource.close();
+         it = null;
       }
 
       @Override
       public boolean tryAdvance(Consumer<? super T> action) {
-         return false;  // TODO: Customise this generated block
+         Spliterator<T> split = checkOpen();
+         return split != null && split.tryAdvance(action);
+      }
+
+      @Override
+      public void forEachRemaining(Consumer<? super T> action) {
+         Spliterator<T> split = checkOpen();
+         if (split != null)
+            while (!resource.isClosed && split.tryAdvance(action)) ;
       }
 
       @Override
       public Spliterator<T> trySplit() {
-         return null;  // TODO: Customise this generated block
+         Spliterator<T> split = checkOpen();
+         if (split == null)
+            return null;
+
+         Spliterator<T> prefix = split.trySplit();
+         return prefix == null ? null : new StreamCloseableSpliterator<>(resource, prefix);
       }
 
       @Override
       public long estimateSize() {
-         return 0;  // TODO: Customise this generated block
+         Spliterator<T> split = checkOpen();
+         return split == null ? 0 : split.estimateSize();
       }
 
       @Override
       public int characteristics() {
-         return 0;  // TODO: Customise this generated block
+         Spliterator<T> split = checkOpen();
+         return split == null ? 0 : split.characteristics();
+      }
+
+      @Override
+      public Comparator<? super T> getComparator() {
+         Spliterator<T> split = checkOpen();
+         if (split == null)
+            throw new IllegalStateException("Spliterator closed");
+
+         return split.getComparator();
+      }
+
+      private Spliterator<T> checkOpen() {
+         if (resource.isClosed)
+            it = null;
+
+         return it;
+      }
+   }
+
+   private static final class StreamResource {
+      volatile boolean isClosed = false;
+      Stream<?> stream;
+
+      private StreamResource(Stream<?> stream) {
+         this.stream = stream;
+      }
+
+      synchronized void close() {
+         isClosed = true;
+         if (stream != null) {
+            stream.close();
+            stream = null;
+         }
       }
    }
 
@@ -34,6 +34,7 @@ import java.util.concurrent.ExecutionException;
  */
 public class JCacheDecorator<K, V> implements Cache<K, V> {
 
+   final FunctionalMapImpl<K, V> map;
    final ReadOnlyMap<K, V> readOnly;
    final WriteOnlyMap<K, V> writeOnly;
    final ReadWriteMap<K, V> readWrite;
@@ -41,6 +42,7 @@ public class JCacheDecorator<K, V> implements Cache<K, V> {
    // Rudimentary constructor, we'll provide more idiomatic construction
    // via main Infinispan class which is still to be defined
    public JCacheDecorator(FunctionalMapImpl<K, V> map) {
+      this.map = map;
       FunctionalMapImpl<K, V> blockingMap = map.withParams(Param.WaitMode.BLOCKING);
       this.readOnly = ReadOnlyMapImpl.create(blockingMap);
       this.writeOnly = WriteOnlyMapImpl.create(blockingMap);
@@ -272,7 +274,9 @@ public class JCacheDecorator<K, V> implements Cache<K, V> {
    @Override
    public void close() {
       try {
-         readOnly.close();
+         // Closes the map passed in rather than the blocking map derived
+         // from it, which doesn't own the data
+         map.close();
       } catch (Exception e) {
          throw new AssertionError(e);
       }
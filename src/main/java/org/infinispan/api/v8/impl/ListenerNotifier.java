@@ -4,6 +4,8 @@ import org.infinispan.api.v8.EntryView.ReadEntryView;
 import org.infinispan.api.v8.Listeners.ReadWriteListeners;
 import org.infinispan.api.v8.Listeners.WriteListeners;
 
+import java.util.List;
+
 /**
  * Listener notifier
  */
@@ -31,4 +33,16 @@ interface ListenerNotifier<K, V> extends ReadWriteListeners<K, V>, WriteListener
     */
    void notifyOnWrite(ReadEntryView<K, V> write);
 
+   /**
+    * Notify registered {@link WriteListener} instances of a batch of
+    * written entries.
+    */
+   void notifyOnWrites(List<ReadEntryView<K, V>> writes);
+
+   /**
+    * Whether there are any {@link WriteListener} instances registered, so
+    * that callers can skip building the entry views to notify them with.
+    */
+   boolean hasWriteListeners();
+
 }
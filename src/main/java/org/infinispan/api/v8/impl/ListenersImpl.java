@@ -77,6 +77,17 @@ final class ListenersImpl<K, V> implements ListenerNotifier<K, V> {
       writeListeners.forEach(wl -> wl.onWrite(write));
    }
 
+   @Override
+   public void notifyOnWrites(List<ReadEntryView<K, V>> writes) {
+      onWrites.forEach(writes::forEach);
+      writeListeners.forEach(wl -> wl.onWrites(writes));
+   }
+
+   @Override
+   public boolean hasWriteListeners() {
+      return !onWrites.isEmpty() || !writeListeners.isEmpty();
+   }
+
    private static final class ListenerCloseable<T> implements AutoCloseable {
       final T f;
       final List<T> list;
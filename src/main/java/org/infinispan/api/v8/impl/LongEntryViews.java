@@ -0,0 +1,150 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.LongEntryView.ReadWriteEntryView;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Entry views for {@link LongFunctionalMapImpl}.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why is a single view class used for read-only, write-only and
+ *    read-write evaluations? Because views are reused, see below, and
+ *    reusing one view per thread rather than three keeps the footprint
+ *    per thread down. Views handed out for read-only evaluations reject
+ *    writes, for the cases where a function casts its view.
+ *    </li>
+ *    <li>Why are views reused rather than allocated for each evaluation?
+ *    Because a view per evaluation is the only allocation left once keys
+ *    and values are primitives, and escape analysis can't remove it when
+ *    the function is not inlined. Each thread reuses its own view, and if
+ *    a function evaluates on the map again, e.g. on another map sharing
+ *    the same data, the nested evaluation gets a new view so that the
+ *    outer one is left untouched.
+ *    </li>
+ * </ul>
+ */
+final class LongEntryViews {
+
+   private static final ThreadLocal<LongView> VIEWS = ThreadLocal.withInitial(LongView::new);
+
+   private LongEntryViews() {
+      // Cannot be instantiated, it's just a holder class
+   }
+
+   /**
+    * Returns a view for the key, which must be given back with
+    * {@link #release(LongView)} once the evaluation is done.
+    */
+   static LongView acquire(long key, boolean readOnly) {
+      LongView view = VIEWS.get();
+      if (view.inUse)
+         view = new LongView();
+
+      view.inUse = true;
+      view.key = key;
+      view.readOnly = readOnly;
+      view.present = false;
+      view.value = 0;
+      view.dirty = false;
+      return view;
+   }
+
+   static void release(LongView view) {
+      view.inUse = false;
+   }
+
+   static final class LongView implements ReadWriteEntryView {
+      boolean inUse;
+      boolean readOnly;
+      long key;
+      boolean present;
+      long value;
+      // Slot where the key was found, or the complement of where it goes
+      int slot;
+      // Whether present or value were written by the function
+      boolean dirty;
+
+      private LongView() {
+      }
+
+      /**
+       * Sets the value currently associated with the key, as found in the
+       * table at the given slot, see {@link LongTable#find(long)}.
+       */
+      void load(LongTable table, int slot) {
+         this.slot = slot;
+         present = slot >= 0;
+         value = present ? table.value(slot) : 0;
+      }
+
+      /**
+       * Applies the function's writes, if any, to the table the view was
+       * loaded from, which must not have been modified since.
+       */
+      void commit(LongTable table) {
+         if (!dirty)
+            return;
+
+         if (present) {
+            if (slot >= 0)
+               table.setValue(slot, value);
+            else
+               table.insert(slot, key, value);
+         } else if (slot >= 0) {
+            table.delete(slot);
+         }
+      }
+
+      @Override
+      public long key() {
+         return key;
+      }
+
+      @Override
+      public boolean isPresent() {
+         return present;
+      }
+
+      @Override
+      public long get() throws NoSuchElementException {
+         if (!present)
+            throw new NoSuchElementException("No value present");
+
+         return value;
+      }
+
+      @Override
+      public long orElse(long other) {
+         return present ? value : other;
+      }
+
+      @Override
+      public void set(long value) {
+         checkWritable();
+         this.present = true;
+         this.value = value;
+         this.dirty = true;
+      }
+
+      @Override
+      public void remove() {
+         checkWritable();
+         this.present = false;
+         this.value = 0;
+         this.dirty = true;
+      }
+
+      private void checkWritable() {
+         if (readOnly)
+            throw new IllegalStateException("Read-only entry view for key=" + key);
+      }
+
+      @Override
+      public String toString() {
+         return "LongView{key=" + key + ", value=" + (present ? Long.toString(value) : "<none>") + '}';
+      }
+   }
+
+}
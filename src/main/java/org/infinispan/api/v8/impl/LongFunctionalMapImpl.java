@@ -0,0 +1,160 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.LongFunctionalMap;
+import org.infinispan.api.v8.Status;
+import org.infinispan.api.v8.impl.LongEntryViews.LongView;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Functional map for primitive long keys and values, whose entries are
+ * stored in segments, each with an open addressing table guarded by its
+ * own lock.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why open addressing tables rather than a concurrent map? Because
+ *    a concurrent map holds a node per entry, plus the boxed key and
+ *    value, which is about 80 bytes per entry on top of the 16 bytes of
+ *    the key and value themselves. Tables made of two long arrays hold no
+ *    objects per entry, and looking a key up reads consecutive slots rather
+ *    than following references.
+ *    </li>
+ *    <li>Why a lock per segment? Because tables are not thread safe, and
+ *    splitting them in segments, as done for the other data containers,
+ *    lets writes to different segments proceed in parallel. Read locks are
+ *    only held while the value is copied to the view, so read-only
+ *    functions run without holding any locks. Read-write functions run
+ *    while holding the segment's write lock, so they must be short and
+ *    must not evaluate on the same map.
+ *    </li>
+ * </ul>
+ */
+public final class LongFunctionalMapImpl implements LongFunctionalMap {
+
+   private final Segment[] segments;
+   private final int shift;
+
+   volatile Status status;
+
+   private LongFunctionalMapImpl(int numSegments) {
+      this.segments = new Segment[numSegments];
+      for (int i = 0; i < numSegments; i++)
+         segments[i] = new Segment();
+      this.shift = Long.SIZE - Integer.numberOfTrailingZeros(numSegments);
+      this.status = Status.STARTED;
+   }
+
+   public static LongFunctionalMapImpl create() {
+      return new LongFunctionalMapImpl(SegmentedDataContainer.DEFAULT_SEGMENTS);
+   }
+
+   /**
+    * Creates a map with at least the given number of segments. The number
+    * of segments is rounded up to a power of two, of at least 2.
+    */
+   public static LongFunctionalMapImpl create(int numSegments) {
+      return new LongFunctionalMapImpl(SegmentedDataContainer.segmentsFor(numSegments));
+   }
+
+   Segment segmentFor(long key) {
+      return segments[(int) (LongTable.hash(key) >>> shift)];
+   }
+
+   LongStream keys() {
+      return IntStream.range(0, segments.length).mapToObj(i -> segments[i].keys()).flatMapToLong(LongStream::of);
+   }
+
+   void clear() {
+      for (Segment segment : segments)
+         segment.clear();
+   }
+
+   /**
+    * Number of entries stored. Reading it doesn't block, so it can be
+    * polled for monitoring.
+    */
+   public long size() {
+      long size = 0;
+      for (Segment segment : segments)
+         size += segment.table.size();
+      return size;
+   }
+
+   @Override
+   public String getName() {
+      return "";
+   }
+
+   @Override
+   public Status getStatus() {
+      return status;
+   }
+
+   @Override
+   public void close() {
+      status = Status.STOPPED;
+   }
+
+   static final class Segment {
+      final StampedLock lock = new StampedLock();
+      final LongTable table = new LongTable();
+
+      /**
+       * Copies the value currently associated with the view's key to the view.
+       */
+      void read(LongView view) {
+         long stamp = lock.readLock();
+         try {
+            view.load(table, table.find(view.key));
+         } finally {
+            lock.unlockRead(stamp);
+         }
+      }
+
+      /**
+       * Locks the segment for writing and copies the value currently
+       * associated with the view's key to the view. The returned stamp must
+       * be passed to {@link #unlockWrite(long, LongView, boolean)}.
+       */
+      long lockWrite(LongView view) {
+         long stamp = lock.writeLock();
+         view.load(table, table.find(view.key));
+         return stamp;
+      }
+
+      /**
+       * Applies the view's writes, if the function completed, and unlocks
+       * the segment.
+       */
+      void unlockWrite(long stamp, LongView view, boolean completed) {
+         try {
+            if (completed)
+               view.commit(table);
+         } finally {
+            lock.unlockWrite(stamp);
+         }
+      }
+
+      long[] keys() {
+         long stamp = lock.readLock();
+         try {
+            return table.keys();
+         } finally {
+            lock.unlockRead(stamp);
+         }
+      }
+
+      void clear() {
+         long stamp = lock.writeLock();
+         try {
+            table.clear();
+         } finally {
+            lock.unlockWrite(stamp);
+         }
+      }
+   }
+
+}
@@ -0,0 +1,36 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.LongEntryView.ReadEntryView;
+import org.infinispan.api.v8.LongFunctionalMap.ReadOnlyMap;
+import org.infinispan.api.v8.impl.LongEntryViews.LongView;
+
+import java.util.function.ToLongFunction;
+import java.util.stream.LongStream;
+
+public final class LongReadOnlyMapImpl extends AbstractLongFunctionalMap implements ReadOnlyMap {
+
+   private LongReadOnlyMapImpl(LongFunctionalMapImpl functionalMap) {
+      super(functionalMap);
+   }
+
+   public static ReadOnlyMap create(LongFunctionalMapImpl functionalMap) {
+      return new LongReadOnlyMapImpl(functionalMap);
+   }
+
+   @Override
+   public long eval(long key, ToLongFunction<ReadEntryView> f) {
+      LongView view = LongEntryViews.acquire(key, true);
+      try {
+         functionalMap.segmentFor(key).read(view);
+         return f.applyAsLong(view);
+      } finally {
+         LongEntryViews.release(view);
+      }
+   }
+
+   @Override
+   public LongStream keys() {
+      return functionalMap.keys();
+   }
+
+}
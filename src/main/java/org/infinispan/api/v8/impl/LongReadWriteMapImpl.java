@@ -0,0 +1,52 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.LongEntryView.ReadWriteEntryView;
+import org.infinispan.api.v8.LongFunctionalMap.ReadWriteMap;
+import org.infinispan.api.v8.impl.LongEntryViews.LongView;
+import org.infinispan.api.v8.impl.LongFunctionalMapImpl.Segment;
+
+import java.util.function.ToLongFunction;
+
+public final class LongReadWriteMapImpl extends AbstractLongFunctionalMap implements ReadWriteMap {
+
+   private LongReadWriteMapImpl(LongFunctionalMapImpl functionalMap) {
+      super(functionalMap);
+   }
+
+   public static ReadWriteMap create(LongFunctionalMapImpl functionalMap) {
+      return new LongReadWriteMapImpl(functionalMap);
+   }
+
+   @Override
+   public long eval(long key, ToLongFunction<ReadWriteEntryView> f) {
+      LongView view = LongEntryViews.acquire(key, false);
+      Segment segment = functionalMap.segmentFor(key);
+      long stamp = segment.lockWrite(view);
+      boolean completed = false;
+      try {
+         long result = f.applyAsLong(view);
+         completed = true;
+         return result;
+      } finally {
+         segment.unlockWrite(stamp, view, completed);
+         LongEntryViews.release(view);
+      }
+   }
+
+   @Override
+   public long eval(long key, long value, ValueFunction<ReadWriteEntryView> f) {
+      LongView view = LongEntryViews.acquire(key, false);
+      Segment segment = functionalMap.segmentFor(key);
+      long stamp = segment.lockWrite(view);
+      boolean completed = false;
+      try {
+         long result = f.apply(value, view);
+         completed = true;
+         return result;
+      } finally {
+         segment.unlockWrite(stamp, view, completed);
+         LongEntryViews.release(view);
+      }
+   }
+
+}
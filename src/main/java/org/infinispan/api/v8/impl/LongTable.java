@@ -0,0 +1,154 @@
+package org.infinispan.api.v8.impl;
+
+/**
+ * Open addressing hash table from primitive long keys to primitive long
+ * values, kept in two arrays, so it holds no objects per entry.
+ *
+ * Empty slots hold key 0, so key 0 itself, if present, is kept in an extra
+ * slot after the last one. Deleted slots are filled by shifting subsequent
+ * entries back, so no tombstones are left behind.
+ *
+ * This class is not thread safe, callers must guard access with a lock.
+ */
+final class LongTable {
+
+   private static final int INITIAL_CAPACITY = 16;
+
+   private long[] keys;
+   private long[] values;
+   private boolean zeroKey;
+   private volatile int count;
+
+   LongTable() {
+      clear();
+   }
+
+   /**
+    * Number of keys in the table. This can be called without holding the
+    * lock guarding the table.
+    */
+   int size() {
+      return count;
+   }
+
+   void clear() {
+      keys = new long[INITIAL_CAPACITY + 1];
+      values = new long[INITIAL_CAPACITY + 1];
+      zeroKey = false;
+      count = 0;
+   }
+
+   /**
+    * Returns the slot where the key is stored, or if not present, the
+    * bitwise complement of the empty slot where it would be inserted.
+    */
+   int find(long key) {
+      int capacity = keys.length - 1;
+      if (key == 0)
+         return zeroKey ? capacity : ~capacity;
+
+      int mask = capacity - 1;
+      for (int i = slotOf(key, mask); ; i = (i + 1) & mask) {
+         long k = keys[i];
+         if (k == key)
+            return i;
+         if (k == 0)
+            return ~i;
+      }
+   }
+
+   long value(int slot) {
+      return values[slot];
+   }
+
+   void setValue(int slot, long value) {
+      values[slot] = value;
+   }
+
+   /**
+    * Inserts a key at an empty slot, as returned by {@link #find(long)}.
+    */
+   void insert(int emptySlot, long key, long value) {
+      int slot = ~emptySlot;
+      keys[slot] = key;
+      values[slot] = value;
+      count++;
+      if (key == 0)
+         zeroKey = true;
+      else if (count * 4L > (keys.length - 1) * 3L)
+         resize();
+   }
+
+   void delete(int slot) {
+      int capacity = keys.length - 1;
+      count--;
+      if (slot == capacity) {
+         zeroKey = false;
+         values[slot] = 0;
+         return;
+      }
+
+      int mask = capacity - 1;
+      int gap = slot;
+      keys[gap] = 0;
+      for (int i = (gap + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+         int ideal = slotOf(keys[i], mask);
+         if (((i - ideal) & mask) >= ((i - gap) & mask)) {
+            keys[gap] = keys[i];
+            values[gap] = values[i];
+            keys[i] = 0;
+            gap = i;
+         }
+      }
+   }
+
+   /**
+    * Returns all keys in the table.
+    */
+   long[] keys() {
+      long[] live = new long[count];
+      int n = 0;
+      for (int i = 0; i < keys.length - 1; i++) {
+         if (keys[i] != 0)
+            live[n++] = keys[i];
+      }
+      if (zeroKey)
+         live[n] = 0;
+      return live;
+   }
+
+   private void resize() {
+      long[] oldKeys = keys;
+      long[] oldValues = values;
+      int oldCapacity = oldKeys.length - 1;
+      int capacity = oldCapacity << 1;
+      keys = new long[capacity + 1];
+      values = new long[capacity + 1];
+      values[capacity] = oldValues[oldCapacity];
+      int mask = capacity - 1;
+      for (int i = 0; i < oldCapacity; i++) {
+         long k = oldKeys[i];
+         if (k != 0) {
+            int j = slotOf(k, mask);
+            while (keys[j] != 0)
+               j = (j + 1) & mask;
+            keys[j] = k;
+            values[j] = oldValues[i];
+         }
+      }
+   }
+
+   /**
+    * Hash of the key, whose upper bits pick the segment and whose lower
+    * bits pick the slot within the segment's table.
+    */
+   static long hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return h ^ (h >>> 32);
+   }
+
+   private static int slotOf(long key, int mask) {
+      return (int) hash(key) & mask;
+   }
+
+}
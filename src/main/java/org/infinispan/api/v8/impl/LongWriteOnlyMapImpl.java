@@ -0,0 +1,56 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.LongEntryView.WriteEntryView;
+import org.infinispan.api.v8.LongFunctionalMap.WriteOnlyMap;
+import org.infinispan.api.v8.impl.LongEntryViews.LongView;
+import org.infinispan.api.v8.impl.LongFunctionalMapImpl.Segment;
+
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+public final class LongWriteOnlyMapImpl extends AbstractLongFunctionalMap implements WriteOnlyMap {
+
+   private LongWriteOnlyMapImpl(LongFunctionalMapImpl functionalMap) {
+      super(functionalMap);
+   }
+
+   public static WriteOnlyMap create(LongFunctionalMapImpl functionalMap) {
+      return new LongWriteOnlyMapImpl(functionalMap);
+   }
+
+   @Override
+   public void eval(long key, long value, ObjLongConsumer<WriteEntryView> f) {
+      LongView view = LongEntryViews.acquire(key, false);
+      Segment segment = functionalMap.segmentFor(key);
+      long stamp = segment.lockWrite(view);
+      boolean completed = false;
+      try {
+         f.accept(view, value);
+         completed = true;
+      } finally {
+         segment.unlockWrite(stamp, view, completed);
+         LongEntryViews.release(view);
+      }
+   }
+
+   @Override
+   public void eval(long key, Consumer<WriteEntryView> f) {
+      LongView view = LongEntryViews.acquire(key, false);
+      Segment segment = functionalMap.segmentFor(key);
+      long stamp = segment.lockWrite(view);
+      boolean completed = false;
+      try {
+         f.accept(view);
+         completed = true;
+      } finally {
+         segment.unlockWrite(stamp, view, completed);
+         LongEntryViews.release(view);
+      }
+   }
+
+   @Override
+   public void truncate() {
+      functionalMap.clear();
+   }
+
+}
@@ -1,14 +1,14 @@
 package org.infinispan.api.v8.impl;
 
-import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.Immutable;
 import org.infinispan.api.v8.MetaParam;
 import org.infinispan.api.v8.MetaParam.Id;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
 
 /**
  * Represents a {@link MetaParam} collection.
@@ -20,16 +20,18 @@ import java.util.Optional;
  *    {@link org.infinispan.api.v8.Param#id()}. This worked fine because the
  *    available parameters are exclusively controlled by the Infinispan.
  *    This is not the case with {@link org.infinispan.api.v8.MetaParam}
- *    instances where we expect users to add their own types.
- *    For MetaParams, an array is still used but each metadata parameters
- *    index has nothing to do with a metadata parameter's id. So, that means
- *    when looking up metadata parameters, the lookup is sequential.
+ *    instances where we expect users to add their own types, with any
+ *    numeric identifier. Instead, each {@link MetaParam.Id} gets a dense
+ *    index from a global registry, parameters are kept sorted by index, and
+ *    a bitmap tells which of the first 64 indexes are present. Looking a
+ *    parameter up is then a bit test, and counting the bits below it gives
+ *    its position in the array.
  *    </il>
- *    <il>Metadata parameter lookup is sequential, which is O(n), isn't that a problem?
- *    Not really, we expect that the number of metadata parameters to be stored
- *    along with a cached entry to be small, less than 10 metadata parameters
- *    per collection. So, looking up a metadata parameter array sequentially would
- *    have a small impact performance wise.
+ *    <il>What about ids with an index of 64 or more? They're kept after
+ *    the others and looked up sequentially. Only applications defining
+ *    dozens of metadata parameter types would have them, and entries are
+ *    expected to have less than 10 metadata parameters, so a sequential
+ *    lookup would still have a small impact performance wise.
  *    </il>
  *    <li>Why are you obsessed with storing Metadata parameters within an array?
  *    Because we want metadata parameter storage to consume as little memory
@@ -37,23 +39,51 @@ import java.util.Optional;
  *    parameters. We want to consume as little memory as possible because each
  *    cached entry will have a reference to the metadata parameters.
  *    </li>
- *    <li>Why is metadata parameters class not thread safe? Because we expect
- *    any updates to it to acquire write locks on the entire
- *    {@link InternalEntry} which references the
- *    metadata parameters collection, and hence any updates could be done
- *    without the need to keep metadata parameters concurrently safe. Also,
- *    remember that metadata parameters is internal only. Users can retrieve
- *    or update individual metadata parameters but they cannot act on the
- *    globally at the metadata parameter collection level.</li>
+ *    <li>Why are metadata parameters immutable? Because entries are read
+ *    without locking, so a collection modified in place could be seen half
+ *    updated by readers of the entry it belongs to. Instead, adding
+ *    metadata parameters returns a new collection, which shares the
+ *    parameters that didn't change with the original one, and the original
+ *    itself is returned if nothing changed. This makes collections safe to
+ *    share between entries, and between threads, without locking.
+ *    </li>
+ *    <li>Why copy the array on each update rather than use a persistent
+ *    structure like a hash trie? Because collections hold a handful of
+ *    parameters, so copying the array is cheaper than walking a trie, and
+ *    an array is the most compact way to hold them.
+ *    </li>
+ *    <li>Why are metadata parameters interned? Because lots of entries are
+ *    usually stored with the same metadata parameters, e.g. the same
+ *    lifespan and version scheme, and sharing one collection between them
+ *    saves a collection and an array per entry. The interning cache is a
+ *    fixed size table where collections with the same slot replace each
+ *    other, so it never grows, and collections used often win their slot
+ *    back quickly.</li>
  * </ul>
  */
-@NotThreadSafe
+@Immutable
 final class MetaParams {
 
-   private MetaParam<?>[] metas;
+   private static final int INTERNED_SLOTS = 1024;
+   private static final AtomicReferenceArray<MetaParams> INTERNED = new AtomicReferenceArray<>(INTERNED_SLOTS);
+
+   private static final MetaParams EMPTY = new MetaParams(new MetaParam[0]);
+
+   // Parameters sorted by their id's index
+   private final MetaParam<?>[] metas;
+   // Bit i is set if there's a parameter whose id's index is i, for indexes
+   // below 64, so those parameters are at the bit's rank in the array
+   private final long bitmap;
 
    private MetaParams(MetaParam<?>[] metas) {
       this.metas = metas;
+      long bits = 0;
+      for (MetaParam<?> meta : metas) {
+         int index = meta.id().index();
+         if (index < Long.SIZE)
+            bits |= 1L << index;
+      }
+      this.bitmap = bits;
    }
 
    boolean isEmpty() {
@@ -76,62 +106,165 @@ final class MetaParams {
       return param;
    }
 
+   /**
+    * Returns the value of a long metadata parameter, or the default value if
+    * not present, without allocating an {@link Optional}.
+    */
+   <T extends MetaParam.LongMetadata<?>> long findLong(Id<T> id, long defaultValue) {
+      T param = findNullable(id);
+      return param == null ? defaultValue : param.get();
+   }
+
+   /**
+    * Returns the metadata parameter with the given id, or null if not
+    * present, without allocating an {@link Optional}.
+    */
    @SuppressWarnings("unchecked")
-   private <T> T findNullable(Id<T> id) {
-      for (MetaParam<?> meta : metas) {
-         if (meta.id().equals(id))
-            return (T) meta;
+   <T> T findNullable(Id<T> id) {
+      int index = id.index();
+      if (index < Long.SIZE) {
+         long bit = 1L << index;
+         return (bitmap & bit) == 0 ? null : (T) metas[Long.bitCount(bitmap & (bit - 1))];
       }
 
+      for (int i = Long.bitCount(bitmap); i < metas.length; i++) {
+         if (metas[i].id().index() == index)
+            return (T) metas[i];
+      }
       return null;
    }
 
-   void add(MetaParam.Writable meta) {
-      if (metas.length == 0)
-         metas = new MetaParam[]{meta};
-      else {
-         boolean found = false;
-         for (int i = 0; i < metas.length; i++) {
-            if (metas[i].id().equals(meta.id())) {
-               metas[i] = meta;
-               found = true;
-            }
-         }
+   /**
+    * Returns metadata parameters with the given parameter added, replacing
+    * the parameter with the same id if present.
+    */
+   MetaParams add(MetaParam.Writable meta) {
+      return addMany(meta);
+   }
 
-         if (!found) {
-            MetaParam<?>[] newMetas = Arrays.copyOf(metas, metas.length + 1);
-            newMetas[newMetas.length - 1] = meta;
-            metas = newMetas;
-         }
-      }
+   /**
+    * Returns metadata parameters with the given parameters added, replacing
+    * parameters with the same id if present. If the same id is given more
+    * than once, the last parameter given wins.
+    */
+   MetaParams addMany(MetaParam.Writable... metaParams) {
+      return merge(metaParams);
    }
 
-   void addMany(MetaParam.Writable... metaParams) {
-      if (metas.length == 0) metas = metaParams;
-      else {
-         List<MetaParam<?>> notFound = new ArrayList<>(metaParams.length);
-         for (MetaParam.Writable newMeta : metaParams) {
-            boolean found = false;
-            for (int i = 0; i < metas.length; i++) {
-               if (metas[i].id().equals(newMeta.id())) {
-                  metas[i] = newMeta;
-                  found = true;
-               }
-            }
-            if (!found)
-               notFound.add(newMeta);
-         }
+   /**
+    * Returns metadata parameters without the parameter with the given id,
+    * or these ones if not present.
+    */
+   MetaParams remove(Id<?> id) {
+      int i = indexOf(metas, metas.length, id);
+      if (i < 0)
+         return this;
+
+      MetaParam<?>[] removed = new MetaParam<?>[metas.length - 1];
+      System.arraycopy(metas, 0, removed, 0, i);
+      System.arraycopy(metas, i + 1, removed, i, removed.length - i);
+      return removed.length == 0 ? EMPTY : new MetaParams(removed);
+   }
 
-         if (!notFound.isEmpty()) {
-            List<MetaParam<?>> allMetasList = new ArrayList<>(Arrays.asList(metas));
-            allMetasList.addAll(notFound);
-            metas = allMetasList.toArray(new MetaParam[metas.length + notFound.size()]);
+   /**
+    * Returns the base parameters with the updates applied, or the base array
+    * itself if the updates don't change anything.
+    */
+   private static MetaParam<?>[] merge(MetaParam<?>[] base, MetaParam<?>[] updates) {
+      // Size the result first, so that the array is only allocated once
+      int added = 0;
+      boolean changed = false;
+      for (int u = 0; u < updates.length; u++) {
+         int i = indexOf(base, base.length, updates[u].id());
+         if (i < 0 && indexOf(updates, u, updates[u].id()) < 0)
+            added++;
+         changed |= i < 0 || !updates[u].equals(base[i]);
+      }
+      if (!changed)
+         return base;
+
+      MetaParam<?>[] merged = Arrays.copyOf(base, base.length + added);
+      int size = base.length;
+      for (MetaParam<?> update : updates) {
+         int i = indexOf(merged, size, update.id());
+         if (i >= 0) {
+            merged[i] = update;
+         } else {
+            // Insert keeping the parameters sorted by index
+            int index = update.id().index();
+            int j = size++;
+            for (; j > 0 && merged[j - 1].id().index() > index; j--)
+               merged[j] = merged[j - 1];
+            merged[j] = update;
          }
       }
+      return merged;
+   }
+
+   private static int indexOf(MetaParam<?>[] metas, int size, Id<?> id) {
+      int index = id.index();
+      for (int i = 0; i < size; i++) {
+         if (metas[i].id().index() == index)
+            return i;
+      }
+      return -1;
+   }
+
+   void forEach(Consumer<? super MetaParam<?>> action) {
+      for (MetaParam<?> meta : metas)
+         action.accept(meta);
+   }
+
+   /**
+    * Metadata parameters are equal if they contain equal parameters,
+    * whatever the order in which they were added.
+    */
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof MetaParams)) return false;
+
+      // Parameters are sorted, so equal collections have equal arrays
+      MetaParams that = (MetaParams) o;
+      return bitmap == that.bitmap && Arrays.equals(metas, that.metas);
    }
 
+   @Override
+   public int hashCode() {
+      int result = 0;
+      for (MetaParam<?> meta : metas)
+         result += meta.hashCode();
+      return result;
+   }
+
+   @Override
+   public String toString() {
+      return "MetaParams=" + Arrays.toString(metas);
+   }
+
+   /**
+    * Returns a collection equal to the given one, shared with other
+    * callers interning an equal collection, if one was interned recently.
+    * Otherwise, interns the given collection and returns it. Neither of
+    * them must be modified afterwards.
+    */
+   static MetaParams intern(MetaParams metaParams) {
+      int hash = metaParams.hashCode();
+      int slot = (hash ^ (hash >>> 16)) & (INTERNED_SLOTS - 1);
+      MetaParams interned = INTERNED.get(slot);
+      if (metaParams.equals(interned))
+         return interned;
+
+      INTERNED.lazySet(slot, metaParams);
+      return metaParams;
+   }
+
+   /**
+    * Metadata parameters with the given parameters. If the same id is given
+    * more than once, the last parameter given wins.
+    */
    static MetaParams of(MetaParam... metas) {
-      return new MetaParams(metas);
+      return empty().merge(metas);
    }
 
    static MetaParams of(MetaParam meta) {
@@ -139,7 +272,12 @@ final class MetaParams {
    }
 
    static MetaParams empty() {
-      return new MetaParams(new MetaParam[]{});
+      return EMPTY;
+   }
+
+   private MetaParams merge(MetaParam<?>[] updates) {
+      MetaParam<?>[] merged = merge(metas, updates);
+      return merged == metas ? this : new MetaParams(merged);
    }
 
 }
@@ -0,0 +1,151 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.EntryVersion;
+import org.infinispan.api.v8.EntryVersion.NumericEntryVersion;
+import org.infinispan.api.v8.MetaParam;
+import org.infinispan.api.v8.MetaParam.Created;
+import org.infinispan.api.v8.MetaParam.EntryVersionParam;
+import org.infinispan.api.v8.MetaParam.LastUsed;
+import org.infinispan.api.v8.MetaParam.Lifespan;
+import org.infinispan.api.v8.MetaParam.MaxIdle;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary form of metadata parameters, used when entries are stored outside
+ * the Java heap.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why do known metadata parameters get their own encoding? Because
+ *    most entries only carry time-based or numeric version parameters, and
+ *    these can be stored as a one byte tag and a long, instead of requiring
+ *    a generic serialization mechanism that would dwarf the entry's size.
+ *    User defined metadata parameters are stored with Java serialization,
+ *    and hence must be serializable.
+ *    </li>
+ *    <li>Why are entries without metadata parameters encoded as no bytes at
+ *    all? Because they're the most common case, and the record already
+ *    stores the length of the encoded metadata parameters.
+ *    </li>
+ * </ul>
+ */
+final class MetaParamsCodec {
+
+   private static final byte SERIALIZED = 0;
+   private static final byte LIFESPAN = 1;
+   private static final byte CREATED = 2;
+   private static final byte MAX_IDLE = 3;
+   private static final byte LAST_USED = 4;
+   private static final byte NUMERIC_VERSION = 5;
+
+   private static final byte[] EMPTY = new byte[0];
+
+   private MetaParamsCodec() {
+      // Cannot be instantiated, it's just a holder class
+   }
+
+   static byte[] encode(MetaParams metas) {
+      if (metas.isEmpty())
+         return EMPTY;
+
+      List<byte[]> serialized = new ArrayList<>(0);
+      int[] size = {1};
+      metas.forEach(meta -> {
+         size[0] += 1;
+         if (tag(meta) == SERIALIZED) {
+            byte[] bytes = serialize(meta);
+            serialized.add(bytes);
+            size[0] += Integer.BYTES + bytes.length;
+         } else {
+            size[0] += Long.BYTES;
+         }
+      });
+
+      ByteBuffer buffer = ByteBuffer.allocate(size[0]);
+      buffer.put((byte) metas.size());
+      int[] next = {0};
+      metas.forEach(meta -> {
+         byte tag = tag(meta);
+         buffer.put(tag);
+         if (tag == SERIALIZED) {
+            byte[] bytes = serialized.get(next[0]++);
+            buffer.putInt(bytes.length).put(bytes);
+         } else if (tag == NUMERIC_VERSION) {
+            buffer.putLong(((NumericEntryVersion) ((EntryVersionParam<?>) meta).get()).get());
+         } else {
+            buffer.putLong(((MetaParam.LongMetadata<?>) meta).get());
+         }
+      });
+      return buffer.array();
+   }
+
+   static MetaParams decode(ByteBuffer buffer) {
+      if (!buffer.hasRemaining())
+         return MetaParams.empty();
+
+      int count = buffer.get();
+      MetaParam<?>[] metas = new MetaParam<?>[count];
+      for (int i = 0; i < count; i++) {
+         byte tag = buffer.get();
+         switch (tag) {
+            case LIFESPAN:
+               metas[i] = new Lifespan(buffer.getLong());
+               break;
+            case CREATED:
+               metas[i] = new Created(buffer.getLong());
+               break;
+            case MAX_IDLE:
+               metas[i] = new MaxIdle(buffer.getLong());
+               break;
+            case LAST_USED:
+               metas[i] = new LastUsed(buffer.getLong());
+               break;
+            case NUMERIC_VERSION:
+               metas[i] = new EntryVersionParam<>(new NumericEntryVersion(buffer.getLong()));
+               break;
+            case SERIALIZED:
+               ByteBuffer bytes = buffer.slice();
+               int length = buffer.getInt();
+               bytes.position(Integer.BYTES).limit(Integer.BYTES + length);
+               buffer.position(buffer.position() + length);
+               metas[i] = (MetaParam<?>) Codecs.serializable().decode(bytes);
+               break;
+            default:
+               throw new IllegalStateException("Unknown metadata parameter tag: " + tag);
+         }
+      }
+      return MetaParams.of(metas);
+   }
+
+   private static byte tag(MetaParam<?> meta) {
+      Class<?> type = meta.getClass();
+      if (type == Lifespan.class)
+         return LIFESPAN;
+      if (type == Created.class)
+         return CREATED;
+      if (type == MaxIdle.class)
+         return MAX_IDLE;
+      if (type == LastUsed.class)
+         return LAST_USED;
+      if (type == EntryVersionParam.class && isNumeric(((EntryVersionParam<?>) meta).get()))
+         return NUMERIC_VERSION;
+
+      if (!(meta instanceof Serializable))
+         throw new IllegalArgumentException("Metadata parameter must be serializable to be stored: " + meta);
+
+      return SERIALIZED;
+   }
+
+   private static boolean isNumeric(EntryVersion<?> version) {
+      return version instanceof NumericEntryVersion;
+   }
+
+   private static byte[] serialize(MetaParam<?> meta) {
+      return Codecs.serializable().encode((Serializable) meta);
+   }
+
+}
@@ -0,0 +1,58 @@
+package org.infinispan.api.v8.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executor decorator that keeps track of how many tasks are waiting to be
+ * executed, and how many tasks were rejected by the underlying executor.
+ */
+public final class MeteredExecutor implements Executor {
+
+   private final Executor executor;
+   private final AtomicInteger queueDepth = new AtomicInteger();
+   private final LongAdder rejections = new LongAdder();
+
+   public MeteredExecutor(Executor executor) {
+      this.executor = executor;
+   }
+
+   @Override
+   public void execute(Runnable command) {
+      queueDepth.incrementAndGet();
+      try {
+         executor.execute(() -> {
+            queueDepth.decrementAndGet();
+            command.run();
+         });
+      } catch (RejectedExecutionException e) {
+         queueDepth.decrementAndGet();
+         rejections.increment();
+         throw e;
+      }
+   }
+
+   /**
+    * Number of tasks submitted that have not yet started executing.
+    */
+   public int queueDepth() {
+      return queueDepth.get();
+   }
+
+   /**
+    * Number of tasks rejected by the underlying executor.
+    */
+   public long rejections() {
+      return rejections.sum();
+   }
+
+   /**
+    * Underlying executor.
+    */
+   public Executor delegate() {
+      return executor;
+   }
+
+}
@@ -0,0 +1,417 @@
+package org.infinispan.api.v8.impl;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@link DataContainer} that keeps keys, values and metadata parameters in
+ * binary form, in direct memory outside the Java heap, so that the number
+ * of objects the garbage collector needs to track does not grow with the
+ * number of entries stored.
+ *
+ * Each segment appends entry records, in {@link EntryRecords} format, to
+ * chunks of direct memory, and keeps its own {@link RecordIndex} from keys
+ * to record addresses.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why are records appended rather than updated in place? Because
+ *    records are then immutable, so entries returned to callers can keep
+ *    reading a record after the segment's lock has been released, and
+ *    only decode the value when an entry view asks for it, without
+ *    copying the record. Space taken by records that have been replaced or
+ *    removed is reclaimed by compacting the segment once it exceeds the
+ *    space taken by live records. Compaction copies live records to new
+ *    chunks, and old chunks are freed once no entries refer to them.
+ *    </li>
+ *    <li>Why is there a lock per segment rather than a lock-free index?
+ *    Because writes need to append the record and update the index
+ *    atomically, and segments already spread contention. Lookups only take
+ *    the read lock for as long as it takes to find the record address.
+ *    </li>
+ * </ul>
+ */
+final class OffHeapDataContainer<K, V> implements DataContainer<K, V> {
+
+   private final ArenaSegment<K, V>[] segments;
+   private final int shift;
+   final Codec<K> keyCodec;
+   final Codec<V> valueCodec;
+
+   @SuppressWarnings("unchecked")
+   private OffHeapDataContainer(Codec<K> keyCodec, Codec<V> valueCodec, int numSegments) {
+      this.keyCodec = keyCodec;
+      this.valueCodec = valueCodec;
+      this.segments = new ArenaSegment[numSegments];
+      for (int i = 0; i < numSegments; i++)
+         segments[i] = new ArenaSegment<>(this);
+      this.shift = 32 - Integer.numberOfTrailingZeros(numSegments);
+   }
+
+   static <K, V> OffHeapDataContainer<K, V> create(Codec<K> keyCodec, Codec<V> valueCodec) {
+      return new OffHeapDataContainer<>(keyCodec, valueCodec, SegmentedDataContainer.DEFAULT_SEGMENTS);
+   }
+
+   static <K, V> OffHeapDataContainer<K, V> create(Codec<K> keyCodec, Codec<V> valueCodec, int numSegments) {
+      return new OffHeapDataContainer<>(keyCodec, valueCodec, SegmentedDataContainer.segmentsFor(numSegments));
+   }
+
+   private ArenaSegment<K, V> segmentFor(K key) {
+      return segments[segmentOf(key)];
+   }
+
+   @Override
+   public int segmentOf(K key) {
+      return (key.hashCode() * 0x9E3779B9) >>> shift;
+   }
+
+   @Override
+   public InternalEntry<V> get(K key) {
+      return segmentFor(key).get(key.hashCode(), keyCodec.encode(key));
+   }
+
+   @Override
+   public InternalEntry<V> put(K key, InternalEntry<V> entry) {
+      byte[] value = encodeValue(entry);
+      byte[] metas = MetaParamsCodec.encode(entry.metaParams());
+      return segmentFor(key).put(key.hashCode(), keyCodec.encode(key), value, metas,
+         entry.created(), entry.lastUsed());
+   }
+
+   @Override
+   public InternalEntry<V> remove(K key) {
+      return segmentFor(key).remove(key.hashCode(), keyCodec.encode(key));
+   }
+
+   @Override
+   public InternalEntry<V> compute(K key,
+         BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f) {
+      return segmentFor(key).compute(key, key.hashCode(), keyCodec.encode(key), f);
+   }
+
+   @Override
+   public void writeAll(WriteBatch<K, V> batch) {
+      // Encode outside the segment's lock, so that it's only held for storing
+      int n = batch.size();
+      byte[][] keys = new byte[n][];
+      byte[][] values = new byte[n][];
+      byte[][] metas = new byte[n][];
+      for (int i = 0; i < n; i++) {
+         keys[i] = keyCodec.encode(batch.key(i));
+         InternalEntry<V> entry = batch.entry(i);
+         if (entry != null) {
+            values[i] = encodeValue(entry);
+            metas[i] = MetaParamsCodec.encode(entry.metaParams());
+         }
+      }
+      segments[batch.segment()].writeAll(batch, keys, values, metas);
+   }
+
+   byte[] encodeValue(InternalEntry<V> entry) {
+      V value = entry.value();
+      return value == null ? null : valueCodec.encode(value);
+   }
+
+   @Override
+   public int size() {
+      long size = 0;
+      for (ArenaSegment<K, V> segment : segments)
+         size += segment.size();
+      return (int) Math.min(size, Integer.MAX_VALUE);
+   }
+
+   @Override
+   public boolean isEmpty() {
+      for (ArenaSegment<K, V> segment : segments) {
+         if (segment.size() != 0)
+            return false;
+      }
+      return true;
+   }
+
+   @Override
+   public boolean clearsInConstantTime() {
+      // Segments swap in an empty index and drop their chunks
+      return true;
+   }
+
+   @Override
+   public void clear() {
+      for (ArenaSegment<K, V> segment : segments)
+         segment.clear();
+   }
+
+   @Override
+   public Stream<K> keys() {
+      return StreamSupport.stream(new SegmentSpliterator<>(this, i -> segments[i].keys().spliterator()), false);
+   }
+
+   @Override
+   public Stream<Map.Entry<K, InternalEntry<V>>> entries() {
+      return StreamSupport.stream(new SegmentSpliterator<>(this, i -> segments[i].entries().spliterator()), false);
+   }
+
+   @Override
+   public int segmentCount() {
+      return segments.length;
+   }
+
+   @Override
+   public Segment<K, V> segment(int index) {
+      return segments[index];
+   }
+
+   private static final class ArenaSegment<K, V> implements Segment<K, V> {
+      static final int MIN_CHUNK_SIZE = 4 << 10;
+      static final int MAX_CHUNK_SIZE = 1 << 20;
+      static final int MIN_COMPACTION_BYTES = 64 << 10;
+
+      final OffHeapDataContainer<K, V> container;
+      final StampedLock lock = new StampedLock();
+      final SegmentCounters stats = new SegmentCounters();
+      final RecordIndex index = new RecordIndex();
+
+      // Guarded by lock
+      ArrayList<ByteBuffer> chunks = new ArrayList<>();
+      int tailOffset;
+      long liveBytes;
+      long deadBytes;
+
+      private ArenaSegment(OffHeapDataContainer<K, V> container) {
+         this.container = container;
+      }
+
+      InternalEntry<V> get(int hash, byte[] key) {
+         InternalEntry<V> entry;
+         long stamp = lock.readLock();
+         try {
+            int slot = index.find(hash, key, chunks::get);
+            entry = slot >= 0 ? entry(index.get(slot)) : null;
+         } finally {
+            lock.unlockRead(stamp);
+         }
+         return stats.lookup(entry);
+      }
+
+      InternalEntry<V> put(int hash, byte[] key, byte[] value, byte[] metas, long created, long lastUsed) {
+         long stamp = lock.writeLock();
+         try {
+            int slot = index.find(hash, key, chunks::get);
+            InternalEntry<V> prev = store(slot, hash, key, value, metas, created, lastUsed);
+            maybeCompact();
+            return prev;
+         } finally {
+            lock.unlockWrite(stamp);
+         }
+      }
+
+      InternalEntry<V> remove(int hash, byte[] key) {
+         long stamp = lock.writeLock();
+         try {
+            int slot = index.find(hash, key, chunks::get);
+            if (slot < 0)
+               return null;
+
+            InternalEntry<V> prev = entry(index.get(slot));
+            delete(slot);
+            maybeCompact();
+            return prev;
+         } finally {
+            lock.unlockWrite(stamp);
+         }
+      }
+
+      InternalEntry<V> compute(K k, int hash, byte[] key,
+            BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f) {
+         long stamp = lock.writeLock();
+         try {
+            int slot = index.find(hash, key, chunks::get);
+            InternalEntry<V> prev = slot >= 0 ? entry(index.get(slot)) : null;
+            InternalEntry<V> next = f.apply(k, prev);
+            if (next == prev)
+               return next;
+
+            if (next == null)
+               delete(slot);
+            else
+               store(slot, hash, key, container.encodeValue(next), MetaParamsCodec.encode(next.metaParams()),
+                  next.created(), next.lastUsed());
+
+            maybeCompact();
+            return next;
+         } finally {
+            lock.unlockWrite(stamp);
+         }
+      }
+
+      void writeAll(WriteBatch<K, V> batch, byte[][] keys, byte[][] values, byte[][] metas) {
+         long stamp = lock.writeLock();
+         try {
+            for (int i = 0; i < batch.size(); i++) {
+               int hash = batch.key(i).hashCode();
+               int slot = index.find(hash, keys[i], chunks::get);
+               InternalEntry<V> next = batch.entry(i);
+               if (next != null) {
+                  batch.prev(i, store(slot, hash, keys[i], values[i], metas[i], next.created(), next.lastUsed()));
+               } else if (slot >= 0) {
+                  batch.prev(i, entry(index.get(slot)));
+                  delete(slot);
+               }
+            }
+            maybeCompact();
+         } finally {
+            lock.unlockWrite(stamp);
+         }
+      }
+
+      @Override
+      public int size() {
+         return index.size();
+      }
+
+      @Override
+      public Stream<Map.Entry<K, InternalEntry<V>>> entries() {
+         Snapshot snapshot = snapshotAddresses();
+         return Arrays.stream(snapshot.addresses).mapToObj(a -> {
+            ByteBuffer chunk = snapshot.chunks[RecordIndex.buffer(a)];
+            int offset = RecordIndex.offset(a);
+            K key = container.keyCodec.decode(EntryRecords.key(chunk, offset));
+            return new SimpleImmutableEntry<>(key, new RecordEntry<>(chunk, offset, container.valueCodec));
+         });
+      }
+
+      Stream<K> keys() {
+         Snapshot snapshot = snapshotAddresses();
+         return Arrays.stream(snapshot.addresses).mapToObj(a ->
+            container.keyCodec.decode(EntryRecords.key(snapshot.chunks[RecordIndex.buffer(a)], RecordIndex.offset(a))));
+      }
+
+      @Override
+      public void clear() {
+         long stamp = lock.writeLock();
+         try {
+            index.clear();
+            chunks = new ArrayList<>();
+            tailOffset = 0;
+            liveBytes = 0;
+            deadBytes = 0;
+         } finally {
+            lock.unlockWrite(stamp);
+         }
+      }
+
+      @Override
+      public Map<K, InternalEntry<V>> snapshot() {
+         Map<K, InternalEntry<V>> snapshot = new HashMap<>();
+         entries().forEach(e -> snapshot.put(e.getKey(), e.getValue()));
+         return snapshot;
+      }
+
+      @Override
+      public SegmentStats stats() {
+         return stats;
+      }
+
+      private Snapshot snapshotAddresses() {
+         long stamp = lock.readLock();
+         try {
+            return new Snapshot(chunks.toArray(new ByteBuffer[chunks.size()]), index.addresses());
+         } finally {
+            lock.unlockRead(stamp);
+         }
+      }
+
+      private InternalEntry<V> store(int slot, int hash, byte[] key, byte[] value, byte[] metas,
+            long created, long lastUsed) {
+         long address = allocate(EntryRecords.size(key, value, metas));
+         EntryRecords.write(chunks.get(RecordIndex.buffer(address)), RecordIndex.offset(address),
+            key, value, metas, created, lastUsed);
+         stats.stores.increment();
+         if (slot >= 0) {
+            long prevAddress = index.get(slot);
+            release(prevAddress);
+            index.set(slot, address);
+            return entry(prevAddress);
+         }
+
+         index.insert(slot, hash, address);
+         return null;
+      }
+
+      private void delete(int slot) {
+         release(index.get(slot));
+         index.delete(slot);
+         stats.removals.increment();
+      }
+
+      /**
+       * Reserves space for a record at the end of the last chunk, or in a
+       * new chunk if it does not fit, and returns the record's address.
+       */
+      private long allocate(int size) {
+         ByteBuffer tail = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+         if (tail == null || tail.capacity() - tailOffset < size) {
+            int chunkSize = tail == null ? MIN_CHUNK_SIZE : Math.min(MAX_CHUNK_SIZE, tail.capacity() << 1);
+            if (tail != null)
+               deadBytes += tail.capacity() - tailOffset; // Unusable space at the end of the chunk
+
+            chunks.add(ByteBuffer.allocateDirect(Math.max(size, chunkSize)));
+            tailOffset = 0;
+         }
+
+         long address = RecordIndex.address(chunks.size() - 1, tailOffset);
+         tailOffset += size;
+         liveBytes += size;
+         return address;
+      }
+
+      private void release(long address) {
+         int size = EntryRecords.size(chunks.get(RecordIndex.buffer(address)), RecordIndex.offset(address));
+         liveBytes -= size;
+         deadBytes += size;
+      }
+
+      private void maybeCompact() {
+         if (deadBytes < MIN_COMPACTION_BYTES || deadBytes < liveBytes)
+            return;
+
+         ArrayList<ByteBuffer> oldChunks = chunks;
+         chunks = new ArrayList<>();
+         tailOffset = 0;
+         liveBytes = 0;
+         deadBytes = 0;
+         index.relocate(a -> {
+            ByteBuffer chunk = oldChunks.get(RecordIndex.buffer(a));
+            int offset = RecordIndex.offset(a);
+            int size = EntryRecords.size(chunk, offset);
+            long address = allocate(size);
+            EntryRecords.copy(chunk, offset, chunks.get(RecordIndex.buffer(address)), RecordIndex.offset(address));
+            return address;
+         });
+      }
+
+      private InternalEntry<V> entry(long address) {
+         return new RecordEntry<>(chunks.get(RecordIndex.buffer(address)), RecordIndex.offset(address),
+            container.valueCodec);
+      }
+   }
+
+   static final class Snapshot {
+      final ByteBuffer[] chunks;
+      final long[] addresses;
+
+      Snapshot(ByteBuffer[] chunks, long[] addresses) {
+         this.chunks = chunks;
+         this.addresses = addresses;
+      }
+   }
+
+}
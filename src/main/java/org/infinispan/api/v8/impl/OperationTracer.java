@@ -0,0 +1,59 @@
+package org.infinispan.api.v8.impl;
+
+/**
+ * Operation tracer SPI. A tracer is plugged into a functional map via
+ * {@link FunctionalMapImpl#withTracer(OperationTracer)}, after which it gets
+ * called back once for each operation executed against the read-only,
+ * write-only and read-write maps created from it.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why pass in the key's hash code instead of the key itself? To avoid
+ *    tracers keeping references to keys, which would prevent them from
+ *    being garbage collected, and also to encourage tracers to record
+ *    primitive information rather than formatting strings on the operation's
+ *    path.
+ *    </li>
+ *    <li>Why is there no no-op tracer implementation? Because tracing is
+ *    disabled by not having a tracer at all. That way, when tracing is off,
+ *    the cost is a null check per operation, without even looking up the
+ *    time.
+ *    </li>
+ * </ul>
+ */
+public interface OperationTracer {
+
+   /**
+    * Called once an operation has completed. For operations returning a
+    * {@link java.util.concurrent.CompletableFuture}, this is called when the
+    * future is completed. For operations returning traversables or
+    * iterators, this is called when these are returned.
+    *
+    * Implementations must be thread safe and should be fast, since they're
+    * called from the threads executing the operations.
+    *
+    * @param op type of operation
+    * @param keyHash hash code of the key for single key operations, 0 otherwise
+    * @param params parameters the operation was executed with
+    * @param latencyNanos operation latency in nanoseconds
+    */
+   void trace(Operation op, int keyHash, Params params, long latencyNanos);
+
+   /**
+    * Types of operations that can be traced.
+    */
+   enum Operation {
+      READ_ONLY_EVAL,
+      READ_ONLY_EVAL_MANY,
+      READ_ONLY_KEYS,
+      READ_ONLY_ENTRIES,
+      WRITE_ONLY_EVAL,
+      WRITE_ONLY_EVAL_MANY,
+      WRITE_ONLY_VALUES,
+      WRITE_ONLY_TRUNCATE,
+      READ_WRITE_EVAL,
+      READ_WRITE_EVAL_MANY,
+      READ_WRITE_ENTRIES
+   }
+
+}
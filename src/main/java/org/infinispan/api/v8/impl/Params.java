@@ -20,10 +20,16 @@ import java.util.List;
  *    </il>
  * </ul>
  */
-class Params {
+public final class Params {
 
    private static final Param<?>[] DEFAULTS = new Param<?>[]{
       Param.WaitMode.defaultValue(),
+      Param.Atomicity.defaultValue(),
+      Param.AsyncExecutor.defaultValue(),
+      Param.TraversalMode.defaultValue(),
+      Param.Parallelism.defaultValue(),
+      Param.Isolation.defaultValue(),
+      Param.Versioning.defaultValue(),
    };
 
    final Param<?>[] params;
@@ -0,0 +1,823 @@
+package org.infinispan.api.v8.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+/**
+ * {@link DataContainer} that persists entries in memory-mapped files, so
+ * that they survive restarts. Entries are appended as records, in
+ * {@link EntryRecords} format, to the files of the segment the key belongs
+ * to, and each segment keeps an in-memory {@link RecordIndex} from keys to
+ * the position of their latest record. When the container is opened, the
+ * index is rebuilt by replaying the segment files.
+ *
+ * Each segment owns a sequence of files named after the segment and a
+ * generation number. Only the file with the highest generation is appended
+ * to. Each file starts with a header:
+ *
+ * <pre>
+ *    int   magic number
+ *    int   number of segments in the store
+ *    int   flags, where 1 means the file holds all entries of the segment
+ *          as of its creation, so older generations can be discarded
+ *    int   generation
+ * </pre>
+ *
+ * Each record is preceded by its length, including this prefix, and a
+ * CRC32 checksum of the record. A length of 0 marks the end of the records
+ * in the file. Replaying a file stops at the first record whose checksum
+ * does not match, which can happen if the process stopped while the record
+ * was being written.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why are reads served straight from the mapped files? Because the
+ *    entries returned keep a reference to the mapped buffer and only
+ *    decode values when an entry view reads them, the operating system's
+ *    page cache acts as the cache for stored data, and no copies need
+ *    to be made on the Java heap.
+ *    </li>
+ *    <li>Why are removals written as tombstones? Because files are only
+ *    ever appended to, so a removal needs to be recorded for replay to
+ *    not resurrect the key from an older record.
+ *    </li>
+ *    <li>How is space reclaimed? When the space taken by replaced records
+ *    and tombstones in a segment exceeds the space taken by live records,
+ *    a background thread rewrites the segment's live records to a new
+ *    file, flags it as holding all entries once it's been forced to disk,
+ *    and deletes the segment's older files. Entries still referring to
+ *    deleted files keep working, since the mapping outlives the file.
+ *    Live records are copied without locking the segment, which is only
+ *    locked to copy the records written meanwhile and to swap files, so
+ *    reads and writes don't wait for the disk.
+ *    </li>
+ *    <li>When are writes durable? Writes are made to the mapped files, so
+ *    they survive the process stopping abruptly, but they're only forced
+ *    to disk when the segment is compacted or cleared, and when the
+ *    container is closed. So, writes not yet forced might be lost if the
+ *    operating system crashes.
+ *    </li>
+ * </ul>
+ */
+final class PersistentDataContainer<K, V> implements DataContainer<K, V> {
+
+   private static final int MAGIC = 0x46504D53;
+   private static final int FILE_HEADER_SIZE = 4 * Integer.BYTES;
+   private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+   private static final int FULL = 1;
+   private static final String FILE_SUFFIX = ".seg";
+   private static final String COMPACTING_SUFFIX = "-compacting.tmp";
+
+   private final FileSegment<K, V>[] segments;
+   private final int shift;
+   final Path dir;
+   final Codec<K> keyCodec;
+   final Codec<V> valueCodec;
+   final ExecutorService compactor;
+
+   @SuppressWarnings("unchecked")
+   private PersistentDataContainer(Path dir, Codec<K> keyCodec, Codec<V> valueCodec, int numSegments) {
+      this.dir = dir;
+      this.keyCodec = keyCodec;
+      this.valueCodec = valueCodec;
+      this.compactor = Executors.newSingleThreadExecutor(r -> {
+         Thread t = new Thread(r, "functional-map-compactor-" + dir.getFileName());
+         t.setDaemon(true);
+         return t;
+      });
+      this.segments = new FileSegment[numSegments];
+      this.shift = 32 - Integer.numberOfTrailingZeros(numSegments);
+      try {
+         Files.createDirectories(dir);
+         for (int i = 0; i < numSegments; i++)
+            segments[i] = new FileSegment<>(this, i);
+      } catch (IOException e) {
+         compactor.shutdown();
+         throw new UncheckedIOException("Unable to open store at " + dir, e);
+      } catch (RuntimeException e) {
+         compactor.shutdown();
+         throw e;
+      }
+   }
+
+   /**
+    * Opens the store in the given directory, creating it if it does not
+    * exist, and recovers any entries persisted in it.
+    */
+   static <K, V> PersistentDataContainer<K, V> open(Path dir, Codec<K> keyCodec, Codec<V> valueCodec) {
+      return new PersistentDataContainer<>(dir, keyCodec, valueCodec, SegmentedDataContainer.DEFAULT_SEGMENTS);
+   }
+
+   static <K, V> PersistentDataContainer<K, V> open(Path dir, Codec<K> keyCodec, Codec<V> valueCodec,
+         int numSegments) {
+      return new PersistentDataContainer<>(dir, keyCodec, valueCodec, SegmentedDataContainer.segmentsFor(numSegments));
+   }
+
+   private FileSegment<K, V> segmentFor(K key) {
+      return segments[segmentOf(key)];
+   }
+
+   @Override
+   public int segmentOf(K key) {
+      return (key.hashCode() * 0x9E3779B9) >>> shift;
+   }
+
+   @Override
+   public InternalEntry<V> get(K key) {
+      return segmentFor(key).get(key.hashCode(), keyCodec.encode(key));
+   }
+
+   @Override
+   public InternalEntry<V> put(K key, InternalEntry<V> entry) {
+      byte[] value = encodeValue(entry);
+      byte[] metas = MetaParamsCodec.encode(entry.metaParams());
+      return segmentFor(key).put(key.hashCode(), keyCodec.encode(key), value, metas,
+         entry.created(), entry.lastUsed());
+   }
+
+   @Override
+   public InternalEntry<V> remove(K key) {
+      return segmentFor(key).remove(key.hashCode(), keyCodec.encode(key));
+   }
+
+   @Override
+   public InternalEntry<V> compute(K key,
+         BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f) {
+      return segmentFor(key).compute(key, key.hashCode(), keyCodec.encode(key), f);
+   }
+
+   byte[] encodeValue(InternalEntry<V> entry) {
+      V value = entry.value();
+      return value == null ? null : valueCodec.encode(value);
+   }
+
+   @Override
+   public int size() {
+      long size = 0;
+      for (FileSegment<K, V> segment : segments)
+         size += segment.size();
+      return (int) Math.min(size, Integer.MAX_VALUE);
+   }
+
+   @Override
+   public boolean isEmpty() {
+      for (FileSegment<K, V> segment : segments) {
+         if (segment.size() != 0)
+            return false;
+      }
+      return true;
+   }
+
+   @Override
+   public void clear() {
+      for (FileSegment<K, V> segment : segments)
+         segment.clear();
+   }
+
+   @Override
+   public Stream<K> keys() {
+      return StreamSupport.stream(new SegmentSpliterator<>(this, i -> segments[i].keys().spliterator()), false);
+   }
+
+   @Override
+   public Stream<Map.Entry<K, InternalEntry<V>>> entries() {
+      return StreamSupport.stream(new SegmentSpliterator<>(this, i -> segments[i].entries().spliterator()), false);
+   }
+
+   @Override
+   public int segmentCount() {
+      return segments.length;
+   }
+
+   @Override
+   public Segment<K, V> segment(int index) {
+      return segments[index];
+   }
+
+   @Override
+   public void close() {
+      compactor.shutdown();
+      for (FileSegment<K, V> segment : segments)
+         segment.force();
+   }
+
+   private static final class FileSegment<K, V> implements Segment<K, V> {
+      static final int MIN_FILE_SIZE = 64 << 10;
+      static final int MAX_FILE_SIZE = 64 << 20;
+      static final int MIN_COMPACTION_BYTES = 64 << 10;
+
+      final PersistentDataContainer<K, V> container;
+      final int id;
+      final StampedLock lock = new StampedLock();
+      final SegmentCounters stats = new SegmentCounters();
+      final RecordIndex index = new RecordIndex();
+      final CRC32 crc = new CRC32();
+
+      // Guarded by lock
+      List<SegmentFile> files = new ArrayList<>();
+      int nextGeneration;
+      long liveBytes;
+      long deadBytes;
+
+      volatile boolean compactionScheduled;
+
+      private FileSegment(PersistentDataContainer<K, V> container, int id) throws IOException {
+         this.container = container;
+         this.id = id;
+         recover();
+      }
+
+      InternalEntry<V> get(int hash, byte[] key) {
+         InternalEntry<V> entry;
+         long stamp = lock.readLock();
+         try {
+            int slot = index.find(hash, key, this::buffer);
+            entry = slot >= 0 ? entry(index.get(slot)) : null;
+         } finally {
+            lock.unlockRead(stamp);
+         }
+         return stats.lookup(entry);
+      }
+
+      InternalEntry<V> put(int hash, byte[] key, byte[] value, byte[] metas, long created, long lastUsed) {
+         long stamp = lock.writeLock();
+         try {
+            int slot = index.find(hash, key, this::buffer);
+            InternalEntry<V> prev = store(slot, hash, key, value, metas, created, lastUsed);
+            maybeScheduleCompaction();
+            return prev;
+         } finally {
+            lock.unlockWrite(stamp);
+         }
+      }
+
+      InternalEntry<V> remove(int hash, byte[] key) {
+         long stamp = lock.writeLock();
+         try {
+            int slot = index.find(hash, key, this::buffer);
+            if (slot < 0)
+               return null;
+
+            InternalEntry<V> prev = entry(index.get(slot));
+            delete(slot, key);
+            maybeScheduleCompaction();
+            return prev;
+         } finally {
+            lock.unlockWrite(stamp);
+         }
+      }
+
+      InternalEntry<V> compute(K k, int hash, byte[] key,
+            BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f) {
+         long stamp = lock.writeLock();
+         try {
+            int slot = index.find(hash, key, this::buffer);
+            InternalEntry<V> prev = slot >= 0 ? entry(index.get(slot)) : null;
+            InternalEntry<V> next = f.apply(k, prev);
+            if (next == prev)
+               return next;
+
+            if (next == null)
+               delete(slot, key);
+            else
+               store(slot, hash, key, container.encodeValue(next), MetaParamsCodec.encode(next.metaParams()),
+                  next.created(), next.lastUsed());
+
+            maybeScheduleCompaction();
+            return next;
+         } finally {
+            lock.unlockWrite(stamp);
+         }
+      }
+
+      @Override
+      public int size() {
+         return index.size();
+      }
+
+      @Override
+      public Stream<Map.Entry<K, InternalEntry<V>>> entries() {
+         OffHeapDataContainer.Snapshot snapshot = snapshotAddresses();
+         return Arrays.stream(snapshot.addresses).mapToObj(a -> {
+            ByteBuffer buffer = snapshot.chunks[RecordIndex.buffer(a)];
+            int offset = RecordIndex.offset(a);
+            K key = container.keyCodec.decode(EntryRecords.key(buffer, offset));
+            return new SimpleImmutableEntry<>(key, new RecordEntry<>(buffer, offset, container.valueCodec));
+         });
+      }
+
+      Stream<K> keys() {
+         OffHeapDataContainer.Snapshot snapshot = snapshotAddresses();
+         return Arrays.stream(snapshot.addresses).mapToObj(a ->
+            container.keyCodec.decode(EntryRecords.key(snapshot.chunks[RecordIndex.buffer(a)], RecordIndex.offset(a))));
+      }
+
+      @Override
+      public void clear() {
+         List<SegmentFile> oldFiles;
+         long stamp = lock.writeLock();
+         try {
+            oldFiles = files;
+            files = new ArrayList<>();
+            files.add(SegmentFile.create(container, id, nextGeneration++, MIN_FILE_SIZE, true));
+            index.clear();
+            liveBytes = 0;
+            deadBytes = 0;
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         } finally {
+            lock.unlockWrite(stamp);
+         }
+         // Old files are deleted once the segment is usable again, so that
+         // readers and writers don't wait for the file system
+         try {
+            delete(oldFiles);
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+      }
+
+      @Override
+      public Map<K, InternalEntry<V>> snapshot() {
+         Map<K, InternalEntry<V>> snapshot = new HashMap<>();
+         entries().forEach(e -> snapshot.put(e.getKey(), e.getValue()));
+         return snapshot;
+      }
+
+      @Override
+      public SegmentStats stats() {
+         return stats;
+      }
+
+      void force() {
+         long stamp = lock.writeLock();
+         try {
+            for (SegmentFile file : files)
+               file.buffer.force();
+         } finally {
+            lock.unlockWrite(stamp);
+         }
+      }
+
+      private ByteBuffer buffer(int file) {
+         return files.get(file).buffer;
+      }
+
+      private OffHeapDataContainer.Snapshot snapshotAddresses() {
+         long stamp = lock.readLock();
+         try {
+            ByteBuffer[] buffers = new ByteBuffer[files.size()];
+            for (int i = 0; i < buffers.length; i++)
+               buffers[i] = files.get(i).buffer;
+            return new OffHeapDataContainer.Snapshot(buffers, index.addresses());
+         } finally {
+            lock.unlockRead(stamp);
+         }
+      }
+
+      private InternalEntry<V> store(int slot, int hash, byte[] key, byte[] value, byte[] metas,
+            long created, long lastUsed) {
+         int size = EntryRecords.size(key, value, metas);
+         long address = allocate(size);
+         ByteBuffer buffer = buffer(RecordIndex.buffer(address));
+         int offset = RecordIndex.offset(address);
+         EntryRecords.write(buffer, offset, key, value, metas, created, lastUsed);
+         commit(buffer, offset, size);
+         liveBytes += RECORD_HEADER_SIZE + size;
+         stats.stores.increment();
+         if (slot >= 0) {
+            long prevAddress = index.get(slot);
+            release(prevAddress);
+            index.set(slot, address);
+            return entry(prevAddress);
+         }
+
+         index.insert(slot, hash, address);
+         return null;
+      }
+
+      private void delete(int slot, byte[] key) {
+         int size = EntryRecords.tombstoneSize(key);
+         long address = allocate(size);
+         ByteBuffer buffer = buffer(RecordIndex.buffer(address));
+         int offset = RecordIndex.offset(address);
+         EntryRecords.writeTombstone(buffer, offset, key);
+         commit(buffer, offset, size);
+         deadBytes += RECORD_HEADER_SIZE + size;
+
+         release(index.get(slot));
+         index.delete(slot);
+         stats.removals.increment();
+      }
+
+      /**
+       * Writes the record's checksum and length, the latter going last so
+       * that the record is only considered present once fully written.
+       */
+      private void commit(ByteBuffer buffer, int offset, int size) {
+         buffer.putInt(offset - Integer.BYTES, checksum(buffer, offset, size));
+         buffer.putInt(offset - RECORD_HEADER_SIZE, RECORD_HEADER_SIZE + size);
+      }
+
+      /**
+       * Checksum of the record, excluding its last used time, which is
+       * updated in place when the entry is read.
+       */
+      private int checksum(ByteBuffer buffer, int offset, int size) {
+         ByteBuffer record = buffer.duplicate();
+         crc.reset();
+         record.limit(offset + EntryRecords.LAST_USED_OFFSET).position(offset);
+         crc.update(record);
+         record.limit(offset + size).position(offset + EntryRecords.HEADER_SIZE);
+         crc.update(record);
+         return (int) crc.getValue();
+      }
+
+      /**
+       * Reserves space for a record, plus its length and checksum, at the
+       * end of the latest file, or in a new file if it does not fit, and
+       * returns the address of the record.
+       */
+      private long allocate(int size) {
+         int total = RECORD_HEADER_SIZE + size;
+         SegmentFile tail = files.get(files.size() - 1);
+         if (tail.capacity() - tail.writeOffset < total) {
+            int fileSize = Math.max(FILE_HEADER_SIZE + total, Math.min(MAX_FILE_SIZE, tail.capacity() << 1));
+            try {
+               tail = SegmentFile.create(container, id, nextGeneration++, fileSize, false);
+            } catch (IOException e) {
+               throw new UncheckedIOException(e);
+            }
+            files.add(tail);
+         }
+
+         int offset = tail.writeOffset + RECORD_HEADER_SIZE;
+         tail.writeOffset += total;
+         return RecordIndex.address(files.size() - 1, offset);
+      }
+
+      private void release(long address) {
+         int size = RECORD_HEADER_SIZE + EntryRecords.size(buffer(RecordIndex.buffer(address)), RecordIndex.offset(address));
+         liveBytes -= size;
+         deadBytes += size;
+      }
+
+      private void maybeScheduleCompaction() {
+         if (compactionScheduled || deadBytes < MIN_COMPACTION_BYTES || deadBytes < liveBytes)
+            return;
+
+         compactionScheduled = true;
+         try {
+            container.compactor.execute(this::compact);
+         } catch (RejectedExecutionException e) {
+            compactionScheduled = false; // Container closed
+         }
+      }
+
+      /**
+       * Rewrites the segment's live records into a new file, which becomes
+       * the only file of the segment.
+       *
+       * Records are never modified once written, apart from their last used
+       * time, so the records live when compaction starts are copied without
+       * holding the lock, while reads and writes carry on. The lock is then
+       * held exclusively only to copy the records written since, and to swap
+       * the new file in. The new file is written under a temporary name, and
+       * renamed to the latest generation when swapped in, so that recovery
+       * replays it after any file created meanwhile. Forcing it to disk and
+       * deleting the old files is done once the lock is released. If the
+       * segment was cleared meanwhile, or the records written since don't
+       * fit in the new file, compaction is given up until the next write.
+       */
+      private void compact() {
+         SegmentFile out = null;
+         boolean swapped = false;
+         try {
+            List<SegmentFile> oldFiles;
+            ByteBuffer[] buffers;
+            long[] from;
+            long mark;
+            int fileSize;
+            long stamp = lock.readLock();
+            try {
+               oldFiles = files;
+               buffers = new ByteBuffer[files.size()];
+               for (int i = 0; i < buffers.length; i++)
+                  buffers[i] = files.get(i).buffer;
+               from = index.addresses();
+               // Records written from here on are copied once the lock is held
+               mark = RecordIndex.address(files.size() - 1, files.get(files.size() - 1).writeOffset);
+               fileSize = (int) Math.min(Integer.MAX_VALUE,
+                  Math.max(MIN_FILE_SIZE, FILE_HEADER_SIZE + 2 * liveBytes));
+            } finally {
+               lock.unlockRead(stamp);
+            }
+
+            out = SegmentFile.createTemporary(container, id, fileSize);
+            Arrays.sort(from);
+            long[] to = new long[from.length];
+            for (int i = 0; i < from.length; i++)
+               to[i] = copy(buffers[RecordIndex.buffer(from[i])], RecordIndex.offset(from[i]), out);
+
+            SegmentFile compacted;
+            stamp = lock.writeLock();
+            try {
+               if (files != oldFiles)
+                  return; // Cleared meanwhile
+
+               long[] since = new long[16];
+               long[] sinceTo = new long[16];
+               int count = 0;
+               for (int f = RecordIndex.buffer(mark); f < files.size(); f++) {
+                  SegmentFile file = files.get(f);
+                  int position = f == RecordIndex.buffer(mark) ? RecordIndex.offset(mark) : FILE_HEADER_SIZE;
+                  while (position < file.writeOffset && file.buffer.getInt(position) != 0) {
+                     int total = file.buffer.getInt(position);
+                     if (out.capacity() - out.writeOffset < total)
+                        return;
+
+                     if (count == since.length) {
+                        since = Arrays.copyOf(since, count << 1);
+                        sinceTo = Arrays.copyOf(sinceTo, count << 1);
+                     }
+                     since[count] = RecordIndex.address(f, position + RECORD_HEADER_SIZE);
+                     sinceTo[count++] = copy(file.buffer, position + RECORD_HEADER_SIZE, out);
+                     position += total;
+                  }
+               }
+
+               compacted = out.rename(container, id, nextGeneration++);
+               swapped = true;
+               files = new ArrayList<>();
+               files.add(compacted);
+               long[] copied = since;
+               long[] copiedTo = sinceTo;
+               int copiedCount = count;
+               liveBytes = 0;
+               index.relocate(a -> {
+                  long address = a < mark
+                     ? to[Arrays.binarySearch(from, a)]
+                     : copiedTo[Arrays.binarySearch(copied, 0, copiedCount, a)];
+                  liveBytes += RECORD_HEADER_SIZE + EntryRecords.size(compacted.buffer, RecordIndex.offset(address));
+                  return address;
+               });
+               deadBytes = compacted.writeOffset - FILE_HEADER_SIZE - liveBytes;
+            } finally {
+               lock.unlockWrite(stamp);
+            }
+
+            compacted.markFull();
+            delete(oldFiles);
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         } finally {
+            compactionScheduled = false;
+            if (out != null && !swapped)
+               deleteQuietly(out.path);
+         }
+      }
+
+      /**
+       * Appends the record at the given offset of the buffer, along with its
+       * length and checksum, to the file, and returns its address there,
+       * where the file is the first of the segment.
+       */
+      private static long copy(ByteBuffer buffer, int offset, SegmentFile out) {
+         int total = RECORD_HEADER_SIZE + EntryRecords.size(buffer, offset);
+         ByteBuffer src = buffer.duplicate();
+         src.limit(offset - RECORD_HEADER_SIZE + total).position(offset - RECORD_HEADER_SIZE);
+         ByteBuffer dst = out.buffer.duplicate();
+         dst.position(out.writeOffset);
+         dst.put(src);
+         out.writeOffset += total;
+         return RecordIndex.address(0, out.writeOffset - total + RECORD_HEADER_SIZE);
+      }
+
+      private static void deleteQuietly(Path path) {
+         try {
+            Files.deleteIfExists(path);
+         } catch (IOException e) {
+            // Deleted on recovery otherwise
+         }
+      }
+
+      private static void delete(List<SegmentFile> files) throws IOException {
+         for (SegmentFile file : files)
+            Files.deleteIfExists(file.path);
+      }
+
+      private InternalEntry<V> entry(long address) {
+         return new RecordEntry<>(buffer(RecordIndex.buffer(address)), RecordIndex.offset(address),
+            container.valueCodec);
+      }
+
+      /**
+       * Rebuilds the index by replaying the segment's files, starting from
+       * the latest file holding all entries.
+       */
+      private void recover() throws IOException {
+         TreeMap<Integer, Path> existing = new TreeMap<>();
+         String prefix = id + "-";
+         try (DirectoryStream<Path> stream = Files.newDirectoryStream(container.dir, prefix + "*" + FILE_SUFFIX)) {
+            for (Path path : stream) {
+               String name = path.getFileName().toString();
+               existing.put(Integer.parseInt(name.substring(prefix.length(), name.length() - FILE_SUFFIX.length())), path);
+            }
+         }
+
+         // Left behind by a compaction that didn't complete
+         Files.deleteIfExists(container.dir.resolve(id + COMPACTING_SUFFIX));
+
+         List<SegmentFile> opened = new ArrayList<>();
+         for (Map.Entry<Integer, Path> e : existing.entrySet()) {
+            SegmentFile file = SegmentFile.open(container, e.getValue(), e.getKey());
+            if (file.isFull()) {
+               delete(opened); // Superseded by a file holding all entries
+               opened.clear();
+            }
+            opened.add(file);
+         }
+
+         if (opened.isEmpty()) {
+            opened.add(SegmentFile.create(container, id, 0, MIN_FILE_SIZE, true));
+         }
+
+         files = opened;
+         nextGeneration = opened.get(opened.size() - 1).generation + 1;
+         for (int i = 0; i < files.size(); i++)
+            replay(i);
+      }
+
+      private void replay(int fileIndex) {
+         SegmentFile file = files.get(fileIndex);
+         ByteBuffer buffer = file.buffer;
+         int position = FILE_HEADER_SIZE;
+         while (position + RECORD_HEADER_SIZE + EntryRecords.HEADER_SIZE <= file.capacity()) {
+            int total = buffer.getInt(position);
+            if (total < RECORD_HEADER_SIZE + EntryRecords.HEADER_SIZE || position + total > file.capacity())
+               break;
+
+            int offset = position + RECORD_HEADER_SIZE;
+            int size = total - RECORD_HEADER_SIZE;
+            if (size != EntryRecords.size(buffer, offset)
+                  || buffer.getInt(position + Integer.BYTES) != checksum(buffer, offset, size))
+               break; // Record not fully written
+
+            apply(RecordIndex.address(fileIndex, offset), total);
+            position += total;
+         }
+
+         // A record whose length was written but whose contents don't match
+         // means the file was damaged, so clear the rest of the file for it
+         // not to be mistaken for records on the next replay
+         if (position + Integer.BYTES <= file.capacity() && buffer.getInt(position) != 0) {
+            for (int i = position; i < file.capacity(); i++)
+               buffer.put(i, (byte) 0);
+         }
+
+         file.writeOffset = fileIndex == files.size() - 1 ? position : file.capacity();
+      }
+
+      private void apply(long address, int total) {
+         ByteBuffer buffer = buffer(RecordIndex.buffer(address));
+         int offset = RecordIndex.offset(address);
+         K k = container.keyCodec.decode(EntryRecords.key(buffer, offset));
+         byte[] key = Codecs.BYTES.decode(EntryRecords.key(buffer, offset));
+         int hash = k.hashCode();
+         int slot = index.find(hash, key, this::buffer);
+         if (EntryRecords.isTombstone(buffer, offset)) {
+            deadBytes += total;
+            if (slot >= 0) {
+               release(index.get(slot));
+               index.delete(slot);
+            }
+            return;
+         }
+
+         liveBytes += total;
+         if (slot >= 0) {
+            release(index.get(slot));
+            index.set(slot, address);
+         } else {
+            index.insert(slot, hash, address);
+         }
+      }
+   }
+
+   private static final class SegmentFile {
+      final Path path;
+      final int generation;
+      final MappedByteBuffer buffer;
+      int writeOffset;
+
+      private SegmentFile(Path path, int generation, MappedByteBuffer buffer) {
+         this.path = path;
+         this.generation = generation;
+         this.buffer = buffer;
+         this.writeOffset = FILE_HEADER_SIZE;
+      }
+
+      int capacity() {
+         return buffer.capacity();
+      }
+
+      boolean isFull() {
+         return (buffer.getInt(2 * Integer.BYTES) & FULL) != 0;
+      }
+
+      /**
+       * Forces the file's contents to disk and then flags it as holding all
+       * entries of the segment.
+       */
+      void markFull() {
+         buffer.force();
+         buffer.putInt(2 * Integer.BYTES, buffer.getInt(2 * Integer.BYTES) | FULL);
+         buffer.force();
+      }
+
+      /**
+       * Renames the file after the given generation, so that it's replayed on
+       * recovery after the segment's files with lower generations.
+       */
+      SegmentFile rename(PersistentDataContainer<?, ?> container, int segment, int generation) throws IOException {
+         Path target = container.dir.resolve(segment + "-" + generation + FILE_SUFFIX);
+         buffer.putInt(3 * Integer.BYTES, generation);
+         Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+         SegmentFile renamed = new SegmentFile(target, generation, buffer);
+         renamed.writeOffset = writeOffset;
+         return renamed;
+      }
+
+      static SegmentFile create(PersistentDataContainer<?, ?> container, int segment, int generation,
+            int size, boolean full) throws IOException {
+         return create(container, container.dir.resolve(segment + "-" + generation + FILE_SUFFIX), generation,
+            size, full);
+      }
+
+      /**
+       * Creates a file to compact the segment into, under a name that's not
+       * replayed on recovery until the file is renamed after a generation.
+       */
+      static SegmentFile createTemporary(PersistentDataContainer<?, ?> container, int segment, int size)
+            throws IOException {
+         Path path = container.dir.resolve(segment + COMPACTING_SUFFIX);
+         Files.deleteIfExists(path);
+         return create(container, path, -1, size, false);
+      }
+
+      private static SegmentFile create(PersistentDataContainer<?, ?> container, Path path, int generation,
+            int size, boolean full) throws IOException {
+         try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+               StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(Integer.BYTES, container.segmentCount());
+            buffer.putInt(2 * Integer.BYTES, 0);
+            buffer.putInt(3 * Integer.BYTES, generation);
+            SegmentFile file = new SegmentFile(path, generation, buffer);
+            if (full)
+               file.markFull();
+            return file;
+         }
+      }
+
+      static SegmentFile open(PersistentDataContainer<?, ?> container, Path path, int generation) throws IOException {
+         try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (buffer.capacity() < FILE_HEADER_SIZE || buffer.getInt(0) != MAGIC)
+               throw new IllegalStateException("Not a segment file: " + path);
+
+            int segments = buffer.getInt(Integer.BYTES);
+            if (segments != container.segmentCount())
+               throw new IllegalStateException(String.format(
+                  "Store at %s has %d segments, but %d were requested", container.dir, segments, container.segmentCount()));
+
+            return new SegmentFile(path, generation, buffer);
+         }
+      }
+   }
+
+}
@@ -3,67 +3,145 @@ package org.infinispan.api.v8.impl;
 import org.infinispan.api.v8.EntryView.ReadEntryView;
 import org.infinispan.api.v8.FunctionalMap.ReadOnlyMap;
 import org.infinispan.api.v8.Param;
+import org.infinispan.api.v8.Param.AsyncExecutor;
+import org.infinispan.api.v8.Param.Isolation;
+import org.infinispan.api.v8.Param.Parallelism;
+import org.infinispan.api.v8.Param.TraversalMode;
 import org.infinispan.api.v8.Param.WaitMode;
 import org.infinispan.api.v8.Traversable;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
 import static org.infinispan.api.v8.Param.WaitMode.withWaitFuture;
 import static org.infinispan.api.v8.Param.WaitMode.withWaitTraversable;
+import static org.infinispan.api.v8.impl.OperationTracer.Operation.READ_ONLY_ENTRIES;
+import static org.infinispan.api.v8.impl.OperationTracer.Operation.READ_ONLY_EVAL;
+import static org.infinispan.api.v8.impl.OperationTracer.Operation.READ_ONLY_EVAL_MANY;
+import static org.infinispan.api.v8.impl.OperationTracer.Operation.READ_ONLY_KEYS;
 
 public final class ReadOnlyMapImpl<K, V> extends AbstractFunctionalMap<K, V> implements ReadOnlyMap<K, V> {
 
+   /**
+    * Minimum number of keys for a parallel multi-key lookup to copy the keys
+    * so that they're split into evenly sized chunks. Below that, copying
+    * costs more than uneven splits do.
+    */
+   private static final int PARALLEL_LOOKUP_THRESHOLD = 1 << 13;
+
    private final Params params;
 
-   private ReadOnlyMapImpl(Params params, FunctionalMapImpl<K, V> functionalMap) {
-      super(functionalMap);
+   private ReadOnlyMapImpl(Params params, FunctionalMapImpl<K, V> functionalMap, AsyncExecutor executor) {
+      super(functionalMap, params, executor);
       this.params = params;
    }
 
    public static <K, V> ReadOnlyMap<K, V> create(FunctionalMapImpl<K, V> functionalMap) {
-      return new ReadOnlyMapImpl<>(Params.from(functionalMap.params.params), functionalMap);
+      return new ReadOnlyMapImpl<>(Params.from(functionalMap.params.params), functionalMap, null);
    }
 
-   private static <K, V> ReadOnlyMap<K, V> create(Params params, FunctionalMapImpl<K, V> functionalMap) {
-      return new ReadOnlyMapImpl<>(params, functionalMap);
+   private static <K, V> ReadOnlyMap<K, V> create(Params params, FunctionalMapImpl<K, V> functionalMap,
+         AsyncExecutor executor) {
+      return new ReadOnlyMapImpl<>(params, functionalMap, executor);
    }
 
    @Override
    public <R> CompletableFuture<R> eval(K key, Function<ReadEntryView<K, V>, R> f) {
-      System.out.printf("[R] Invoked eval(k=%s, %s)%n", key, params);
+      long start = traceStart();
       Param<WaitMode> waitMode = params.get(WaitMode.ID);
-      return withWaitFuture(waitMode, () -> f.apply(EntryViews.readOnly(key, functionalMap.data.get(key))));
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      return traced(READ_ONLY_EVAL, key, params, start,
+         withWaitFuture(waitMode, executor, () -> f.apply(EntryViews.readOnly(key, functionalMap.data.get(key)))));
    }
 
    @Override
    public <R> Traversable<R> evalMany(Set<? extends K> s, Function<ReadEntryView<K, V>, R> f) {
-      System.out.printf("[R] Invoked evalMany(m=%s, %s)%n", s, params);
+      long start = traceStart();
       Param<WaitMode> waitMode = params.get(WaitMode.ID);
-      return withWaitTraversable(waitMode, () ->
-         functionalMap.data.entrySet().stream()
-            .filter(e -> s.contains(e.getKey()))
-            .map(e -> f.apply(EntryViews.readOnly(e.getKey(), e.getValue())))
-      );
+      Param<TraversalMode> traversalMode = params.get(TraversalMode.ID);
+      Param<Integer> parallelism = params.get(Parallelism.ID);
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      return traced(READ_ONLY_EVAL_MANY, params, start, withWaitTraversable(waitMode, traversalMode, parallelism, executor, () -> lookupMany(s, parallelism)
+         .map(this::lookup)
+         .filter(Objects::nonNull)
+         .map(f)
+      ));
+   }
+
+   /**
+    * Streams the keys to be looked up in request order. Each key results in
+    * a direct lookup, so the cost depends on the number of keys requested
+    * rather than the size of the map. The stream is sequential, and it's
+    * only traversed in parallel if the parallelism allows it, in which case
+    * key sets that are big enough to be worth it are split into evenly
+    * sized chunks.
+    */
+   @SuppressWarnings("unchecked")
+   private Stream<? extends K> lookupMany(Set<? extends K> s, Param<Integer> parallelism) {
+      if (s.isEmpty() || functionalMap.data.isEmpty())
+         return Stream.empty();
+
+      if (parallelism.get() == 1 || s.size() < PARALLEL_LOOKUP_THRESHOLD)
+         return s.stream();
+
+      // Copy keys to an array so that chunks are evenly split regardless
+      // of how well the set's own spliterator splits
+      K[] keys = (K[]) s.toArray();
+      return Arrays.stream(keys);
+   }
+
+   /**
+    * Returns a read-only entry view for the key, or null if there's no entry
+    * for it, in which case the key is not passed to the function.
+    */
+   private ReadEntryView<K, V> lookup(K key) {
+      InternalEntry<V> entry = functionalMap.data.get(key);
+      return entry == null ? null : EntryViews.readOnly(key, entry);
    }
 
    @Override
    public Traversable<K> keys() {
-      System.out.printf("[R] Invoked keys(%s)%n", params);
+      long start = traceStart();
       Param<WaitMode> waitMode = params.get(WaitMode.ID);
-      return withWaitTraversable(waitMode, () -> functionalMap.data.keySet().stream());
+      Param<TraversalMode> traversalMode = params.get(TraversalMode.ID);
+      Param<Integer> parallelism = params.get(Parallelism.ID);
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      Param<Isolation> isolation = params.get(Isolation.ID);
+      return traced(READ_ONLY_KEYS, params, start, withWaitTraversable(waitMode, traversalMode, parallelism, executor, () ->
+         isolation.get() == Isolation.SNAPSHOT
+            ? entries(isolation).map(Map.Entry::getKey)
+            : functionalMap.data.keys()
+      ));
    }
 
    @Override
    public Traversable<ReadEntryView<K, V>> entries() {
-      System.out.printf("[R] Invoked entries(%s)%n", params);
+      long start = traceStart();
       Param<WaitMode> waitMode = params.get(WaitMode.ID);
-      return withWaitTraversable(waitMode, () ->
-         functionalMap.data.entrySet().stream()
+      Param<TraversalMode> traversalMode = params.get(TraversalMode.ID);
+      Param<Integer> parallelism = params.get(Parallelism.ID);
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      Param<Isolation> isolation = params.get(Isolation.ID);
+      return traced(READ_ONLY_ENTRIES, params, start, withWaitTraversable(waitMode, traversalMode, parallelism, executor, () ->
+         entries(isolation)
             .map(e -> EntryViews.readOnly(e.getKey(), e.getValue()))
-      );
+      ));
+   }
+
+   /**
+    * Streams the entries stored, either as they're traversed or, with
+    * snapshot isolation, as they were when the stream was created.
+    */
+   private Stream<Map.Entry<K, InternalEntry<V>>> entries(Param<Isolation> isolation) {
+      return isolation.get() == Isolation.SNAPSHOT
+         ? functionalMap.data.snapshotEntries()
+         : functionalMap.data.entries();
    }
 
    @Override
@@ -74,7 +152,8 @@ public final class ReadOnlyMapImpl<K, V> extends AbstractFunctionalMap<K, V> imp
       if (params.containsAll(ps))
          return this; // We already have all specified params
 
-      return create(params.addAll(ps), functionalMap);
+      Params derived = params.addAll(ps);
+      return create(derived, functionalMap, functionalMap.own(params, derived));
    }
 
 }
@@ -4,67 +4,148 @@ import org.infinispan.api.v8.EntryView.ReadWriteEntryView;
 import org.infinispan.api.v8.FunctionalMap.ReadWriteMap;
 import org.infinispan.api.v8.Listeners.ReadWriteListeners;
 import org.infinispan.api.v8.Param;
+import org.infinispan.api.v8.Param.AsyncExecutor;
+import org.infinispan.api.v8.Param.Parallelism;
+import org.infinispan.api.v8.Param.TraversalMode;
 import org.infinispan.api.v8.Traversable;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.infinispan.api.v8.Param.WaitMode.ID;
 import static org.infinispan.api.v8.Param.WaitMode.withWaitFuture;
 import static org.infinispan.api.v8.Param.WaitMode.withWaitTraversable;
+import static org.infinispan.api.v8.impl.OperationTracer.Operation.READ_WRITE_ENTRIES;
+import static org.infinispan.api.v8.impl.OperationTracer.Operation.READ_WRITE_EVAL;
+import static org.infinispan.api.v8.impl.OperationTracer.Operation.READ_WRITE_EVAL_MANY;
 
 public final class ReadWriteMapImpl<K, V> extends AbstractFunctionalMap<K, V> implements ReadWriteMap<K, V> {
 
    private final Params params;
 
-   private ReadWriteMapImpl(Params params, FunctionalMapImpl<K, V> functionalMap) {
-      super(functionalMap);
+   private ReadWriteMapImpl(Params params, FunctionalMapImpl<K, V> functionalMap, AsyncExecutor executor) {
+      super(functionalMap, params, executor);
       this.params = params;
    }
 
    public static <K, V> ReadWriteMap<K, V> create(FunctionalMapImpl<K, V> functionalMap) {
-      return new ReadWriteMapImpl<>(Params.from(functionalMap.params.params), functionalMap);
+      return new ReadWriteMapImpl<>(Params.from(functionalMap.params.params), functionalMap, null);
    }
 
-   private static <K, V> ReadWriteMap<K, V> create(Params params, FunctionalMapImpl<K, V> functionalMap) {
-      return new ReadWriteMapImpl<>(params, functionalMap);
+   private static <K, V> ReadWriteMap<K, V> create(Params params, FunctionalMapImpl<K, V> functionalMap,
+         AsyncExecutor executor) {
+      return new ReadWriteMapImpl<>(params, functionalMap, executor);
    }
 
    @Override
    public <R> CompletableFuture<R> eval(K key, Function<ReadWriteEntryView<K, V>, R> f) {
-      System.out.printf("[RW] Invoked eval(k=%s, %s)%n", key, params);
+      long start = traceStart();
       Param<Param.WaitMode> waitMode = params.get(Param.WaitMode.ID);
-      return withWaitFuture(waitMode.get(), () -> f.apply(EntryViews.readWrite(key, this)));
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      if (isAtomicPerKey())
+         return traced(READ_WRITE_EVAL, key, params, start,
+            withWaitFuture(waitMode, executor, () -> EntryViews.readWriteAtomic(key, this, f)));
+
+      return traced(READ_WRITE_EVAL, key, params, start,
+         withWaitFuture(waitMode, executor, () -> f.apply(EntryViews.readWrite(key, this))));
    }
 
    @Override
    public <R> CompletableFuture<R> eval(K key, V value, BiFunction<V, ReadWriteEntryView<K, V>, R> f) {
-      System.out.printf("[W] Invoked eval(k=%s, v=%s, %s)%n", key, value, params);
+      long start = traceStart();
       Param<Param.WaitMode> waitMode = params.get(Param.WaitMode.ID);
-      return withWaitFuture(waitMode.get(), () -> f.apply(value, EntryViews.readWrite(key, this)));
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      if (isAtomicPerKey())
+         return traced(READ_WRITE_EVAL, key, params, start,
+            withWaitFuture(waitMode, executor, () -> EntryViews.readWriteAtomic(key, value, this, f)));
+
+      return traced(READ_WRITE_EVAL, key, params, start,
+         withWaitFuture(waitMode, executor, () -> f.apply(value, EntryViews.readWrite(key, this))));
    }
 
+   /**
+    * Evaluates the function for each entry atomically per key, whatever the
+    * {@link Param.Atomicity} parameter, since bulk read-write evaluations
+    * are typically conditional updates, e.g. replacing values with newer
+    * ones, and atomic evaluations cost a single container operation per key.
+    *
+    * With {@link Parallelism}, whether blocking or not, entries are grouped
+    * by the container segment where their keys are stored, and groups are
+    * evaluated in parallel, so that workers don't contend for the same
+    * segments. Results are then in group order rather than in the map's
+    * order. Sequential evaluations don't group entries, since that would
+    * only add a pass over them.
+    */
    @Override
    public <R> Traversable<R> evalMany(Map<? extends K, ? extends V> m, BiFunction<V, ReadWriteEntryView<K, V>, R> f) {
-      throw new IllegalStateException("Not yet implemented");
+      long start = traceStart();
+      Param<Param.WaitMode> waitMode = params.get(ID);
+      Param<TraversalMode> traversalMode = params.get(TraversalMode.ID);
+      Param<Integer> parallelism = params.get(Parallelism.ID);
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      boolean parallel = parallelism.get() > 1;
+      return traced(READ_WRITE_EVAL_MANY, params, start, withWaitTraversable(waitMode, traversalMode, parallelism, executor, () -> {
+         if (!parallel)
+            return m.entrySet().stream().map(e -> EntryViews.readWriteAtomic(e.getKey(), e.getValue(), this, f));
+
+         List<Map.Entry<? extends K, ? extends V>> entries = new ArrayList<>(m.entrySet());
+         SegmentGroups<Map.Entry<? extends K, ? extends V>> groups =
+            SegmentGroups.of(entries, Map.Entry::getKey, functionalMap.data);
+         return groups.segments().boxed().flatMap(s -> IntStream.range(0, groups.size(s))
+            .mapToObj(i -> groups.get(s, i))
+            .map(e -> EntryViews.readWriteAtomic(e.getKey(), e.getValue(), this, f)));
+      }));
    }
 
    @Override
    public <R> Traversable<R> evalMany(Set<? extends K> keys, Function<ReadWriteEntryView<K, V>, R> f) {
-      System.out.printf("[RW] Invoked evalMany(keys=%s, %s)%n", keys, params);
+      long start = traceStart();
       Param<Param.WaitMode> waitMode = params.get(ID);
-      return withWaitTraversable(waitMode, () -> keys.stream()
+      Param<TraversalMode> traversalMode = params.get(TraversalMode.ID);
+      Param<Integer> parallelism = params.get(Parallelism.ID);
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      if (isAtomicPerKey())
+         return traced(READ_WRITE_EVAL_MANY, params, start, withWaitTraversable(waitMode, traversalMode, parallelism, executor, () -> keys.stream()
+            .map(k -> EntryViews.readWriteAtomic(k, ReadWriteMapImpl.this, f))
+         ));
+
+      return traced(READ_WRITE_EVAL_MANY, params, start, withWaitTraversable(waitMode, traversalMode, parallelism, executor, () -> keys.stream()
          .map(k -> f.apply(EntryViews.readWrite(k, ReadWriteMapImpl.this)))
-      );
+      ));
    }
 
+   /**
+    * Traverses the container's entries, which is weakly consistent: entries
+    * written or removed during the traversal may or may not be seen. With
+    * {@link Parallelism}, the traversal is split along segment boundaries.
+    * Views read the entry found by the traversal, and each write through a
+    * view is a single container operation, but reads and writes are not
+    * atomic with respect to other writes to the same key.
+    */
    @Override
    public Traversable<ReadWriteEntryView<K, V>> entries() {
-      throw new IllegalStateException("Not yet implemented");
+      long start = traceStart();
+      Param<Param.WaitMode> waitMode = params.get(ID);
+      Param<TraversalMode> traversalMode = params.get(TraversalMode.ID);
+      Param<Integer> parallelism = params.get(Parallelism.ID);
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      return traced(READ_WRITE_ENTRIES, params, start, withWaitTraversable(waitMode, traversalMode, parallelism, executor, () ->
+         functionalMap.data.entries()
+            .map(e -> EntryViews.readWrite(e.getKey(), e.getValue(), this))
+      ));
+   }
+
+   private boolean isAtomicPerKey() {
+      Param<Param.Atomicity> atomicity = params.get(Param.Atomicity.ID);
+      return atomicity.get() == Param.Atomicity.PER_KEY;
    }
 
    @Override
@@ -80,7 +161,8 @@ public final class ReadWriteMapImpl<K, V> extends AbstractFunctionalMap<K, V> im
       if (params.containsAll(ps))
          return this; // We already have all specified params
 
-      return create(params.addAll(ps), functionalMap);
+      Params derived = params.addAll(ps);
+      return create(derived, functionalMap, functionalMap.own(params, derived));
    }
 
 }
@@ -0,0 +1,65 @@
+package org.infinispan.api.v8.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Internal entry backed by a record in {@link EntryRecords} format. The value
+ * and metadata parameters are only decoded when first accessed, so entries
+ * that are looked up but whose value is never read, e.g. to check whether a
+ * key is present, don't pay the decoding cost.
+ */
+final class RecordEntry<V> extends InternalEntry<V> {
+
+   private final ByteBuffer buffer;
+   private final int offset;
+   private final Codec<V> valueCodec;
+   private volatile boolean valueDecoded;
+   private volatile V value;
+   private volatile MetaParams metaParams;
+
+   RecordEntry(ByteBuffer buffer, int offset, Codec<V> valueCodec) {
+      this.buffer = buffer;
+      this.offset = offset;
+      this.valueCodec = valueCodec;
+   }
+
+   @Override
+   V value() {
+      if (!valueDecoded) {
+         ByteBuffer bytes = EntryRecords.value(buffer, offset);
+         value = bytes == null ? null : valueCodec.decode(bytes);
+         valueDecoded = true;
+      }
+      return value;
+   }
+
+   @Override
+   MetaParams metaParams() {
+      MetaParams metas = metaParams;
+      if (metas == null)
+         metaParams = metas = MetaParamsCodec.decode(EntryRecords.metas(buffer, offset));
+      return metas;
+   }
+
+   @Override
+   long created() {
+      return EntryRecords.created(buffer, offset);
+   }
+
+   @Override
+   long lastUsed() {
+      return EntryRecords.lastUsed(buffer, offset);
+   }
+
+   @Override
+   InternalEntry<V> stamp(long now) {
+      throw new IllegalStateException("Stored entries cannot be stamped again");
+   }
+
+   @Override
+   void touch(long now) {
+      if (now > lastUsed())
+         EntryRecords.touch(buffer, offset, now);
+   }
+
+}
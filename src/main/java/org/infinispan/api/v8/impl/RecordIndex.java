@@ -0,0 +1,161 @@
+package org.infinispan.api.v8.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Open addressing hash index from keys to the addresses of records, in
+ * {@link EntryRecords} format, stored in a list of buffers. An address is
+ * made of the buffer's index in the upper 32 bits and the offset of the
+ * record within the buffer in the lower 32 bits.
+ *
+ * The index only keeps the key's hash code and the record address, in two
+ * primitive arrays, so it does not hold any objects per entry. Keys with
+ * the same hash code are told apart by comparing their binary form with
+ * the key stored in the record. Deleted slots are filled by shifting
+ * subsequent entries back, so no tombstones are left behind.
+ *
+ * This class is not thread safe, callers must guard access with a lock.
+ */
+final class RecordIndex {
+
+   static final long EMPTY = -1;
+   private static final int INITIAL_CAPACITY = 16;
+
+   private long[] addresses;
+   private int[] hashes;
+   private volatile int count;
+
+   RecordIndex() {
+      clear();
+   }
+
+   static long address(int buffer, int offset) {
+      return ((long) buffer << 32) | offset;
+   }
+
+   static int buffer(long address) {
+      return (int) (address >>> 32);
+   }
+
+   static int offset(long address) {
+      return (int) address;
+   }
+
+   /**
+    * Number of keys in the index. This can be called without holding the
+    * lock guarding the index.
+    */
+   int size() {
+      return count;
+   }
+
+   void clear() {
+      addresses = new long[INITIAL_CAPACITY];
+      Arrays.fill(addresses, EMPTY);
+      hashes = new int[INITIAL_CAPACITY];
+      count = 0;
+   }
+
+   /**
+    * Returns the slot where the key is stored, or if not present, the
+    * bitwise complement of the empty slot where it would be inserted.
+    */
+   int find(int hash, byte[] key, IntFunction<ByteBuffer> buffers) {
+      int mask = addresses.length - 1;
+      for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+         long a = addresses[i];
+         if (a == EMPTY)
+            return ~i;
+
+         if (hashes[i] == hash && EntryRecords.keyEquals(buffers.apply(buffer(a)), offset(a), key))
+            return i;
+      }
+   }
+
+   long get(int slot) {
+      return addresses[slot];
+   }
+
+   void set(int slot, long address) {
+      addresses[slot] = address;
+   }
+
+   /**
+    * Inserts a key at an empty slot, as returned by
+    * {@link #find(int, byte[], IntFunction)}.
+    */
+   void insert(int emptySlot, int hash, long address) {
+      int slot = ~emptySlot;
+      addresses[slot] = address;
+      hashes[slot] = hash;
+      count++;
+      if (count * 2 > addresses.length)
+         resize();
+   }
+
+   void delete(int slot) {
+      int mask = addresses.length - 1;
+      int gap = slot;
+      addresses[gap] = EMPTY;
+      for (int i = (gap + 1) & mask; addresses[i] != EMPTY; i = (i + 1) & mask) {
+         int ideal = spread(hashes[i]) & mask;
+         if (((i - ideal) & mask) >= ((i - gap) & mask)) {
+            addresses[gap] = addresses[i];
+            hashes[gap] = hashes[i];
+            addresses[i] = EMPTY;
+            gap = i;
+         }
+      }
+      count--;
+   }
+
+   /**
+    * Returns the addresses of all records in the index.
+    */
+   long[] addresses() {
+      long[] live = new long[count];
+      int i = 0;
+      for (long a : addresses) {
+         if (a != EMPTY)
+            live[i++] = a;
+      }
+      return live;
+   }
+
+   /**
+    * Replaces the address of every record in the index, e.g. after records
+    * have been moved to other buffers.
+    */
+   void relocate(LongUnaryOperator f) {
+      for (int i = 0; i < addresses.length; i++) {
+         if (addresses[i] != EMPTY)
+            addresses[i] = f.applyAsLong(addresses[i]);
+      }
+   }
+
+   private void resize() {
+      long[] oldAddresses = addresses;
+      int[] oldHashes = hashes;
+      addresses = new long[oldAddresses.length << 1];
+      Arrays.fill(addresses, EMPTY);
+      hashes = new int[addresses.length];
+      int mask = addresses.length - 1;
+      for (int i = 0; i < oldAddresses.length; i++) {
+         if (oldAddresses[i] != EMPTY) {
+            int j = spread(oldHashes[i]) & mask;
+            while (addresses[j] != EMPTY)
+               j = (j + 1) & mask;
+            addresses[j] = oldAddresses[i];
+            hashes[j] = oldHashes[i];
+         }
+      }
+   }
+
+   private static int spread(int hash) {
+      return hash ^ (hash >>> 16);
+   }
+
+}
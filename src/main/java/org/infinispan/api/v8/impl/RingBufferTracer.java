@@ -0,0 +1,132 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.impl.OperationTracer.Operation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link OperationTracer} that records the latest operations in a fixed
+ * size ring buffer, overwriting the oldest records once the buffer is full.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Records are stored in parallel arrays rather than as record objects,
+ *    so tracing an operation does not allocate, nor format any strings.
+ *    Record objects are only created when {@link #records()} is called.
+ *    </li>
+ *    <li>Slots are claimed with a single atomic increment, but the slot
+ *    fields are written without further synchronization. So, if the buffer
+ *    wraps around while a slot is being written, or while records are
+ *    being read, individual records might be inconsistent. This is
+ *    considered acceptable for diagnostic purposes, in exchange for
+ *    keeping the cost of tracing to a minimum.
+ *    </li>
+ * </ul>
+ */
+public final class RingBufferTracer implements OperationTracer {
+
+   private final int mask;
+   private final Operation[] ops;
+   private final int[] keyHashes;
+   private final Params[] params;
+   private final long[] latencies;
+   private final AtomicLong sequence = new AtomicLong();
+
+   /**
+    * Creates a ring buffer tracer that keeps at least the given number of
+    * latest records. Capacity is rounded up to the next power of two.
+    */
+   public RingBufferTracer(int capacity) {
+      if (capacity <= 0)
+         throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+
+      int size = Integer.highestOneBit(capacity);
+      if (size < capacity)
+         size <<= 1;
+
+      this.mask = size - 1;
+      this.ops = new Operation[size];
+      this.keyHashes = new int[size];
+      this.params = new Params[size];
+      this.latencies = new long[size];
+   }
+
+   @Override
+   public void trace(Operation op, int keyHash, Params params, long latencyNanos) {
+      int slot = (int) (sequence.getAndIncrement() & mask);
+      this.keyHashes[slot] = keyHash;
+      this.params[slot] = params;
+      this.latencies[slot] = latencyNanos;
+      this.ops[slot] = op;
+   }
+
+   /**
+    * Number of operations traced since the tracer was created, including
+    * those whose records have since been overwritten.
+    */
+   public long count() {
+      return sequence.get();
+   }
+
+   /**
+    * Returns the records currently held in the buffer, from oldest to newest.
+    */
+   public List<Record> records() {
+      long end = sequence.get();
+      long start = Math.max(0, end - ops.length);
+      List<Record> records = new ArrayList<>((int) (end - start));
+      for (long seq = start; seq < end; seq++) {
+         int slot = (int) (seq & mask);
+         Operation op = ops[slot];
+         if (op != null)
+            records.add(new Record(op, keyHashes[slot], params[slot], latencies[slot]));
+      }
+      return records;
+   }
+
+   /**
+    * A traced operation.
+    */
+   public static final class Record {
+      private final Operation op;
+      private final int keyHash;
+      private final Params params;
+      private final long latencyNanos;
+
+      private Record(Operation op, int keyHash, Params params, long latencyNanos) {
+         this.op = op;
+         this.keyHash = keyHash;
+         this.params = params;
+         this.latencyNanos = latencyNanos;
+      }
+
+      public Operation op() {
+         return op;
+      }
+
+      public int keyHash() {
+         return keyHash;
+      }
+
+      public Params params() {
+         return params;
+      }
+
+      public long latencyNanos() {
+         return latencyNanos;
+      }
+
+      @Override
+      public String toString() {
+         return "Record{" +
+            "op=" + op +
+            ", keyHash=" + keyHash +
+            ", " + params +
+            ", latencyNanos=" + latencyNanos +
+            '}';
+      }
+   }
+
+}
@@ -0,0 +1,50 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.impl.DataContainer.SegmentStats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link SegmentStats} implementation shared by data containers, where
+ * each count is kept in a {@link LongAdder} so that concurrent operations on
+ * the same segment don't contend on updating statistics.
+ */
+final class SegmentCounters implements SegmentStats {
+
+   final LongAdder hits = new LongAdder();
+   final LongAdder misses = new LongAdder();
+   final LongAdder stores = new LongAdder();
+   final LongAdder removals = new LongAdder();
+
+   /**
+    * Records the outcome of a lookup, returning the entry looked up.
+    */
+   <V> InternalEntry<V> lookup(InternalEntry<V> entry) {
+      if (entry == null)
+         misses.increment();
+      else
+         hits.increment();
+      return entry;
+   }
+
+   @Override
+   public long hits() {
+      return hits.sum();
+   }
+
+   @Override
+   public long misses() {
+      return misses.sum();
+   }
+
+   @Override
+   public long stores() {
+      return stores.sum();
+   }
+
+   @Override
+   public long removals() {
+      return removals.sum();
+   }
+
+}
@@ -0,0 +1,76 @@
+package org.infinispan.api.v8.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Elements of a multi-key operation grouped by the container segment where
+ * their keys are stored, so that each group can be applied to its segment
+ * in one go, and groups can be applied in parallel without contending for
+ * the same segments.
+ *
+ * Elements are grouped with a counting sort, which takes two passes over
+ * the elements and allocates nothing per element.
+ *
+ * @param <T> type of elements
+ */
+final class SegmentGroups<T> {
+
+   // Elements are only ever of type T, but generic arrays can't be created
+   private final Object[] grouped;
+   // Group of segment s is at [offsets[s], offsets[s + 1])
+   private final int[] offsets;
+
+   private SegmentGroups(Object[] grouped, int[] offsets) {
+      this.grouped = grouped;
+      this.offsets = offsets;
+   }
+
+   /**
+    * Groups the elements by the segment of the key of each of them.
+    */
+   static <K, T> SegmentGroups<T> of(List<? extends T> elements, Function<? super T, ? extends K> key,
+         DataContainer<K, ?> data) {
+      int size = elements.size();
+      int[] segments = new int[size];
+      int[] offsets = new int[data.segmentCount() + 1];
+      for (int i = 0; i < size; i++) {
+         segments[i] = data.segmentOf(key.apply(elements.get(i)));
+         offsets[segments[i] + 1]++;
+      }
+      for (int s = 0; s < data.segmentCount(); s++)
+         offsets[s + 1] += offsets[s];
+
+      Object[] grouped = new Object[size];
+      int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+      for (int i = 0; i < size; i++)
+         grouped[next[segments[i]]++] = elements.get(i);
+
+      return new SegmentGroups<>(grouped, offsets);
+   }
+
+   /**
+    * Segments whose groups are not empty, in ascending order.
+    */
+   IntStream segments() {
+      return IntStream.range(0, offsets.length - 1).filter(s -> offsets[s] < offsets[s + 1]);
+   }
+
+   /**
+    * Number of elements in the group of the segment.
+    */
+   int size(int segment) {
+      return offsets[segment + 1] - offsets[segment];
+   }
+
+   /**
+    * The i-th element of the group of the segment.
+    */
+   @SuppressWarnings("unchecked")
+   T get(int segment, int i) {
+      return (T) grouped[offsets[segment] + i];
+   }
+
+}
@@ -0,0 +1,105 @@
+package org.infinispan.api.v8.impl;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Spliterator over a range of segments of a {@link DataContainer}, which
+ * splits by halving the range of segments until a single segment is left, at
+ * which point it splits the segment's own spliterator.
+ */
+final class SegmentSpliterator<T> implements Spliterator<T> {
+
+   final DataContainer<?, ?> container;
+   final IntFunction<Spliterator<T>> source;
+   int index;
+   int fence;
+   Spliterator<T> current;
+
+   /**
+    * Creates a spliterator over all segments of the container, where the
+    * source function provides the spliterator for the segment at each index.
+    */
+   SegmentSpliterator(DataContainer<?, ?> container, IntFunction<Spliterator<T>> source) {
+      this(container, source, 0, container.segmentCount());
+   }
+
+   private SegmentSpliterator(DataContainer<?, ?> container, IntFunction<Spliterator<T>> source,
+         int index, int fence) {
+      this.container = container;
+      this.source = source;
+      this.index = index;
+      this.fence = fence;
+   }
+
+   @Override
+   public boolean tryAdvance(Consumer<? super T> action) {
+      while (true) {
+         if (current == null) {
+            if (index >= fence)
+               return false;
+
+            current = source.apply(index++);
+         }
+
+         if (current.tryAdvance(action))
+            return true;
+
+         current = null;
+      }
+   }
+
+   @Override
+   public void forEachRemaining(Consumer<? super T> action) {
+      if (current != null) {
+         current.forEachRemaining(action);
+         current = null;
+      }
+
+      while (index < fence)
+         source.apply(index++).forEachRemaining(action);
+   }
+
+   @Override
+   public Spliterator<T> trySplit() {
+      if (current == null) {
+         int remaining = fence - index;
+         if (remaining > 1) {
+            int mid = index + (remaining >>> 1);
+            Spliterator<T> prefix = new SegmentSpliterator<>(container, source, index, mid);
+            index = mid;
+            return prefix;
+         }
+
+         if (remaining == 0)
+            return null;
+
+         current = source.apply(index++);
+         return current.trySplit();
+      }
+
+      if (index < fence) {
+         // Hand over the segments not yet started
+         Spliterator<T> suffix = new SegmentSpliterator<>(container, source, index, fence);
+         fence = index;
+         return suffix;
+      }
+
+      return current.trySplit();
+   }
+
+   @Override
+   public long estimateSize() {
+      long size = current == null ? 0 : current.estimateSize();
+      for (int i = index; i < fence; i++)
+         size += container.segment(i).size();
+      return size;
+   }
+
+   @Override
+   public int characteristics() {
+      return Spliterator.CONCURRENT | Spliterator.DISTINCT | Spliterator.NONNULL;
+   }
+
+}
@@ -0,0 +1,308 @@
+package org.infinispan.api.v8.impl;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@link DataContainer} where each segment is backed by its own
+ * {@link ConcurrentHashMap}, which also acts as the segment's size counter.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why are segments picked with the key's hash code multiplied by a
+ *    constant, taking the top bits? Because the segment's map picks bins
+ *    with the low bits of the hash code, so using the same bits to pick
+ *    segments would leave most bins of each segment's map empty.
+ *    </li>
+ * </ul>
+ */
+final class SegmentedDataContainer<K, V> implements DataContainer<K, V> {
+
+   /**
+    * Minimum number of writes in a batch for the segment's map to be grown
+    * up front to hold them.
+    */
+   private static final int MIN_PRESIZE_BATCH = 64;
+
+   static final int DEFAULT_SEGMENTS = segmentsFor(4 * Runtime.getRuntime().availableProcessors());
+
+   private final MapSegment<K, V>[] segments;
+   private final int shift;
+
+   @SuppressWarnings("unchecked")
+   private SegmentedDataContainer(int numSegments) {
+      this.segments = new MapSegment[numSegments];
+      for (int i = 0; i < numSegments; i++)
+         segments[i] = new MapSegment<>();
+      this.shift = 32 - Integer.numberOfTrailingZeros(numSegments);
+   }
+
+   static <K, V> SegmentedDataContainer<K, V> create() {
+      return new SegmentedDataContainer<>(DEFAULT_SEGMENTS);
+   }
+
+   /**
+    * Creates a container with at least the given number of segments. The
+    * number of segments is rounded up to a power of two, of at least 2.
+    */
+   static <K, V> SegmentedDataContainer<K, V> create(int numSegments) {
+      return new SegmentedDataContainer<>(segmentsFor(numSegments));
+   }
+
+   static int segmentsFor(int n) {
+      int segments = Integer.highestOneBit(Math.max(2, n));
+      return segments < n ? segments << 1 : segments;
+   }
+
+   private MapSegment<K, V> segmentFor(K key) {
+      return segments[segmentOf(key)];
+   }
+
+   @Override
+   public int segmentOf(K key) {
+      return (key.hashCode() * 0x9E3779B9) >>> shift;
+   }
+
+   @Override
+   public InternalEntry<V> get(K key) {
+      return segmentFor(key).get(key);
+   }
+
+   @Override
+   public InternalEntry<V> put(K key, InternalEntry<V> entry) {
+      MapSegment<K, V> segment = segmentFor(key);
+      segment.stats.stores.increment();
+      ConcurrentHashMap<K, InternalEntry<V>> map = segment.map;
+      InternalEntry<V> prev = map.put(key, entry);
+      while (map != segment.map) {
+         // Cleared meanwhile, so the entry might have landed in the old map
+         map = segment.map;
+         prev = map.put(key, entry);
+      }
+      return prev;
+   }
+
+   /**
+    * Removes the key from the segment's map. A removal that lands in a map
+    * swapped out by a concurrent clear is not redone, since the key is gone
+    * either way.
+    */
+   @Override
+   public InternalEntry<V> remove(K key) {
+      MapSegment<K, V> segment = segmentFor(key);
+      InternalEntry<V> prev = segment.map.remove(key);
+      if (prev != null)
+         segment.stats.removals.increment();
+      return prev;
+   }
+
+   /**
+    * Computes the entry in the segment's map. If a concurrent clear swapped
+    * the map meanwhile, an entry written is stored in the new map too,
+    * unless the key was written there since, rather than calling the
+    * function again, since the function might have side effects, and might
+    * even have cleared the container itself.
+    */
+   @Override
+   public InternalEntry<V> compute(K key,
+         BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f) {
+      MapSegment<K, V> segment = segmentFor(key);
+      Remapping<K, V> remapping = new Remapping<>(f, segment.stats);
+      ConcurrentHashMap<K, InternalEntry<V>> map = segment.map;
+      InternalEntry<V> next = map.compute(key, remapping);
+      while (remapping.stored && map != segment.map) {
+         map = segment.map;
+         InternalEntry<V> current = map.putIfAbsent(key, next);
+         if (current != null)
+            return current;
+      }
+      return next;
+   }
+
+   @Override
+   public void writeAll(WriteBatch<K, V> batch) {
+      MapSegment<K, V> segment = segments[batch.segment()];
+      ConcurrentHashMap<K, InternalEntry<V>> map = segment.map;
+      writeAll(map, batch, segment.stats);
+      while (map != segment.map) {
+         // Cleared meanwhile, so the writes might have landed in the old map
+         map = segment.map;
+         writeAll(map, batch, segment.stats);
+      }
+   }
+
+   private static <K, V> void writeAll(ConcurrentHashMap<K, InternalEntry<V>> map, WriteBatch<K, V> batch,
+         SegmentCounters stats) {
+      if (batch.size() >= MIN_PRESIZE_BATCH)
+         map.putAll(new SizeHint<>(map.size() + batch.size()));
+
+      int stores = 0;
+      int removals = 0;
+      for (int i = 0; i < batch.size(); i++) {
+         InternalEntry<V> entry = batch.entry(i);
+         InternalEntry<V> prev;
+         if (entry == null) {
+            prev = map.remove(batch.key(i));
+            if (prev != null)
+               removals++;
+         } else {
+            prev = map.put(batch.key(i), entry);
+            stores++;
+         }
+         batch.prev(i, prev);
+      }
+      stats.stores.add(stores);
+      stats.removals.add(removals);
+   }
+
+   @Override
+   public int size() {
+      long size = 0;
+      for (MapSegment<K, V> segment : segments)
+         size += segment.map.size();
+      return (int) Math.min(size, Integer.MAX_VALUE);
+   }
+
+   @Override
+   public boolean isEmpty() {
+      for (MapSegment<K, V> segment : segments) {
+         if (!segment.map.isEmpty())
+            return false;
+      }
+      return true;
+   }
+
+   @Override
+   public void clear() {
+      for (MapSegment<K, V> segment : segments)
+         segment.clear();
+   }
+
+   @Override
+   public boolean clearsInConstantTime() {
+      return true;
+   }
+
+   @Override
+   public Stream<K> keys() {
+      return StreamSupport.stream(new SegmentSpliterator<>(this, i -> segments[i].map.keySet().spliterator()), false);
+   }
+
+   @Override
+   public Stream<Map.Entry<K, InternalEntry<V>>> entries() {
+      return StreamSupport.stream(new SegmentSpliterator<>(this, i -> segments[i].map.entrySet().spliterator()), false);
+   }
+
+   @Override
+   public int segmentCount() {
+      return segments.length;
+   }
+
+   @Override
+   public Segment<K, V> segment(int index) {
+      return segments[index];
+   }
+
+   /**
+    * Map that is empty but reports the given size. ConcurrentHashMap only
+    * grows its table up front in putAll, so passing it this map grows the
+    * table once for a batch of writes, rather than several times while the
+    * batch's entries are added.
+    */
+   private static final class SizeHint<K, V> extends AbstractMap<K, V> {
+      final int size;
+
+      private SizeHint(int size) {
+         this.size = size;
+      }
+
+      @Override
+      public int size() {
+         return size;
+      }
+
+      @Override
+      public Set<Entry<K, V>> entrySet() {
+         return Collections.emptySet();
+      }
+   }
+
+   /**
+    * Remapping function that counts the segment's stores and removals, and
+    * records whether an entry was stored.
+    */
+   private static final class Remapping<K, V> implements BiFunction<K, InternalEntry<V>, InternalEntry<V>> {
+      final BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f;
+      final SegmentCounters stats;
+      boolean stored;
+
+      private Remapping(BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f,
+            SegmentCounters stats) {
+         this.f = f;
+         this.stats = stats;
+      }
+
+      @Override
+      public InternalEntry<V> apply(K key, InternalEntry<V> prev) {
+         InternalEntry<V> next = f.apply(key, prev);
+         stored = next != null && next != prev;
+         if (stored)
+            stats.stores.increment();
+         else if (next == null && prev != null)
+            stats.removals.increment();
+         return next;
+      }
+   }
+
+   private static final class MapSegment<K, V> implements Segment<K, V> {
+      volatile ConcurrentHashMap<K, InternalEntry<V>> map = new ConcurrentHashMap<>();
+      final SegmentCounters stats = new SegmentCounters();
+
+      InternalEntry<V> get(K key) {
+         return stats.lookup(map.get(key));
+      }
+
+      @Override
+      public int size() {
+         return map.size();
+      }
+
+      @Override
+      public Stream<Map.Entry<K, InternalEntry<V>>> entries() {
+         return map.entrySet().stream();
+      }
+
+      /**
+       * Swaps in an empty map rather than removing each entry, so clearing
+       * takes constant time whatever the number of entries, and readers see
+       * the segment empty straight away. The old map is reclaimed by the
+       * garbage collector once traversals that were using it are done,
+       * and these keep seeing the entries it had. Writes don't lock out
+       * clearing: instead, each write checks the map afterwards and, if it
+       * was swapped meanwhile, writes again to the new map, so that writes
+       * don't land in the old map once clearing has returned.
+       */
+      @Override
+      public void clear() {
+         map = new ConcurrentHashMap<>();
+      }
+
+      @Override
+      public Map<K, InternalEntry<V>> snapshot() {
+         return new HashMap<>(map);
+      }
+
+      @Override
+      public SegmentStats stats() {
+         return stats;
+      }
+   }
+
+}
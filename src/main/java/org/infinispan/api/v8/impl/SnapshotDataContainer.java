@@ -0,0 +1,405 @@
+package org.infinispan.api.v8.impl;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@link DataContainer} decorator that keeps the entries replaced or removed
+ * while snapshots are open, so that snapshots can be traversed as of the
+ * point in time they were opened, while writers keep updating the
+ * container.
+ *
+ * Opening a snapshot moves the container to a new epoch. While snapshots
+ * are open, writes record the entry they replace, or the absence of one,
+ * tagged with the epoch they were applied in, in a version chain per key.
+ * A snapshot opened at epoch S reads a key from the oldest version
+ * recorded at S or later, if any, or from the container otherwise. Only
+ * the first write of a key in each epoch needs recording, so keys have at
+ * most one version per snapshot opened while they're written.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why are versions kept aside rather than in the stored entries?
+ *    Because only maps with open snapshots need them, and storing them in
+ *    the entries would cost every entry of every storage a field, plus
+ *    encoding it off-heap or on disk. Without open snapshots, writes go
+ *    straight to the container after checking a volatile field.
+ *    </li>
+ *    <li>Why are epochs used rather than the entries'
+ *    {@link org.infinispan.api.v8.MetaParam.EntryVersionParam}? Because
+ *    entry versions are optional and set by users, so they can't order
+ *    writes to different keys, whereas epochs are only advanced when a
+ *    snapshot is opened, so writes don't contend on a shared counter.
+ *    </li>
+ *    <li>Why is each segment read while holding a lock? Because removed
+ *    keys are only found in the version chains, so a segment's keys are
+ *    gathered from both the container and the chains, and a write moving a
+ *    key from one to the other in between could have it missed or
+ *    repeated. Writers recording versions hold the segment's gate in shared
+ *    mode, so they only wait while the segment's entry references are
+ *    copied, one segment at the time, rather than for the whole traversal.
+ *    </li>
+ *    <li>When are old versions dropped? Versions older than the oldest
+ *    open snapshot are not needed, so they're trimmed when a snapshot is
+ *    closed, which happens once all its segments have been read or when
+ *    its stream is closed. Writers also drop a key's versions when none of
+ *    them are needed any more. Trimming a segment holds its gate, so that
+ *    a writer can't record a version no snapshot needs after the segment
+ *    has been trimmed.
+ *    </li>
+ * </ul>
+ *
+ * Entries removed by eviction or expiration don't record versions, so they
+ * can be missing from snapshots that were opened before they were removed.
+ * Clearing the container while snapshots are open removes entries one at
+ * the time, so that the snapshots keep them.
+ */
+final class SnapshotDataContainer<K, V> implements DataContainer<K, V> {
+
+   private final DataContainer<K, V> data;
+   private final StampedLock[] gates;
+   private final ConcurrentHashMap<K, Version<V>>[] versions;
+
+   // Epochs of the open snapshots, guarded by itself
+   private final TreeSet<Long> pinned = new TreeSet<>();
+   // Number of open snapshots, written before the epoch is advanced so that
+   // writers applying a write in a snapshot's epoch see it open
+   private volatile int open;
+   private volatile long epoch;
+   // Epoch of the oldest open snapshot, versions older than it are dropped
+   private volatile long oldest = Long.MAX_VALUE;
+
+   @SuppressWarnings("unchecked")
+   private SnapshotDataContainer(DataContainer<K, V> data) {
+      this.data = data;
+      this.gates = new StampedLock[data.segmentCount()];
+      this.versions = new ConcurrentHashMap[data.segmentCount()];
+      for (int i = 0; i < gates.length; i++) {
+         gates[i] = new StampedLock();
+         versions[i] = new ConcurrentHashMap<>();
+      }
+   }
+
+   static <K, V> SnapshotDataContainer<K, V> wrap(DataContainer<K, V> data) {
+      return new SnapshotDataContainer<>(data);
+   }
+
+   /**
+    * Stream of the entries as of the time this method is called, which is
+    * not affected by later writes. The snapshot is closed once the stream
+    * has been fully traversed, or when the stream is closed.
+    */
+   Stream<Map.Entry<K, InternalEntry<V>>> snapshotEntries() {
+      Snapshot snapshot = new Snapshot(pin(), System.currentTimeMillis());
+      return StreamSupport.stream(new SegmentSpliterator<>(this, i -> snapshot.read(i).spliterator()), false)
+         .onClose(snapshot::close);
+   }
+
+   /**
+    * Number of versions kept for open snapshots.
+    */
+   int versions() {
+      int count = 0;
+      for (ConcurrentHashMap<K, Version<V>> chains : versions) {
+         for (Version<V> v : chains.values()) {
+            for (; v != null; v = v.next)
+               count++;
+         }
+      }
+      return count;
+   }
+
+   private long pin() {
+      synchronized (pinned) {
+         long s = epoch + 1;
+         pinned.add(s);
+         oldest = pinned.first();
+         open = pinned.size();
+         epoch = s;
+         return s;
+      }
+   }
+
+   private void unpin(long s) {
+      long min;
+      synchronized (pinned) {
+         pinned.remove(s);
+         min = pinned.isEmpty() ? Long.MAX_VALUE : pinned.first();
+         oldest = min;
+         open = pinned.size();
+      }
+
+      // Snapshots opened from now on have a newer epoch, so versions older
+      // than the oldest open snapshot are not needed by any of them. Each
+      // segment is trimmed while holding its gate, so that writers which
+      // read the previous oldest epoch have recorded their versions by then,
+      // and writers coming after read the new one
+      for (int i = 0; i < versions.length; i++) {
+         ConcurrentHashMap<K, Version<V>> chains = versions[i];
+         StampedLock gate = gates[i];
+         long stamp = gate.writeLock();
+         try {
+            for (K key : chains.keySet())
+               chains.computeIfPresent(key, (k, v) -> v.trim(min));
+         } finally {
+            gate.unlockWrite(stamp);
+         }
+      }
+   }
+
+   @Override
+   public InternalEntry<V> get(K key) {
+      return data.get(key);
+   }
+
+   @Override
+   public InternalEntry<V> put(K key, InternalEntry<V> entry) {
+      if (open == 0)
+         return data.put(key, entry);
+
+      Write write = new Write((k, prev) -> entry);
+      write(key, write);
+      return write.prev;
+   }
+
+   @Override
+   public InternalEntry<V> remove(K key) {
+      if (open == 0)
+         return data.remove(key);
+
+      Write write = new Write((k, prev) -> null);
+      write(key, write);
+      return write.prev;
+   }
+
+   @Override
+   public InternalEntry<V> compute(K key,
+         BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f) {
+      if (open == 0)
+         return data.compute(key, f);
+
+      return write(key, new Write(f));
+   }
+
+   @Override
+   public void writeAll(WriteBatch<K, V> batch) {
+      if (open == 0)
+         data.writeAll(batch);
+      else
+         DataContainer.super.writeAll(batch);
+   }
+
+   /**
+    * Applies a write while snapshots are open, holding the key's segment
+    * gate in shared mode so that the segment is not being read by a
+    * snapshot in the meantime.
+    */
+   private InternalEntry<V> write(K key, Write write) {
+      int segment = data.segmentOf(key);
+      StampedLock gate = gates[segment];
+      long stamp = gate.readLock();
+      try {
+         write.epoch = epoch;
+         write.chains = versions[segment];
+         return data.compute(key, write);
+      } finally {
+         gate.unlockRead(stamp);
+      }
+   }
+
+   @Override
+   public int size() {
+      return data.size();
+   }
+
+   @Override
+   public boolean isEmpty() {
+      return data.isEmpty();
+   }
+
+   @Override
+   public long weight() {
+      return data.weight();
+   }
+
+   @Override
+   public void clear() {
+      if (open == 0)
+         data.clear();
+      else
+         data.keys().forEach(this::remove);
+   }
+
+   @Override
+   public boolean clearsInConstantTime() {
+      // With snapshots open, clearing removes entries one at the time
+      return open == 0 && data.clearsInConstantTime();
+   }
+
+   @Override
+   public Stream<K> keys() {
+      return data.keys();
+   }
+
+   @Override
+   public Stream<Map.Entry<K, InternalEntry<V>>> entries() {
+      return data.entries();
+   }
+
+   @Override
+   public int segmentCount() {
+      return data.segmentCount();
+   }
+
+   @Override
+   public int segmentOf(K key) {
+      return data.segmentOf(key);
+   }
+
+   @Override
+   public Segment<K, V> segment(int index) {
+      return data.segment(index);
+   }
+
+   @Override
+   public void close() {
+      data.close();
+   }
+
+   /**
+    * Write recording the entry it replaces, if it's the first write of the
+    * key in the current epoch and a snapshot may need it.
+    */
+   private final class Write implements BiFunction<K, InternalEntry<V>, InternalEntry<V>> {
+      final BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f;
+      long epoch;
+      ConcurrentHashMap<K, Version<V>> chains;
+      InternalEntry<V> prev;
+
+      Write(BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f) {
+         this.f = f;
+      }
+
+      @Override
+      public InternalEntry<V> apply(K key, InternalEntry<V> prev) {
+         this.prev = prev;
+         InternalEntry<V> next = f.apply(key, prev);
+         long min = oldest;
+         if (next != prev && epoch >= min) {
+            // Recorded while the entry is held, so that versions of a key
+            // are chained in the order its writes were applied
+            chains.compute(key, (k, head) -> {
+               Version<V> needed = head == null ? null : head.trim(min);
+               return needed != null && needed.epoch >= epoch ? needed : new Version<>(epoch, prev, needed);
+            });
+         }
+         return next;
+      }
+   }
+
+   /**
+    * Snapshot opened at an epoch, whose segments are each read once.
+    */
+   private final class Snapshot {
+      final long epoch;
+      final long now;
+      final AtomicInteger unread = new AtomicInteger(segmentCount());
+      final AtomicBoolean closed = new AtomicBoolean();
+
+      Snapshot(long epoch, long now) {
+         this.epoch = epoch;
+         this.now = now;
+      }
+
+      /**
+       * Entries of the segment as of the snapshot's epoch. Keys whose
+       * versions tell what they were at the time are read from the
+       * versions, and the rest from the segment.
+       */
+      List<Map.Entry<K, InternalEntry<V>>> read(int index) {
+         ConcurrentHashMap<K, Version<V>> chains = versions[index];
+         Segment<K, V> segment = data.segment(index);
+         List<Map.Entry<K, InternalEntry<V>>> entries = new ArrayList<>(segment.size());
+         StampedLock gate = gates[index];
+         long stamp = gate.writeLock();
+         try {
+            segment.entries().forEach(e -> {
+               if (Version.at(chains.get(e.getKey()), epoch) == null)
+                  add(entries, e.getKey(), e.getValue());
+            });
+            chains.forEach((key, head) -> {
+               Version<V> v = Version.at(head, epoch);
+               if (v != null)
+                  add(entries, key, v.entry);
+            });
+         } finally {
+            gate.unlockWrite(stamp);
+         }
+
+         if (unread.decrementAndGet() == 0)
+            close();
+         return entries;
+      }
+
+      private void add(List<Map.Entry<K, InternalEntry<V>>> entries, K key, InternalEntry<V> entry) {
+         if (entry != null && !entry.isExpired(now))
+            entries.add(new SimpleImmutableEntry<>(key, entry));
+      }
+
+      void close() {
+         if (closed.compareAndSet(false, true))
+            unpin(epoch);
+      }
+   }
+
+   /**
+    * Entry a key had before its first write in an epoch, or null if it had
+    * none, followed by the versions recorded in earlier epochs.
+    */
+   private static final class Version<V> {
+      final long epoch;
+      final InternalEntry<V> entry;
+      final Version<V> next;
+
+      Version(long epoch, InternalEntry<V> entry, Version<V> next) {
+         this.epoch = epoch;
+         this.entry = entry;
+         this.next = next;
+      }
+
+      /**
+       * Oldest version recorded at the given epoch or later, which holds
+       * what the key was at that epoch, or null if the key has not been
+       * written since.
+       */
+      static <V> Version<V> at(Version<V> head, long epoch) {
+         Version<V> found = null;
+         for (Version<V> v = head; v != null && v.epoch >= epoch; v = v.next)
+            found = v;
+         return found;
+      }
+
+      /**
+       * Versions recorded at the given epoch or later, or null if there are
+       * none.
+       */
+      Version<V> trim(long epoch) {
+         if (this.epoch < epoch)
+            return null;
+
+         Version<V> trimmed = next == null ? null : next.trim(epoch);
+         return trimmed == next ? this : new Version<>(this.epoch, entry, trimmed);
+      }
+   }
+
+}
@@ -0,0 +1,111 @@
+package org.infinispan.api.v8.impl;
+
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * Selects where a functional map stores its entries. Storage is chosen when
+ * the functional map is created, via {@link FunctionalMapImpl#create(Storage)},
+ * and is shared by all functional maps derived from it.
+ *
+ * DESIGN RATIONALES:
+ * <ul>
+ *    <li>Why isn't storage a {@link org.infinispan.api.v8.Param}? Because
+ *    parameters tweak how individual operations are executed, and can be
+ *    changed at any time via withParams, whereas storage decides how the
+ *    data itself is laid out, which cannot change once data has been
+ *    stored.
+ *    </li>
+ * </ul>
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public final class Storage<K, V> {
+
+   private final String name;
+   private final Supplier<DataContainer<K, V>> factory;
+
+   private Storage(String name, Supplier<DataContainer<K, V>> factory) {
+      this.name = name;
+      this.factory = factory;
+   }
+
+   DataContainer<K, V> createContainer() {
+      return factory.get();
+   }
+
+   /**
+    * Storage where keys, values and metadata parameters are kept as objects
+    * on the Java heap. This is the default.
+    */
+   public static <K, V> Storage<K, V> heap() {
+      return new Storage<>("heap", SegmentedDataContainer::create);
+   }
+
+   /**
+    * Storage where keys, values and metadata parameters are kept in binary
+    * form in direct memory, outside the Java heap. Keys and values are
+    * converted with the given codecs. Values are only decoded when they're
+    * read from an entry view, so each read decodes the value again.
+    *
+    * Metadata parameters other than the built-in ones must be serializable.
+    */
+   public static <K, V> Storage<K, V> offHeap(Codec<K> keyCodec, Codec<V> valueCodec) {
+      return new Storage<>("off-heap", () -> OffHeapDataContainer.create(keyCodec, valueCodec));
+   }
+
+   /**
+    * Storage where keys, values and metadata parameters are kept in binary
+    * form in memory-mapped files under the given directory, so that they
+    * survive restarts. Creating a functional map with this storage recovers
+    * any entries previously stored in the directory. Keys and values are
+    * converted with the given codecs.
+    *
+    * Only one functional map can use a directory at the time, and it
+    * should be closed to make sure all writes are forced to disk.
+    */
+   public static <K, V> Storage<K, V> persistent(Path dir, Codec<K> keyCodec, Codec<V> valueCodec) {
+      return new Storage<>("persistent", () -> PersistentDataContainer.open(dir, keyCodec, valueCodec));
+   }
+
+   /**
+    * Returns storage like this one, but holding at most the given number of
+    * entries. Once the bound is reached, storing new entries evicts entries
+    * that have been accessed less frequently.
+    */
+   public Storage<K, V> withMaxEntries(long maxEntries) {
+      if (maxEntries < 1)
+         throw new IllegalArgumentException("Maximum number of entries must be at least 1: " + maxEntries);
+
+      Supplier<DataContainer<K, V>> unbounded = factory;
+      return new Storage<>(name + ", maxEntries=" + maxEntries,
+         () -> BoundedDataContainer.wrap(unbounded.get(), maxEntries));
+   }
+
+   /**
+    * Returns storage like this one, but whose entries weigh at most the
+    * given number of bytes in total. Entries weigh as much as their key and
+    * value, as estimated by the weigher, plus what the functional map
+    * spends on the entry itself, including its metadata parameters. Once
+    * the bound is reached, storing new entries evicts entries that have
+    * been accessed less frequently.
+    *
+    * The current total weight is exposed by
+    * {@link FunctionalMapImpl#weight()}.
+    */
+   public Storage<K, V> withMaxWeight(long maxWeight, Weigher<? super K, ? super V> weigher) {
+      if (maxWeight < 1)
+         throw new IllegalArgumentException("Maximum weight must be at least 1: " + maxWeight);
+
+      Supplier<DataContainer<K, V>> unbounded = factory;
+      return new Storage<>(name + ", maxWeight=" + maxWeight,
+         () -> BoundedDataContainer.wrap(unbounded.get(), maxWeight, weigher));
+   }
+
+   @Override
+   public String toString() {
+      return "Storage=" + name;
+   }
+
+}
@@ -0,0 +1,185 @@
+package org.infinispan.api.v8.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchical timer wheel tracking when keys expire. Each level of the
+ * wheel is an array of buckets, and each bucket covers a span of time,
+ * rounded up to a power of two milliseconds: roughly a second in the first
+ * level, then a minute, an hour and a day, plus a last level for anything
+ * further away. A bucket is a doubly linked list of timers, so scheduling
+ * and cancelling a timer takes constant time.
+ *
+ * As time advances, the buckets of the lowest level that time has moved
+ * past are emptied, expiring timers that are due and moving the rest to
+ * lower levels, closer to when they're due. Higher levels are only visited
+ * when time moves past one of their buckets, so the cost of advancing the
+ * wheel is proportional to the number of timers that are due, plus a
+ * constant, regardless of the number of timers scheduled.
+ *
+ * Timers are only as precise as the span of the lowest level, so keys
+ * might be reported as expired up to a second after they're due.
+ *
+ * This class is not thread safe, callers must guard access with a lock.
+ *
+ * @param <K> type of keys
+ */
+final class TimerWheel<K> {
+
+   static final int[] BUCKETS = {64, 64, 32, 4, 1};
+   static final long[] SPANS = {
+      1L << 10, // 1.02s
+      1L << 16, // 1.09m
+      1L << 22, // 1.17h
+      1L << 27, // 1.55d
+      1L << 29, // 6.21d
+      1L << 29, // 6.21d
+   };
+   static final int[] SHIFT = {
+      Long.numberOfTrailingZeros(SPANS[0]),
+      Long.numberOfTrailingZeros(SPANS[1]),
+      Long.numberOfTrailingZeros(SPANS[2]),
+      Long.numberOfTrailingZeros(SPANS[3]),
+      Long.numberOfTrailingZeros(SPANS[4]),
+   };
+
+   private final Timer<K>[][] wheel;
+   private Map<K, Timer<K>> timers = new HashMap<>();
+   private long time;
+
+   @SuppressWarnings("unchecked")
+   TimerWheel(long now) {
+      this.time = now;
+      this.wheel = new Timer[BUCKETS.length][];
+      for (int i = 0; i < wheel.length; i++) {
+         wheel[i] = new Timer[BUCKETS[i]];
+         for (int j = 0; j < wheel[i].length; j++)
+            wheel[i][j] = Timer.sentinel();
+      }
+   }
+
+   int size() {
+      return timers.size();
+   }
+
+   /**
+    * Schedules the key to expire at the given time, replacing any time it
+    * was previously scheduled to expire at.
+    */
+   void schedule(K key, long expiresAt) {
+      Timer<K> timer = timers.get(key);
+      if (timer == null) {
+         timer = new Timer<>(key);
+         timers.put(key, timer);
+      } else {
+         timer.unlink();
+      }
+      timer.expiresAt = expiresAt;
+      link(timer);
+   }
+
+   void cancel(K key) {
+      Timer<K> timer = timers.remove(key);
+      if (timer != null)
+         timer.unlink();
+   }
+
+   void clear() {
+      for (Timer<K>[] buckets : wheel) {
+         for (Timer<K> sentinel : buckets)
+            sentinel.prev = sentinel.next = sentinel;
+      }
+      // Replacing the map rather than clearing it doesn't walk its table
+      timers = new HashMap<>();
+   }
+
+   /**
+    * Advances the wheel to the given time, adding the keys whose timers are
+    * due to the given list. Due timers are removed from the wheel.
+    */
+   void advance(long now, List<K> expired) {
+      long previous = time;
+      time = now;
+      for (int i = 0; i < SHIFT.length; i++) {
+         long previousTicks = previous >>> SHIFT[i];
+         long currentTicks = now >>> SHIFT[i];
+         if (currentTicks - previousTicks <= 0)
+            break;
+
+         expire(i, previousTicks, currentTicks - previousTicks, expired);
+      }
+   }
+
+   private void expire(int level, long previousTicks, long delta, List<K> expired) {
+      Timer<K>[] buckets = wheel[level];
+      int mask = buckets.length - 1;
+      int steps = (int) Math.min(1 + delta, buckets.length);
+      int start = (int) (previousTicks & mask);
+      for (int i = start; i < start + steps; i++) {
+         Timer<K> sentinel = buckets[i & mask];
+         Timer<K> timer = sentinel.next;
+         sentinel.prev = sentinel.next = sentinel;
+         while (timer != sentinel) {
+            Timer<K> next = timer.next;
+            timer.prev = timer.next = null;
+            if (timer.expiresAt > time) {
+               link(timer);
+            } else {
+               timers.remove(timer.key);
+               expired.add(timer.key);
+            }
+            timer = next;
+         }
+      }
+   }
+
+   private void link(Timer<K> timer) {
+      Timer<K> sentinel = bucket(timer.expiresAt);
+      timer.next = sentinel;
+      timer.prev = sentinel.prev;
+      sentinel.prev.next = timer;
+      sentinel.prev = timer;
+   }
+
+   private Timer<K> bucket(long expiresAt) {
+      // Timers already due go to the current bucket, the next one to expire
+      long due = Math.max(expiresAt, time);
+      long duration = due - time;
+      int last = wheel.length - 1;
+      for (int i = 0; i < last; i++) {
+         if (duration < SPANS[i + 1]) {
+            long ticks = due >>> SHIFT[i];
+            return wheel[i][(int) (ticks & (wheel[i].length - 1))];
+         }
+      }
+      return wheel[last][0];
+   }
+
+   private static final class Timer<K> {
+      final K key;
+      long expiresAt;
+      Timer<K> prev;
+      Timer<K> next;
+
+      private Timer(K key) {
+         this.key = key;
+      }
+
+      static <K> Timer<K> sentinel() {
+         Timer<K> sentinel = new Timer<>(null);
+         sentinel.prev = sentinel.next = sentinel;
+         return sentinel;
+      }
+
+      void unlink() {
+         if (next != null) {
+            prev.next = next;
+            next.prev = prev;
+            prev = next = null;
+         }
+      }
+   }
+
+}
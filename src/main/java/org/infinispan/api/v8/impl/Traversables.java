@@ -6,6 +6,14 @@ import org.infinispan.api.v8.Traversable;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.BinaryOperator;
@@ -15,103 +23,229 @@ import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public final class Traversables {
 
    public static <T> Traversable<T> of(Stream<T> stream) {
-      return new StreamTraversable<>(stream);
+      return of(stream, null);
    }
 
    public static <T> Traversable<T> eager(Stream<T> stream) {
-      List<T> list = stream.collect(Collectors.toList());
-      return new StreamTraversable<>(list.stream());
+      return eager(stream, null);
+   }
+
+   /**
+    * Provide a lazily evaluated traversable for a stream. If a fork join
+    * pool is given, the stream is made parallel and terminal operations are
+    * executed with fork/join in that pool. Otherwise, the traversable is
+    * sequential.
+    */
+   public static <T> Traversable<T> of(Stream<T> stream, ForkJoinPool pool) {
+      return new StreamTraversable<>(pool == null ? stream : stream.parallel(), pool);
+   }
+
+   /**
+    * Provide an eagerly evaluated traversable for a stream. If a fork join
+    * pool is given, the stream is collected with fork/join in that pool, and
+    * the resulting traversable is parallel too. Encounter order is kept.
+    * The stream is closed once collected.
+    */
+   public static <T> Traversable<T> eager(Stream<T> stream, ForkJoinPool pool) {
+      try (Stream<T> s = stream) {
+         if (pool == null)
+            return new StreamTraversable<>(s.collect(Collectors.toList()).stream(), null);
+
+         List<T> list = invoke(pool, () -> s.parallel().collect(Collectors.toList()));
+         return new StreamTraversable<>(list.stream().parallel(), pool);
+      }
+   }
+
+   /**
+    * Provide an asynchronously evaluated traversable for a stream. The stream
+    * is not supplied until a terminal operation is called, at which point
+    * elements are produced in the given executor. Elements are either pushed
+    * to the operation passed to {@link Traversable#forEachAsync(Consumer)},
+    * or buffered for the rest of terminal operations, which pull elements
+    * from the buffer. Elements are produced in batches, so that long
+    * traversals don't hog executor threads.
+    *
+    * As with streams, a traversable can only be consumed once, and
+    * intermediate operations such as filter or map must be applied before
+    * calling a terminal operation.
+    */
+   public static <T> Traversable<T> async(Executor executor, Supplier<Stream<T>> s) {
+      return new AsyncTraversable<>(executor, s);
+   }
+
+   /**
+    * Provide an asynchronously evaluated traversable for a stream, as in
+    * {@link #async(Executor, Supplier)}. If a fork join pool is given, the
+    * stream is collected with fork/join in that pool, from the executor,
+    * before elements are produced. Encounter order is kept.
+    */
+   public static <T> Traversable<T> async(Executor executor, ForkJoinPool pool, Supplier<Stream<T>> s) {
+      if (pool == null)
+         return async(executor, s);
+
+      return async(executor, () -> {
+         try (Stream<T> stream = s.get()) {
+            return invoke(pool, () -> stream.parallel().collect(Collectors.toList())).stream();
+         }
+      });
+   }
+
+   /**
+    * Adapts a traversable to a stream, e.g. to flat map it. Traversables
+    * other than the ones backed by a stream, such as asynchronous ones, are
+    * adapted through their iterator, which is closed with the stream.
+    */
+   static <T> Stream<T> streamOf(Traversable<T> traversable) {
+      if (traversable instanceof StreamTraversable)
+         return ((StreamTraversable<T>) traversable).stream;
+
+      CloseableIterator<T> it = traversable.iterator();
+      return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, 0), false).onClose(it::close);
+   }
+
+   /**
+    * Runs an operation in the fork join pool, so that any parallel stream
+    * operations invoked by it are forked in that pool rather than in the
+    * JVM-wide common pool, and waits for its result. If there's no pool,
+    * or the caller is already running in it, the operation is run directly.
+    */
+   static <R> R invoke(ForkJoinPool pool, Supplier<R> op) {
+      if (pool == null || ForkJoinTask.getPool() == pool)
+         return op.get();
+
+      return pool.invoke(new RecursiveTask<R>() {
+         @Override
+         protected R compute() {
+            return op.get();
+         }
+      });
    }
 
    private Traversables() {
       // Cannot be instantiated, it's just a holder class
    }
 
+   /**
+    * Traversable over a stream, which is closed once a terminal operation
+    * returns, so that whatever the stream's source holds, e.g. a snapshot
+    * of the map, is released even if the operation stops early.
+    */
    // TODO: Attention! This is a very rudimentary/simplistic implementation!
    private static final class StreamTraversable<T> implements Traversable<T> {
       // TODO: How should the rest of operations react to closed traversable?
       volatile boolean isClosed = false;
       final Stream<T> stream;
+      final ForkJoinPool pool;
 
-      private StreamTraversable(Stream<T> stream) {
+      private StreamTraversable(Stream<T> stream, ForkJoinPool pool) {
          this.stream = stream;
+         this.pool = pool;
       }
 
       @Override
       public Traversable<T> filter(Predicate<? super T> p) {
-         return new StreamTraversable<>(stream.filter(p));
+         return new StreamTraversable<>(stream.filter(p), pool);
       }
 
       @Override
       public <R> Traversable<R> map(Function<? super T, ? extends R> f) {
-         return new StreamTraversable<>(stream.map(f));
+         return new StreamTraversable<>(stream.map(f), pool);
       }
 
       @Override
       public <R> Traversable<R> flatMap(Function<? super T, ? extends Traversable<? extends R>> f) {
-         Function<? super T, ? extends Stream<? extends R>> mapper = new Function<T, Stream<? extends R>>() {
-            @Override
-            public Stream<? extends R> apply(T t) {
-               StreamTraversable<? extends R> applied = (StreamTraversable<? extends R>) f.apply(t);
-               return applied.stream;
-            }
-         };
-
-         return new StreamTraversable<>(stream.flatMap(mapper));
+         return new StreamTraversable<>(stream.flatMap(t -> streamOf(f.apply(t))), pool);
       }
 
       @Override
       public void forEach(Consumer<? super T> c) {
-         stream.forEach(c);
+         try (Stream<T> s = stream) {
+            invoke(pool, () -> {
+               s.forEach(c);
+               return null;
+            });
+         }
+      }
+
+      @Override
+      public CompletableFuture<Void> forEachAsync(Consumer<? super T> c) {
+         // Elements are readily available, so apply them directly
+         CompletableFuture<Void> cf = new CompletableFuture<>();
+         try {
+            forEach(c);
+            cf.complete(null);
+         } catch (Throwable t) {
+            cf.completeExceptionally(t);
+         }
+         return cf;
       }
 
       @Override
       public T reduce(T z, BinaryOperator<T> folder) {
-         return stream.reduce(z, folder);
+         try (Stream<T> s = stream) {
+            return invoke(pool, () -> s.reduce(z, folder));
+         }
       }
 
       @Override
       public Optional<T> reduce(BinaryOperator<T> folder) {
-         return stream.reduce(folder);
+         try (Stream<T> s = stream) {
+            return invoke(pool, () -> s.reduce(folder));
+         }
       }
 
       @Override
       public <U> U reduce(U z, BiFunction<U, ? super T, U> mapper, BinaryOperator<U> folder) {
-         return stream.reduce(z, mapper, folder);
+         try (Stream<T> s = stream) {
+            return invoke(pool, () -> s.reduce(z, mapper, folder));
+         }
       }
 
       @Override
       public <R> R collect(Supplier<R> s, BiConsumer<R, ? super T> accumulator, BiConsumer<R, R> combiner) {
-         return stream.collect(s, accumulator, combiner);
+         try (Stream<T> st = stream) {
+            return invoke(pool, () -> st.collect(s, accumulator, combiner));
+         }
       }
 
       @Override
       public long count() {
-         return stream.count();
+         try (Stream<T> s = stream) {
+            return invoke(pool, () -> s.count());
+         }
       }
 
       @Override
       public boolean anyMatch(Predicate<? super T> p) {
-         return stream.anyMatch(p);
+         try (Stream<T> s = stream) {
+            return invoke(pool, () -> s.anyMatch(p));
+         }
       }
 
       @Override
       public boolean allMatch(Predicate<? super T> p) {
-         return stream.allMatch(p);
+         try (Stream<T> s = stream) {
+            return invoke(pool, () -> s.allMatch(p));
+         }
       }
 
       @Override
       public boolean noneMatch(Predicate<? super T> predicate) {
-         return stream.noneMatch(predicate);
+         try (Stream<T> s = stream) {
+            return invoke(pool, () -> s.noneMatch(predicate));
+         }
       }
 
       @Override
       public Optional<T> findAny() {
-         return stream.findAny();
+         try (Stream<T> s = stream) {
+            return invoke(pool, () -> s.findAny());
+         }
       }
 
       @Override
@@ -127,6 +261,234 @@ public final class Traversables {
       @Override
       public void close() {
          isClosed = true;
+         // Releases whatever the source holds, e.g. a snapshot of the map
+         stream.close();
+      }
+   }
+
+   private static final class AsyncTraversable<T> implements Traversable<T> {
+      final Executor executor;
+      final Supplier<Stream<T>> supplier;
+      final AtomicBoolean isConsumed = new AtomicBoolean();
+      volatile boolean isClosed = false;
+      volatile AutoCloseable consumer;
+
+      private AsyncTraversable(Executor executor, Supplier<Stream<T>> supplier) {
+         this.executor = executor;
+         this.supplier = supplier;
+      }
+
+      @Override
+      public Traversable<T> filter(Predicate<? super T> p) {
+         return next(() -> supplier.get().filter(p));
+      }
+
+      @Override
+      public <R> Traversable<R> map(Function<? super T, ? extends R> f) {
+         return next(() -> supplier.get().map(f));
+      }
+
+      @Override
+      public <R> Traversable<R> flatMap(Function<? super T, ? extends Traversable<? extends R>> f) {
+         return next(() -> supplier.get().flatMap(t -> streamOf(f.apply(t))));
+      }
+
+      private <R> Traversable<R> next(Supplier<Stream<R>> s) {
+         checkNotConsumed();
+         return new AsyncTraversable<>(executor, s);
+      }
+
+      @Override
+      public CompletableFuture<Void> forEachAsync(Consumer<? super T> c) {
+         consume();
+         PushTask<T> task = new PushTask<>(executor, supplier, c);
+         consumer = task;
+         task.schedule();
+         return task.cf;
+      }
+
+      @Override
+      public void forEach(Consumer<? super T> c) {
+         try (Stream<T> stream = stream()) {
+            stream.forEach(c);
+         }
+      }
+
+      @Override
+      public T reduce(T z, BinaryOperator<T> folder) {
+         try (Stream<T> stream = stream()) {
+            return stream.reduce(z, folder);
+         }
+      }
+
+      @Override
+      public Optional<T> reduce(BinaryOperator<T> folder) {
+         try (Stream<T> stream = stream()) {
+            return stream.reduce(folder);
+         }
+      }
+
+      @Override
+      public <U> U reduce(U z, BiFunction<U, ? super T, U> mapper, BinaryOperator<U> folder) {
+         try (Stream<T> stream = stream()) {
+            return stream.reduce(z, mapper, folder);
+         }
+      }
+
+      @Override
+      public <R> R collect(Supplier<R> s, BiConsumer<R, ? super T> accumulator, BiConsumer<R, R> combiner) {
+         try (Stream<T> stream = stream()) {
+            return stream.collect(s, accumulator, combiner);
+         }
+      }
+
+      @Override
+      public long count() {
+         try (Stream<T> stream = stream()) {
+            return stream.count();
+         }
+      }
+
+      @Override
+      public boolean anyMatch(Predicate<? super T> p) {
+         try (Stream<T> stream = stream()) {
+            return stream.anyMatch(p);
+         }
+      }
+
+      @Override
+      public boolean allMatch(Predicate<? super T> p) {
+         try (Stream<T> stream = stream()) {
+            return stream.allMatch(p);
+         }
+      }
+
+      @Override
+      public boolean noneMatch(Predicate<? super T> predicate) {
+         try (Stream<T> stream = stream()) {
+            return stream.noneMatch(predicate);
+         }
+      }
+
+      @Override
+      public Optional<T> findAny() {
+         try (Stream<T> stream = stream()) {
+            return stream.findAny();
+         }
+      }
+
+      @Override
+      public CloseableIterator<T> iterator() {
+         consume();
+         CloseableIterator<T> it = Iterators.asyncIterator(executor, supplier);
+         consumer = it;
+         return it;
+      }
+
+      @Override
+      public CloseableSpliterator<T> spliterator() {
+         return Iterators.spliterator(stream());
+      }
+
+      private Stream<T> stream() {
+         CloseableIterator<T> it = iterator();
+         return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, 0), false).onClose(it::close);
+      }
+
+      private void consume() {
+         checkNotConsumed();
+         if (!isConsumed.compareAndSet(false, true))
+            throw new IllegalStateException("Traversable has already been consumed");
+      }
+
+      private void checkNotConsumed() {
+         if (isClosed)
+            throw new IllegalStateException("Traversable is closed");
+         if (isConsumed.get())
+            throw new IllegalStateException("Traversable has already been consumed");
+      }
+
+      @Override
+      public void close() {
+         isClosed = true;
+         AutoCloseable c = consumer;
+         if (c != null) {
+            try {
+               c.close();
+            } catch (Exception e) {
+               throw new IllegalStateException(e);
+            }
+         }
+      }
+   }
+
+   /**
+    * Task that pushes elements of a stream to an operation, a batch at the
+    * time, rescheduling itself in between batches.
+    */
+   private static final class PushTask<T> implements Runnable, AutoCloseable {
+      final Executor executor;
+      final Supplier<Stream<T>> supplier;
+      final Consumer<? super T> c;
+      final CompletableFuture<Void> cf = new CompletableFuture<>();
+      Stream<T> stream;
+      Spliterator<T> source;
+
+      private PushTask(Executor executor, Supplier<Stream<T>> supplier, Consumer<? super T> c) {
+         this.executor = executor;
+         this.supplier = supplier;
+         this.c = c;
+      }
+
+      void schedule() {
+         try {
+            executor.execute(this);
+         } catch (Throwable t) {
+            release();
+            cf.completeExceptionally(t);
+         }
+      }
+
+      @Override
+      public void run() {
+         try {
+            if (source == null) {
+               stream = supplier.get();
+               source = stream.spliterator();
+            }
+
+            for (int i = 0; i < Iterators.ASYNC_BUFFER_SIZE; i++) {
+               if (cf.isDone()) {
+                  release(); // Closed while traversing
+                  return;
+               }
+
+               if (!source.tryAdvance(c)) {
+                  release();
+                  cf.complete(null);
+                  return;
+               }
+            }
+         } catch (Throwable t) {
+            release();
+            cf.completeExceptionally(t);
+            return;
+         }
+
+         schedule();
+      }
+
+      private void release() {
+         if (stream != null) {
+            stream.close();
+            stream = null;
+            source = null;
+         }
+      }
+
+      @Override
+      public void close() {
+         cf.cancel(false);
       }
    }
 
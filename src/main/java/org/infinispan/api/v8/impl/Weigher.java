@@ -0,0 +1,24 @@
+package org.infinispan.api.v8.impl;
+
+/**
+ * Estimates how many bytes of memory a key and its value take, so that
+ * storage can be bounded by memory rather than by number of entries.
+ * Weights need not be exact, but they must be consistent: a value's weight
+ * must not change while it's stored.
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ * @see Weighers
+ * @see Storage#withMaxWeight(long, Weigher)
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+
+   /**
+    * Weight in bytes of the key and value, which must not be negative.
+    * Memory the functional map spends on the entry itself, such as its
+    * metadata parameters, is added to it.
+    */
+   long weigh(K key, V value);
+
+}
@@ -0,0 +1,63 @@
+package org.infinispan.api.v8.impl;
+
+/**
+ * Weighers for common types.
+ */
+public final class Weighers {
+
+   // Estimates for a 64-bit JVM with compressed references
+   static final long OBJECT_HEADER = 12;
+   static final long ARRAY_HEADER = 16;
+   static final long REFERENCE = 4;
+
+   private Weighers() {
+      // Cannot be instantiated, it's just a holder class
+   }
+
+   /**
+    * Weigher estimating the shallow size of strings, byte, char, int and
+    * long arrays, and boxed primitives. Other objects are weighed as an
+    * object with a couple of fields, so values of other types should be
+    * weighed with a type specific weigher.
+    */
+   @SuppressWarnings("unchecked")
+   public static <K, V> Weigher<K, V> footprint() {
+      return (Weigher<K, V>) Footprint.INSTANCE;
+   }
+
+   /**
+    * Estimated number of bytes taken by the object, as per
+    * {@link #footprint()}.
+    */
+   static long footprint(Object obj) {
+      if (obj == null)
+         return 0;
+      if (obj instanceof String)
+         return align(OBJECT_HEADER + REFERENCE + 4) + align(ARRAY_HEADER + 2L * ((String) obj).length());
+      if (obj instanceof byte[])
+         return align(ARRAY_HEADER + ((byte[]) obj).length);
+      if (obj instanceof char[])
+         return align(ARRAY_HEADER + 2L * ((char[]) obj).length);
+      if (obj instanceof int[])
+         return align(ARRAY_HEADER + 4L * ((int[]) obj).length);
+      if (obj instanceof long[])
+         return align(ARRAY_HEADER + 8L * ((long[]) obj).length);
+      if (obj instanceof Long || obj instanceof Double)
+         return align(OBJECT_HEADER + 8);
+      return align(OBJECT_HEADER + 2 * REFERENCE);
+   }
+
+   static long align(long size) {
+      return (size + 7) & ~7L;
+   }
+
+   private static final class Footprint implements Weigher<Object, Object> {
+      static final Footprint INSTANCE = new Footprint();
+
+      @Override
+      public long weigh(Object key, Object value) {
+         return footprint(key) + footprint(value);
+      }
+   }
+
+}
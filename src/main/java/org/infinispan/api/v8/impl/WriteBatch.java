@@ -0,0 +1,76 @@
+package org.infinispan.api.v8.impl;
+
+/**
+ * Writes to keys of the same container segment, to be applied together by
+ * {@link DataContainer#writeAll(WriteBatch)}. Each write either stores an
+ * entry or, if the entry is null, removes the key. Once applied, the batch
+ * holds the entry each write replaced, if any.
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+final class WriteBatch<K, V> {
+
+   private final int segment;
+   private final Object[] keys;
+   private final InternalEntry<V>[] entries;
+   private final InternalEntry<V>[] prevs;
+   private int size;
+
+   @SuppressWarnings("unchecked")
+   WriteBatch(int segment, int capacity) {
+      this.segment = segment;
+      this.keys = new Object[capacity];
+      this.entries = new InternalEntry[capacity];
+      this.prevs = new InternalEntry[capacity];
+   }
+
+   /**
+    * Index of the segment where all keys in the batch are stored.
+    */
+   int segment() {
+      return segment;
+   }
+
+   int size() {
+      return size;
+   }
+
+   /**
+    * Adds a write of the given entry, or a removal if the entry is null.
+    * Keys must not be added more than once.
+    */
+   void add(K key, InternalEntry<V> entry) {
+      keys[size] = key;
+      entries[size] = entry;
+      size++;
+   }
+
+   @SuppressWarnings("unchecked")
+   K key(int i) {
+      return (K) keys[i];
+   }
+
+   /**
+    * Entry written, or null if the key is removed.
+    */
+   InternalEntry<V> entry(int i) {
+      return entries[i];
+   }
+
+   void entry(int i, InternalEntry<V> entry) {
+      entries[i] = entry;
+   }
+
+   /**
+    * Entry replaced or removed by the write, or null if there was none.
+    */
+   InternalEntry<V> prev(int i) {
+      return prevs[i];
+   }
+
+   void prev(int i, InternalEntry<V> prev) {
+      prevs[i] = prev;
+   }
+
+}
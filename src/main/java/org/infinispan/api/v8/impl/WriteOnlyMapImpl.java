@@ -5,87 +5,167 @@ import org.infinispan.api.v8.EntryView.WriteEntryView;
 import org.infinispan.api.v8.FunctionalMap.WriteOnlyMap;
 import org.infinispan.api.v8.Listeners.WriteListeners;
 import org.infinispan.api.v8.Param;
+import org.infinispan.api.v8.Param.AsyncExecutor;
+import org.infinispan.api.v8.Param.TraversalMode;
 import org.infinispan.api.v8.Param.WaitMode;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.infinispan.api.v8.Param.WaitMode.*;
+import static org.infinispan.api.v8.impl.OperationTracer.Operation.WRITE_ONLY_EVAL;
+import static org.infinispan.api.v8.impl.OperationTracer.Operation.WRITE_ONLY_EVAL_MANY;
+import static org.infinispan.api.v8.impl.OperationTracer.Operation.WRITE_ONLY_TRUNCATE;
+import static org.infinispan.api.v8.impl.OperationTracer.Operation.WRITE_ONLY_VALUES;
 
 public class WriteOnlyMapImpl<K, V> extends AbstractFunctionalMap<K, V> implements WriteOnlyMap<K, V> {
 
    private final Params params;
 
-   private WriteOnlyMapImpl(Params params, FunctionalMapImpl<K, V> functionalMap) {
-      super(functionalMap);
+   private WriteOnlyMapImpl(Params params, FunctionalMapImpl<K, V> functionalMap, AsyncExecutor executor) {
+      super(functionalMap, params, executor);
       this.params = params;
    }
 
    public static <K, V> WriteOnlyMap<K, V> create(FunctionalMapImpl<K, V> functionalMap) {
-      return new WriteOnlyMapImpl<>(Params.from(functionalMap.params.params), functionalMap);
+      return new WriteOnlyMapImpl<>(Params.from(functionalMap.params.params), functionalMap, null);
    }
 
-   private static <K, V> WriteOnlyMap<K, V> create(Params params, FunctionalMapImpl<K, V> functionalMap) {
-      return new WriteOnlyMapImpl<>(params, functionalMap);
+   private static <K, V> WriteOnlyMap<K, V> create(Params params, FunctionalMapImpl<K, V> functionalMap,
+         AsyncExecutor executor) {
+      return new WriteOnlyMapImpl<>(params, functionalMap, executor);
    }
 
    @Override
    public CompletableFuture<Void> eval(K key, Consumer<WriteEntryView<V>> f) {
-      System.out.printf("[W] Invoked eval(k=%s, %s)%n", key, params);
+      long start = traceStart();
       Param<WaitMode> waitMode = params.get(WaitMode.ID);
-      return withWaitFuture(waitMode.get(), () -> {
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      return traced(WRITE_ONLY_EVAL, key, params, start, withWaitFuture(waitMode, executor, () -> {
          f.accept(EntryViews.writeOnly(key, this));
          return null;
-      });
+      }));
    }
 
    @Override
    public CompletableFuture<Void> eval(K key, V value, BiConsumer<V, WriteEntryView<V>> f) {
-      System.out.printf("[W] Invoked eval(k=%s, v=%s, %s)%n", key, value, params);
+      long start = traceStart();
       Param<WaitMode> waitMode = params.get(WaitMode.ID);
-      return withWaitFuture(waitMode.get(), () -> {
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      return traced(WRITE_ONLY_EVAL, key, params, start, withWaitFuture(waitMode, executor, () -> {
          f.accept(value, EntryViews.writeOnly(key, this));
          return null;
-      });
+      }));
    }
 
    @Override
    public CloseableIterator<Void> evalMany(Map<? extends K, ? extends V> entries, BiConsumer<V, WriteEntryView<V>> f) {
-      System.out.printf("[W] Invoked evalMany(entries=%s, %s)%n", entries, params);
-      Param<WaitMode> waitMode = params.get(ID);
-      return withWaitIterator(waitMode, () -> entries.entrySet().stream().map(e -> {
-            f.accept(e.getValue(), EntryViews.writeOnly(e.getKey(), WriteOnlyMapImpl.this));
-            return null;
-         })
-      );
+      long start = traceStart();
+      return traced(WRITE_ONLY_EVAL_MANY, params, start, writeManyIterator(() ->
+         writeMany(new ArrayList<>(entries.entrySet()), f)));
    }
 
    @Override
    public CloseableIterator<Void> evalMany(Set<? extends K> keys, Consumer<WriteEntryView<V>> f) {
-      System.out.printf("[W] Invoked evalMany(keys=%s, %s)%n", keys, params);
+      long start = traceStart();
+      return traced(WRITE_ONLY_EVAL_MANY, params, start, writeManyIterator(() -> {
+         List<Map.Entry<K, V>> entries = new ArrayList<>(keys.size());
+         for (K k : keys)
+            entries.add(new SimpleImmutableEntry<>(k, null));
+         return writeMany(entries, (v, view) -> f.accept(view));
+      }));
+   }
+
+   /**
+    * Iterator over the results of multi-key writes. Non-blocking writes are
+    * all applied in the executor, whether the iterator is consumed or not,
+    * and the iterator yields their results once they've all been applied.
+    * Blocking writes are applied as per the traversal mode.
+    */
+   private CloseableIterator<Void> writeManyIterator(Supplier<Stream<Void>> writes) {
       Param<WaitMode> waitMode = params.get(ID);
-      return withWaitIterator(waitMode, () -> keys.stream().map(k -> {
-         f.accept(EntryViews.writeOnly(k, WriteOnlyMapImpl.this));
-         return null;
+      Param<TraversalMode> traversalMode = params.get(TraversalMode.ID);
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      if (waitMode.get() == BLOCKING)
+         return withWaitIterator(waitMode, traversalMode, executor, writes);
+
+      return Iterators.futureIterator(withWaitFuture(waitMode, executor, () -> {
+         try (Stream<Void> results = writes.get()) {
+            return results.collect(Collectors.toList());
+         }
       }));
    }
 
+   /**
+    * Streams the writes of the function for the given entries, one element
+    * per entry. Entries are grouped by the container segment where their
+    * keys are stored, and each group's writes are applied to the container
+    * as a single batch, after which write listeners are notified of them as
+    * a batch too. Groups are written as the stream is consumed, so lazy
+    * traversals only write the groups they reach.
+    */
+   private Stream<Void> writeMany(List<? extends Map.Entry<? extends K, ? extends V>> entries,
+         BiConsumer<V, WriteEntryView<V>> f) {
+      DataContainer<K, V> data = functionalMap.data;
+      SegmentGroups<Map.Entry<? extends K, ? extends V>> groups = SegmentGroups.of(entries, Map.Entry::getKey, data);
+      return groups.segments().boxed().flatMap(s -> {
+         int size = groups.size(s);
+         WriteBatch<K, V> batch = new WriteBatch<>(s, size);
+         EntryViews.BatchWriteViewImpl<K, V> view = EntryViews.writeOnlyBatch(batch, this);
+         try {
+            for (int i = 0; i < size; i++) {
+               Map.Entry<? extends K, ? extends V> e = groups.get(s, i);
+               view.eval(e.getKey(), e.getValue(), f);
+            }
+         } finally {
+            // Writes made before a function failed are applied, as if
+            // they had been applied one at a time
+            data.writeAll(batch);
+            EntryViews.notifyOnWrites(batch, functionalMap.notifier);
+         }
+         return Collections.<Void>nCopies(size, null).stream();
+      });
+   }
+
    @Override
    public CloseableIterator<WriteEntryView<V>> values() {
-      System.out.printf("[W] Invoked values(%s)%n", params);
+      long start = traceStart();
       Param<WaitMode> waitMode = params.get(WaitMode.ID);
-      return withWaitIterator(waitMode, () -> functionalMap.data.entrySet().stream()
+      Param<TraversalMode> traversalMode = params.get(TraversalMode.ID);
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      return traced(WRITE_ONLY_VALUES, params, start, withWaitIterator(waitMode, traversalMode, executor, () -> functionalMap.data.entries()
          .map(e -> EntryViews.writeOnly(e.getKey(), WriteOnlyMapImpl.this))
-      );
+      ));
    }
 
    @Override
    public CompletableFuture<Void> truncate() {
-      System.out.printf("[W] Invoked truncate(%s)%n", params);
-      return CompletableFuture.runAsync(functionalMap.data::clear);
+      long start = traceStart();
+      DataContainer<K, V> data = functionalMap.data;
+      if (data.clearsInConstantTime()) {
+         // Clearing swaps in empty segments, which is cheap, so it's done
+         // straight away and readers see the map empty as soon as this returns
+         data.clear();
+         return traced(WRITE_ONLY_TRUNCATE, null, params, start, CompletableFuture.completedFuture(null));
+      }
+
+      Param<WaitMode> waitMode = params.get(WaitMode.ID);
+      Param<Executor> executor = params.get(AsyncExecutor.ID);
+      return traced(WRITE_ONLY_TRUNCATE, null, params, start, withWaitFuture(waitMode, executor, () -> {
+         data.clear();
+         return null;
+      }));
    }
 
    @Override
@@ -96,7 +176,8 @@ public class WriteOnlyMapImpl<K, V> extends AbstractFunctionalMap<K, V> implemen
       if (params.containsAll(ps))
          return this; // We already have all specified params
 
-      return create(params.addAll(ps), functionalMap);
+      Params derived = params.addAll(ps);
+      return create(derived, functionalMap, functionalMap.own(params, derived));
    }
 
    @Override
@@ -1,26 +1,64 @@
 package org.infinispan.api.v8;
 
+import org.infinispan.api.v8.Closeables.CloseableIterator;
+import org.infinispan.api.v8.Closeables.CloseableSpliterator;
 import org.infinispan.api.v8.EntryVersion.NumericEntryVersion;
 import org.infinispan.api.v8.EntryView.ReadEntryView;
 import org.infinispan.api.v8.EntryView.ReadWriteEntryView;
+import org.infinispan.api.v8.EntryView.WriteEntryView;
 import org.infinispan.api.v8.FunctionalMap.ReadOnlyMap;
 import org.infinispan.api.v8.FunctionalMap.ReadWriteMap;
 import org.infinispan.api.v8.FunctionalMap.WriteOnlyMap;
+import org.infinispan.api.v8.Listeners.WriteListeners.WriteListener;
+import org.infinispan.api.v8.MetaParam.Created;
 import org.infinispan.api.v8.MetaParam.EntryVersionParam;
+import org.infinispan.api.v8.MetaParam.LastUsed;
 import org.infinispan.api.v8.MetaParam.Lifespan;
+import org.infinispan.api.v8.Param.AsyncExecutor;
+import org.infinispan.api.v8.Param.Isolation;
+import org.infinispan.api.v8.Param.Parallelism;
+import org.infinispan.api.v8.Param.TraversalMode;
+import org.infinispan.api.v8.impl.Codecs;
 import org.infinispan.api.v8.impl.FunctionalMapImpl;
+import org.infinispan.api.v8.impl.OperationTracer.Operation;
 import org.infinispan.api.v8.impl.ReadOnlyMapImpl;
 import org.infinispan.api.v8.impl.ReadWriteMapImpl;
+import org.infinispan.api.v8.impl.RingBufferTracer;
+import org.infinispan.api.v8.impl.Storage;
+import org.infinispan.api.v8.impl.Weighers;
 import org.infinispan.api.v8.impl.WriteOnlyMapImpl;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
 
 import static org.infinispan.api.v8.EntryVersion.CompareResult.EQUAL;
+import static org.infinispan.api.v8.Param.Atomicity.PER_KEY;
+import static org.infinispan.api.v8.Param.WaitMode.BLOCKING;
+import static org.infinispan.api.v8.Param.WaitMode.NON_BLOCKING;
 import static org.junit.Assert.*;
 
 /**
@@ -160,6 +198,829 @@ public class FunctionalMapTest {
       );
    }
 
+   /**
+    * Read-write functions evaluated with per-key atomicity do not lose
+    * updates when executed concurrently against the same key.
+    */
+   @Test
+   public void testReadWriteAtomicPerKeyDoesNotLoseUpdates() throws Exception {
+      FunctionalMapImpl<Integer, Integer> functionalMap = FunctionalMapImpl.create();
+      ReadWriteMap<Integer, Integer> rw = ReadWriteMapImpl.create(functionalMap).withParams(PER_KEY);
+      int numThreads = 4;
+      int numIncrements = 2000;
+      ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+      try {
+         List<Future<?>> futures = new ArrayList<>();
+         for (int i = 0; i < numThreads; i++) {
+            futures.add(exec.submit(() -> {
+               for (int j = 0; j < numIncrements; j++)
+                  await(rw.eval(1, view -> view.set(view.find().orElse(0) + 1)));
+            }));
+         }
+         for (Future<?> future : futures)
+            future.get();
+      } finally {
+         exec.shutdownNow();
+      }
+      assertEquals(Integer.valueOf(numThreads * numIncrements), await(rw.eval(1, ReadWriteEntryView::get)));
+   }
+
+   /**
+    * Read-only multi-key evaluation returns results for present keys only,
+    * in the same order the keys were requested, regardless of whether the
+    * lookups are done sequentially or in parallel chunks.
+    */
+   @Test
+   public void testReadOnlyEvalManyReturnsPresentKeysInRequestOrder() {
+      assertEvalManyInRequestOrder(16);
+      assertEvalManyInRequestOrder(20_000);
+   }
+
+   private void assertEvalManyInRequestOrder(int numKeys) {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.<Integer, String>create().withParams(BLOCKING);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap);
+      Set<Integer> keys = new LinkedHashSet<>();
+      List<String> expected = new ArrayList<>();
+      for (int i = numKeys; i > 0; i--) {
+         keys.add(i);
+         if (i % 2 == 0) {
+            await(wo.eval(i, "v" + i, (v, view) -> view.set(v)));
+            expected.add("v" + i);
+         }
+      }
+      List<String> values = ro.evalMany(keys, ReadEntryView::get).collect(ArrayList::new, ArrayList::add, ArrayList::addAll);
+      assertEquals(expected, values);
+   }
+
+   /**
+    * Operations executed against a functional map with a tracer get recorded,
+    * whereas operations executed against the same data without one don't.
+    */
+   @Test
+   public void testRingBufferTracerRecordsOperations() {
+      RingBufferTracer tracer = new RingBufferTracer(2);
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.create();
+      FunctionalMapImpl<Integer, String> tracedMap = functionalMap.withTracer(tracer);
+      await(WriteOnlyMapImpl.create(tracedMap).eval(1, "one", (v, view) -> view.set(v)));
+      await(ReadOnlyMapImpl.create(functionalMap).eval(1, ReadEntryView::get));
+      assertEquals(1, tracer.count());
+
+      await(ReadWriteMapImpl.create(tracedMap).eval(1, ReadWriteEntryView::get));
+      await(ReadOnlyMapImpl.create(tracedMap).eval(2, ReadEntryView::find));
+      assertEquals(3, tracer.count());
+      List<RingBufferTracer.Record> records = tracer.records();
+      assertEquals(2, records.size());
+      assertEquals(Operation.READ_WRITE_EVAL, records.get(0).op());
+      assertEquals(Integer.valueOf(1).hashCode(), records.get(0).keyHash());
+      assertEquals(Operation.READ_ONLY_EVAL, records.get(1).op());
+      assertEquals(Integer.valueOf(2).hashCode(), records.get(1).keyHash());
+   }
+
+   /**
+    * Non-blocking operations run in the executor passed as parameter, which
+    * keeps track of queued and rejected operations.
+    */
+   @Test
+   public void testAsyncExecutorQueueDepthAndRejections() throws Exception {
+      AsyncExecutor executor = AsyncExecutor.bounded(1, 1);
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.<Integer, String>create().withParams(executor);
+      try {
+         ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap);
+         CountDownLatch running = new CountDownLatch(1);
+         CountDownLatch release = new CountDownLatch(1);
+         CompletableFuture<Boolean> blocked = ro.eval(1, view -> {
+            running.countDown();
+            return await(release);
+         });
+         assertTrue(running.await(10, TimeUnit.SECONDS));
+         CompletableFuture<Optional<String>> queued = ro.eval(1, ReadEntryView::find);
+         assertEquals(1, executor.queueDepth());
+         CompletableFuture<Optional<String>> rejected = ro.eval(1, ReadEntryView::find);
+         assertTrue(rejected.isCompletedExceptionally());
+         assertEquals(1, executor.rejections());
+
+         release.countDown();
+         assertTrue(await(blocked));
+         assertEquals(Optional.empty(), await(queued));
+         assertEquals(0, executor.queueDepth());
+      } finally {
+         functionalMap.close();
+      }
+   }
+
+   /**
+    * Non-blocking operations run with a caller-runs executor are completed
+    * by the time they return.
+    */
+   @Test
+   public void testAsyncExecutorCallerRuns() {
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.<Integer, String>create(FunctionalMapImpl.create())
+         .withParams(AsyncExecutor.callerRuns());
+      Thread caller = Thread.currentThread();
+      CompletableFuture<Boolean> cf = ro.eval(1, view -> Thread.currentThread() == caller);
+      assertTrue(cf.isDone());
+      assertTrue(await(cf));
+   }
+
+   /**
+    * Dedicated executors are shut down when the map whose withParams they
+    * were passed to is closed, or when the functional map created with the
+    * data is closed, but not when maps sharing them are closed.
+    */
+   @Test
+   public void testAsyncExecutorOwnership() throws Exception {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.create();
+      AsyncExecutor shared = AsyncExecutor.bounded(1, 16);
+      FunctionalMapImpl<Integer, String> withShared = functionalMap.withParams(shared);
+      FunctionalMapImpl<Integer, String> sibling = withShared.withParams(TraversalMode.LAZY);
+      sibling.close();
+      assertEquals(Status.STOPPED, sibling.getStatus());
+      assertEquals(Status.STARTED, withShared.getStatus());
+      assertEquals(Optional.empty(), await(ReadOnlyMapImpl.create(withShared).eval(1, ReadEntryView::find)));
+
+      AsyncExecutor owned = AsyncExecutor.bounded(1, 16);
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(withShared).withParams(owned);
+      assertEquals(Optional.empty(), await(ro.eval(1, ReadEntryView::find)));
+
+      functionalMap.close();
+      assertEquals(Status.STOPPED, withShared.getStatus());
+      assertTrue(ReadOnlyMapImpl.create(withShared).eval(1, ReadEntryView::find).isCompletedExceptionally());
+      assertTrue(ro.eval(1, ReadEntryView::find).isCompletedExceptionally());
+   }
+
+   /**
+    * Non-blocking multi-key writes are all applied, whether the iterator
+    * returned is consumed, closed or dropped.
+    */
+   @Test
+   public void testNonBlockingEvalManyAppliesAllWrites() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.<Integer, String>create()
+         .withParams(AsyncExecutor.callerRuns());
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap).withParams(BLOCKING);
+      Map<Integer, String> entries = new HashMap<>();
+      for (int i = 0; i < 10_000; i++)
+         entries.put(i, "v" + i);
+
+      // Dropped without being consumed
+      wo.evalMany(entries, (v, view) -> view.set(v));
+      assertEquals(10_000, ro.keys().count());
+
+      wo.evalMany(entries.keySet(), WriteEntryView::remove).close();
+      assertEquals(0, ro.keys().count());
+
+      CloseableIterator<Void> it = wo.evalMany(entries, (v, view) -> view.set(v));
+      int count = 0;
+      while (it.hasNext()) {
+         assertNull(it.next());
+         count++;
+      }
+      assertEquals(10_000, count);
+      assertEquals("v1", ro.eval(1, ReadEntryView::get).join());
+   }
+
+   /**
+    * Non-blocking bulk operations produce their results in the background,
+    * which can be consumed by iterating over them, or by registering
+    * callbacks that are called as results become available.
+    */
+   @Test
+   public void testNonBlockingBulkOperations() {
+      int numEntries = 1000;
+      Map<Integer, String> entries = new HashMap<>();
+      for (int i = 0; i < numEntries; i++)
+         entries.put(i, "v" + i);
+
+      CloseableIterator<Void> writes = writeOnlyMap.evalMany(entries, (v, view) -> view.set(v));
+      int numWrites = 0;
+      while (writes.hasNext()) {
+         assertNull(writes.next());
+         numWrites++;
+      }
+      assertEquals(numEntries, numWrites);
+
+      assertEquals(numEntries, readOnlyMap.keys().count());
+      assertEquals(entries.keySet(), readOnlyMap.keys().collect(HashSet::new, HashSet::add, HashSet::addAll));
+
+      LongAdder length = new LongAdder();
+      await(readOnlyMap.entries().map(ReadEntryView::get).forEachAsync(v -> length.add(v.length())));
+      assertEquals(entries.values().stream().mapToInt(String::length).sum(), length.intValue());
+
+      // Iteration can be stopped and resources released before reaching the end
+      CloseableIterator<ReadEntryView<Integer, String>> it = readOnlyMap.entries().iterator();
+      ReadEntryView<Integer, String> first = it.next();
+      assertEquals("v" + first.key(), first.get());
+      it.close();
+      assertFalse(it.hasNext());
+   }
+
+   /**
+    * Lazy blocking traversals compute results on demand, so short-circuiting
+    * operations stop as soon as they find a result, whereas eager traversals
+    * compute all results up front.
+    */
+   @Test
+   public void testLazyTraversalShortCircuits() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.<Integer, String>create().withParams(BLOCKING);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      Set<Integer> keys = new HashSet<>();
+      for (int i = 0; i < 100; i++) {
+         await(wo.eval(i, "v" + i, (v, view) -> view.set(v)));
+         keys.add(i);
+      }
+
+      LongAdder eagerCalls = new LongAdder();
+      ReadOnlyMap<Integer, String> eager = ReadOnlyMapImpl.create(functionalMap);
+      Traversable<String> eagerValues = eager.evalMany(keys, view -> {
+         eagerCalls.increment();
+         return view.get();
+      });
+      assertEquals(100, eagerCalls.intValue());
+      assertTrue(eagerValues.findAny().isPresent());
+
+      LongAdder lazyCalls = new LongAdder();
+      ReadOnlyMap<Integer, String> lazy = ReadOnlyMapImpl.create(functionalMap).withParams(TraversalMode.LAZY);
+      Traversable<String> lazyValues = lazy.evalMany(keys, view -> {
+         lazyCalls.increment();
+         return view.get();
+      });
+      assertEquals(0, lazyCalls.intValue());
+      assertTrue(lazyValues.findAny().isPresent());
+      assertEquals(1, lazyCalls.intValue());
+   }
+
+   @Test
+   public void testSpliteratorDrivesParallelStream() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.<Integer, String>create().withParams(BLOCKING);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      for (int i = 0; i < 1000; i++)
+         await(wo.eval(i, "v" + i, (v, view) -> view.set(v)));
+
+      for (TraversalMode mode : TraversalMode.values()) {
+         ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap).withParams(mode);
+         try (CloseableSpliterator<Integer> it = ro.keys().spliterator()) {
+            assertEquals(1000, it.estimateSize());
+            assertEquals(499500, StreamSupport.stream(it, true).mapToInt(Integer::intValue).sum());
+         }
+
+         CloseableSpliterator<Integer> it = ro.keys().spliterator();
+         Spliterator<Integer> split = it.trySplit();
+         assertNotNull(split);
+         it.close();
+         assertFalse(it.tryAdvance(k -> fail("Closed spliterator advanced")));
+         assertFalse(split.tryAdvance(k -> fail("Split of closed spliterator advanced")));
+      }
+   }
+
+   @Test
+   public void testParallelTraversalUsesCombiners() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.<Integer, String>create().withParams(BLOCKING);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      for (int i = 0; i < 10_000; i++)
+         await(wo.eval(i, "v" + i, (v, view) -> view.set(v)));
+
+      for (TraversalMode mode : TraversalMode.values()) {
+         ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap).withParams(mode, Parallelism.of(4));
+         Set<String> threads = ConcurrentHashMap.newKeySet();
+         assertEquals(49_995_000, ro.keys().reduce(0, (sum, k) -> {
+            threads.add(Thread.currentThread().getName());
+            return sum + k;
+         }, Integer::sum).intValue());
+         assertTrue(threads.stream().allMatch(t -> t.startsWith("functional-map-parallel-4-")));
+
+         List<Integer> collected = ro.keys().collect(ArrayList::new, List::add, List::addAll);
+         assertEquals(10_000, collected.size());
+         assertEquals(10_000, new HashSet<>(collected).size());
+         assertEquals(10_000, ro.entries().count());
+      }
+   }
+
+   /**
+    * Looking up many keys is sequential, in request order, unless the
+    * parallelism allows otherwise, in which case lookups run in the
+    * parallelism's pool rather than in the JVM-wide common pool.
+    */
+   @Test
+   public void testLargeEvalManyHonoursParallelism() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.<Integer, String>create().withParams(BLOCKING);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      for (int i = 0; i < 10_000; i++)
+         await(wo.eval(i, "v" + i, (v, view) -> view.set(v)));
+
+      Set<Integer> keys = new LinkedHashSet<>();
+      for (int i = 9_999; i >= 0; i--)
+         keys.add(i);
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap).withParams(TraversalMode.LAZY);
+      Thread caller = Thread.currentThread();
+      List<Integer> seen = new ArrayList<>();
+      ro.evalMany(keys, view -> {
+         assertSame(caller, Thread.currentThread());
+         return view.key();
+      }).forEach(seen::add);
+      assertEquals(new ArrayList<>(keys), seen);
+
+      Set<String> threads = ConcurrentHashMap.newKeySet();
+      long count = ro.withParams(Parallelism.of(2)).evalMany(keys, view -> {
+         threads.add(Thread.currentThread().getName());
+         return view.key();
+      }).count();
+      assertEquals(10_000, count);
+      assertTrue(threads.toString(), threads.stream().allMatch(t -> t.startsWith("functional-map-parallel-2-")));
+   }
+
+   @Test
+   public void testNonBlockingEvalManyHonoursParallelism() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.create();
+      ReadWriteMap<Integer, String> rw = ReadWriteMapImpl.create(functionalMap)
+         .withParams(NON_BLOCKING, Parallelism.of(2));
+      Map<Integer, String> entries = new HashMap<>();
+      for (int i = 0; i < 10_000; i++)
+         entries.put(i, "v" + i);
+
+      Set<String> threads = ConcurrentHashMap.newKeySet();
+      long count = rw.evalMany(entries, (v, view) -> {
+         threads.add(Thread.currentThread().getName());
+         view.set(v);
+         return view.key();
+      }).count();
+      assertEquals(10_000, count);
+      assertTrue(threads.toString(), threads.stream().allMatch(t -> t.startsWith("functional-map-parallel-2-")));
+
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap).withParams(BLOCKING);
+      assertEquals("v9999", ro.eval(9_999, ReadEntryView::get).join());
+   }
+
+   /**
+    * Traversals flat map into traversables of any wait mode.
+    */
+   @Test
+   public void testFlatMapAcrossWaitModes() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.create();
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap).withParams(BLOCKING);
+      for (int i = 0; i < 10; i++)
+         await(wo.eval(i, "v" + i, (v, view) -> view.set(v)));
+
+      ReadOnlyMap<Integer, String> blocking = ReadOnlyMapImpl.create(functionalMap).withParams(BLOCKING);
+      ReadOnlyMap<Integer, String> nonBlocking = ReadOnlyMapImpl.create(functionalMap).withParams(NON_BLOCKING);
+      Set<String> expected = new HashSet<>();
+      for (int i = 0; i < 10; i++)
+         expected.add("v" + i);
+
+      assertEquals(expected, blocking.keys()
+         .flatMap(k -> nonBlocking.evalMany(Collections.singleton(k), ReadEntryView::get))
+         .collect(HashSet::new, HashSet::add, HashSet::addAll));
+      assertEquals(expected, nonBlocking.keys()
+         .flatMap(k -> blocking.evalMany(Collections.singleton(k), ReadEntryView::get))
+         .collect(HashSet::new, HashSet::add, HashSet::addAll));
+   }
+
+   @Test
+   public void testOffHeapStorage() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl
+         .create(Storage.offHeap(Codecs.INTEGER, Codecs.STRING)).withParams(BLOCKING);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      ReadWriteMap<Integer, String> rw = ReadWriteMapImpl.create(functionalMap);
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap);
+
+      await(wo.eval(1, "one", (v, view) -> view.set(v, new Lifespan(1000))));
+      assertEquals("one", rw.eval(1, view -> {
+         String prev = view.get();
+         view.set(prev + "!");
+         return prev;
+      }).join());
+      assertEquals("one!", ro.eval(1, ReadEntryView::get).join());
+      assertEquals(Optional.of(new Lifespan(1000)), ro.eval(1, view -> view.findMetaParam(Lifespan.ID)).join());
+      assertEquals(1, ro.entries().count());
+
+      await(wo.eval(1, WriteEntryView::remove));
+      assertEquals(Optional.empty(), ro.eval(1, ReadEntryView::find).join());
+   }
+
+   @Test
+   public void testBoundedStorage() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl
+         .create(Storage.<Integer, String>heap().withMaxEntries(10)).withParams(BLOCKING);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap);
+      for (int i = 0; i < 100; i++)
+         await(wo.eval(i, "v" + i, (v, view) -> view.set(v)));
+
+      assertEquals(10, ro.keys().count());
+   }
+
+   @Test
+   public void testWeightBoundedStorage() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl
+         .create(Storage.<Integer, String>heap().withMaxWeight(100_000, Weighers.footprint())).withParams(BLOCKING);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap);
+      String value = new String(new char[1000]);
+      for (int i = 0; i < 1000; i++)
+         await(wo.eval(i, value, (v, view) -> view.set(v)));
+
+      long weight = functionalMap.weight();
+      assertTrue("Too heavy: " + weight, weight > 50_000 && weight <= 100_000);
+      assertTrue(ro.keys().count() < 100);
+   }
+
+   @Test
+   public void testExpiration() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.<Integer, String>create().withParams(BLOCKING);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap);
+
+      long before = System.currentTimeMillis();
+      await(wo.eval(1, "one", (v, view) -> view.set(v, new Lifespan(TimeUnit.HOURS.toMillis(1)))));
+      await(wo.eval(2, "two", (v, view) -> view.set(v, new Lifespan(0))));
+      long created = ro.eval(1, view -> view.getMetaParam(Created.ID).get()).join();
+      assertTrue(created >= before && created <= System.currentTimeMillis());
+      assertTrue(ro.eval(1, view -> view.findMetaParam(LastUsed.ID)).join().isPresent());
+
+      assertEquals(Optional.empty(), ro.eval(2, ReadEntryView::find).join());
+      assertEquals(1, ro.entries().count());
+   }
+
+   /**
+    * Multi-key read-write operations evaluate functions atomically per key,
+    * in parallel if requested, which allows for conditional bulk updates.
+    */
+   @Test
+   public void testReadWriteEvalManyReplacesIfNewer() throws Exception {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.<Integer, String>create().withParams(BLOCKING);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap);
+      for (int i = 0; i < 1_000; i++)
+         await(wo.eval(i, "v" + i, (v, view) -> view.set(v, new EntryVersionParam<>(new NumericEntryVersion(5)))));
+
+      for (TraversalMode mode : TraversalMode.values()) {
+         ReadWriteMap<Integer, String> rw = ReadWriteMapImpl.create(functionalMap).withParams(mode, Parallelism.of(4));
+         LongAdder modified = new LongAdder();
+         AutoCloseable listener = rw.listeners().onModify((before, after) -> modified.increment());
+         Map<Integer, String> updates = new HashMap<>();
+         for (int i = 0; i < 2_000; i++)
+            updates.put(i, "w" + i);
+         // Even keys get a newer version, odd keys an older one
+         Traversable<Boolean> replaced = rw.evalMany(updates, (v, view) -> {
+            long version = view.key() % 2 == 0 ? 10 : 1;
+            Optional<EntryVersionParam<Long>> current = view.findMetaParam(EntryVersionParam.ID());
+            if (current.isPresent() && current.get().get().compareTo(new NumericEntryVersion(version)) != EntryVersion.CompareResult.BEFORE)
+               return false;
+
+            view.set(v, new EntryVersionParam<>(new NumericEntryVersion(version)));
+            return true;
+         });
+         assertEquals(1_500, replaced.filter(b -> b).count());
+         assertEquals(500, modified.intValue());
+         assertEquals("w0", ro.eval(0, ReadEntryView::get).join());
+         assertEquals("v1", ro.eval(1, ReadEntryView::get).join());
+         assertEquals("w1001", ro.eval(1001, ReadEntryView::get).join());
+         assertEquals(2_000, ro.keys().count());
+         listener.close();
+
+         // Restore original entries for the next traversal mode
+         await(wo.truncate());
+         for (int i = 0; i < 1_000; i++)
+            await(wo.eval(i, "v" + i, (v, view) -> view.set(v, new EntryVersionParam<>(new NumericEntryVersion(5)))));
+      }
+   }
+
+   /**
+    * Read-write entries can be traversed to rewrite or remove them in a
+    * single pass, sequentially or in parallel.
+    */
+   @Test
+   public void testReadWriteEntriesRewritesInPlace() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.<Integer, String>create().withParams(BLOCKING);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap);
+      for (Parallelism parallelism : new Parallelism[]{Parallelism.of(1), Parallelism.of(4)}) {
+         for (int i = 0; i < 1_000; i++)
+            await(wo.eval(i, "v" + i, (v, view) -> view.set(v, new Lifespan(TimeUnit.HOURS.toMillis(1)))));
+
+         ReadWriteMap<Integer, String> rw = ReadWriteMapImpl.create(functionalMap)
+            .withParams(TraversalMode.LAZY, parallelism);
+         LongAdder modified = new LongAdder();
+         LongAdder removed = new LongAdder();
+         AutoCloseable onModify = rw.listeners().onModify((before, after) -> modified.increment());
+         AutoCloseable onRemove = rw.listeners().onRemove(r -> removed.increment());
+         long rewritten = rw.entries().filter(view -> {
+            if (view.key() % 10 == 0) {
+               view.remove();
+               assertFalse(view.find().isPresent());
+               return false;
+            }
+            if (view.key() % 2 == 0)
+               return false;
+
+            view.set(view.get() + "!");
+            assertEquals("v" + view.key() + "!", view.get());
+            return true;
+         }).count();
+
+         assertEquals(500, rewritten);
+         assertEquals(500, modified.intValue());
+         assertEquals(100, removed.intValue());
+         assertEquals(900, ro.keys().count());
+         assertEquals("v1!", ro.eval(1, ReadEntryView::get).join());
+         assertEquals("v2", ro.eval(2, ReadEntryView::get).join());
+         assertFalse(ro.eval(10, ReadEntryView::find).join().isPresent());
+         // Metadata parameters of rewritten entries are kept
+         assertTrue(ro.eval(1, view -> view.findMetaParam(Lifespan.ID)).join().isPresent());
+         close(onModify);
+         close(onRemove);
+         await(wo.truncate());
+      }
+   }
+
+   /**
+    * Truncating swaps in empty segments, so the map is seen empty as soon
+    * as truncate returns, and writes racing with it leave the map usable.
+    */
+   @Test
+   public void testTruncateVisibleImmediately() throws Exception {
+      List<Storage<Integer, String>> storages = new ArrayList<>();
+      storages.add(Storage.heap());
+      storages.add(Storage.<Integer, String>heap().withMaxEntries(5_000));
+      storages.add(Storage.offHeap(Codecs.INTEGER, Codecs.STRING));
+      for (Storage<Integer, String> storage : storages) {
+         FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.create(storage).withParams(BLOCKING);
+         WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+         ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap);
+         for (int i = 0; i < 5_000; i++)
+            wo.eval(i, "v" + i, (v, view) -> view.set(v, new Lifespan(TimeUnit.HOURS.toMillis(1))));
+
+         // Not waiting for the future returned
+         wo.truncate();
+         assertEquals(0, ro.keys().count());
+         assertFalse(ro.eval(1, ReadEntryView::find).join().isPresent());
+
+         ExecutorService executor = Executors.newFixedThreadPool(2);
+         try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+               int offset = t * 10_000;
+               writers.add(executor.submit(() -> {
+                  for (int i = offset; i < offset + 10_000; i++)
+                     wo.eval(i, "v" + i, (v, view) -> view.set(v));
+               }));
+            }
+            for (int i = 0; i < 20; i++)
+               await(wo.truncate());
+            for (Future<?> writer : writers)
+               writer.get();
+         } finally {
+            executor.shutdownNow();
+         }
+
+         // Whatever survived is consistent, and the map can be refilled
+         ro.entries().forEach(view -> assertEquals("v" + view.key(), view.get()));
+         await(wo.truncate());
+         assertEquals(0, ro.keys().count());
+         for (int i = 0; i < 1_000; i++)
+            wo.eval(i, "w" + i, (v, view) -> view.set(v));
+         assertEquals(1_000, ro.keys().count());
+         assertEquals("w1", ro.eval(1, ReadEntryView::get).join());
+      }
+   }
+
+   /**
+    * With snapshot isolation, traversals read the entries as they were
+    * when the traversal started, whatever the storage.
+    */
+   @Test
+   public void testSnapshotTraversalIgnoresLaterWrites() {
+      List<Storage<Integer, String>> storages = new ArrayList<>();
+      storages.add(Storage.heap());
+      storages.add(Storage.offHeap(Codecs.INTEGER, Codecs.STRING));
+      for (Storage<Integer, String> storage : storages) {
+         FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.create(storage).withParams(BLOCKING);
+         WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+         for (int i = 0; i < 1_000; i++)
+            wo.eval(i, "v" + i, (v, view) -> view.set(v));
+
+         ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap)
+            .withParams(TraversalMode.LAZY, Isolation.SNAPSHOT);
+         Traversable<ReadEntryView<Integer, String>> entries = ro.entries();
+         Traversable<Integer> keys = ro.keys();
+         Map<Integer, String> updates = new HashMap<>();
+         for (int i = 0; i < 1_000; i++)
+            updates.put(i, "w" + i);
+         wo.evalMany(updates, (v, view) -> view.set(v)).forEachRemaining(Assert::assertNull);
+         wo.evalMany(new HashSet<>(Arrays.asList(1, 2, 3)), WriteEntryView::remove).forEachRemaining(Assert::assertNull);
+         wo.eval(1_000, "v1000", (v, view) -> view.set(v));
+
+         assertEquals(1_000, entries.filter(view -> view.get().equals("v" + view.key())).count());
+         assertEquals(1_000, keys.count());
+         // Traversals started afterwards see the writes
+         assertEquals(997, ro.entries().filter(view -> view.get().startsWith("w")).count());
+         assertEquals(998, ReadOnlyMapImpl.create(functionalMap).keys().count());
+      }
+   }
+
+   /**
+    * Compare-and-set writes only succeed if the entry has the expected
+    * version, and assign it a new version that's never been used before,
+    * even if the entry is removed and created again.
+    */
+   @Test
+   public void testVersionedCompareAndSet() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.create(Storage.<Integer, String>heap()).withParams(BLOCKING);
+      ReadWriteMap<Integer, String> rw = ReadWriteMapImpl.create(functionalMap);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+
+      assertFalse(rw.eval(1, "v1", (v, view) -> view.compareAndSet(new NumericEntryVersion(1), v)).join());
+      assertTrue(rw.eval(1, "v1", (v, view) -> view.compareAndSet(null, v)).join());
+      assertFalse(rw.eval(1, "v2", (v, view) -> view.compareAndSet(null, v)).join());
+      EntryVersion<Long> first = rw.eval(1, FunctionalMapTest::version).join();
+      assertTrue(rw.eval(1, "v2", (v, view) -> view.compareAndSet(first, v)).join());
+      assertFalse(rw.eval(1, "v3", (v, view) -> view.compareAndSet(first, v)).join());
+      assertEquals("v2", rw.eval(1, ReadEntryView::get).join());
+
+      // Removed and created again, the entry gets a version it never had
+      EntryVersion<Long> second = rw.eval(1, FunctionalMapTest::version).join();
+      await(wo.eval(1, WriteEntryView::remove));
+      assertTrue(rw.eval(1, "v3", (v, view) -> view.compareAndSet(null, v)).join());
+      assertFalse(rw.eval(1, "v4", (v, view) -> view.compareAndSet(second, v)).join());
+      EntryVersion<Long> third = rw.eval(1, FunctionalMapTest::version).join();
+      assertEquals(EntryVersion.CompareResult.AFTER, third.compareTo(second));
+
+      // Write-only views compare and set too, also within batches
+      Map<Integer, String> updates = new HashMap<>();
+      for (int i = 1; i <= 10; i++)
+         updates.put(i, "w" + i);
+      wo.evalMany(updates, (v, view) -> view.compareAndSet(null, v)).forEachRemaining(Assert::assertNull);
+      assertEquals("v3", rw.eval(1, ReadEntryView::get).join());
+      for (int i = 2; i <= 10; i++)
+         assertEquals("w" + i, rw.eval(i, ReadEntryView::get).join());
+      await(wo.eval(1, "w1", (v, view) -> view.compareAndSet(third, v)));
+      assertEquals("w1", rw.eval(1, ReadEntryView::get).join());
+
+      // Traversed and atomic read-write views
+      rw.entries().forEach(view -> assertTrue(view.compareAndSet(version(view), view.get() + "!")));
+      rw.withParams(PER_KEY).eval(2, view -> view.compareAndSet(version(view), "x")).join();
+      assertEquals("x", rw.eval(2, ReadEntryView::get).join());
+      assertEquals("w3!", rw.eval(3, ReadEntryView::get).join());
+   }
+
+   /**
+    * Writes other than compare-and-set replace the entry's version, so a
+    * compare-and-set holding the version read before them fails, whichever
+    * read-write view writes, and write-only writes drop the version.
+    */
+   @Test
+   public void testPlainWritesInvalidateVersions() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.create(Storage.<Integer, String>heap()).withParams(BLOCKING);
+      ReadWriteMap<Integer, String> rw = ReadWriteMapImpl.create(functionalMap);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+
+      List<Consumer<String>> writes = Arrays.asList(
+         value -> rw.eval(1, value, (v, view) -> view.set(v)).join(),
+         value -> rw.withParams(PER_KEY).eval(1, value, (v, view) -> view.set(v)).join(),
+         value -> rw.entries().forEach(view -> view.set(value)));
+      for (Consumer<String> write : writes) {
+         await(wo.eval(1, WriteEntryView::remove));
+         assertTrue(rw.eval(1, "a", (v, view) -> view.compareAndSet(null, v)).join());
+         EntryVersion<Long> read = rw.eval(1, FunctionalMapTest::version).join();
+         write.accept("b");
+         assertFalse(rw.eval(1, "c", (v, view) -> view.compareAndSet(read, v)).join());
+         assertEquals("b", rw.eval(1, ReadEntryView::get).join());
+         EntryVersion<Long> written = rw.eval(1, FunctionalMapTest::version).join();
+         assertTrue(rw.eval(1, "c", (v, view) -> view.compareAndSet(written, v)).join());
+      }
+
+      EntryVersion<Long> read = rw.eval(1, FunctionalMapTest::version).join();
+      await(wo.eval(1, "d", (v, view) -> view.set(v)));
+      assertFalse(rw.eval(1, "e", (v, view) -> view.compareAndSet(read, v)).join());
+      assertEquals(Optional.empty(), rw.eval(1, view -> view.findMetaParam(EntryVersionParam.ID())).join());
+   }
+
+   /**
+    * With automatic versioning, every write assigns the entry a new version,
+    * so that concurrent compare-and-set updates don't lose any of them.
+    */
+   @Test
+   public void testAutoVersioningNoLostUpdates() throws Exception {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.create(Storage.<Integer, String>heap())
+         .withParams(BLOCKING, Param.Versioning.AUTO);
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap);
+      ReadWriteMap<Integer, String> rw = ReadWriteMapImpl.create(functionalMap);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      Set<EntryVersion<Long>> versions = new HashSet<>();
+      for (int i = 0; i < 100; i++) {
+         await(wo.eval(i, "0", (v, view) -> view.set(v, new EntryVersionParam<>(new NumericEntryVersion(1)))));
+         assertTrue(versions.add(rw.eval(i, FunctionalMapTest::version).join()));
+      }
+
+      int threads = 4;
+      int increments = 1_000;
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+         List<Future<?>> writers = new ArrayList<>();
+         for (int t = 0; t < threads; t++) {
+            writers.add(executor.submit(() -> {
+               for (int i = 0; i < increments; i++) {
+                  int key = i % 10;
+                  while (true) {
+                     // Read-only views read the entry once, so value and
+                     // version are read together
+                     Map.Entry<String, EntryVersion<Long>> read = ro.eval(key,
+                        view -> new SimpleImmutableEntry<>(view.get(), version(view))).join();
+                     String next = String.valueOf(Integer.parseInt(read.getKey()) + 1);
+                     if (rw.eval(key, next, (v, view) -> view.compareAndSet(read.getValue(), v)).join())
+                        break;
+                  }
+               }
+            }));
+         }
+         for (Future<?> writer : writers)
+            writer.get();
+      } finally {
+         executor.shutdownNow();
+      }
+
+      int total = 0;
+      for (int i = 0; i < 10; i++)
+         total += Integer.parseInt(rw.eval(i, ReadEntryView::get).join());
+      assertEquals(threads * increments, total);
+   }
+
+   private static EntryVersion<Long> version(ReadEntryView<?, ?> view) {
+      return view.<EntryVersionParam<Long>>findMetaParam(EntryVersionParam.ID()).get().get();
+   }
+
+   private static void close(AutoCloseable closeable) {
+      try {
+         closeable.close();
+      } catch (Exception e) {
+         throw new Error(e);
+      }
+   }
+
+   /**
+    * Multi-key write-only operations apply writes in batches, one per
+    * container segment, and notify write listeners of each batch at once.
+    */
+   @Test
+   public void testWriteOnlyEvalManyWritesInBatches() throws Exception {
+      List<Storage<Integer, String>> storages = new ArrayList<>();
+      storages.add(Storage.heap());
+      storages.add(Storage.offHeap(Codecs.INTEGER, Codecs.STRING));
+      for (Storage<Integer, String> storage : storages) {
+         FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.create(storage).withParams(BLOCKING);
+         WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+         ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap);
+         List<Integer> batchSizes = new ArrayList<>();
+         Set<Integer> written = new HashSet<>();
+         Set<Integer> removed = new HashSet<>();
+         AutoCloseable listener = wo.listeners().add(new WriteListener<Integer, String>() {
+            @Override
+            public void onWrite(ReadEntryView<Integer, String> write) {
+               fail("Expected batch notification");
+            }
+
+            @Override
+            public void onWrites(List<ReadEntryView<Integer, String>> writes) {
+               batchSizes.add(writes.size());
+               writes.forEach(w -> (w.find().isPresent() ? written : removed).add(w.key()));
+            }
+         });
+
+         Map<Integer, String> entries = new HashMap<>();
+         for (int i = 0; i < 5_000; i++)
+            entries.put(i, "v" + i);
+         CloseableIterator<Void> writes = wo.evalMany(entries, (v, view) -> {
+            if (!v.endsWith("7"))
+               view.set(v, new Lifespan(TimeUnit.HOURS.toMillis(1)));
+         });
+         writes.forEachRemaining(Assert::assertNull);
+
+         assertEquals(4_500, ro.keys().count());
+         assertEquals("v42", ro.eval(42, ReadEntryView::get).join());
+         assertTrue(ro.eval(42, view -> view.findMetaParam(Lifespan.ID)).join().isPresent());
+         assertFalse(ro.eval(47, ReadEntryView::find).join().isPresent());
+         assertEquals(4_500, written.size());
+         assertTrue(batchSizes.size() > 1 && batchSizes.size() < 4_500);
+
+         Set<Integer> keys = new HashSet<>();
+         for (int i = 0; i < 1_000; i++)
+            keys.add(i);
+         wo.evalMany(keys, WriteEntryView::remove).forEachRemaining(Assert::assertNull);
+         assertEquals(3_600, ro.keys().count());
+         assertEquals(keys, removed);
+
+         listener.close();
+      }
+   }
+
+   private static boolean await(CountDownLatch latch) {
+      try {
+         return latch.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+         throw new Error(e);
+      }
+   }
+
    @Test
    public void testAutoClose() throws Exception {
       try(ReadOnlyMap<?, ?> ro = ReadOnlyMapImpl.create(FunctionalMapImpl.create())) {
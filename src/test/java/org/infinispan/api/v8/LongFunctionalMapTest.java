@@ -0,0 +1,186 @@
+package org.infinispan.api.v8;
+
+import org.infinispan.api.v8.LongEntryView.ReadEntryView;
+import org.infinispan.api.v8.LongEntryView.ReadWriteEntryView;
+import org.infinispan.api.v8.LongEntryView.WriteEntryView;
+import org.infinispan.api.v8.LongFunctionalMap.ReadOnlyMap;
+import org.infinispan.api.v8.LongFunctionalMap.ReadWriteMap;
+import org.infinispan.api.v8.LongFunctionalMap.WriteOnlyMap;
+import org.infinispan.api.v8.impl.LongFunctionalMapImpl;
+import org.infinispan.api.v8.impl.LongReadOnlyMapImpl;
+import org.infinispan.api.v8.impl.LongReadWriteMapImpl;
+import org.infinispan.api.v8.impl.LongWriteOnlyMapImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for functional maps specialized for primitive long keys and
+ * values.
+ */
+public class LongFunctionalMapTest {
+
+   LongFunctionalMapImpl functionalMap;
+   ReadOnlyMap ro;
+   WriteOnlyMap wo;
+   ReadWriteMap rw;
+
+   @Before
+   public void setUp() {
+      functionalMap = LongFunctionalMapImpl.create(4);
+      ro = LongReadOnlyMapImpl.create(functionalMap);
+      wo = LongWriteOnlyMapImpl.create(functionalMap);
+      rw = LongReadWriteMapImpl.create(functionalMap);
+   }
+
+   @Test
+   public void testWriteReadRemove() {
+      assertEquals(-1, ro.eval(1, v -> v.orElse(-1)));
+      wo.eval(1, 100, (view, v) -> view.set(v));
+      assertEquals(100, ro.eval(1, ReadEntryView::get));
+      assertEquals(1, functionalMap.size());
+
+      wo.eval(1, WriteEntryView::remove);
+      assertEquals(-1, ro.eval(1, v -> v.orElse(-1)));
+      assertEquals(0, functionalMap.size());
+      try {
+         ro.eval(1, ReadEntryView::get);
+         fail("Expected NoSuchElementException");
+      } catch (NoSuchElementException e) {
+         // Expected
+      }
+   }
+
+   @Test
+   public void testZeroKeyAndValue() {
+      wo.eval(0, 0, (view, v) -> view.set(v));
+      assertEquals(1, ro.eval(0, v -> v.isPresent() ? 1 : 0));
+      assertEquals(0, ro.eval(0, ReadEntryView::get));
+      assertEquals(0, ro.eval(0, ReadEntryView::key));
+      assertArrayEquals(new long[]{0}, ro.keys().toArray());
+
+      assertEquals(0, rw.eval(0, view -> {
+         long prev = view.get();
+         view.remove();
+         return prev;
+      }));
+      assertEquals(0, ro.keys().count());
+   }
+
+   @Test
+   public void testReadWriteSeesOwnWrites() {
+      assertEquals(5, rw.eval(7, 5, (v, view) -> {
+         view.set(v);
+         return view.get();
+      }));
+      assertEquals(6, rw.eval(7, view -> {
+         view.set(view.get() + 1);
+         return view.get();
+      }));
+      assertEquals(6, ro.eval(7, ReadEntryView::get));
+   }
+
+   @Test
+   public void testWritesDiscardedWhenFunctionFails() {
+      wo.eval(1, 10, (view, v) -> view.set(v));
+      try {
+         rw.eval(1, view -> {
+            view.set(20);
+            throw new IllegalArgumentException();
+         });
+         fail("Expected IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+         // Expected
+      }
+      assertEquals(10, ro.eval(1, ReadEntryView::get));
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void testReadOnlyViewRejectsWrites() {
+      ro.eval(1, view -> {
+         ((ReadWriteEntryView) view).set(1);
+         return 0;
+      });
+   }
+
+   @Test
+   public void testNestedEvaluationsUseSeparateViews() {
+      wo.eval(1, 10, (view, v) -> view.set(v));
+      wo.eval(2, 20, (view, v) -> view.set(v));
+      assertEquals(30, ro.eval(1, outer -> outer.get() + ro.eval(2, ReadEntryView::get) + outer.key() - 1));
+   }
+
+   @Test
+   public void testMatchesHashMap() {
+      Map<Long, Long> expected = new HashMap<>();
+      Random random = new Random(42);
+      for (int i = 0; i < 200_000; i++) {
+         long key = random.nextInt(5_000) - 100;
+         long value = random.nextLong();
+         switch (random.nextInt(4)) {
+            case 0:
+               wo.eval(key, WriteEntryView::remove);
+               expected.remove(key);
+               break;
+            case 1:
+               rw.eval(key, value, (v, view) -> {
+                  view.set(view.orElse(0) + v);
+                  return 0;
+               });
+               expected.merge(key, value, Long::sum);
+               break;
+            default:
+               wo.eval(key, value, (view, v) -> view.set(v));
+               expected.put(key, value);
+         }
+      }
+
+      assertEquals(expected.size(), functionalMap.size());
+      expected.forEach((k, v) -> assertEquals(v.longValue(), ro.eval(k, ReadEntryView::get)));
+      assertEquals(expected.keySet().stream().mapToLong(Long::longValue).sorted().boxed().collect(Collectors.toList()),
+         ro.keys().sorted().boxed().collect(Collectors.toList()));
+
+      wo.truncate();
+      assertEquals(0, functionalMap.size());
+      assertEquals(0, ro.keys().count());
+   }
+
+   @Test
+   public void testConcurrentIncrements() throws Exception {
+      int numThreads = 8;
+      int numIncrements = 20_000;
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+      try {
+         List<Future<?>> futures = new ArrayList<>();
+         for (int t = 0; t < numThreads; t++) {
+            futures.add(executor.submit(() -> {
+               for (int i = 0; i < numIncrements; i++)
+                  rw.eval(i % 100, 1, (v, view) -> {
+                     view.set(view.orElse(0) + v);
+                     return 0;
+                  });
+            }));
+         }
+         for (Future<?> future : futures)
+            future.get();
+      } finally {
+         executor.shutdownNow();
+      }
+
+      for (long key = 0; key < 100; key++)
+         assertEquals(numThreads * numIncrements / 100, ro.eval(key, ReadEntryView::get));
+   }
+
+}
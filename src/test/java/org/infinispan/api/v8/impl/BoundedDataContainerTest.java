@@ -0,0 +1,157 @@
+package org.infinispan.api.v8.impl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for bounded data container.
+ */
+public class BoundedDataContainerTest {
+
+   @Test
+   public void testNumberOfEntriesBounded() {
+      BoundedDataContainer<Integer, String> data = BoundedDataContainer.wrap(SegmentedDataContainer.create(4), 100);
+      for (int i = 0; i < 10_000; i++)
+         data.put(i, InternalEntry.of("v" + i, MetaParams.empty()));
+
+      assertEquals(100, data.size());
+      assertEquals(9_900, data.evictions());
+      data.entries().forEach(e -> assertEquals("v" + e.getKey(), e.getValue().value()));
+   }
+
+   @Test
+   public void testFrequentlyReadEntriesSurviveScan() {
+      BoundedDataContainer<Integer, String> data = BoundedDataContainer.wrap(SegmentedDataContainer.create(4), 100);
+      for (int i = 0; i < 50; i++)
+         data.put(i, InternalEntry.of("hot" + i, MetaParams.empty()));
+      for (int round = 0; round < 5; round++) {
+         for (int i = 0; i < 50; i++)
+            assertNotNull(data.get(i));
+      }
+
+      // A scan of keys read once would evict all entries with LRU
+      for (int i = 1000; i < 1500; i++)
+         data.put(i, InternalEntry.of("cold" + i, MetaParams.empty()));
+
+      assertEquals(100, data.size());
+      for (int i = 0; i < 50; i++)
+         assertEquals("hot" + i, data.get(i).value());
+   }
+
+   @Test
+   public void testRemovalsAndRewritesTracked() {
+      BoundedDataContainer<Integer, String> data = BoundedDataContainer.wrap(SegmentedDataContainer.create(4), 10);
+      for (int i = 0; i < 10; i++)
+         data.put(i, InternalEntry.of("v" + i, MetaParams.empty()));
+      for (int i = 0; i < 10; i++)
+         data.put(i, InternalEntry.of("w" + i, MetaParams.empty()));
+      assertEquals(0, data.evictions());
+
+      assertEquals("w0", data.remove(0).value());
+      assertNull(data.compute(1, (k, prev) -> null));
+      data.put(10, InternalEntry.of("v10", MetaParams.empty()));
+      data.put(11, InternalEntry.of("v11", MetaParams.empty()));
+      assertEquals(10, data.size());
+      assertEquals(0, data.evictions());
+
+      data.clear();
+      assertTrue(data.isEmpty());
+      for (int i = 0; i < 10; i++)
+         data.put(i, InternalEntry.of("v" + i, MetaParams.empty()));
+      assertEquals(10, data.size());
+      assertEquals(0, data.evictions());
+   }
+
+   @Test
+   public void testConcurrentAccessStaysBounded() throws Exception {
+      BoundedDataContainer<Integer, String> data = BoundedDataContainer.wrap(SegmentedDataContainer.create(16), 1000);
+      int numThreads = 8;
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+      try {
+         List<Future<?>> futures = new ArrayList<>();
+         for (int t = 0; t < numThreads; t++) {
+            futures.add(executor.submit(() -> {
+               ThreadLocalRandom random = ThreadLocalRandom.current();
+               for (int i = 0; i < 50_000; i++) {
+                  int key = random.nextInt(10_000);
+                  if (data.get(key) == null)
+                     data.put(key, InternalEntry.of("v" + key, MetaParams.empty()));
+                  else if (i % 10 == 0)
+                     data.remove(key);
+               }
+            }));
+         }
+         for (Future<?> future : futures)
+            future.get();
+      } finally {
+         executor.shutdownNow();
+      }
+
+      assertTrue("Too many entries: " + data.size(), data.size() <= 1000);
+      assertTrue(data.evictions() > 0);
+   }
+
+   @Test
+   public void testWeightBounded() {
+      Weigher<Integer, byte[]> weigher = (k, v) -> v.length;
+      long overhead = InternalEntry.of(new byte[0], MetaParams.empty()).overhead();
+      long maxWeight = 100 * (1000 + overhead);
+      BoundedDataContainer<Integer, byte[]> data =
+         BoundedDataContainer.wrap(SegmentedDataContainer.create(4), maxWeight, weigher);
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      for (int i = 0; i < 10_000; i++) {
+         data.put(i, InternalEntry.of(new byte[random.nextInt(2000)], MetaParams.empty()));
+         assertTrue("Too heavy: " + data.weight(), data.weight() <= maxWeight);
+      }
+
+      long expected = data.entries().mapToLong(e -> e.getValue().value().length + overhead).sum();
+      assertEquals(expected, data.weight());
+      long segmentWeights = 0;
+      for (int i = 0; i < data.segmentCount(); i++)
+         segmentWeights += data.segmentWeight(i);
+      assertEquals(expected, segmentWeights);
+      assertTrue(data.evictions() > 0);
+   }
+
+   @Test
+   public void testRewritesReweighed() {
+      Weigher<Integer, byte[]> weigher = (k, v) -> v.length;
+      long overhead = InternalEntry.of(new byte[0], MetaParams.empty()).overhead();
+      BoundedDataContainer<Integer, byte[]> data =
+         BoundedDataContainer.wrap(SegmentedDataContainer.create(4), 10 * (100 + overhead), weigher);
+      for (int i = 0; i < 10; i++)
+         data.put(i, InternalEntry.of(new byte[100], MetaParams.empty()));
+      assertEquals(10 * (100 + overhead), data.weight());
+      assertEquals(0, data.evictions());
+
+      data.put(0, InternalEntry.of(new byte[10], MetaParams.empty()));
+      assertEquals(10 * (100 + overhead) - 90, data.weight());
+      data.put(1, InternalEntry.of(new byte[500], MetaParams.empty()));
+      assertTrue(data.evictions() > 0);
+      assertTrue(data.weight() <= 10 * (100 + overhead));
+
+      data.remove(1);
+      data.clear();
+      assertEquals(0, data.weight());
+   }
+
+   @Test
+   public void testEntryHeavierThanBoundEvicted() {
+      BoundedDataContainer<Integer, byte[]> data =
+         BoundedDataContainer.wrap(SegmentedDataContainer.create(4), 10_000, (k, v) -> v.length);
+      data.put(1, InternalEntry.of(new byte[100], MetaParams.empty()));
+      data.put(2, InternalEntry.of(new byte[20_000], MetaParams.empty()));
+      assertNull(data.get(2));
+      assertNotNull(data.get(1));
+      assertEquals(1, data.evictions());
+   }
+
+}
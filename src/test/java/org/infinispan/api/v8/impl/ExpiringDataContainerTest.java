@@ -0,0 +1,232 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.MetaParam.Created;
+import org.infinispan.api.v8.MetaParam.LastUsed;
+import org.infinispan.api.v8.MetaParam.Lifespan;
+import org.infinispan.api.v8.MetaParam.MaxIdle;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for expiring data container.
+ */
+public class ExpiringDataContainerTest {
+
+   final AtomicLong clock = new AtomicLong(1_000_000);
+
+   @Test
+   public void testLifespanExpiresOnLookup() {
+      ExpiringDataContainer<Integer, String> data = create(SegmentedDataContainer.create(4));
+      data.put(1, InternalEntry.of("one", MetaParams.of(new Lifespan(1000))));
+      data.put(2, InternalEntry.of("two", MetaParams.empty()));
+      assertEquals(1_000_000, data.get(1).getMetaParam(Created.ID).get().longValue());
+
+      clock.addAndGet(999);
+      assertEquals("one", data.get(1).value());
+      assertEquals(1_000_999, data.get(1).getMetaParam(LastUsed.ID).get().longValue());
+      assertEquals(1_000_000, data.get(1).getMetaParam(Created.ID).get().longValue());
+
+      clock.addAndGet(1);
+      assertEquals(1, data.entries().count());
+      assertNull(data.get(1));
+      assertEquals(1, data.size());
+      assertNull(data.compute(1, (k, prev) -> prev));
+      assertEquals("two", data.get(2).value());
+      assertEquals(0, data.scheduled());
+   }
+
+   @Test
+   public void testMaxIdleExtendedByReads() {
+      ExpiringDataContainer<Integer, String> data = create(SegmentedDataContainer.create(4));
+      data.put(1, InternalEntry.of("one", MetaParams.of(new MaxIdle(5000))));
+      for (int i = 0; i < 10; i++) {
+         clock.addAndGet(4000);
+         data.reap();
+         assertEquals("one", data.get(1).value());
+      }
+
+      clock.addAndGet(5000 + ExpiringDataContainer.REAP_INTERVAL_MILLIS);
+      data.reap();
+      assertEquals(0, data.size());
+      assertEquals(0, data.scheduled());
+   }
+
+   @Test
+   public void testReaperRemovesOnlyDueEntries() {
+      SegmentedDataContainer<Integer, String> stored = SegmentedDataContainer.create(16);
+      ExpiringDataContainer<Integer, String> data = create(stored);
+      long start = clock.get();
+      int numEntries = 100_000;
+      long maxLifespan = TimeUnit.HOURS.toMillis(3);
+      for (int i = 0; i < numEntries; i++) {
+         MetaParams metas = i % 4 == 0 ? MetaParams.empty() : MetaParams.of(new Lifespan(lifespan(i, maxLifespan)));
+         data.put(i, InternalEntry.of("v" + i, metas));
+      }
+      assertEquals(numEntries / 4 * 3, data.scheduled());
+
+      long step = TimeUnit.MINUTES.toMillis(7);
+      for (long now = start + step; now < start + maxLifespan + step; now += step) {
+         clock.set(now);
+         data.reap();
+         long elapsed = now - start;
+         for (int i = 1; i < numEntries; i += 97) {
+            long lifespan = lifespan(i, maxLifespan);
+            boolean present = stored.get(i) != null;
+            if (i % 4 == 0 || lifespan > elapsed)
+               assertTrue("Entry " + i + " removed early", present);
+            else if (lifespan <= elapsed - TimerWheel.SPANS[0])
+               assertFalse("Entry " + i + " not removed", present);
+         }
+      }
+      assertEquals(numEntries / 4, data.size());
+      assertEquals(0, data.scheduled());
+   }
+
+   @Test
+   public void testRewritesAndRemovalsCancelTimers() {
+      ExpiringDataContainer<Integer, String> data = create(SegmentedDataContainer.create(4));
+      data.put(1, InternalEntry.of("one", MetaParams.of(new Lifespan(1000))));
+      data.put(2, InternalEntry.of("two", MetaParams.of(new Lifespan(1000))));
+      assertEquals(2, data.scheduled());
+
+      data.put(1, InternalEntry.of("uno", MetaParams.empty()));
+      data.remove(2);
+      assertEquals(0, data.scheduled());
+
+      clock.addAndGet(10_000);
+      data.reap();
+      assertEquals("uno", data.get(1).value());
+   }
+
+   @Test
+   public void testConcurrentRewritesKeepNewestTimer() {
+      AtomicReference<Runnable> interleaved = new AtomicReference<>();
+      ExpiringDataContainer<Integer, String> data = create(new Interleaving<>(SegmentedDataContainer.create(4), interleaved));
+      data.put(1, InternalEntry.of("one", MetaParams.of(new Lifespan(1000))));
+
+      // Another write lands as soon as the entry is stored, as if concurrent
+      interleaved.set(() -> data.put(1, InternalEntry.of("tres", MetaParams.of(new Lifespan(1000)))));
+      data.put(1, InternalEntry.of("dos", MetaParams.empty()));
+      assertEquals(1, data.scheduled());
+
+      clock.addAndGet(10_000);
+      data.reap();
+      assertEquals(0, data.size());
+   }
+
+   @Test
+   public void testOffHeapEntriesExpire() {
+      ExpiringDataContainer<Integer, String> data = create(OffHeapDataContainer.create(Codecs.INTEGER, Codecs.STRING, 4));
+      data.put(1, InternalEntry.of("one", MetaParams.of(new MaxIdle(5000))));
+      data.put(2, InternalEntry.of("two", MetaParams.of(new Lifespan(5000))));
+
+      clock.addAndGet(4000);
+      assertEquals("one", data.get(1).value());
+      assertEquals(1_004_000, data.get(1).getMetaParam(LastUsed.ID).get().longValue());
+      assertEquals(1_000_000, data.get(2).getMetaParam(Created.ID).get().longValue());
+
+      clock.addAndGet(4000);
+      assertEquals("one", data.get(1).value());
+      assertNull(data.get(2));
+      assertEquals(1, data.size());
+   }
+
+   private ExpiringDataContainer<Integer, String> create(DataContainer<Integer, String> data) {
+      return new ExpiringDataContainer<>(data, clock::get);
+   }
+
+   private static long lifespan(int i, long maxLifespan) {
+      return (i * 7919L) % maxLifespan;
+   }
+
+   /**
+    * Container that runs a pending action, once, right after a key is
+    * written, to interleave writes deterministically.
+    */
+   private static final class Interleaving<K, V> implements DataContainer<K, V> {
+      final DataContainer<K, V> data;
+      final AtomicReference<Runnable> pending;
+
+      Interleaving(DataContainer<K, V> data, AtomicReference<Runnable> pending) {
+         this.data = data;
+         this.pending = pending;
+      }
+
+      private <T> T interleave(T result) {
+         Runnable action = pending.getAndSet(null);
+         if (action != null)
+            action.run();
+         return result;
+      }
+
+      @Override
+      public InternalEntry<V> get(K key) {
+         return data.get(key);
+      }
+
+      @Override
+      public InternalEntry<V> put(K key, InternalEntry<V> entry) {
+         return interleave(data.put(key, entry));
+      }
+
+      @Override
+      public InternalEntry<V> remove(K key) {
+         return interleave(data.remove(key));
+      }
+
+      @Override
+      public InternalEntry<V> compute(K key,
+            BiFunction<? super K, ? super InternalEntry<V>, ? extends InternalEntry<V>> f) {
+         return interleave(data.compute(key, f));
+      }
+
+      @Override
+      public int size() {
+         return data.size();
+      }
+
+      @Override
+      public boolean isEmpty() {
+         return data.isEmpty();
+      }
+
+      @Override
+      public void clear() {
+         data.clear();
+      }
+
+      @Override
+      public Stream<K> keys() {
+         return data.keys();
+      }
+
+      @Override
+      public Stream<Map.Entry<K, InternalEntry<V>>> entries() {
+         return data.entries();
+      }
+
+      @Override
+      public int segmentCount() {
+         return data.segmentCount();
+      }
+
+      @Override
+      public int segmentOf(K key) {
+         return data.segmentOf(key);
+      }
+
+      @Override
+      public Segment<K, V> segment(int index) {
+         return data.segment(index);
+      }
+   }
+
+}
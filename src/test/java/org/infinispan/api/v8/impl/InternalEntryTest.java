@@ -0,0 +1,120 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.EntryVersion.NumericEntryVersion;
+import org.infinispan.api.v8.MetaParam;
+import org.infinispan.api.v8.MetaParam.Created;
+import org.infinispan.api.v8.MetaParam.EntryVersionParam;
+import org.infinispan.api.v8.MetaParam.Lifespan;
+import org.infinispan.api.v8.MetaParam.MaxIdle;
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for internal entries, checking that entries look the same
+ * whatever the class picked for their metadata parameters.
+ */
+public class InternalEntryTest {
+
+   @Test
+   public void testValueOnly() {
+      InternalEntry<String> entry = InternalEntry.of("v", MetaParams.empty());
+      assertEquals("v", entry.value());
+      assertTrue(entry.metaParams().isEmpty());
+      assertEquals(Optional.empty(), entry.findMetaParam(Lifespan.ID));
+      assertEquals(Long.MAX_VALUE, entry.stamp(1000).expiresAt());
+      assertEquals(new Created(1000), entry.getMetaParam(Created.ID));
+      assertEquals(InternalEntry.of("v", MetaParams.empty()), entry);
+   }
+
+   @Test
+   public void testExpiring() {
+      InternalEntry<String> lifespan = InternalEntry.of("v", MetaParams.of(new Lifespan(100))).stamp(1000);
+      assertEquals(new Lifespan(100), lifespan.getMetaParam(Lifespan.ID));
+      assertEquals(Optional.empty(), lifespan.findMetaParam(MaxIdle.ID));
+      assertEquals(1100, lifespan.expiresAt());
+      assertEquals(MetaParams.of(new Lifespan(100)).size(), lifespan.metaParams().size());
+
+      InternalEntry<String> both = InternalEntry.of("v", MetaParams.of(new MaxIdle(50), new Lifespan(100))).stamp(1000);
+      assertEquals(1050, both.expiresAt());
+      both.touch(1040);
+      assertEquals(1090, both.expiresAt());
+      assertEquals(new MaxIdle(50), both.getMetaParam(MaxIdle.ID));
+      assertEquals(2, both.metaParams().size());
+
+      InternalEntry<String> never = InternalEntry.of("v", MetaParams.of(new Lifespan(-1))).stamp(1000);
+      assertEquals(Long.MAX_VALUE, never.expiresAt());
+      assertEquals(new Lifespan(-1), never.getMetaParam(Lifespan.ID));
+   }
+
+   @Test
+   public void testVersioned() {
+      EntryVersionParam<Long> version = new EntryVersionParam<>(new NumericEntryVersion(7));
+      InternalEntry<String> entry = InternalEntry.of("v", MetaParams.of(version));
+      assertEquals(version, entry.getMetaParam(EntryVersionParam.ID()));
+      assertEquals(Optional.empty(), entry.findMetaParam(Lifespan.ID));
+      assertEquals(Long.MAX_VALUE, entry.expiresAt());
+      assertEquals(1, entry.metaParams().size());
+   }
+
+   @Test(expected = NoSuchElementException.class)
+   public void testMissingMetaParam() {
+      InternalEntry.of("v", MetaParams.of(new Lifespan(100))).getMetaParam(MaxIdle.ID);
+   }
+
+   @Test
+   public void testOtherMetaParams() {
+      EntryVersionParam<Long> version = new EntryVersionParam<>(new NumericEntryVersion(7));
+      InternalEntry<String> entry = InternalEntry.of("v", MetaParams.of(version, new Lifespan(100))).stamp(1000);
+      assertEquals(version, entry.getMetaParam(EntryVersionParam.ID()));
+      assertEquals(1100, entry.expiresAt());
+      assertEquals(2, entry.metaParams().size());
+      assertFalse(entry.findMetaParam(new MetaParam.Id<>(99)).isPresent());
+   }
+
+   @Test
+   public void testMetaParamsUpdatesLeaveEntryUnchanged() {
+      EntryVersionParam<Long> version = new EntryVersionParam<>(new NumericEntryVersion(7));
+      InternalEntry<String> entry = InternalEntry.of("v", MetaParams.of(version, new Lifespan(100)));
+      MetaParams updated = entry.metaParams().add(new MaxIdle(10));
+      assertEquals(3, updated.size());
+      assertEquals(Optional.empty(), entry.findMetaParam(MaxIdle.ID));
+      assertEquals(2, entry.metaParams().size());
+   }
+
+   @Test
+   public void testWrittenMetaParams() {
+      EntryVersionParam<Long> version = new EntryVersionParam<>(new NumericEntryVersion(7));
+      MetaParam.Writable[][] shapes = {
+         {}, {new Lifespan(100)}, {new MaxIdle(50), new Lifespan(100)}, {version},
+         {version, new Lifespan(100)}, {new Lifespan(100), new Lifespan(200)}};
+      for (MetaParam.Writable[] metas : shapes) {
+         MetaParams metaParams = MetaParams.empty().addMany(metas.clone());
+         assertEquals(InternalEntry.of("v", metaParams), InternalEntry.of("v", metas));
+      }
+   }
+
+   @Test
+   public void testUpdate() {
+      EntryVersionParam<Long> version = new EntryVersionParam<>(new NumericEntryVersion(7));
+      InternalEntry<String> entry = InternalEntry.of("v", new Lifespan(100), version);
+      InternalEntry<String> updated = entry.update("w");
+      assertEquals("w", updated.value());
+      assertEquals(new Lifespan(100), updated.getMetaParam(Lifespan.ID));
+      assertNull(updated.metaParam(EntryVersionParam.ID()));
+
+      InternalEntry<String> other = InternalEntry.of("x", new Lifespan(100), version);
+      assertSame(entry.metaParams(), other.metaParams());
+
+      InternalEntry<String> longer = entry.update("w", new Lifespan(200));
+      assertEquals(new Lifespan(200), longer.getMetaParam(Lifespan.ID));
+      assertEquals(new Lifespan(100), entry.getMetaParam(Lifespan.ID));
+
+      InternalEntry<String> expiring = InternalEntry.of("v", new MaxIdle(50)).update("w");
+      assertEquals(new MaxIdle(50), expiring.getMetaParam(MaxIdle.ID));
+   }
+
+}
@@ -7,7 +7,6 @@ import org.infinispan.api.v8.MetaParam.EntryVersionParam;
 import org.infinispan.api.v8.MetaParam.LastUsed;
 import org.infinispan.api.v8.MetaParam.Lifespan;
 import org.infinispan.api.v8.MetaParam.MaxIdle;
-import org.junit.Ignore;
 import org.junit.Test;
 
 import java.util.NoSuchElementException;
@@ -40,16 +39,15 @@ public class MetaParamsTest {
 
    @Test
    public void testAddFindMetaParam() {
-      MetaParams metas = MetaParams.empty();
       Lifespan lifespan = new Lifespan(1000);
-      metas.add(lifespan);
+      MetaParams metas = MetaParams.empty().add(lifespan);
       assertFalse(metas.isEmpty());
       assertEquals(1, metas.size());
       Lifespan lifespanFound = metas.get(Lifespan.ID);
       assertEquals(new Lifespan(1000), lifespanFound);
       assertEquals(1000, metas.get(Lifespan.ID).get().longValue());
       assertNotEquals(new Lifespan(900), lifespanFound);
-      metas.add(new Lifespan(900));
+      metas = metas.add(new Lifespan(900));
       assertFalse(metas.isEmpty());
       assertEquals(1, metas.size());
       assertEquals(new Lifespan(900), metas.get(lifespan.id()));
@@ -57,8 +55,7 @@ public class MetaParamsTest {
 
    @Test
    public void testAddFindMultipleMetaParams() {
-      MetaParams metas = MetaParams.empty();
-      metas.addMany(new Lifespan(1000), new MaxIdle(1000), new EntryVersionParam<>(new NumericEntryVersion(12345)));
+      MetaParams metas = MetaParams.empty().addMany(new Lifespan(1000), new MaxIdle(1000), new EntryVersionParam<>(new NumericEntryVersion(12345)));
       assertFalse(metas.isEmpty());
       assertEquals(3, metas.size());
       MaxIdle maxIdle = metas.get(MaxIdle.ID);
@@ -71,11 +68,10 @@ public class MetaParamsTest {
 
    @Test
    public void testReplaceFindMultipleMetaParams() {
-      MetaParams metas = MetaParams.empty();
-      metas.addMany(new Lifespan(1000), new MaxIdle(1000), new EntryVersionParam<>(new NumericEntryVersion(12345)));
+      MetaParams metas = MetaParams.empty().addMany(new Lifespan(1000), new MaxIdle(1000), new EntryVersionParam<>(new NumericEntryVersion(12345)));
       assertFalse(metas.isEmpty());
       assertEquals(3, metas.size());
-      metas.addMany(new Lifespan(2000), new MaxIdle(2000));
+      metas = metas.addMany(new Lifespan(2000), new MaxIdle(2000));
       assertFalse(metas.isEmpty());
       assertEquals(3, metas.size());
       assertEquals(Optional.of(new MaxIdle(2000)), metas.find(MaxIdle.ID));
@@ -98,7 +94,7 @@ public class MetaParamsTest {
       assertEquals(4, metasOf4.size());
    }
 
-   @Test @Ignore("Not yet implemented")
+   @Test
    public void testDuplicateParametersOnConstruction() {
       EntryVersionParam<Long> versionParam1 = new EntryVersionParam<>(new NumericEntryVersion(100));
       EntryVersionParam<Long> versionParam2 = new EntryVersionParam<>(new NumericEntryVersion(200));
@@ -114,16 +110,84 @@ public class MetaParamsTest {
       assertEquals(new EntryVersionParam<>(new NumericEntryVersion(100)), metas.get(EntryVersionParam.ID()));
 
       EntryVersionParam<Long> versionParam2 = new EntryVersionParam<>(new NumericEntryVersion(200));
-      metas.add(versionParam2);
+      metas = metas.add(versionParam2);
       assertEquals(1, metas.size());
       assertEquals(new EntryVersionParam<>(new NumericEntryVersion(200)), metas.get(EntryVersionParam.ID()));
 
       EntryVersionParam<Long> versionParam3 = new EntryVersionParam<>(new NumericEntryVersion(300));
       EntryVersionParam<Long> versionParam4 = new EntryVersionParam<>(new NumericEntryVersion(400));
-      metas.addMany(versionParam3, versionParam4);
+      metas = metas.addMany(versionParam3, versionParam4);
       assertEquals(1, metas.size());
       assertEquals(new EntryVersionParam<>(new NumericEntryVersion(400)), metas.get(EntryVersionParam.ID()));
    }
 
+   @Test
+   public void testUpdatesLeaveOriginalUnchanged() {
+      MetaParams metas = MetaParams.of(new Lifespan(1000), new MaxIdle(1000));
+      MetaParams updated = metas.addMany(new MaxIdle(2000), new EntryVersionParam<>(new NumericEntryVersion(1)));
+      assertEquals(3, updated.size());
+      assertEquals(new MaxIdle(2000), updated.get(MaxIdle.ID));
+      assertEquals(2, metas.size());
+      assertEquals(new MaxIdle(1000), metas.get(MaxIdle.ID));
+      assertFalse(metas.find(EntryVersionParam.ID()).isPresent());
+
+      assertSame(metas, metas.add(new Lifespan(1000)));
+      assertSame(metas, metas.addMany());
+   }
+
+   @Test
+   public void testIdIndexes() {
+      assertEquals(new MetaParam.Id<>(4).index(), EntryVersionParam.ID().index());
+      assertSame(EntryVersionParam.ID(), EntryVersionParam.ID());
+      assertNotEquals(Lifespan.ID.index(), MaxIdle.ID.index());
+   }
+
+   @Test
+   public void testUserDefinedMetaParams() {
+      // Enough ids to go beyond the bitmap's 64 indexes
+      Custom[] customs = new Custom[100];
+      for (int i = 0; i < customs.length; i++)
+         customs[i] = new Custom(new MetaParam.Id<>(-1000 - i), "c" + i);
+
+      MetaParams metas = MetaParams.of(new Lifespan(1000));
+      for (int i = customs.length - 1; i >= 0; i -= 3)
+         metas = metas.add(customs[i]);
+
+      for (int i = 0; i < customs.length; i++) {
+         Optional<Custom> found = metas.find(customs[i].id);
+         assertEquals((customs.length - 1 - i) % 3 == 0 ? Optional.of(customs[i]) : Optional.empty(), found);
+      }
+      assertEquals(new Lifespan(1000), metas.get(Lifespan.ID));
+      assertFalse(metas.find(MaxIdle.ID).isPresent());
+
+      MetaParams reversed = MetaParams.empty();
+      for (int i = 0; i < customs.length; i++) {
+         if ((customs.length - 1 - i) % 3 == 0)
+            reversed = reversed.add(customs[i]);
+      }
+      reversed = reversed.add(new Lifespan(1000));
+      assertEquals(metas, reversed);
+      assertEquals(metas.hashCode(), reversed.hashCode());
+   }
+
+   private static final class Custom implements MetaParam.Writable<Custom> {
+      final MetaParam.Id<Custom> id;
+      final String value;
+
+      Custom(MetaParam.Id<Custom> id, String value) {
+         this.id = id;
+         this.value = value;
+      }
+
+      @Override
+      public MetaParam.Id<Custom> id() {
+         return id;
+      }
+
+      @Override
+      public String toString() {
+         return "Custom=" + value;
+      }
+   }
 
 }
@@ -0,0 +1,93 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.EntryVersion.NumericEntryVersion;
+import org.infinispan.api.v8.MetaParam.Created;
+import org.infinispan.api.v8.MetaParam.EntryVersionParam;
+import org.infinispan.api.v8.MetaParam.Lifespan;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for off-heap data container.
+ */
+public class OffHeapDataContainerTest {
+
+   @Test
+   public void testPutGetRemoveWithCompaction() {
+      OffHeapDataContainer<Integer, String> data = OffHeapDataContainer.create(Codecs.INTEGER, Codecs.STRING, 4);
+      int numKeys = 10_000;
+      for (int round = 0; round < 5; round++) {
+         for (int i = 0; i < numKeys; i++)
+            data.put(i, InternalEntry.of("v" + round + "-" + i, MetaParams.empty()));
+      }
+      assertEquals(numKeys, data.size());
+
+      for (int i = 0; i < numKeys; i += 2)
+         assertEquals("v4-" + i, data.remove(i).value());
+      assertNull(data.remove(0));
+
+      assertEquals(numKeys / 2, data.size());
+      for (int i = 0; i < numKeys; i++) {
+         InternalEntry<String> entry = data.get(i);
+         if (i % 2 == 0)
+            assertNull(entry);
+         else
+            assertEquals("v4-" + i, entry.value());
+      }
+      assertEquals(numKeys / 2, data.keys().filter(k -> k % 2 == 1).count());
+      assertEquals(numKeys / 2, data.entries().filter(e -> e.getValue().value().equals("v4-" + e.getKey())).count());
+
+      data.compute(1, (k, prev) -> InternalEntry.of(prev.value() + "!", prev.metaParams()));
+      assertEquals("v4-1!", data.get(1).value());
+      data.compute(1, (k, prev) -> null);
+      assertNull(data.get(1));
+
+      data.clear();
+      assertTrue(data.isEmpty());
+      assertNull(data.get(3));
+   }
+
+   @Test
+   public void testMetaParamsRoundTrip() {
+      OffHeapDataContainer<String, String> data = OffHeapDataContainer.create(Codecs.STRING, Codecs.STRING, 2);
+      data.put("k", InternalEntry.of("v", MetaParams.of(
+         new Lifespan(1000), new Created(42), new EntryVersionParam<>(new NumericEntryVersion(7)))));
+
+      InternalEntry<String> entry = data.get("k");
+      assertEquals(1000, entry.getMetaParam(Lifespan.ID).get().longValue());
+      assertEquals(42, entry.getMetaParam(Created.ID).get().longValue());
+      assertEquals(7, entry.getMetaParam(EntryVersionParam.<Long>ID()).get().get().longValue());
+      assertFalse(data.get("k").findMetaParam(new org.infinispan.api.v8.MetaParam.Id<>(99)).isPresent());
+   }
+
+   @Test
+   public void testValuesDecodedOnlyWhenRead() {
+      AtomicInteger decoded = new AtomicInteger();
+      Codec<String> countingCodec = new Codec<String>() {
+         @Override
+         public byte[] encode(String obj) {
+            return Codecs.STRING.encode(obj);
+         }
+
+         @Override
+         public String decode(ByteBuffer buffer) {
+            decoded.incrementAndGet();
+            return Codecs.STRING.decode(buffer);
+         }
+      };
+
+      OffHeapDataContainer<Integer, String> data = OffHeapDataContainer.create(Codecs.INTEGER, countingCodec, 2);
+      data.put(1, InternalEntry.of("one", MetaParams.empty()));
+      InternalEntry<String> entry = data.get(1);
+      assertNotNull(entry);
+      assertEquals(0, decoded.get());
+      assertEquals("one", entry.value());
+      assertEquals("one", entry.value());
+      assertEquals(1, decoded.get());
+   }
+
+}
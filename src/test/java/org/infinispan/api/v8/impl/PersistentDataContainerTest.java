@@ -0,0 +1,133 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.MetaParam.Lifespan;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for persistent data container.
+ */
+public class PersistentDataContainerTest {
+
+   private static final int NUM_KEYS = 5_000;
+
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   @Test
+   public void testEntriesSurviveReopen() throws IOException {
+      Path dir = folder.newFolder().toPath();
+      PersistentDataContainer<Integer, String> data = PersistentDataContainer.open(dir, Codecs.INTEGER, Codecs.STRING, 4);
+      int numKeys = 5_000;
+      for (int i = 0; i < numKeys; i++)
+         data.put(i, InternalEntry.of("v" + i, MetaParams.of(new Lifespan(i))));
+      for (int i = 0; i < numKeys; i += 2)
+         data.remove(i);
+      data.compute(1, (k, prev) -> InternalEntry.of(prev.value() + "!", prev.metaParams()));
+      data.close();
+
+      data = PersistentDataContainer.open(dir, Codecs.INTEGER, Codecs.STRING, 4);
+      assertEquals(numKeys / 2, data.size());
+      assertEquals("v1!", data.get(1).value());
+      for (int i = 2; i < numKeys; i++) {
+         InternalEntry<String> entry = data.get(i);
+         if (i % 2 == 0) {
+            assertNull(entry);
+         } else {
+            assertEquals("v" + i, entry.value());
+            assertEquals(i, entry.getMetaParam(Lifespan.ID).get().longValue());
+         }
+      }
+      assertEquals(numKeys / 2, data.entries().count());
+
+      data.clear();
+      data.put(7, InternalEntry.of("seven", MetaParams.empty()));
+      data.close();
+
+      data = PersistentDataContainer.open(dir, Codecs.INTEGER, Codecs.STRING, 4);
+      assertEquals(1, data.size());
+      assertEquals("seven", data.get(7).value());
+      data.close();
+   }
+
+   @Test
+   public void testCompactionRemovesOldFiles() throws Exception {
+      Path dir = folder.newFolder().toPath();
+      PersistentDataContainer<Integer, String> data = PersistentDataContainer.open(dir, Codecs.INTEGER, Codecs.STRING, 2);
+      for (int round = 0; round < 20; round++) {
+         for (int i = 0; i < 1_000; i++)
+            data.put(i, InternalEntry.of("v" + round + "-" + i, MetaParams.empty()));
+      }
+
+      // Wait for background compactions to finish
+      data.compactor.submit(() -> null).get();
+      assertFalse(Files.exists(dir.resolve("0-0.seg")));
+      assertFalse(Files.exists(dir.resolve("1-0.seg")));
+      data.close();
+
+      data = PersistentDataContainer.open(dir, Codecs.INTEGER, Codecs.STRING, 2);
+      assertEquals(1_000, data.size());
+      for (int i = 0; i < 1_000; i++)
+         assertEquals("v19-" + i, data.get(i).value());
+      data.close();
+   }
+
+   /**
+    * Writes and removals made while compactions copy records in the
+    * background are kept, both by the container and on reopen.
+    */
+   @Test
+   public void testWritesDuringCompactionSurviveReopen() throws Exception {
+      Path dir = folder.newFolder().toPath();
+      PersistentDataContainer<Integer, String> data = PersistentDataContainer.open(dir, Codecs.INTEGER, Codecs.STRING, 2);
+      Map<Integer, String> expected = new HashMap<>();
+      // Large values, so that compactions take a while to copy them
+      String padding = new String(new char[1_000]).replace('\0', 'x');
+      for (int round = 0; round < 10; round++) {
+         for (int i = 0; i < NUM_KEYS; i++) {
+            if ((i + round) % 3 == 0) {
+               data.remove(i);
+               expected.remove(i);
+            } else {
+               String value = "v" + round + "-" + i + padding;
+               data.put(i, InternalEntry.of(value, MetaParams.empty()));
+               expected.put(i, value);
+            }
+         }
+      }
+
+      data.compactor.submit(() -> null).get();
+      assertContains(expected, data);
+      data.close();
+
+      data = PersistentDataContainer.open(dir, Codecs.INTEGER, Codecs.STRING, 2);
+      assertContains(expected, data);
+      assertFalse(Files.exists(dir.resolve("0-compacting.tmp")));
+      data.close();
+   }
+
+   private static void assertContains(Map<Integer, String> expected, DataContainer<Integer, String> data) {
+      assertEquals(expected.size(), data.size());
+      for (int i = 0; i < NUM_KEYS; i++) {
+         InternalEntry<String> entry = data.get(i);
+         assertEquals(expected.get(i), entry == null ? null : entry.value());
+      }
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void testSegmentCountMustMatch() throws IOException {
+      Path dir = folder.newFolder().toPath();
+      PersistentDataContainer.open(dir, Codecs.INTEGER, Codecs.STRING, 2).close();
+      PersistentDataContainer.open(dir, Codecs.INTEGER, Codecs.STRING, 4);
+   }
+
+}
@@ -0,0 +1,143 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.impl.DataContainer.Segment;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for segmented data container.
+ */
+public class SegmentedDataContainerTest {
+
+   @Test
+   public void testSegmentsPartitionEntries() {
+      SegmentedDataContainer<Integer, String> data = populate(1000);
+      assertEquals(16, data.segmentCount());
+      assertEquals(1000, data.size());
+
+      int total = 0;
+      for (int i = 0; i < data.segmentCount(); i++) {
+         Segment<Integer, String> segment = data.segment(i);
+         assertTrue("Segment " + i + " is empty", segment.size() > 0);
+         int index = i;
+         segment.entries().forEach(e -> assertEquals(index, data.segmentOf(e.getKey())));
+         total += segment.size();
+      }
+      assertEquals(1000, total);
+      assertEquals(1000, data.keys().distinct().count());
+   }
+
+   @Test
+   public void testSegmentSnapshotAndClear() {
+      SegmentedDataContainer<Integer, String> data = populate(1000);
+      int key = 42;
+      Segment<Integer, String> segment = data.segment(data.segmentOf(key));
+      int segmentSize = segment.size();
+
+      Map<Integer, InternalEntry<String>> snapshot = segment.snapshot();
+      segment.clear();
+      assertEquals(0, segment.size());
+      assertEquals(segmentSize, snapshot.size());
+      assertEquals("v42", snapshot.get(key).value());
+      assertNull(data.get(key));
+      assertEquals(1000 - segmentSize, data.size());
+   }
+
+   @Test
+   public void testSegmentStats() {
+      SegmentedDataContainer<Integer, String> data = SegmentedDataContainer.create(16);
+      int key = 7;
+      Segment<Integer, String> segment = data.segment(data.segmentOf(key));
+      data.put(key, InternalEntry.of("v", MetaParams.empty()));
+      data.compute(key, (k, prev) -> InternalEntry.of(prev.value() + "v", prev.metaParams()));
+      assertEquals("vv", data.get(key).value());
+      data.remove(key);
+      assertNull(data.get(key));
+      data.remove(key);
+
+      assertEquals(2, segment.stats().stores());
+      assertEquals(1, segment.stats().removals());
+      assertEquals(1, segment.stats().hits());
+      assertEquals(1, segment.stats().misses());
+   }
+
+   @Test
+   public void testSpliteratorSplitsAlongSegments() {
+      SegmentedDataContainer<Integer, String> data = populate(1000);
+      Spliterator<Integer> it = data.keys().spliterator();
+      assertEquals(1000, it.estimateSize());
+
+      Spliterator<Integer> prefix = it.trySplit();
+      assertNotNull(prefix);
+      int firstHalf = 0;
+      for (int i = 0; i < 8; i++)
+         firstHalf += data.segment(i).size();
+      assertEquals(firstHalf, prefix.estimateSize());
+      assertEquals(1000 - firstHalf, it.estimateSize());
+      prefix.forEachRemaining(k -> assertTrue(data.segmentOf(k) < 8));
+      it.forEachRemaining(k -> assertTrue(data.segmentOf(k) >= 8));
+   }
+
+   /**
+    * Clearing a segment doesn't wait for the writes in progress on it, and
+    * these are stored in the segment's new map, rather than lost in the old
+    * one, without calling their function again.
+    */
+   @Test
+   public void testWritesInProgressSurviveClear() throws Exception {
+      SegmentedDataContainer<Integer, String> data = populate(1000);
+      CountDownLatch writing = new CountDownLatch(1);
+      CountDownLatch release = new CountDownLatch(1);
+      AtomicInteger calls = new AtomicInteger();
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+         Future<?> writer = executor.submit(() -> data.compute(2_000, (k, prev) -> {
+            calls.incrementAndGet();
+            writing.countDown();
+            try {
+               release.await();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+            return InternalEntry.of("v", MetaParams.empty());
+         }));
+         assertTrue(writing.await(10, TimeUnit.SECONDS));
+         data.clear();
+         release.countDown();
+         writer.get(10, TimeUnit.SECONDS);
+      } finally {
+         release.countDown();
+         executor.shutdownNow();
+      }
+
+      assertEquals(1, data.size());
+      assertEquals("v", data.get(2_000).value());
+      assertEquals(1, calls.get());
+
+      // A function clearing the container doesn't lose its own write either
+      data.compute(1, (k, prev) -> {
+         data.clear();
+         return InternalEntry.of("v1", MetaParams.empty());
+      });
+      assertEquals(1, data.size());
+      assertEquals("v1", data.get(1).value());
+   }
+
+   private static SegmentedDataContainer<Integer, String> populate(int numEntries) {
+      SegmentedDataContainer<Integer, String> data = SegmentedDataContainer.create(16);
+      for (int i = 0; i < numEntries; i++)
+         data.put(i, InternalEntry.of("v" + i, MetaParams.empty()));
+      return data;
+   }
+
+}
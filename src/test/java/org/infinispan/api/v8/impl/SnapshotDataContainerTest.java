@@ -0,0 +1,179 @@
+package org.infinispan.api.v8.impl;
+
+import org.infinispan.api.v8.Closeables.CloseableIterator;
+import org.infinispan.api.v8.FunctionalMap.ReadOnlyMap;
+import org.infinispan.api.v8.FunctionalMap.WriteOnlyMap;
+import org.infinispan.api.v8.Param.Isolation;
+import org.infinispan.api.v8.Param.TraversalMode;
+import org.infinispan.api.v8.Param.WaitMode;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for snapshot data container.
+ */
+public class SnapshotDataContainerTest {
+
+   @Test
+   public void testSnapshotNotAffectedByLaterWrites() {
+      SnapshotDataContainer<Integer, String> data = SnapshotDataContainer.wrap(SegmentedDataContainer.create(4));
+      for (int i = 0; i < 100; i++)
+         data.put(i, InternalEntry.of("v" + i, MetaParams.empty()));
+
+      Stream<Map.Entry<Integer, InternalEntry<String>>> snapshot = data.snapshotEntries();
+      for (int i = 0; i < 50; i++)
+         data.put(i, InternalEntry.of("w" + i, MetaParams.empty()));
+      for (int i = 50; i < 60; i++)
+         data.remove(i);
+      data.compute(60, (k, prev) -> InternalEntry.of("w60", MetaParams.empty()));
+      for (int i = 100; i < 120; i++)
+         data.put(i, InternalEntry.of("v" + i, MetaParams.empty()));
+
+      Map<Integer, String> seen = values(snapshot);
+      assertEquals(100, seen.size());
+      for (int i = 0; i < 100; i++)
+         assertEquals("v" + i, seen.get(i));
+
+      // Fully traversed, so the snapshot is closed and versions dropped
+      assertEquals(0, data.versions());
+      assertEquals(110, data.size());
+      assertEquals("w0", data.get(0).value());
+      assertNull(data.get(50));
+   }
+
+   @Test
+   public void testSnapshotsOpenedAtDifferentTimes() {
+      SnapshotDataContainer<Integer, String> data = SnapshotDataContainer.wrap(SegmentedDataContainer.create(4));
+      data.put(1, InternalEntry.of("a", MetaParams.empty()));
+      Stream<Map.Entry<Integer, InternalEntry<String>>> first = data.snapshotEntries();
+      data.put(1, InternalEntry.of("b", MetaParams.empty()));
+      data.put(2, InternalEntry.of("b", MetaParams.empty()));
+      Stream<Map.Entry<Integer, InternalEntry<String>>> second = data.snapshotEntries();
+      data.put(1, InternalEntry.of("c", MetaParams.empty()));
+      data.remove(2);
+      data.put(1, InternalEntry.of("d", MetaParams.empty()));
+
+      Map<Integer, String> expected = new HashMap<>();
+      expected.put(1, "b");
+      expected.put(2, "b");
+      assertEquals(expected, values(second));
+      assertTrue(data.versions() > 0);
+      assertEquals(Collections.singletonMap(1, "a"), values(first));
+      assertEquals(0, data.versions());
+   }
+
+   @Test
+   public void testClosingSnapshotDropsVersions() {
+      SnapshotDataContainer<Integer, String> data = SnapshotDataContainer.wrap(SegmentedDataContainer.create(4));
+      for (int i = 0; i < 100; i++)
+         data.put(i, InternalEntry.of("v" + i, MetaParams.empty()));
+
+      Stream<Map.Entry<Integer, InternalEntry<String>>> snapshot = data.snapshotEntries();
+      data.clear();
+      assertTrue(data.isEmpty());
+      assertEquals(100, data.versions());
+      // Only the first write of a key in the snapshot's epoch is recorded
+      for (int i = 0; i < 100; i++)
+         data.put(i, InternalEntry.of("w" + i, MetaParams.empty()));
+      assertEquals(100, data.versions());
+
+      snapshot.close();
+      assertEquals(0, data.versions());
+      data.put(0, InternalEntry.of("x", MetaParams.empty()));
+      assertEquals(0, data.versions());
+   }
+
+   @Test
+   public void testSnapshotSeesWholeBatches() throws Exception {
+      SnapshotDataContainer<Integer, String> data = SnapshotDataContainer.wrap(SegmentedDataContainer.create(16));
+      int numKeys = 1_000;
+      for (int i = 0; i < numKeys; i++)
+         data.put(i, InternalEntry.of("0", MetaParams.empty()));
+
+      // Writer updates all keys to the next round, one key at the time,
+      // while snapshots are taken alongside
+      AtomicBoolean done = new AtomicBoolean();
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+         Future<?> writer = executor.submit(() -> {
+            for (int round = 1; !done.get(); round++) {
+               String value = String.valueOf(round);
+               for (int i = 0; i < numKeys; i++) {
+                  if (i % 3 == 0)
+                     data.remove(i);
+                  data.put(i, InternalEntry.of(value, MetaParams.empty()));
+               }
+            }
+         });
+
+         for (int s = 0; s < 200; s++) {
+            Map<Integer, String> seen = values(s % 2 == 0 ? data.snapshotEntries() : data.snapshotEntries().parallel());
+            // Rounds are applied in key order, so a consistent snapshot sees
+            // a prefix of the keys at the latest round, possibly followed by
+            // a key removed and not yet written again, and the rest of the
+            // keys at the previous round
+            String latest = seen.values().stream().max((a, b) -> Integer.parseInt(a) - Integer.parseInt(b)).get();
+            int i = 0;
+            while (i < numKeys && latest.equals(seen.get(i)))
+               i++;
+            String rest = i == 0 ? latest : String.valueOf(Integer.parseInt(latest) - 1);
+            if (i < numKeys && seen.get(i) == null) {
+               assertEquals(0, i % 3);
+               i++;
+            }
+            for (; i < numKeys; i++)
+               assertEquals("Key " + i, rest, seen.get(i));
+         }
+         done.set(true);
+         writer.get();
+      } finally {
+         done.set(true);
+         executor.shutdownNow();
+      }
+      assertEquals(0, data.versions());
+   }
+
+   /**
+    * Snapshot traversals that stop early, or that are iterated partially
+    * and closed, release their snapshot, so later writes don't keep versions.
+    */
+   @Test
+   public void testShortCircuitedTraversalReleasesSnapshot() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.<Integer, String>create()
+         .withParams(WaitMode.BLOCKING);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      for (int i = 0; i < 1_000; i++)
+         wo.eval(i, "v" + i, (v, view) -> view.set(v));
+
+      for (TraversalMode mode : TraversalMode.values()) {
+         ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap)
+            .withParams(mode, Isolation.SNAPSHOT);
+         assertTrue(ro.keys().anyMatch(k -> k == 1));
+         assertTrue(ro.entries().findAny().isPresent());
+         try (CloseableIterator<Integer> it = ro.keys().iterator()) {
+            assertTrue(it.hasNext());
+            it.next();
+         }
+
+         for (int i = 0; i < 1_000; i++)
+            wo.eval(i, "w" + i, (v, view) -> view.set(v));
+         assertEquals(0, functionalMap.data.versions());
+      }
+   }
+
+   private static Map<Integer, String> values(Stream<Map.Entry<Integer, InternalEntry<String>>> entries) {
+      return entries.collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().value()));
+   }
+
+}
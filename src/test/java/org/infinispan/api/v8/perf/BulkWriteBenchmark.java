@@ -0,0 +1,138 @@
+package org.infinispan.api.v8.perf;
+
+import org.infinispan.api.v8.EntryView.ReadWriteEntryView;
+import org.infinispan.api.v8.FunctionalMap.ReadOnlyMap;
+import org.infinispan.api.v8.FunctionalMap.ReadWriteMap;
+import org.infinispan.api.v8.FunctionalMap.WriteOnlyMap;
+import org.infinispan.api.v8.Param.Atomicity;
+import org.infinispan.api.v8.Param.TraversalMode;
+import org.infinispan.api.v8.Param.WaitMode;
+import org.infinispan.api.v8.impl.FunctionalMapImpl;
+import org.infinispan.api.v8.impl.ReadOnlyMapImpl;
+import org.infinispan.api.v8.impl.ReadWriteMapImpl;
+import org.infinispan.api.v8.impl.WriteOnlyMapImpl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bulk load benchmark, writing a map of entries to an empty functional map
+ * either with a single write-only multi-key evaluation or with a
+ * write-only evaluation per entry, with a write listener registered, and
+ * reporting the time taken by each.
+ *
+ * It also measures bulk conditional updates of the loaded entries, i.e.
+ * replacing values with newer ones, either with a single read-write
+ * multi-key evaluation or with an atomic read-write evaluation per entry,
+ * and of single pass rewrites of all entries, either by traversing the
+ * read-write entries or by traversing the keys and evaluating each of them.
+ *
+ * Run with: {@code java -cp target/classes:target/test-classes
+ * org.infinispan.api.v8.perf.BulkWriteBenchmark [entries]}
+ */
+public class BulkWriteBenchmark {
+
+   public static void main(String[] args) {
+      int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+      Map<Integer, String> entries = new HashMap<>();
+      for (int i = 0; i < numEntries; i++)
+         entries.put(i, "v" + i);
+
+      System.out.printf("%-10s %15s %15s%n", "load", "ms", "entries/s");
+      for (int round = 0; round < 5; round++) {
+         print("evalMany", numEntries, evalMany(entries));
+         print("eval", numEntries, eval(entries));
+      }
+      for (int round = 0; round < 5; round++) {
+         print("rw-many", numEntries, readWriteEvalMany(entries));
+         print("rw-eval", numEntries, readWriteEval(entries));
+      }
+      for (int round = 0; round < 5; round++) {
+         print("entries", numEntries, rewriteEntries(entries));
+         print("keys", numEntries, rewriteKeys(entries));
+      }
+   }
+
+   private static long rewriteEntries(Map<Integer, String> entries) {
+      ReadWriteMap<Integer, String> rw = readWriteMap(loaded(entries));
+      System.gc(); // Don't pay for the previous run's garbage
+      long start = System.nanoTime();
+      rw.withParams(TraversalMode.LAZY).entries().forEach(view -> view.set(view.get() + "!"));
+      return System.nanoTime() - start;
+   }
+
+   private static long rewriteKeys(Map<Integer, String> entries) {
+      FunctionalMapImpl<Integer, String> functionalMap = loaded(entries);
+      ReadWriteMap<Integer, String> rw = readWriteMap(functionalMap);
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap).withParams(WaitMode.BLOCKING);
+      System.gc(); // Don't pay for the previous run's garbage
+      long start = System.nanoTime();
+      ro.keys().forEach(k -> rw.eval(k, view -> view.set(view.get() + "!")).join());
+      return System.nanoTime() - start;
+   }
+
+   private static long readWriteEvalMany(Map<Integer, String> entries) {
+      ReadWriteMap<Integer, String> rw = readWriteMap(loaded(entries));
+      System.gc(); // Don't pay for the previous run's garbage
+      long start = System.nanoTime();
+      rw.evalMany(entries, BulkWriteBenchmark::replaceIfNewer).forEach(b -> {});
+      return System.nanoTime() - start;
+   }
+
+   private static long readWriteEval(Map<Integer, String> entries) {
+      ReadWriteMap<Integer, String> rw = readWriteMap(loaded(entries));
+      System.gc(); // Don't pay for the previous run's garbage
+      long start = System.nanoTime();
+      entries.forEach((k, v) -> rw.eval(k, v, BulkWriteBenchmark::replaceIfNewer).join());
+      return System.nanoTime() - start;
+   }
+
+   private static boolean replaceIfNewer(String v, ReadWriteEntryView<Integer, String> view) {
+      if (view.find().map(prev -> prev.compareTo(v) >= 0).orElse(false))
+         return false;
+
+      view.set(v);
+      return true;
+   }
+
+   private static FunctionalMapImpl<Integer, String> loaded(Map<Integer, String> entries) {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.create();
+      WriteOnlyMapImpl.create(functionalMap).withParams(WaitMode.BLOCKING)
+         .evalMany(entries, (v, view) -> view.set(v.substring(1))).forEachRemaining(v -> {});
+      return functionalMap;
+   }
+
+   private static ReadWriteMap<Integer, String> readWriteMap(FunctionalMapImpl<Integer, String> functionalMap) {
+      return ReadWriteMapImpl.create(functionalMap).withParams(WaitMode.BLOCKING, Atomicity.PER_KEY);
+   }
+
+   private static long evalMany(Map<Integer, String> entries) {
+      WriteOnlyMap<Integer, String> wo = writeOnlyMap();
+      System.gc(); // Don't pay for the previous run's garbage
+      long start = System.nanoTime();
+      wo.evalMany(entries, (v, view) -> view.set(v)).forEachRemaining(v -> {});
+      return System.nanoTime() - start;
+   }
+
+   private static long eval(Map<Integer, String> entries) {
+      WriteOnlyMap<Integer, String> wo = writeOnlyMap();
+      System.gc(); // Don't pay for the previous run's garbage
+      long start = System.nanoTime();
+      entries.forEach((k, v) -> wo.eval(k, v, (value, view) -> view.set(value)));
+      return System.nanoTime() - start;
+   }
+
+   private static WriteOnlyMap<Integer, String> writeOnlyMap() {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.create();
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap).withParams(WaitMode.BLOCKING);
+      LongAdder writes = new LongAdder();
+      wo.listeners().onWrite(w -> writes.increment());
+      return wo;
+   }
+
+   private static void print(String name, int numEntries, long nanos) {
+      System.out.printf("%-10s %15d %15d%n", name, nanos / 1_000_000, numEntries * 1_000_000_000L / nanos);
+   }
+
+}
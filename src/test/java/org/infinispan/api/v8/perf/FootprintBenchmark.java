@@ -0,0 +1,92 @@
+package org.infinispan.api.v8.perf;
+
+import org.infinispan.api.v8.EntryVersion.NumericEntryVersion;
+import org.infinispan.api.v8.FunctionalMap.WriteOnlyMap;
+import org.infinispan.api.v8.MetaParam;
+import org.infinispan.api.v8.MetaParam.EntryVersionParam;
+import org.infinispan.api.v8.MetaParam.Lifespan;
+import org.infinispan.api.v8.MetaParam.MaxIdle;
+import org.infinispan.api.v8.Param.WaitMode;
+import org.infinispan.api.v8.impl.FunctionalMapImpl;
+import org.infinispan.api.v8.impl.WriteOnlyMapImpl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Footprint benchmark for heap storage, measuring how many bytes of heap
+ * each entry of a functional map takes depending on the metadata
+ * parameters stored with it, and how many of those bytes come on top of a
+ * {@link ConcurrentHashMap} holding the same keys and values.
+ *
+ * All entries share the same value, so that only the bytes spent by the
+ * functional map on each entry are measured, plus the key. Results are only
+ * meaningful when run with a single collector thread and a heap big enough
+ * to hold all entries, e.g. {@code -Xmx2g -XX:+UseSerialGC}.
+ *
+ * Run with: {@code java -Xmx2g -XX:+UseSerialGC -cp target/classes:target/test-classes
+ * org.infinispan.api.v8.perf.FootprintBenchmark [entries]}
+ */
+public class FootprintBenchmark {
+
+   private static final String VALUE = "value";
+   private static final long ONE_DAY = TimeUnit.DAYS.toMillis(1);
+
+   public static void main(String[] args) {
+      int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+      double baseline = bytesPerEntry(numEntries, () -> {
+         ConcurrentHashMap<Integer, String> map = new ConcurrentHashMap<>();
+         for (int i = 0; i < numEntries; i++)
+            map.put(i, VALUE);
+         return map;
+      });
+
+      System.out.printf("%-22s %12s %12s%n", "metadata", "bytes/entry", "overhead");
+      System.out.printf("%-22s %12.1f %12s%n", "(ConcurrentHashMap)", baseline, "-");
+      report("none", numEntries, baseline, i -> new MetaParam.Writable[0]);
+      report("lifespan", numEntries, baseline,
+         i -> new MetaParam.Writable[]{new Lifespan(ONE_DAY)});
+      report("lifespan, max idle", numEntries, baseline,
+         i -> new MetaParam.Writable[]{new Lifespan(ONE_DAY), new MaxIdle(ONE_DAY)});
+      report("version", numEntries, baseline,
+         i -> new MetaParam.Writable[]{new EntryVersionParam<>(new NumericEntryVersion(i))});
+   }
+
+   private static void report(String name, int numEntries, double baseline,
+         IntFunction<MetaParam.Writable[]> metas) {
+      double bytes = bytesPerEntry(numEntries, () -> {
+         FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.<Integer, String>create()
+            .withParams(WaitMode.BLOCKING);
+         WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+         for (int i = 0; i < numEntries; i++) {
+            MetaParam.Writable[] entryMetas = metas.apply(i);
+            wo.eval(i, VALUE, (v, view) -> view.set(v, entryMetas));
+         }
+         return functionalMap;
+      });
+      System.out.printf("%-22s %12.1f %12.1f%n", name, bytes, bytes - baseline);
+   }
+
+   private static double bytesPerEntry(int numEntries, Supplier<Object> fill) {
+      long before = usedHeap();
+      Object map = fill.get();
+      long after = usedHeap();
+      if (map.hashCode() == 42)
+         System.out.print(""); // Keep the map reachable until measured
+      return (double) (after - before) / numEntries;
+   }
+
+   private static long usedHeap() {
+      Runtime runtime = Runtime.getRuntime();
+      long used = Long.MAX_VALUE;
+      for (int i = 0; i < 5; i++) {
+         System.gc();
+         used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+      }
+      return used;
+   }
+
+}
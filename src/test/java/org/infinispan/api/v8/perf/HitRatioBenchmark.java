@@ -0,0 +1,121 @@
+package org.infinispan.api.v8.perf;
+
+import org.infinispan.api.v8.EntryView.ReadEntryView;
+import org.infinispan.api.v8.FunctionalMap.ReadOnlyMap;
+import org.infinispan.api.v8.FunctionalMap.WriteOnlyMap;
+import org.infinispan.api.v8.Param.WaitMode;
+import org.infinispan.api.v8.impl.FunctionalMapImpl;
+import org.infinispan.api.v8.impl.ReadOnlyMapImpl;
+import org.infinispan.api.v8.impl.Storage;
+import org.infinispan.api.v8.impl.WriteOnlyMapImpl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Hit ratio benchmark for bounded functional maps, replaying Zipfian
+ * traces, where a miss is followed by storing the key, and comparing the
+ * hit ratio of the functional map's eviction policy with that of an LRU
+ * map and of a map that is truncated whenever it fills up.
+ *
+ * Run with: {@code java -cp target/classes:target/test-classes
+ * org.infinispan.api.v8.perf.HitRatioBenchmark [keys] [requests]}
+ */
+public class HitRatioBenchmark {
+
+   public static void main(String[] args) {
+      int numKeys = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+      int numRequests = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+
+      System.out.printf("%-8s %-10s %10s %10s %10s%n", "zipf", "capacity", "w-tinylfu", "lru", "truncate");
+      for (double exponent : new double[]{0.7, 0.9, 0.99}) {
+         int[] trace = zipfTrace(numKeys, numRequests, exponent, new Random(42));
+         for (int capacity : new int[]{numKeys / 1000, numKeys / 100, numKeys / 10}) {
+            System.out.printf("%-8.2f %-10d %9.2f%% %9.2f%% %9.2f%%%n", exponent, capacity,
+               functionalMap(trace, capacity), lru(trace, capacity), truncate(trace, capacity));
+         }
+      }
+   }
+
+   private static double functionalMap(int[] trace, int capacity) {
+      FunctionalMapImpl<Integer, Integer> functionalMap = FunctionalMapImpl
+         .create(Storage.<Integer, Integer>heap().withMaxEntries(capacity)).withParams(WaitMode.BLOCKING);
+      ReadOnlyMap<Integer, Integer> ro = ReadOnlyMapImpl.create(functionalMap);
+      WriteOnlyMap<Integer, Integer> wo = WriteOnlyMapImpl.create(functionalMap);
+      long hits = 0;
+      for (int key : trace) {
+         if (ro.eval(key, ReadEntryView::find).join().isPresent())
+            hits++;
+         else
+            wo.eval(key, key, (v, view) -> view.set(v));
+      }
+      return 100.0 * hits / trace.length;
+   }
+
+   private static double lru(int[] trace, int capacity) {
+      Map<Integer, Integer> map = new LinkedHashMap<Integer, Integer>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+            return size() > capacity;
+         }
+      };
+      long hits = 0;
+      for (int key : trace) {
+         if (map.get(key) != null)
+            hits++;
+         else
+            map.put(key, key);
+      }
+      return 100.0 * hits / trace.length;
+   }
+
+   private static double truncate(int[] trace, int capacity) {
+      Map<Integer, Integer> map = new HashMap<>();
+      long hits = 0;
+      for (int key : trace) {
+         if (map.get(key) != null) {
+            hits++;
+         } else {
+            if (map.size() >= capacity)
+               map.clear();
+            map.put(key, key);
+         }
+      }
+      return 100.0 * hits / trace.length;
+   }
+
+   /**
+    * Trace of keys from 0 to numKeys - 1, where the probability of key k is
+    * proportional to 1 / (k + 1)^exponent. Keys are shuffled so that
+    * popularity is not correlated with the key's value.
+    */
+   private static int[] zipfTrace(int numKeys, int numRequests, double exponent, Random random) {
+      double[] cumulative = new double[numKeys];
+      double sum = 0;
+      for (int k = 0; k < numKeys; k++) {
+         sum += 1 / Math.pow(k + 1, exponent);
+         cumulative[k] = sum;
+      }
+
+      int[] keys = new int[numKeys];
+      for (int k = 0; k < numKeys; k++)
+         keys[k] = k;
+      for (int k = numKeys - 1; k > 0; k--) {
+         int j = random.nextInt(k + 1);
+         int tmp = keys[k];
+         keys[k] = keys[j];
+         keys[j] = tmp;
+      }
+
+      int[] trace = new int[numRequests];
+      for (int i = 0; i < numRequests; i++) {
+         int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+         trace[i] = keys[rank < 0 ? -rank - 1 : rank];
+      }
+      return trace;
+   }
+
+}
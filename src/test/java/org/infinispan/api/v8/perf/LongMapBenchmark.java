@@ -0,0 +1,88 @@
+package org.infinispan.api.v8.perf;
+
+import org.infinispan.api.v8.FunctionalMap;
+import org.infinispan.api.v8.LongFunctionalMap;
+import org.infinispan.api.v8.Param.Atomicity;
+import org.infinispan.api.v8.Param.WaitMode;
+import org.infinispan.api.v8.impl.FunctionalMapImpl;
+import org.infinispan.api.v8.impl.LongFunctionalMapImpl;
+import org.infinispan.api.v8.impl.LongReadOnlyMapImpl;
+import org.infinispan.api.v8.impl.LongReadWriteMapImpl;
+import org.infinispan.api.v8.impl.ReadOnlyMapImpl;
+import org.infinispan.api.v8.impl.ReadWriteMapImpl;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Counter benchmark comparing a functional map with boxed long keys and
+ * values with one specialized for primitive longs. Each operation either
+ * increments the counter for a random key or reads it, and the benchmark
+ * reports the throughput and the number of bytes allocated per operation
+ * by the thread running them.
+ *
+ * Run with: {@code java -cp target/classes:target/test-classes
+ * org.infinispan.api.v8.perf.LongMapBenchmark [keys] [operations]}
+ */
+public class LongMapBenchmark {
+
+   public static void main(String[] args) {
+      int numKeys = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+      int numOps = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+      long[] keys = new Random(42).longs(numOps, 0, numKeys).toArray();
+
+      System.out.printf("%-8s %15s %15s%n", "map", "ops/s", "bytes/op");
+      for (int round = 0; round < 3; round++) {
+         print("boxed", numOps, run(keys, boxed()));
+         print("long", numOps, run(keys, primitive()));
+      }
+   }
+
+   private static LongUnaryOperator boxed() {
+      FunctionalMapImpl<Long, Long> functionalMap = FunctionalMapImpl.create();
+      FunctionalMap.ReadWriteMap<Long, Long> rw = ReadWriteMapImpl.create(functionalMap)
+         .withParams(WaitMode.BLOCKING, Atomicity.PER_KEY);
+      FunctionalMap.ReadOnlyMap<Long, Long> ro = ReadOnlyMapImpl.create(functionalMap).withParams(WaitMode.BLOCKING);
+      return key -> (key & 1) == 0
+         ? rw.eval(key, view -> {
+               long v = view.find().orElse(0L) + 1;
+               view.set(v);
+               return v;
+            }).join()
+         : ro.eval(key, view -> view.find().orElse(0L)).join();
+   }
+
+   private static LongUnaryOperator primitive() {
+      LongFunctionalMapImpl functionalMap = LongFunctionalMapImpl.create();
+      LongFunctionalMap.ReadWriteMap rw = LongReadWriteMapImpl.create(functionalMap);
+      LongFunctionalMap.ReadOnlyMap ro = LongReadOnlyMapImpl.create(functionalMap);
+      return key -> (key & 1) == 0
+         ? rw.eval(key, view -> {
+               long v = view.orElse(0) + 1;
+               view.set(v);
+               return v;
+            })
+         : ro.eval(key, view -> view.orElse(0));
+   }
+
+   private static long[] run(long[] keys, LongUnaryOperator op) {
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      long threadId = Thread.currentThread().getId();
+      long allocated = threads.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      long sum = 0;
+      for (long key : keys)
+         sum += op.applyAsLong(key);
+      long elapsed = System.nanoTime() - start;
+      allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+      if (sum == 42)
+         System.out.println(); // Keeps results used
+      return new long[]{elapsed, allocated};
+   }
+
+   private static void print(String name, int numOps, long[] result) {
+      System.out.printf("%-8s %15d %15.1f%n", name, numOps * 1_000_000_000L / result[0], (double) result[1] / numOps);
+   }
+
+}
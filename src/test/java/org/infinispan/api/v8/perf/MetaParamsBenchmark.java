@@ -0,0 +1,117 @@
+package org.infinispan.api.v8.perf;
+
+import org.infinispan.api.v8.EntryVersion.NumericEntryVersion;
+import org.infinispan.api.v8.FunctionalMap.ReadOnlyMap;
+import org.infinispan.api.v8.FunctionalMap.ReadWriteMap;
+import org.infinispan.api.v8.MetaParam.EntryVersionParam;
+import org.infinispan.api.v8.MetaParam.Lifespan;
+import org.infinispan.api.v8.MetaParam.MaxIdle;
+import org.infinispan.api.v8.Param.Atomicity;
+import org.infinispan.api.v8.Param.WaitMode;
+import org.infinispan.api.v8.impl.FunctionalMapImpl;
+import org.infinispan.api.v8.impl.ReadOnlyMapImpl;
+import org.infinispan.api.v8.impl.ReadWriteMapImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metadata parameters benchmark, where writers update the metadata
+ * parameters of a small set of hot keys while readers look them up,
+ * measuring the throughput of both and how many reads saw metadata
+ * parameters from different writes, i.e. torn reads.
+ *
+ * Each write sets a version and a max idle time with the same number, plus
+ * a fixed lifespan, so that entries keep their metadata parameters in a
+ * collection, and readers check that version and max idle time match.
+ *
+ * Run with: {@code java -cp target/classes:target/test-classes
+ * org.infinispan.api.v8.perf.MetaParamsBenchmark [threads] [seconds]}
+ */
+public class MetaParamsBenchmark {
+
+   private static final int HOT_KEYS = 8;
+   private static final long LIFESPAN = TimeUnit.DAYS.toMillis(1);
+
+   public static void main(String[] args) throws Exception {
+      int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+      int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+      run(numThreads, seconds); // warm up
+      Result r = run(numThreads, seconds);
+      System.out.printf("%15s %15s %15s%n", "writes/s", "reads/s", "torn reads");
+      System.out.printf("%15d %15d %15d%n", r.writesPerSecond, r.readsPerSecond, r.tornReads);
+   }
+
+   private static Result run(int numThreads, int seconds) throws Exception {
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.create();
+      ReadWriteMap<Integer, String> rw = ReadWriteMapImpl.create(functionalMap)
+         .withParams(WaitMode.BLOCKING, Atomicity.PER_KEY);
+      ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap).withParams(WaitMode.BLOCKING);
+      for (int k = 0; k < HOT_KEYS; k++)
+         rw.eval(k, "v", (v, view) -> view.set(v, new Lifespan(LIFESPAN), new MaxIdle(LIFESPAN),
+            new EntryVersionParam<>(new NumericEntryVersion(LIFESPAN)))).join();
+
+      ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+      CountDownLatch start = new CountDownLatch(1);
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+      List<Future<long[]>> futures = new ArrayList<>();
+      for (int i = 0; i < numThreads; i++) {
+         boolean writer = i % 2 == 0;
+         futures.add(exec.submit(() -> {
+            start.await();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long ops = 0;
+            long torn = 0;
+            while (System.nanoTime() < deadline) {
+               int key = random.nextInt(HOT_KEYS);
+               if (writer) {
+                  long n = LIFESPAN + random.nextInt(1_000_000);
+                  rw.eval(key, view -> view.set(view.get(),
+                     new MaxIdle(n), new EntryVersionParam<>(new NumericEntryVersion(n)))).join();
+               } else {
+                  boolean consistent = ro.eval(key, view -> {
+                     long maxIdle = view.getMetaParam(MaxIdle.ID).get();
+                     EntryVersionParam<Long> version = view.getMetaParam(EntryVersionParam.ID());
+                     return maxIdle == version.get().get();
+                  }).join();
+                  if (!consistent)
+                     torn++;
+               }
+               ops++;
+            }
+            return new long[]{writer ? ops : 0, writer ? 0 : ops, torn};
+         }));
+      }
+      start.countDown();
+
+      long writes = 0, reads = 0, torn = 0;
+      for (Future<long[]> future : futures) {
+         long[] counts = future.get();
+         writes += counts[0];
+         reads += counts[1];
+         torn += counts[2];
+      }
+      exec.shutdown();
+      return new Result(writes / seconds, reads / seconds, torn);
+   }
+
+   private static final class Result {
+      final long writesPerSecond;
+      final long readsPerSecond;
+      final long tornReads;
+
+      private Result(long writesPerSecond, long readsPerSecond, long tornReads) {
+         this.writesPerSecond = writesPerSecond;
+         this.readsPerSecond = readsPerSecond;
+         this.tornReads = tornReads;
+      }
+   }
+
+}
@@ -0,0 +1,68 @@
+package org.infinispan.api.v8.perf;
+
+import org.infinispan.api.v8.FunctionalMap.ReadOnlyMap;
+import org.infinispan.api.v8.FunctionalMap.WriteOnlyMap;
+import org.infinispan.api.v8.Param.Parallelism;
+import org.infinispan.api.v8.Param.TraversalMode;
+import org.infinispan.api.v8.Param.WaitMode;
+import org.infinispan.api.v8.impl.FunctionalMapImpl;
+import org.infinispan.api.v8.impl.ReadOnlyMapImpl;
+import org.infinispan.api.v8.impl.WriteOnlyMapImpl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling benchmark for parallel traversals, measuring how long it takes to
+ * reduce all entries of a functional map with an increasing number of
+ * workers, from 1 up to the number of available processors, and the speedup
+ * obtained compared to sequential traversal.
+ *
+ * Run with: {@code java -cp target/classes:target/test-classes
+ * org.infinispan.api.v8.perf.ParallelTraversalBenchmark [entries] [iterations]}
+ */
+public class ParallelTraversalBenchmark {
+
+   public static void main(String[] args) {
+      int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+      int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+      FunctionalMapImpl<Integer, String> functionalMap = FunctionalMapImpl.<Integer, String>create()
+         .withParams(WaitMode.BLOCKING, TraversalMode.LAZY);
+      WriteOnlyMap<Integer, String> wo = WriteOnlyMapImpl.create(functionalMap);
+      for (int i = 0; i < numEntries; i++)
+         wo.eval(i, "value-" + i, (v, view) -> view.set(v));
+
+      int maxWorkers = Runtime.getRuntime().availableProcessors();
+      System.out.printf("%-10s %15s %10s%n", "workers", "ms/traversal", "speedup");
+      double sequential = 0;
+      for (int workers = 1; workers <= maxWorkers; workers = next(workers, maxWorkers)) {
+         ReadOnlyMap<Integer, String> ro = ReadOnlyMapImpl.create(functionalMap)
+            .withParams(Parallelism.of(workers));
+         run(ro, iterations); // warm up
+         double millis = run(ro, iterations);
+         if (workers == 1)
+            sequential = millis;
+
+         System.out.printf("%-10d %15.2f %10.2f%n", workers, millis, sequential / millis);
+      }
+   }
+
+   private static int next(int workers, int maxWorkers) {
+      return workers < maxWorkers && workers * 2 > maxWorkers ? maxWorkers : workers * 2;
+   }
+
+   private static double run(ReadOnlyMap<Integer, String> ro, int iterations) {
+      long blackhole = 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+         blackhole += ro.entries().reduce(0L,
+            (acc, view) -> acc + view.key() + view.get().hashCode(), Long::sum);
+      }
+      long elapsed = System.nanoTime() - start;
+      if (blackhole == 42)
+         System.out.println(); // Stop traversals from being optimised away
+
+      return (double) TimeUnit.NANOSECONDS.toMicros(elapsed) / 1000 / iterations;
+   }
+
+}
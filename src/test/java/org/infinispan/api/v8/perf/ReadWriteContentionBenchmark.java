@@ -0,0 +1,92 @@
+package org.infinispan.api.v8.perf;
+
+import org.infinispan.api.v8.FunctionalMap.ReadWriteMap;
+import org.infinispan.api.v8.Param.Atomicity;
+import org.infinispan.api.v8.Param.WaitMode;
+import org.infinispan.api.v8.impl.FunctionalMapImpl;
+import org.infinispan.api.v8.impl.ReadWriteMapImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention benchmark for read-write evaluations, comparing throughput of
+ * non-atomic versus per-key atomic evaluations when a number of threads
+ * concurrently increment counters stored in a small set of hot keys.
+ *
+ * Lost updates are reported too, i.e. the difference between increments
+ * executed and the sum of the counters stored in the map.
+ *
+ * Run with: {@code java -cp target/classes:target/test-classes
+ * org.infinispan.api.v8.perf.ReadWriteContentionBenchmark [threads] [seconds]}
+ */
+public class ReadWriteContentionBenchmark {
+
+   private static final int[] HOT_KEYS = {1, 8, 64};
+
+   public static void main(String[] args) throws Exception {
+      int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+      int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+      System.out.printf("%-10s %-10s %15s %15s%n", "atomicity", "hot keys", "ops/s", "lost updates");
+      for (int hotKeys : HOT_KEYS) {
+         for (Atomicity atomicity : Atomicity.values()) {
+            run(atomicity, hotKeys, numThreads, seconds); // warm up
+            Result r = run(atomicity, hotKeys, numThreads, seconds);
+            System.out.printf("%-10s %-10d %15d %15d%n", atomicity, hotKeys, r.opsPerSecond, r.lostUpdates);
+         }
+      }
+   }
+
+   private static Result run(Atomicity atomicity, int hotKeys, int numThreads, int seconds) throws Exception {
+      FunctionalMapImpl<Integer, Long> functionalMap = FunctionalMapImpl.create();
+      ReadWriteMap<Integer, Long> rw = ReadWriteMapImpl.create(functionalMap)
+         .withParams(WaitMode.BLOCKING, atomicity);
+
+      ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+      CountDownLatch start = new CountDownLatch(1);
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+      List<Future<Long>> futures = new ArrayList<>();
+      for (int i = 0; i < numThreads; i++) {
+         futures.add(exec.submit(() -> {
+            start.await();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long ops = 0;
+            while (System.nanoTime() < deadline) {
+               rw.eval(random.nextInt(hotKeys), view -> view.set(view.find().orElse(0L) + 1)).join();
+               ops++;
+            }
+            return ops;
+         }));
+      }
+      start.countDown();
+
+      long totalOps = 0;
+      for (Future<Long> future : futures)
+         totalOps += future.get();
+      exec.shutdown();
+
+      long stored = 0;
+      for (int k = 0; k < hotKeys; k++)
+         stored += rw.eval(k, view -> view.find().orElse(0L)).join();
+
+      return new Result(totalOps / seconds, totalOps - stored);
+   }
+
+   private static final class Result {
+      final long opsPerSecond;
+      final long lostUpdates;
+
+      private Result(long opsPerSecond, long lostUpdates) {
+         this.opsPerSecond = opsPerSecond;
+         this.lostUpdates = lostUpdates;
+      }
+   }
+
+}